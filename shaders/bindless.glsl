@@ -0,0 +1,30 @@
+// Resource heap bound as set 0 on bindless pipelines, see ResourceHeap.java.
+// Include with #extension GL_GOOGLE_include_directive : require
+#extension GL_EXT_nonuniform_qualifier : require
+
+layout(set = 0, binding = 0) uniform sampler2D textures[];
+
+layout(set = 0, binding = 1) readonly buffer Buffers {
+	uint data[];
+} buffers[];
+
+layout(push_constant) uniform Material {
+	uint materialIndex;
+} material;
+
+// Indices that may differ within a draw, e.g. read from a buffer, have to be wrapped in nonuniformEXT
+vec4 sampleTexture(uint index, vec2 uv) {
+	return texture(textures[nonuniformEXT(index)], uv);
+}
+
+// Transform of the index-th visible entity in an image's SceneStore slice, slot from SceneStore.getHeapSlot
+mat4 loadInstance(uint slot, uint index) {
+	uint base = index * 16;
+	mat4 transform;
+	for (int column = 0; column < 4; column++) {
+		for (int row = 0; row < 4; row++) {
+			transform[column][row] = uintBitsToFloat(buffers[nonuniformEXT(slot)].data[base + column * 4 + row]);
+		}
+	}
+	return transform;
+}
@@ -1,2 +1,3 @@
 C:\VulkanSDK\1.4.321.1\Bin\glslc.exe shader.vert -o compiled\VertexShader.spv
-C:\VulkanSDK\1.4.321.1\Bin\glslc.exe shader.frag -o compiled\FragmentShader.spv
\ No newline at end of file
+C:\VulkanSDK\1.4.321.1\Bin\glslc.exe shader.frag -o compiled\FragmentShader.spv
+C:\VulkanSDK\1.4.321.1\Bin\glslc.exe cull.comp -o compiled\CullShader.spv
\ No newline at end of file
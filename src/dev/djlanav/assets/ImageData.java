@@ -0,0 +1,97 @@
+package dev.djlanav.assets;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Decoded RGBA8 pixels of an image, plus a downscaled copy at the first mip level small enough to upload right
+ * away. The coarse copy is null when the image itself is that small. Both live off-heap until {@link #free()}.
+ */
+public class ImageData {
+
+	public static final int BYTES_PER_PIXEL = 4;
+
+	private final String name;
+	private final int width;
+	private final int height;
+	private ByteBuffer pixels;
+	private final boolean stbAllocated;
+
+	private final int coarseLevel;
+	private ByteBuffer coarsePixels;
+
+	ImageData(String name, int width, int height, ByteBuffer pixels, boolean stbAllocated, int coarseLevel, ByteBuffer coarsePixels) {
+		this.name = name;
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.stbAllocated = stbAllocated;
+		this.coarseLevel = coarseLevel;
+		this.coarsePixels = coarsePixels;
+	}
+
+	/**
+	 * Length of the full mip chain down to 1x1.
+	 */
+	public static int getMipLevels(int width, int height) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(width, height));
+	}
+
+	public static int getLevelSize(int size, int level) {
+		return Math.max(1, size >> level);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getMipLevels() {
+		return getMipLevels(width, height);
+	}
+
+	public ByteBuffer getPixels() {
+		return pixels;
+	}
+
+	public int getCoarseLevel() {
+		return coarseLevel;
+	}
+
+	public ByteBuffer getCoarsePixels() {
+		return coarsePixels;
+	}
+
+	/**
+	 * Frees the downscaled copy once it has been uploaded.
+	 */
+	public void freeCoarse() {
+		if (coarsePixels != null) {
+			MemoryUtil.memFree(coarsePixels);
+			coarsePixels = null;
+		}
+	}
+
+	public void free() {
+		freeCoarse();
+		if (pixels == null) {
+			return;
+		}
+
+		if (stbAllocated) {
+			STBImage.stbi_image_free(pixels);
+		} else {
+			MemoryUtil.memFree(pixels);
+		}
+		pixels = null;
+	}
+}
@@ -0,0 +1,129 @@
+package dev.djlanav.assets;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.stb.STBImageResize;
+import org.lwjgl.system.MemoryUtil;
+
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * Decodes images with STB on a fixed pool of platform threads. Decoding is pure CPU work, so the pool is sized
+ * to the cores it may use rather than to the number of images. Each image also gets its coarse copy resized
+ * here, so the render thread only copies finished pixels into staging memory.
+ */
+public class ImageDecoder {
+
+	// Largest edge of the coarse copy, 64x64 RGBA is 16 KiB and uploads within any frame budget
+	public static final int COARSE_SIZE = 64;
+
+	private Logger logger = LogManager.getLogger();
+
+	private final ExecutorService workers;
+	private final long maxLevelBytes;
+
+	private LatencyHistogram decodes = new LatencyHistogram("TEXTURE_DECODE");
+
+	/**
+	 * Images whose full resolution exceeds maxLevelBytes are scaled down by whole mip levels until they fit.
+	 */
+	public ImageDecoder(int workerCount, long maxLevelBytes) {
+		this.maxLevelBytes = maxLevelBytes;
+
+		AtomicInteger threadIndex = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			Thread thread = new Thread(runnable, "decode-worker-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Starts decoding source into RGBA8. The future fails if the file cannot be read or decoded.
+	 */
+	public CompletableFuture<ImageData> decode(Path source) {
+		return CompletableFuture.supplyAsync(() -> decodeNow(source), workers);
+	}
+
+	private ImageData decodeNow(Path source) {
+		long start = System.nanoTime();
+		String name = source.getFileName().toString();
+
+		int[] width = new int[1];
+		int[] height = new int[1];
+		int[] channels = new int[1];
+		ByteBuffer pixels = STBImage.stbi_load(source.toString(), width, height, channels, ImageData.BYTES_PER_PIXEL);
+		if (pixels == null) {
+			throw new RuntimeException("Failed to decode " + source + ": " + STBImage.stbi_failure_reason());
+		}
+
+		int w = width[0];
+		int h = height[0];
+		boolean stbAllocated = true;
+
+		int skippedLevels = 0;
+		while ((long) ImageData.getLevelSize(w, skippedLevels) * ImageData.getLevelSize(h, skippedLevels) * ImageData.BYTES_PER_PIXEL > maxLevelBytes) {
+			skippedLevels++;
+		}
+		if (skippedLevels > 0) {
+			int fittedWidth = ImageData.getLevelSize(w, skippedLevels);
+			int fittedHeight = ImageData.getLevelSize(h, skippedLevels);
+			ByteBuffer fitted = resize(pixels, w, h, fittedWidth, fittedHeight);
+			STBImage.stbi_image_free(pixels);
+
+			logger.warn("Scaled " + name + " from " + w + "x" + h + " to " + fittedWidth + "x" + fittedHeight + " to fit the staging ring");
+			pixels = fitted;
+			stbAllocated = false;
+			w = fittedWidth;
+			h = fittedHeight;
+		}
+
+		int coarseLevel = 0;
+		while (Math.max(ImageData.getLevelSize(w, coarseLevel), ImageData.getLevelSize(h, coarseLevel)) > COARSE_SIZE) {
+			coarseLevel++;
+		}
+		ByteBuffer coarsePixels = null;
+		if (coarseLevel > 0) {
+			coarsePixels = resize(pixels, w, h, ImageData.getLevelSize(w, coarseLevel), ImageData.getLevelSize(h, coarseLevel));
+		}
+
+		decodes.record(System.nanoTime() - start);
+		return new ImageData(name, w, h, pixels, stbAllocated, coarseLevel, coarsePixels);
+	}
+
+	/**
+	 * Filters in linear space, the pixels are treated as sRGB like the images they are uploaded to.
+	 */
+	private ByteBuffer resize(ByteBuffer pixels, int width, int height, int newWidth, int newHeight) {
+		ByteBuffer resized = MemoryUtil.memAlloc(newWidth * newHeight * ImageData.BYTES_PER_PIXEL);
+		if (STBImageResize.stbir_resize_uint8_srgb(pixels, width, height, 0, resized, newWidth, newHeight, 0, STBImageResize.STBIR_RGBA) == null) {
+			MemoryUtil.memFree(resized);
+			throw new RuntimeException("Failed to resize image from " + width + "x" + height + " to " + newWidth + "x" + newHeight);
+		}
+		return resized;
+	}
+
+	/**
+	 * Logs decode times since the last report.
+	 */
+	public void report() {
+		if (decodes.getCount() > 0) {
+			logger.info("Image decodes: " + decodes.snapshotAndReset());
+		}
+	}
+
+	/**
+	 * Waits for decodes still running and stops the workers.
+	 */
+	public void shutdown() {
+		workers.close();
+	}
+}
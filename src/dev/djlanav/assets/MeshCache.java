@@ -0,0 +1,119 @@
+package dev.djlanav.assets;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Optimized meshes stored in a binary file per source, ready to upload as is. Loads map the file with
+ * FileChannel.map and hand out slices of the mapping, so nothing is parsed or copied on the heap.
+ * <p>
+ * Layout, little endian: magic, version, source size, source modification time, vertex stride, vertex count,
+ * index count, padding, then the vertices and the 32-bit indices. An entry whose source changed since it was
+ * written counts as missing.
+ */
+public class MeshCache {
+
+	private static final int MAGIC = 0x48534D54;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 40;
+	private static final String EXTENSION = ".tmsh";
+
+	private Logger logger = LogManager.getLogger();
+
+	private final Path directory;
+
+	public MeshCache(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Maps the cached version of source, or returns null if there is none or it is out of date.
+	 */
+	public MeshData load(Path source) throws IOException {
+		Path cacheFile = getCacheFile(source);
+
+		MappedByteBuffer mapping;
+		try (FileChannel channel = FileChannel.open(cacheFile, StandardOpenOption.READ)) {
+			mapping = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (NoSuchFileException e) {
+			return null;
+		}
+		mapping.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (mapping.capacity() < HEADER_SIZE || mapping.getInt(0) != MAGIC || mapping.getInt(4) != VERSION) {
+			logger.warn("Ignoring unreadable mesh cache file " + cacheFile);
+			return null;
+		}
+		if (mapping.getLong(8) != Files.size(source) || mapping.getLong(16) != Files.getLastModifiedTime(source).toMillis()) {
+			return null;
+		}
+
+		int stride = mapping.getInt(24);
+		int vertexCount = mapping.getInt(28);
+		int indexCount = mapping.getInt(32);
+		long vertexBytes = (long) vertexCount * stride;
+		if (stride != MeshData.VERTEX_STRIDE || HEADER_SIZE + vertexBytes + (long) indexCount * Integer.BYTES != mapping.capacity()) {
+			logger.warn("Ignoring mesh cache file " + cacheFile + " with an unexpected size");
+			return null;
+		}
+
+		ByteBuffer vertices = mapping.slice(HEADER_SIZE, (int) vertexBytes).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer indices = mapping.slice(HEADER_SIZE + (int) vertexBytes, indexCount * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		return new MeshData(source.getFileName().toString(), vertices, indices.asIntBuffer());
+	}
+
+	/**
+	 * Writes the mesh to a temporary file first and moves it into place, so concurrent loads never see half a file.
+	 */
+	public void write(Path source, MeshData mesh) throws IOException {
+		Files.createDirectories(directory);
+		Path cacheFile = getCacheFile(source);
+		Path tempFile = Files.createTempFile(directory, cacheFile.getFileName().toString(), ".tmp");
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(MAGIC);
+		header.putInt(VERSION);
+		header.putLong(Files.size(source));
+		header.putLong(Files.getLastModifiedTime(source).toMillis());
+		header.putInt(MeshData.VERTEX_STRIDE);
+		header.putInt(mesh.getVertexCount());
+		header.putInt(mesh.getIndexCount());
+		header.putInt(0);
+		header.flip();
+
+		ByteBuffer indices = ByteBuffer.allocate(mesh.getIndexCount() * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		indices.asIntBuffer().put(mesh.getIndices().duplicate());
+
+		try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer[] parts = { header, mesh.getVertices().duplicate(), indices };
+			long total = header.remaining() + parts[1].remaining() + indices.remaining();
+
+			long written = 0;
+			while (written < total) {
+				written += channel.write(parts);
+			}
+		}
+
+		Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * The file name keeps the source's name for readability, the hash of its full path tells same-named sources apart.
+	 */
+	private Path getCacheFile(Path source) {
+		Path absolute = source.toAbsolutePath().normalize();
+		String hash = Integer.toHexString(absolute.toString().hashCode());
+		return directory.resolve(source.getFileName() + "-" + hash + EXTENSION);
+	}
+}
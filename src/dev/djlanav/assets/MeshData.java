@@ -0,0 +1,44 @@
+package dev.djlanav.assets;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Vertices in the POSITION_COLOR layout and 32-bit indices of an imported mesh, either in memory right after
+ * an import or mapped from the mesh cache.
+ */
+public class MeshData {
+
+	// vec3 position followed by vec3 color
+	public static final int VERTEX_STRIDE = 6 * Float.BYTES;
+	
+	private final String name;
+	private final ByteBuffer vertices;
+	private final IntBuffer indices;
+	
+	public MeshData(String name, ByteBuffer vertices, IntBuffer indices) {
+		this.name = name;
+		this.vertices = vertices;
+		this.indices = indices;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public ByteBuffer getVertices() {
+		return vertices;
+	}
+	
+	public IntBuffer getIndices() {
+		return indices;
+	}
+	
+	public int getVertexCount() {
+		return vertices.remaining() / VERTEX_STRIDE;
+	}
+	
+	public int getIndexCount() {
+		return indices.remaining();
+	}
+}
@@ -0,0 +1,221 @@
+package dev.djlanav.assets;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.assimp.*;
+
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * Loads meshes on virtual threads, one per mesh, so several files are parsed at once without blocking the
+ * caller. The first load of a source parses it with Assimp, optimizes it for the vertex cache and overdraw
+ * and writes the result to the mesh cache. Every later load only maps the cache file.
+ */
+public class MeshImporter {
+
+	private static final int IMPORT_FLAGS = Assimp.aiProcess_Triangulate | Assimp.aiProcess_JoinIdenticalVertices
+			| Assimp.aiProcess_GenSmoothNormals | Assimp.aiProcess_PreTransformVertices | Assimp.aiProcess_SortByPType;
+
+	// There is no camera yet, so meshes are scaled into clip space
+	private static final float FIT_EXTENT = 0.9f;
+
+	private Logger logger = LogManager.getLogger();
+
+	private final MeshCache cache;
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+	private LatencyHistogram coldLoads = new LatencyHistogram("MESH_COLD_LOAD");
+	private LatencyHistogram warmLoads = new LatencyHistogram("MESH_WARM_LOAD");
+
+	public MeshImporter(Path cacheDirectory) {
+		this.cache = new MeshCache(cacheDirectory);
+	}
+
+	/**
+	 * Starts loading source on its own virtual thread. The future fails with the import or I/O error, if any.
+	 */
+	public CompletableFuture<MeshData> load(Path source) {
+		return CompletableFuture.supplyAsync(() -> {
+			try {
+				return loadNow(source);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Failed to load mesh " + source, e);
+			}
+		}, executor);
+	}
+
+	private MeshData loadNow(Path source) throws IOException {
+		long start = System.nanoTime();
+
+		MeshData cached = cache.load(source);
+		if (cached != null) {
+			long nanos = System.nanoTime() - start;
+			warmLoads.record(nanos);
+			logger.info(String.format("Mapped %s from the mesh cache in %.2f ms", source.getFileName(), nanos / 1e6));
+			return cached;
+		}
+
+		MeshData imported = importMesh(source);
+		long parsedNanos = System.nanoTime();
+
+		int vertexCount = imported.getVertexCount();
+		int[] indices = new int[imported.getIndexCount()];
+		imported.getIndices().get(0, indices);
+
+		float missRatioBefore = MeshOptimizer.averageCacheMissRatio(indices, vertexCount, MeshOptimizer.MEASURE_CACHE_SIZE);
+		indices = MeshOptimizer.optimizeVertexCache(indices, vertexCount);
+		indices = MeshOptimizer.optimizeOverdraw(indices, imported.getVertices(), MeshData.VERTEX_STRIDE, vertexCount);
+		ByteBuffer vertices = MeshOptimizer.optimizeVertexFetch(indices, imported.getVertices(), MeshData.VERTEX_STRIDE, vertexCount);
+		float missRatioAfter = MeshOptimizer.averageCacheMissRatio(indices, vertexCount, MeshOptimizer.MEASURE_CACHE_SIZE);
+		long optimizedNanos = System.nanoTime();
+
+		MeshData optimized = new MeshData(imported.getName(), vertices, IntBuffer.wrap(indices));
+		cache.write(source, optimized);
+
+		long end = System.nanoTime();
+		coldLoads.record(end - start);
+		logger.info(String.format("Imported %s: %d vertices, %d triangles, parse %.1f ms, optimize %.1f ms (ACMR %.2f -> %.2f), cache write %.1f ms",
+				source.getFileName(), optimized.getVertexCount(), indices.length / 3, (parsedNanos - start) / 1e6,
+				(optimizedNanos - parsedNanos) / 1e6, missRatioBefore, missRatioAfter, (end - optimizedNanos) / 1e6));
+		return optimized;
+	}
+
+	/**
+	 * Merges every triangle mesh of the scene into one. Vertices take the first vertex color set, or show their
+	 * normal as color if there is none.
+	 */
+	private MeshData importMesh(Path source) {
+		AIScene scene = Assimp.aiImportFile(source.toString(), IMPORT_FLAGS);
+		if (scene == null) {
+			throw new RuntimeException("Failed to import " + source + ": " + Assimp.aiGetErrorString());
+		}
+
+		try {
+			PointerBuffer meshes = scene.mMeshes();
+			int vertexCount = 0;
+			int indexCount = 0;
+
+			for (int m = 0; m < scene.mNumMeshes(); m++) {
+				AIMesh mesh = AIMesh.create(meshes.get(m));
+				if (isTriangleMesh(mesh)) {
+					vertexCount += mesh.mNumVertices();
+					indexCount += mesh.mNumFaces() * 3;
+				}
+			}
+			if (indexCount == 0) {
+				throw new RuntimeException("Failed to import " + source + ", it contains no triangles");
+			}
+
+			ByteBuffer vertices = BufferUtils.createByteBuffer(vertexCount * MeshData.VERTEX_STRIDE).order(ByteOrder.LITTLE_ENDIAN);
+			int[] indices = new int[indexCount];
+			float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+			float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+
+			int baseVertex = 0;
+			int index = 0;
+			for (int m = 0; m < scene.mNumMeshes(); m++) {
+				AIMesh mesh = AIMesh.create(meshes.get(m));
+				if (!isTriangleMesh(mesh)) {
+					continue;
+				}
+
+				AIVector3D.Buffer positions = mesh.mVertices();
+				AIVector3D.Buffer normals = mesh.mNormals();
+				AIColor4D.Buffer colors = mesh.mColors(0);
+
+				for (int v = 0; v < mesh.mNumVertices(); v++) {
+					AIVector3D position = positions.get(v);
+					vertices.putFloat(position.x()).putFloat(position.y()).putFloat(position.z());
+					expandBounds(min, max, position);
+
+					if (colors != null) {
+						AIColor4D color = colors.get(v);
+						vertices.putFloat(color.r()).putFloat(color.g()).putFloat(color.b());
+					} else if (normals != null) {
+						AIVector3D normal = normals.get(v);
+						vertices.putFloat(normal.x() * 0.5f + 0.5f).putFloat(normal.y() * 0.5f + 0.5f).putFloat(normal.z() * 0.5f + 0.5f);
+					} else {
+						vertices.putFloat(1.0f).putFloat(1.0f).putFloat(1.0f);
+					}
+				}
+
+				AIFace.Buffer faces = mesh.mFaces();
+				for (int f = 0; f < mesh.mNumFaces(); f++) {
+					IntBuffer faceIndices = faces.get(f).mIndices();
+					for (int k = 0; k < 3; k++) {
+						indices[index++] = baseVertex + faceIndices.get(k);
+					}
+				}
+				baseVertex += mesh.mNumVertices();
+			}
+			vertices.flip();
+
+			fitToView(vertices, min, max);
+			return new MeshData(source.getFileName().toString(), vertices, IntBuffer.wrap(indices));
+		} finally {
+			Assimp.aiReleaseImport(scene);
+		}
+	}
+
+	private boolean isTriangleMesh(AIMesh mesh) {
+		return (mesh.mPrimitiveTypes() & Assimp.aiPrimitiveType_TRIANGLE) != 0 && mesh.mNumFaces() > 0;
+	}
+
+	private void expandBounds(float[] min, float[] max, AIVector3D position) {
+		float[] values = { position.x(), position.y(), position.z() };
+		for (int k = 0; k < 3; k++) {
+			min[k] = Math.min(min[k], values[k]);
+			max[k] = Math.max(max[k], values[k]);
+		}
+	}
+
+	/**
+	 * Centers the mesh and scales its largest extent to FIT_EXTENT. Depth is mapped into [0, 1] for the clip volume.
+	 */
+	private void fitToView(ByteBuffer vertices, float[] min, float[] max) {
+		float size = Math.max(max[0] - min[0], Math.max(max[1] - min[1], max[2] - min[2]));
+		float scale = size > 0 ? 2.0f * FIT_EXTENT / size : 1.0f;
+
+		for (int offset = 0; offset < vertices.limit(); offset += MeshData.VERTEX_STRIDE) {
+			for (int k = 0; k < 3; k++) {
+				float center = (min[k] + max[k]) * 0.5f;
+				float value = (vertices.getFloat(offset + k * Float.BYTES) - center) * scale;
+				if (k == 2) {
+					value = value * 0.5f + 0.5f;
+				}
+				vertices.putFloat(offset + k * Float.BYTES, value);
+			}
+		}
+	}
+
+	/**
+	 * Logs cold (imported) and warm (cached) load times since the last report.
+	 */
+	public void report() {
+		if (coldLoads.getCount() > 0) {
+			logger.info("Cold mesh loads: " + coldLoads.snapshotAndReset());
+		}
+		if (warmLoads.getCount() > 0) {
+			logger.info("Warm mesh loads: " + warmLoads.snapshotAndReset());
+		}
+	}
+
+	/**
+	 * Waits for loads still running and stops the executor.
+	 */
+	public void shutdown() {
+		executor.close();
+	}
+}
@@ -1,34 +1,53 @@
 package dev.djlanav.main;
 
+import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.system.MemoryStack;
-import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.*;
 
+import dev.djlanav.assets.MeshData;
+import dev.djlanav.assets.MeshImporter;
 import dev.djlanav.vulkan.QueueFamilyManager;
 import dev.djlanav.vulkan.SwapChainManager;
+import dev.djlanav.rendering.GpuCuller;
 import dev.djlanav.rendering.GraphicsPipeline;
+import dev.djlanav.rendering.Mesh;
+import dev.djlanav.rendering.RenderQueue;
 import dev.djlanav.rendering.Renderer;
+import dev.djlanav.rendering.SceneStore;
 import dev.djlanav.rendering.ShaderManager;
 import dev.djlanav.rendering.ShaderType;
+import dev.djlanav.rendering.VertexLayout;
 import dev.djlanav.vulkan.DeviceManager;
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.OffscreenTarget;
+import dev.djlanav.vulkan.RenderTarget;
 import dev.djlanav.vulkan.VulkanManager;
-import dev.djlanav.vulkan.VulkanQueue;
 
 public class Loader {
 
+	private static final float[] IDENTITY = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+
 	private VulkanManager vulkanManager = new VulkanManager();
 	private SwapChainManager swapChainManager = new SwapChainManager();
 	private QueueFamilyManager queueFamilyManager = new QueueFamilyManager();
 	private DeviceManager deviceManager = new DeviceManager(queueFamilyManager, swapChainManager);
+	private MemoryAllocator memoryAllocator = new MemoryAllocator();
 	private ShaderManager shaderManager = new ShaderManager();
-	private Renderer renderer = new Renderer();
+	private Renderer renderer = new Renderer(Settings.FRAMES_IN_FLIGHT);
 	private GraphicsPipeline graphicsPipeline = new GraphicsPipeline();
+	private OffscreenTarget offscreenTarget = new OffscreenTarget();
+	
+	// Meshes added by addDraw, each one is an object of the culler and an entity of the scene store
+	private int sceneObjectCount = 0;
 	
 	private Logger logger = LogManager.getLogger();
 	
@@ -38,38 +57,180 @@ public class Loader {
 	}
 	
 	public void initVulkan() {
+		if (Settings.HEADLESS) {
+			initHeadless();
+			return;
+		}
+		
 		vulkanManager.createVulkanInstance("Trident");
 		vulkanManager.createVulkanSurface(WindowManager.getWindow());
 		
+		deviceManager.setDynamicRendering(Settings.DYNAMIC_RENDERING);
+		deviceManager.setPresentWait(Settings.MAX_LATENCY_FRAMES > 0);
+		deviceManager.setBindless(Settings.BINDLESS);
+		deviceManager.setGpuCulling(Settings.GPU_CULLING);
+		renderer.setDynamicRendering(Settings.DYNAMIC_RENDERING);
 		deviceManager.createPhysicalDevice(vulkanManager.getVkInstance());
 		swapChainManager.querySwapChainSupport(deviceManager.getPhysicalDevice(), vulkanManager);
 		
 		queueFamilyManager.findQueueFamilies(deviceManager.getPhysicalDevice(), vulkanManager.getVkSurface());
 		deviceManager.createLogicalDevice(queueFamilyManager);
 		VkDevice logicalDevice = deviceManager.getLogicalDevice();
+		memoryAllocator.create(deviceManager);
 		
 		createSwapChain();
 		swapChainManager.createSwapchainImages(logicalDevice);
-		createGraphicsPipeline();
+		renderer.createDescriptorAllocators(Settings.DESCRIPTOR_SETS_PER_POOL, Settings.MAX_DESCRIPTOR_SETS_PER_POOL);
+		createGraphicsPipeline(swapChainManager);
 		
 		renderer.createFramebuffer(logicalDevice, swapChainManager);
 		renderer.createCommandPool(logicalDevice, queueFamilyManager);
-		renderer.createCommandBuffer(logicalDevice);
-		renderer.createSyncObjects(logicalDevice);
+		renderer.createCommandBuffers(logicalDevice, swapChainManager);
+		renderer.createUploader(logicalDevice, memoryAllocator, queueFamilyManager, Settings.STAGING_RING_SIZE, Settings.ASYNC_UPLOADS);
+		renderer.createGpuProfiler(logicalDevice, deviceManager, queueFamilyManager, swapChainManager);
+		if (Settings.RECORD_THREADS > 0) {
+			renderer.createParallelRecorder(logicalDevice, queueFamilyManager, swapChainManager, Settings.RECORD_THREADS);
+		}
+		renderer.createSyncObjects(logicalDevice, swapChainManager);
+		if (isPresentOwnershipTransferred()) {
+			renderer.createPresentOwnershipTransfer(logicalDevice, queueFamilyManager, swapChainManager);
+		}
+		createScene();
+		renderer.getFramePacer().configure(Settings.FPS_CAP, Settings.MAX_LATENCY_FRAMES, deviceManager.isPresentWaitEnabled());
+	}
+	
+	/**
+	 * Sets up rendering into offscreen images without a window, surface or swapchain, so the renderer
+	 * can run on GPU-less machines with a software device such as lavapipe.
+	 */
+	private void initHeadless() {
+		vulkanManager.setHeadless(true);
+		vulkanManager.createVulkanInstance("Trident");
+		
+		deviceManager.setHeadless(true);
+		deviceManager.setDynamicRendering(Settings.DYNAMIC_RENDERING);
+		deviceManager.setBindless(Settings.BINDLESS);
+		deviceManager.setGpuCulling(Settings.GPU_CULLING);
+		renderer.setDynamicRendering(Settings.DYNAMIC_RENDERING);
+		deviceManager.createPhysicalDevice(vulkanManager.getVkInstance());
+		
+		queueFamilyManager.findQueueFamilies(deviceManager.getPhysicalDevice());
+		deviceManager.createLogicalDevice(queueFamilyManager);
+		VkDevice logicalDevice = deviceManager.getLogicalDevice();
+		memoryAllocator.create(deviceManager);
+		
+		offscreenTarget.create(logicalDevice, memoryAllocator, Settings.HEADLESS_WIDTH, Settings.HEADLESS_HEIGHT, 
+				renderer.getFramesInFlight(), Settings.HEADLESS_READBACK);
+		renderer.createDescriptorAllocators(Settings.DESCRIPTOR_SETS_PER_POOL, Settings.MAX_DESCRIPTOR_SETS_PER_POOL);
+		createGraphicsPipeline(offscreenTarget);
+		
+		renderer.createFramebuffer(logicalDevice, offscreenTarget);
+		renderer.createCommandPool(logicalDevice, queueFamilyManager);
+		renderer.createCommandBuffers(logicalDevice, offscreenTarget);
+		renderer.createUploader(logicalDevice, memoryAllocator, queueFamilyManager, Settings.STAGING_RING_SIZE, Settings.ASYNC_UPLOADS);
+		renderer.createGpuProfiler(logicalDevice, deviceManager, queueFamilyManager, offscreenTarget);
+		if (Settings.RECORD_THREADS > 0) {
+			renderer.createParallelRecorder(logicalDevice, queueFamilyManager, offscreenTarget, Settings.RECORD_THREADS);
+		}
+		renderer.createSyncObjects(logicalDevice, offscreenTarget);
+		createScene();
+	}
+	
+	/**
+	 * Uploads the startup geometry and queues its draws. The copies are recorded with the first frame, textures
+	 * keep streaming in over the frames after it.
+	 */
+	private void createScene() {
+		renderer.createGeometryPool(deviceManager.getLogicalDevice(), memoryAllocator, VertexLayout.POSITION_COLOR, 
+				Settings.GEOMETRY_VERTICES, Settings.GEOMETRY_INDEX_BYTES);
+		if (deviceManager.isGpuCullingEnabled()) {
+			shaderManager.loadCompiledShader(ShaderType.COMPUTE);
+			renderer.createGpuCuller(deviceManager.getLogicalDevice(), memoryAllocator, deviceManager, shaderManager.getCullCompute(), Settings.CULL_CAPACITY);
+		}
+		if (Settings.SCENE_CAPACITY > 0) {
+			renderer.createSceneStore(deviceManager.getLogicalDevice(), memoryAllocator, deviceManager, Settings.SCENE_CAPACITY, Settings.SCENE_THREADS);
+		}
+		if (Settings.RENDER_QUEUE_CAPACITY > 0) {
+			renderer.createRenderQueue(Settings.RENDER_QUEUE_CAPACITY);
+		}
+		
+		if (!Settings.TEXTURES.isBlank()) {
+			renderer.createTextureStreamer(deviceManager.getLogicalDevice(), memoryAllocator, Settings.TEXTURE_THREADS, Settings.TEXTURE_UPLOAD_BUDGET);
+			for (String path : Settings.TEXTURES.split(",")) {
+				renderer.getTextureStreamer().load(Path.of(path.trim()));
+			}
+		}
+		
+		if (!Settings.MESHES.isBlank()) {
+			loadMeshes(Settings.MESHES.split(","));
+			return;
+		}
+		
+		float[] triangle = {
+				0.0f, -0.5f, 0.0f,		1.0f, 0.0f, 0.0f,
+				-0.5f, 0.5f, 0.0f,		0.0f, 1.0f, 0.0f,
+				0.5f, 0.5f, 0.0f,		0.0f, 0.0f, 1.0f
+		};
+		ByteBuffer vertices = BufferUtils.createByteBuffer(triangle.length * Float.BYTES);
+		vertices.asFloatBuffer().put(triangle);
+		
+		Mesh mesh = renderer.getGeometryPool().upload(vertices, new int[] { 0, 1, 2 });
+		addDraw(mesh, vertices);
+	}
+	
+	/**
+	 * Draws the mesh once, as a culled object when the GPU culler exists or through the render queue when there is one,
+	 * and adds it to the scene store if there is one.
+	 */
+	private void addDraw(Mesh mesh, ByteBuffer vertices) {
+		sceneObjectCount++;
+		float[] bounds = GpuCuller.computeBounds(vertices, VertexLayout.POSITION_COLOR.getStride());
+		if (renderer.getSceneStore() != null) {
+			renderer.getSceneStore().createEntity(SceneStore.NO_PARENT, IDENTITY, bounds);
+		}
+		
+		GpuCuller gpuCuller = renderer.getGpuCuller();
+		RenderQueue renderQueue = renderer.getRenderQueue();
+		if (gpuCuller != null) {
+			gpuCuller.addObject(mesh, IDENTITY, bounds);
+		} else if (renderQueue != null) {
+			int pipeline = renderQueue.registerPipeline(graphicsPipeline);
+			renderQueue.submitIndexed(RenderQueue.sortKey(0, pipeline, 0, mesh.getId(), 0.0f), pipeline, mesh, 1, 0, 0, RenderQueue.NO_UNIFORMS);
+		} else {
+			renderer.getDrawList().addIndexed(mesh, 1, 0);
+		}
+	}
+	
+	/**
+	 * Imports all meshes in parallel and draws each of them once.
+	 */
+	private void loadMeshes(String[] paths) {
+		MeshImporter meshImporter = new MeshImporter(Path.of(Settings.MESH_CACHE));
+		
+		ArrayList<CompletableFuture<MeshData>> loads = new ArrayList<CompletableFuture<MeshData>>();
+		for (String path : paths) {
+			loads.add(meshImporter.load(Path.of(path.trim())));
+		}
+		
+		for (CompletableFuture<MeshData> load : loads) {
+			MeshData meshData = load.join();
+			Mesh mesh = renderer.getGeometryPool().upload(meshData.getVertices(), meshData.getIndices());
+			addDraw(mesh, meshData.getVertices());
+		}
+		
+		meshImporter.report();
+		meshImporter.shutdown();
 	}
 	
 	private void createSwapChain() {
 		VkSurfaceCapabilitiesKHR surfaceCaps = swapChainManager.getSurfaceCaps();
 		
 		VkSurfaceFormatKHR surfaceFormat = swapChainManager.chooseSwapSurfaceFormat();
-		int presentMode = swapChainManager.chooseSwapPresentMode();
+		int presentMode = swapChainManager.chooseSwapPresentMode(Settings.PRESENT_MODE);
 		VkExtent2D extent2D = swapChainManager.chooseSwapExtent();
 		
-		int imageCount = surfaceCaps.minImageCount() + 1;
-		if (surfaceCaps.maxImageCount() > 0 && imageCount > surfaceCaps.maxImageCount()) {
-			imageCount = surfaceCaps.maxImageCount();
-			logger.debug("Swap chain image count: " + imageCount);
-		}
+		int imageCount = swapChainManager.chooseImageCount(Settings.SWAPCHAIN_IMAGES);
+		logger.debug("Swap chain image count: " + imageCount);
 		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
 			VkSwapchainCreateInfoKHR swapChainInfo = VkSwapchainCreateInfoKHR.calloc(stack);
@@ -85,42 +246,82 @@ public class Loader {
 			swapChainInfo.compositeAlpha(KHRSurface.VK_COMPOSITE_ALPHA_OPAQUE_BIT_KHR);
 			swapChainInfo.presentMode(presentMode);
 			swapChainInfo.clipped(true);
-			swapChainInfo.oldSwapchain(MemoryUtil.NULL);
+			swapChainInfo.oldSwapchain(swapChainManager.getSwapChain());
 			
-			ArrayList<VulkanQueue> queues = queueFamilyManager.getQueues();
 			int[] familyIndices = queueFamilyManager.createQueueFamilyIndicesArray();
 			IntBuffer familyIndicesBuffer = BufferUtils.createIntBuffer(familyIndices.length);
 			familyIndicesBuffer.put(0, familyIndices);
 			
-			int queuesSize = queues.size();
-			int extraI = -1;
-			
-			for (int i = 0; i < queuesSize; i++) {
-				extraI += 1;
-				
-				if (!(extraI > queuesSize)) {
-					VulkanQueue nextQueue = queues.get(extraI);
-					VulkanQueue firstQueue = queues.get(i);
-					
-					if (firstQueue.getParentFamilyIndex() != nextQueue.getParentFamilyIndex()) {
-						swapChainInfo.imageSharingMode(VK10.VK_SHARING_MODE_CONCURRENT);
-						swapChainInfo.queueFamilyIndexCount(2);
-						swapChainInfo.pQueueFamilyIndices(familyIndicesBuffer);
-						break;
-					} else {
-						swapChainInfo.imageSharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
-						break;
-					}
-				}
+			if (familyIndices.length > 1 && !isPresentOwnershipTransferred()) {
+				swapChainInfo.imageSharingMode(VK10.VK_SHARING_MODE_CONCURRENT);
+				swapChainInfo.queueFamilyIndexCount(familyIndices.length);
+				swapChainInfo.pQueueFamilyIndices(familyIndicesBuffer);
+			} else {
+				swapChainInfo.imageSharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
 			}
 			
 			swapChainManager.createSwapChain(swapChainInfo, deviceManager.getLogicalDevice());
 		}
 	}
 	
-	public void createGraphicsPipeline() {
+	/**
+	 * With separate graphics and present families the swapchain stays EXCLUSIVE and frames transfer ownership of
+	 * their image, unless CONCURRENT sharing was asked for.
+	 */
+	private boolean isPresentOwnershipTransferred() {
+		return queueFamilyManager.createQueueFamilyIndicesArray().length > 1 && !Settings.CONCURRENT_SWAPCHAIN;
+	}
+	
+	/**
+	 * How the swapchain images are shared between the graphics and present families, for benchmark reports.
+	 */
+	public String describeSwapChainSharing() {
+		if (queueFamilyManager.createQueueFamilyIndicesArray().length == 1) {
+			return "EXCLUSIVE (one queue family)";
+		}
+		return isPresentOwnershipTransferred() ? "EXCLUSIVE with ownership transfers" : "CONCURRENT";
+	}
+	
+	/**
+	 * Recreates the swapchain after a resize or an OUT_OF_DATE result, handing the old one to the driver
+	 * as oldSwapchain. Only per-image resources are rebuilt. Returns false while the window is minimized.
+	 */
+	public boolean recreateSwapChain() {
+		if (WindowManager.getFramebufferWidth() == 0 || WindowManager.getFramebufferHeight() == 0) {
+			return false;
+		}
+		
+		if (WindowManager.isFramebufferResized()) {
+			renderer.getResizeMetrics().markResizeStart(WindowManager.getResizeNanos());
+			WindowManager.setFramebufferResized(false);
+		}
+		
 		VkDevice logicalDevice = deviceManager.getLogicalDevice();
+		swapChainManager.refreshSurfaceCaps(deviceManager.getPhysicalDevice(), vulkanManager.getVkSurface());
+		
+		long oldSwapChain = swapChainManager.getSwapChain();
+		ArrayList<LongBuffer> oldImageViews = swapChainManager.detachImageViews();
+		
+		createSwapChain();
+		renderer.retire(() -> {
+			for (LongBuffer imageView : oldImageViews) {
+				VK10.vkDestroyImageView(logicalDevice, imageView.get(0), null);
+			}
+			KHRSwapchain.vkDestroySwapchainKHR(logicalDevice, oldSwapChain, null);
+		});
+		
+		swapChainManager.createSwapchainImages(logicalDevice);
+		graphicsPipeline.updateViewport(swapChainManager.getExtent2D());
+		renderer.onSwapChainRecreated(logicalDevice, swapChainManager);
+		
 		VkExtent2D extent2D = swapChainManager.getExtent2D();
+		logger.info("Recreated swapchain at " + extent2D.width() + "x" + extent2D.height());
+		return true;
+	}
+	
+	public void createGraphicsPipeline(RenderTarget renderTarget) {
+		VkDevice logicalDevice = deviceManager.getLogicalDevice();
+		VkExtent2D extent2D = renderTarget.getExtent2D();
 		
 		shaderManager.loadCompiledShader(ShaderType.VERTEX);
 		shaderManager.loadCompiledShader(ShaderType.FRAGMENT);
@@ -128,14 +329,23 @@ public class Loader {
 		graphicsPipeline.initShader(logicalDevice, shaderManager.getMainVertex());
 		graphicsPipeline.initShader(logicalDevice, shaderManager.getMainFragment());
 		graphicsPipeline.createShaderStages();
+		graphicsPipeline.setVertexLayout(VertexLayout.POSITION_COLOR);
 		graphicsPipeline.createPipelineState();
 		graphicsPipeline.initViewport(extent2D);
 		graphicsPipeline.initScissor(extent2D);
 		graphicsPipeline.initRasterizer();
 		graphicsPipeline.setupMultisampling();
 		graphicsPipeline.setupColorBlending();
-		graphicsPipeline.createPipelineLayout(logicalDevice);
-		renderer.createRenderPass(logicalDevice, swapChainManager.getMainSurfaceFormat());
+		if (deviceManager.isBindlessEnabled()) {
+			renderer.createResourceHeap(logicalDevice, deviceManager, Settings.BINDLESS_TEXTURES, Settings.BINDLESS_BUFFERS);
+			graphicsPipeline.setResourceHeap(renderer.getResourceHeap());
+		}
+		if (Settings.UNIFORM_SLICE_SIZE > 0) {
+			renderer.createUniformRing(logicalDevice, memoryAllocator, deviceManager, renderTarget, Settings.UNIFORM_SLICE_SIZE, Settings.UNIFORM_BLOCK_SIZE);
+			graphicsPipeline.setUniformRing(renderer.getUniformRing());
+		}
+		graphicsPipeline.createPipelineLayout(logicalDevice, renderer.getLayoutCache());
+		renderer.createRenderPass(logicalDevice, renderTarget);
 		graphicsPipeline.createGraphicsPipeline(logicalDevice, renderer);
 	}
 	
@@ -145,13 +355,20 @@ public class Loader {
 		renderer.createFramebuffer(logicalDevice, swapChainManager);
 		renderer.createFramebuffer(logicalDevice, swapChainManager);
 		renderer.createCommandPool(logicalDevice, queueFamilyManager);
-		renderer.createCommandBuffer(logicalDevice);
+		renderer.createCommandBuffers(logicalDevice, swapChainManager);
 	}
 	
 	public void cleanUp() {
 		renderer.cleanUp(deviceManager.getLogicalDevice());
 		graphicsPipeline.cleanUp(deviceManager.getLogicalDevice());
-		swapChainManager.cleanUp(deviceManager.getLogicalDevice());
+		
+		if (Settings.HEADLESS) {
+			offscreenTarget.cleanUp(deviceManager.getLogicalDevice());
+		} else {
+			swapChainManager.cleanUp(deviceManager.getLogicalDevice());
+		}
+		memoryAllocator.report();
+		memoryAllocator.cleanUp();
 		deviceManager.cleanUp();
 		vulkanManager.cleanUp();
 	}
@@ -160,6 +377,10 @@ public class Loader {
 		return renderer;
 	}
 
+	public OffscreenTarget getOffscreenTarget() {
+		return offscreenTarget;
+	}
+
 	public SwapChainManager getSwapChainManager() {
 		return swapChainManager;
 	}
@@ -176,6 +397,10 @@ public class Loader {
 		this.queueFamilyManager = queueFamilyManager;
 	}
 
+	public MemoryAllocator getMemoryAllocator() {
+		return memoryAllocator;
+	}
+
 	public DeviceManager getDeviceManager() {
 		return deviceManager;
 	}
@@ -191,4 +416,8 @@ public class Loader {
 	public void setGraphicsPipeline(GraphicsPipeline graphicsPipeline) {
 		this.graphicsPipeline = graphicsPipeline;
 	}
+
+	public int getSceneObjectCount() {
+		return sceneObjectCount;
+	}
 }
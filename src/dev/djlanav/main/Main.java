@@ -1,27 +1,41 @@
 package dev.djlanav.main;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.lwjgl.glfw.*;
 import org.lwjgl.vulkan.VK10;
 import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkExtent2D;
 
+import dev.djlanav.rendering.FrameSnapshot;
 import dev.djlanav.rendering.GraphicsPipeline;
 import dev.djlanav.rendering.Renderer;
-import dev.djlanav.vulkan.QueueFamilyManager;
-import dev.djlanav.vulkan.SwapChainManager;
+import dev.djlanav.utils.AllocationMeter;
+import dev.djlanav.utils.TripleBuffer;
+import dev.djlanav.vulkan.OffscreenTarget;
 
 public class Main {
 	
 	public static boolean debugMode = true;
 	private static Logger logger = LogManager.getLogger();
 	
+	// Seconds the main thread waits for window events before refreshing the title
+	private static final double EVENT_WAIT_TIMEOUT = 0.05;
+	
 	private Loader loader = new Loader();
 	
 	private void run() {
 		long window = loader.createWindow();
 		
 		GLFW.glfwSetKeyCallback(WindowManager.getWindow(), (windowHandle, key, scancode, action, mods) -> {
+			WindowManager.markInput();
 			if (key == GLFW.GLFW_KEY_ESCAPE) {
 				GLFW.glfwSetWindowShouldClose(windowHandle, true);
 			}
@@ -29,41 +43,159 @@ public class Main {
 		
 		loader.initVulkan();
 		
-		Renderer renderer = loader.getRenderer();
 		VkDevice logicalDevice = loader.getDeviceManager().getLogicalDevice();
-		SwapChainManager swapchainManager = loader.getSwapChainManager();
-		QueueFamilyManager queueFamilyManager = loader.getQueueFamilyManager();
-		GraphicsPipeline graphicsPipeline = loader.getGraphicsPipeline();
 		
-		double lastTime = GLFW.glfwGetTime();
-		int frames = 0;
+		if (Settings.THREADED) {
+			runThreaded(window);
+		} else {
+			runSerial(window);
+		}
+		VK10.vkDeviceWaitIdle(logicalDevice);
 		
-		while (!GLFW.glfwWindowShouldClose(window) ) {
-			double currentTime = GLFW.glfwGetTime();
-			frames++;
+		GLFW.glfwSetKeyCallback(window, null).free();
+	}
+	
+	/**
+	 * The main thread only pumps window events, GLFW must not be called from anywhere else. Simulation and
+	 * rendering each get their own thread and exchange snapshots through a triple buffer.
+	 */
+	private void runThreaded(long window) {
+		TripleBuffer<FrameSnapshot> snapshots = new TripleBuffer<>(FrameSnapshot::new);
+		Simulation simulation = new Simulation(snapshots, Settings.SIMULATION_RATE, loader.getRenderer().getDrawList(), loader.getSceneObjectCount());
+		RenderLoop renderLoop = new RenderLoop(loader, snapshots);
+		
+		Thread simulationThread = new Thread(simulation, "simulation");
+		Thread renderThread = new Thread(renderLoop, "render");
+		simulationThread.start();
+		renderThread.start();
+		
+		double lastTitleTime = GLFW.glfwGetTime();
+		while (!GLFW.glfwWindowShouldClose(window) && renderThread.isAlive()) {
+			GLFW.glfwWaitEventsTimeout(EVENT_WAIT_TIMEOUT);
 			
-			if (currentTime - lastTime >= 1.0) {
-				System.out.println("FPS: " + frames);
-				WindowManager.updateWindowTitle("Vulkan LWJGL | FPS: " + frames);
-				frames = 0;
-				lastTime = currentTime;
+			double currentTime = GLFW.glfwGetTime();
+			if (currentTime - lastTitleTime >= Settings.TIMING_REPORT_INTERVAL) {
+				WindowManager.updateWindowTitle("Vulkan LWJGL | FPS: " + renderLoop.getFramesPerSecond());
+				lastTitleTime = currentTime;
+			}
+		}
+		
+		simulation.stop();
+		renderLoop.stop();
+		try {
+			simulationThread.join();
+			renderThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for the render thread to finish", e);
+		}
+	}
+	
+	private void runSerial(long window) {
+		RenderLoop renderLoop = new RenderLoop(loader, null);
+		int lastFramesPerSecond = 0;
+		
+		while (!GLFW.glfwWindowShouldClose(window) && renderLoop.isRunning()) {
+			if (!renderLoop.renderFrame()) {
+				// Minimized, nothing can be presented until the framebuffer has a size again
+				GLFW.glfwWaitEvents();
+				continue;
 			}
-			
-			renderer.render(logicalDevice, swapchainManager, queueFamilyManager, graphicsPipeline);
 			GLFW.glfwPollEvents();
+			
+			if (renderLoop.getFramesPerSecond() != lastFramesPerSecond) {
+				lastFramesPerSecond = renderLoop.getFramesPerSecond();
+				WindowManager.updateWindowTitle("Vulkan LWJGL | FPS: " + lastFramesPerSecond);
+			}
 		}
+	}
+
+	private void runHeadless() {
+		loader.initVulkan();
+		
+		Renderer renderer = loader.getRenderer();
+		VkDevice logicalDevice = loader.getDeviceManager().getLogicalDevice();
+		OffscreenTarget offscreenTarget = loader.getOffscreenTarget();
+		GraphicsPipeline graphicsPipeline = loader.getGraphicsPipeline();
+		
+		int frameCount = Settings.HEADLESS_FRAMES;
+		long startTime = System.nanoTime();
+		
+		if (Settings.HEADLESS_ALLOCATION_CHECK) {
+			// The first half warms up caches, pools and the JIT, the second half is steady state
+			for (int i = 0; i < frameCount / 2; i++) {
+				renderer.renderOffscreen(logicalDevice, offscreenTarget, graphicsPipeline);
+			}
+			checkAllocations(frameCount - frameCount / 2, () -> renderer.renderOffscreen(logicalDevice, offscreenTarget, graphicsPipeline));
+		} else {
+			for (int i = 0; i < frameCount; i++) {
+				renderer.renderOffscreen(logicalDevice, offscreenTarget, graphicsPipeline);
+			}
+		}
+		int lastImage = renderer.waitForLastFrame(logicalDevice);
+		
+		double seconds = (System.nanoTime() - startTime) / 1_000_000_000.0;
+		renderer.getFrameTimings().report();
+		renderer.getGpuProfiler().report();
+		renderer.getUploader().report();
+		System.out.println("Headless: rendered " + frameCount + " frames in " + String.format("%.3f", seconds) + " s (" + String.format("%.1f", frameCount / seconds) + " FPS)");
+		
+		if (offscreenTarget.isReadbackEnabled() && Settings.HEADLESS_OUTPUT != null) {
+			VkExtent2D extent2D = offscreenTarget.getExtent2D();
+			writeFrame(offscreenTarget.getReadbackData(lastImage), extent2D.width(), extent2D.height(), Settings.HEADLESS_OUTPUT);
+		}
+		
 		VK10.vkDeviceWaitIdle(logicalDevice);
+	}
+	
+	/**
+	 * Runs frameCount frames and throws if this thread allocated anything on the Java heap meanwhile.
+	 */
+	private void checkAllocations(int frameCount, Runnable frame) {
+		AllocationMeter allocationMeter = new AllocationMeter();
+		allocationMeter.start();
+		for (int i = 0; i < frameCount; i++) {
+			frame.run();
+		}
+		allocationMeter.stop();
+		long allocated = allocationMeter.getAllocatedBytes();
 		
-		GLFW.glfwSetKeyCallback(window, null).free();
+		System.out.println("Headless: " + allocated + " bytes allocated over " + frameCount + " steady-state frames");
+		if (allocated > 0) {
+			throw new RuntimeException("Steady-state frames allocated " + allocated + " bytes on the Java heap");
+		}
+	}
+	
+	/**
+	 * Writes tightly packed RGBA8 pixels as a binary PPM, which is easy to diff in image-regression tests.
+	 */
+	private void writeFrame(ByteBuffer pixels, int width, int height, String path) {
+		byte[] rgb = new byte[width * height * 3];
+		for (int i = 0; i < width * height; i++) {
+			rgb[i * 3] = pixels.get(i * 4);
+			rgb[i * 3 + 1] = pixels.get(i * 4 + 1);
+			rgb[i * 3 + 2] = pixels.get(i * 4 + 2);
+		}
+		
+		try (OutputStream out = Files.newOutputStream(Path.of(path))) {
+			out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+			out.write(rgb);
+			logger.info("Wrote headless frame to " + path);
+		} catch (IOException e) {
+			logger.error("Failed to write headless frame to " + path, e);
+		}
 	}
 
 	private void cleanUp() {
-		WindowManager.cleanUp();
+		if (!Settings.HEADLESS) {
+			WindowManager.cleanUp();
+		}
 		loader.cleanUp();
 	}
 	
 	public static void main(String[] args) {
-		if (debugMode) {
+		// LWJGL's debug allocator and stack track every allocation on the Java heap
+		if (debugMode && !Settings.HEADLESS_ALLOCATION_CHECK && !Settings.BENCHMARK_ALLOCATION_CHECK) {
 			logger.debug("Debug mode enabled");
 			System.setProperty("org.lwjgl.util.Debug", String.valueOf(true));
 			System.setProperty("org.lwjgl.util.DebugAllocator", String.valueOf(true));
@@ -72,7 +204,11 @@ public class Main {
 		
 		Main main = new Main();
 		
-		main.run();
+		if (Settings.HEADLESS) {
+			main.runHeadless();
+		} else {
+			main.run();
+		}
 		main.cleanUp();
 	}
 }
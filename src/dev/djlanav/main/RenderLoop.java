@@ -0,0 +1,174 @@
+package dev.djlanav.main;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.vulkan.VkDevice;
+
+import dev.djlanav.rendering.CommandBufferCache;
+import dev.djlanav.rendering.FrameSnapshot;
+import dev.djlanav.rendering.GraphicsPipeline;
+import dev.djlanav.rendering.Renderer;
+import dev.djlanav.rendering.ResizeMetrics;
+import dev.djlanav.utils.AllocationMeter;
+import dev.djlanav.utils.TripleBuffer;
+import dev.djlanav.vulkan.SwapChainManager;
+
+/**
+ * Renders frames and handles swapchain recreation. Runs on its own thread in threaded mode, otherwise
+ * {@link #renderFrame()} is called from the main loop. Never calls into GLFW.
+ */
+public class RenderLoop implements Runnable {
+
+	private static final long MINIMIZED_SLEEP_NANOS = 10_000_000L;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private Loader loader;
+	private Renderer renderer;
+	private VkDevice logicalDevice;
+	private SwapChainManager swapchainManager;
+	private GraphicsPipeline graphicsPipeline;
+	private TripleBuffer<FrameSnapshot> snapshots;
+	
+	private volatile boolean running = true;
+	private volatile int framesPerSecond = 0;
+	private long lastReportNanos = System.nanoTime();
+	private int frames = 0;
+	private int benchmarkFrames = 0;
+	private AllocationMeter allocationMeter = Settings.BENCHMARK_ALLOCATION_CHECK ? new AllocationMeter() : null;
+	
+	/**
+	 * @param snapshots simulation output to render, or null to keep rendering the renderer's own draw list
+	 */
+	public RenderLoop(Loader loader, TripleBuffer<FrameSnapshot> snapshots) {
+		this.loader = loader;
+		this.snapshots = snapshots;
+		
+		renderer = loader.getRenderer();
+		logicalDevice = loader.getDeviceManager().getLogicalDevice();
+		swapchainManager = loader.getSwapChainManager();
+		graphicsPipeline = loader.getGraphicsPipeline();
+	}
+	
+	@Override
+	public void run() {
+		while (running) {
+			if (!renderFrame()) {
+				LockSupport.parkNanos(MINIMIZED_SLEEP_NANOS);
+			}
+		}
+	}
+	
+	/**
+	 * Renders one frame. Returns false if nothing could be rendered because the window is minimized.
+	 */
+	public boolean renderFrame() {
+		long now = System.nanoTime();
+		frames++;
+		
+		if ((now - lastReportNanos) / 1_000_000_000.0 >= Settings.TIMING_REPORT_INTERVAL) {
+			report(now);
+		}
+		
+		if (renderer.isSwapChainStale() || WindowManager.isFramebufferResized()) {
+			if (!loader.recreateSwapChain()) {
+				return false;
+			}
+		}
+		
+		if (snapshots != null && snapshots.update()) {
+			renderer.applySnapshot(snapshots.getReadSlot());
+		}
+		
+		renderer.getFramePacer().markInput(WindowManager.getLastInputNanos());
+		// Only the timed frames' render() calls are measured, reports in between allocate by design
+		boolean measured = allocationMeter != null && benchmarkFrames >= Settings.BENCHMARK_WARMUP_FRAMES;
+		if (measured) {
+			allocationMeter.start();
+		}
+		renderer.render(logicalDevice, swapchainManager, graphicsPipeline);
+		if (measured) {
+			allocationMeter.stop();
+		}
+		if (Settings.BENCHMARK_FRAMES > 0) {
+			countBenchmarkFrame();
+		}
+		return true;
+	}
+	
+	/**
+	 * Resets the frame timings after the warm-up, then logs them once the benchmark frames are done and stops.
+	 * Throws if the allocation check is on and the timed frames allocated.
+	 */
+	private void countBenchmarkFrame() {
+		benchmarkFrames++;
+		if (benchmarkFrames == Settings.BENCHMARK_WARMUP_FRAMES) {
+			renderer.getFrameTimings().reset();
+		} else if (benchmarkFrames == Settings.BENCHMARK_WARMUP_FRAMES + Settings.BENCHMARK_FRAMES) {
+			renderer.getFrameTimings().report("Benchmark frame timings over " + Settings.BENCHMARK_FRAMES + " frames, "
+					+ loader.describeSwapChainSharing() + " swapchain, " + Settings.PRESENT_MODE + ":");
+			running = false;
+			
+			if (allocationMeter != null) {
+				long allocated = allocationMeter.getAllocatedBytes();
+				logger.info("Benchmark: " + allocated + " bytes allocated over " + allocationMeter.getIntervals() + " render() calls");
+				if (allocated > 0) {
+					throw new RuntimeException("Windowed frames allocated " + allocated + " bytes on the Java heap");
+				}
+			}
+		}
+	}
+	
+	private void report(long now) {
+		// A benchmark reports its timings once at the end
+		if (Settings.BENCHMARK_FRAMES == 0) {
+			renderer.getFrameTimings().report();
+		}
+		renderer.getGpuProfiler().report();
+		renderer.getFramePacer().report();
+		renderer.getUploader().report();
+		renderer.getDescriptorSetCache().report();
+		if (renderer.getUniformRing() != null) {
+			renderer.getUniformRing().report();
+		}
+		if (renderer.getGpuCuller() != null) {
+			renderer.getGpuCuller().report();
+		}
+		if (renderer.getSceneStore() != null) {
+			renderer.getSceneStore().report();
+		}
+		if (renderer.getRenderQueue() != null) {
+			renderer.getRenderQueue().report();
+		}
+		if (renderer.getTextureStreamer() != null) {
+			renderer.getTextureStreamer().report();
+		}
+		
+		CommandBufferCache cache = renderer.getCommandBufferCache();
+		logger.debug("Command buffers recorded: " + cache.getRecordCount() + ", reused: " + cache.getReuseCount());
+		
+		ResizeMetrics resizeMetrics = renderer.getResizeMetrics();
+		if (resizeMetrics.getRecreationCount() > 0) {
+			logger.debug("Swapchain recreations: " + resizeMetrics.getRecreationCount() + ", dropped frames: " + resizeMetrics.getDroppedFrames()
+					+ ", resize latency last/avg/max ms: " + resizeMetrics.getLastLatencyMillis() + "/" + resizeMetrics.getAverageLatencyMillis() + "/" + resizeMetrics.getMaxLatencyMillis());
+		}
+		
+		framesPerSecond = (int) Math.round(frames / ((now - lastReportNanos) / 1_000_000_000.0));
+		frames = 0;
+		lastReportNanos = now;
+	}
+	
+	public void stop() {
+		running = false;
+	}
+	
+	public boolean isRunning() {
+		return running;
+	}
+	
+	public int getFramesPerSecond() {
+		return framesPerSecond;
+	}
+}
@@ -0,0 +1,97 @@
+package dev.djlanav.main;
+
+import dev.djlanav.rendering.Renderer;
+import dev.djlanav.vulkan.PresentModePolicy;
+
+/**
+ * Startup options, read once from system properties (e.g. -Dvulkan.framesInFlight=3).
+ */
+public class Settings {
+
+	public static final int FRAMES_IN_FLIGHT = Integer.getInteger("vulkan.framesInFlight", Renderer.MAX_IN_FLIGHT_FRAMES);
+	
+	// Worker threads recording secondary command buffers, 0 records everything inline on the render thread
+	public static final int RECORD_THREADS = Integer.getInteger("vulkan.recordThreads", 0);
+	
+	// Render with vkCmdBeginRendering instead of a render pass and framebuffers, needs a Vulkan 1.3 device
+	public static final boolean DYNAMIC_RENDERING = Boolean.getBoolean("vulkan.dynamicRendering");
+	
+	// Frame pacing: present mode (IMMEDIATE, MAILBOX, FIFO, FIFO_RELAXED) and swapchain images, 0 picks minImageCount + 1
+	public static final PresentModePolicy PRESENT_MODE = PresentModePolicy.valueOf(System.getProperty("vulkan.presentMode", "MAILBOX"));
+	public static final int SWAPCHAIN_IMAGES = Integer.getInteger("vulkan.swapchainImages", 0);
+	
+	// Share swapchain images between separate graphics and present families instead of transferring ownership each frame
+	public static final boolean CONCURRENT_SWAPCHAIN = Boolean.getBoolean("vulkan.concurrentSwapchain");
+	
+	// Windowed benchmark: frames timed after the warm-up before the window closes, 0 runs until closed.
+	// Run once with and once without vulkan.concurrentSwapchain to compare the two sharing modes
+	public static final int BENCHMARK_FRAMES = Integer.getInteger("vulkan.benchmarkFrames", 0);
+	public static final int BENCHMARK_WARMUP_FRAMES = Integer.getInteger("vulkan.benchmarkWarmupFrames", 300);
+	// Measures what the timed frames' render() calls allocate on the Java heap and fails the benchmark if it isn't 0
+	public static final boolean BENCHMARK_ALLOCATION_CHECK = Boolean.getBoolean("vulkan.benchmarkAllocationCheck");
+	
+	// Presents allowed to be queued but not yet displayed, needs VK_KHR_present_wait. 0 disables the limiter
+	public static final int MAX_LATENCY_FRAMES = Integer.getInteger("vulkan.maxLatencyFrames", 0);
+	public static final int FPS_CAP = Integer.getInteger("vulkan.fpsCap", 0);
+	
+	// Render on its own thread while the simulation steps at a fixed rate on another, false runs both on the main thread
+	public static final boolean THREADED = Boolean.parseBoolean(System.getProperty("vulkan.threaded", "true"));
+	public static final int SIMULATION_RATE = Integer.getInteger("vulkan.simulationRate", 60);
+	
+	// Bytes of host-visible memory uploads are staged in, rounded up to a multiple of 64 KiB
+	public static final long STAGING_RING_SIZE = Long.getLong("vulkan.stagingRingSize", 32L * 1024 * 1024);
+	
+	// Run uploads on the transfer queue when the device has one besides the graphics queue
+	public static final boolean ASYNC_UPLOADS = Boolean.parseBoolean(System.getProperty("vulkan.asyncUploads", "true"));
+	
+	// Capacity of the shared geometry buffers, in vertices and in bytes of indices
+	public static final int GEOMETRY_VERTICES = Integer.getInteger("vulkan.geometry.vertices", 1 << 20);
+	public static final long GEOMETRY_INDEX_BYTES = Long.getLong("vulkan.geometry.indexBytes", 16L * 1024 * 1024);
+	
+	// Comma separated model files imported with Assimp at startup instead of the default triangle
+	public static final String MESHES = System.getProperty("vulkan.meshes", "");
+	public static final String MESH_CACHE = System.getProperty("vulkan.meshCache", "cache/meshes");
+	
+	// Sets in the first pool of each per-frame descriptor allocator, every further pool doubles that up to the maximum
+	public static final int DESCRIPTOR_SETS_PER_POOL = Integer.getInteger("vulkan.descriptorSetsPerPool", 64);
+	public static final int MAX_DESCRIPTOR_SETS_PER_POOL = Integer.getInteger("vulkan.maxDescriptorSetsPerPool", 1024);
+
+	// Puts every texture and storage buffer into one descriptor set bound once per frame, if the device supports descriptor indexing
+	public static final boolean BINDLESS = Boolean.getBoolean("vulkan.bindless");
+	public static final int BINDLESS_TEXTURES = Integer.getInteger("vulkan.bindlessTextures", 16384);
+	public static final int BINDLESS_BUFFERS = Integer.getInteger("vulkan.bindlessBuffers", 4096);
+
+	// Per-image slice of the uniform ring and the largest uniform block one draw can read, 0 disables uniforms
+	public static final int UNIFORM_SLICE_SIZE = Integer.getInteger("vulkan.uniformSliceSize", 1024 * 1024);
+	public static final int UNIFORM_BLOCK_SIZE = Integer.getInteger("vulkan.uniformBlockSize", 256);
+
+	// Culls scene objects in a compute pass and draws them indirectly, if the device supports indirect draw counts
+	public static final boolean GPU_CULLING = Boolean.getBoolean("vulkan.gpuCulling");
+	public static final int CULL_CAPACITY = Integer.getInteger("vulkan.cullCapacity", 128 * 1024);
+	
+	// Entities kept in the off-heap scene store and the threads updating it, 0 capacity disables the store
+	public static final int SCENE_CAPACITY = Integer.getInteger("vulkan.sceneCapacity", 0);
+	public static final int SCENE_THREADS = Integer.getInteger("vulkan.sceneThreads", Runtime.getRuntime().availableProcessors());
+	
+	// Draw packets the sorted render queue holds, 0 submits scene draws through the draw list instead
+	public static final int RENDER_QUEUE_CAPACITY = Integer.getInteger("vulkan.renderQueueCapacity", 0);
+	
+	// Comma separated images streamed in at startup, decoded by TEXTURE_THREADS workers and uploaded at most TEXTURE_UPLOAD_BUDGET bytes per frame
+	public static final String TEXTURES = System.getProperty("vulkan.textures", "");
+	public static final int TEXTURE_THREADS = Integer.getInteger("vulkan.textureThreads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+	public static final long TEXTURE_UPLOAD_BUDGET = Long.getLong("vulkan.textureUploadBudget", 8L * 1024 * 1024);
+	
+	// Seconds between frame timing reports
+	public static final double TIMING_REPORT_INTERVAL = Double.parseDouble(System.getProperty("vulkan.timingReportInterval", "1.0"));
+	
+	// Headless mode renders into offscreen images without a window, e.g. for benchmarks on lavapipe
+	public static final boolean HEADLESS = Boolean.getBoolean("vulkan.headless");
+	public static final int HEADLESS_WIDTH = Integer.getInteger("vulkan.headless.width", 800);
+	public static final int HEADLESS_HEIGHT = Integer.getInteger("vulkan.headless.height", 600);
+	public static final int HEADLESS_FRAMES = Integer.getInteger("vulkan.headless.frames", 1000);
+	public static final boolean HEADLESS_READBACK = Boolean.getBoolean("vulkan.headless.readback");
+	public static final String HEADLESS_OUTPUT = System.getProperty("vulkan.headless.output");
+	
+	// Fails the headless run if the second half of its frames allocates on the Java heap
+	public static final boolean HEADLESS_ALLOCATION_CHECK = Boolean.getBoolean("vulkan.headless.allocationCheck");
+}
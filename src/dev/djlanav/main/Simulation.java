@@ -0,0 +1,103 @@
+package dev.djlanav.main;
+
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import dev.djlanav.rendering.DrawList;
+import dev.djlanav.rendering.FrameSnapshot;
+import dev.djlanav.utils.TripleBuffer;
+
+/**
+ * Advances the scene at a fixed timestep on its own thread and publishes a snapshot after every update,
+ * independent of how fast frames are presented. Every step turns each scene object about its z axis, the
+ * renderer applies the published transforms to the GPU culler and the scene store.
+ */
+public class Simulation implements Runnable {
+
+	// Steps run at most per wakeup, so a long stall doesn't turn into a burst of catch-up updates
+	private static final int MAX_STEPS_PER_UPDATE = 5;
+	
+	private static final double SPIN_RADIANS_PER_SECOND = 0.5;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private final TripleBuffer<FrameSnapshot> snapshots;
+	private final long stepNanos;
+	private volatile boolean running = true;
+	
+	private DrawList sceneDraws = new DrawList();
+	private int sceneVersion = 0;
+	private long tick = 0;
+	
+	// Column-major transform of each scene object, 16 floats apiece
+	private float[] transforms;
+	private int objectCount;
+	
+	/**
+	 * @param initialScene draws the scene starts out with, copied so the renderer keeps its own list
+	 * @param objectCount scene objects, in the order they were added to the culler and the scene store
+	 */
+	public Simulation(TripleBuffer<FrameSnapshot> snapshots, int stepsPerSecond, DrawList initialScene, int objectCount) {
+		this.snapshots = snapshots;
+		this.stepNanos = 1_000_000_000L / stepsPerSecond;
+		this.objectCount = objectCount;
+		
+		sceneDraws.copyFrom(initialScene);
+		transforms = new float[objectCount * 16];
+	}
+	
+	@Override
+	public void run() {
+		logger.info("Simulation running at " + (1_000_000_000L / stepNanos) + " steps per second");
+		
+		long previousTime = System.nanoTime();
+		long accumulator = 0;
+		
+		while (running) {
+			long now = System.nanoTime();
+			accumulator = Math.min(accumulator + now - previousTime, stepNanos * MAX_STEPS_PER_UPDATE);
+			previousTime = now;
+			
+			boolean stepped = false;
+			while (accumulator >= stepNanos) {
+				update();
+				accumulator -= stepNanos;
+				stepped = true;
+			}
+			
+			if (stepped) {
+				snapshots.getWriteSlot().set(tick, tick * stepNanos, sceneVersion, sceneDraws, transforms, objectCount);
+				snapshots.publish();
+			}
+			
+			LockSupport.parkNanos(stepNanos - accumulator);
+		}
+	}
+	
+	private void update() {
+		tick++;
+		
+		double angle = tick * stepNanos / 1_000_000_000.0 * SPIN_RADIANS_PER_SECOND;
+		float cos = (float) Math.cos(angle);
+		float sin = (float) Math.sin(angle);
+		for (int i = 0; i < objectCount; i++) {
+			int base = i * 16;
+			transforms[base] = cos;
+			transforms[base + 1] = sin;
+			transforms[base + 4] = -sin;
+			transforms[base + 5] = cos;
+			transforms[base + 10] = 1.0f;
+			transforms[base + 15] = 1.0f;
+		}
+	}
+	
+	public void stop() {
+		running = false;
+	}
+	
+	public long getTick() {
+		return tick;
+	}
+}
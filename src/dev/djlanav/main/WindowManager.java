@@ -20,6 +20,13 @@ public class WindowManager {
 	private static int width;
 	private static int height;
 	
+	// Written by the framebuffer size callback, so other threads never have to call into GLFW
+	private static volatile int framebufferWidth;
+	private static volatile int framebufferHeight;
+	private static volatile boolean framebufferResized = false;
+	private static volatile long resizeNanos = 0;
+	private static volatile long lastInputNanos = 0;
+	
 	private static ByteBuffer windowIcon = BufferUtils.createByteBuffer(1);
 	private static GLFWImage windowIconImage = GLFWImage.calloc();
 	private static GLFWImage.Buffer windowIconImageBuffer = GLFWImage.calloc(1);
@@ -32,7 +39,7 @@ public class WindowManager {
 		}
 		
 		GLFW.glfwWindowHint(GLFW.GLFW_CLIENT_API, GLFW.GLFW_NO_API);
-		GLFW.glfwWindowHint(GLFW.GLFW_RESIZABLE, GLFW.GLFW_FALSE);
+		GLFW.glfwWindowHint(GLFW.GLFW_RESIZABLE, GLFW.GLFW_TRUE);
 		
 		width = w;
 		height = h;
@@ -42,6 +49,26 @@ public class WindowManager {
 			throw new IllegalStateException("Window could not be created");
 		}
 		
+		GLFW.glfwSetFramebufferSizeCallback(window, (windowHandle, newWidth, newHeight) -> {
+			if (!framebufferResized) {
+				resizeNanos = System.nanoTime();
+			}
+			framebufferWidth = newWidth;
+			framebufferHeight = newHeight;
+			framebufferResized = true;
+		});
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer widthBuffer = stack.callocInt(1);
+			IntBuffer heightBuffer = stack.callocInt(1);
+			GLFW.glfwGetFramebufferSize(window, widthBuffer, heightBuffer);
+			framebufferWidth = widthBuffer.get(0);
+			framebufferHeight = heightBuffer.get(0);
+		}
+		
+		GLFW.glfwSetCursorPosCallback(window, (windowHandle, x, y) -> markInput());
+		GLFW.glfwSetMouseButtonCallback(window, (windowHandle, button, action, mods) -> markInput());
+		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
 			IntBuffer widthBuffer = stack.callocInt(1);
 			IntBuffer heightBuffer = stack.callocInt(1);
@@ -69,11 +96,43 @@ public class WindowManager {
 		GLFW.glfwSetWindowTitle(window, newTitle);
 	}
 	
+	public static boolean isFramebufferResized() {
+		return framebufferResized;
+	}
+	
+	public static void setFramebufferResized(boolean resized) {
+		framebufferResized = resized;
+	}
+	
+	public static int getFramebufferWidth() {
+		return framebufferWidth;
+	}
+	
+	public static int getFramebufferHeight() {
+		return framebufferHeight;
+	}
+	
+	public static long getResizeNanos() {
+		return resizeNanos;
+	}
+	
+	/**
+	 * Timestamps the most recent input event, used to measure input-to-present latency.
+	 */
+	public static void markInput() {
+		lastInputNanos = System.nanoTime();
+	}
+	
+	public static long getLastInputNanos() {
+		return lastInputNanos;
+	}
+	
 	public static void cleanUp() {
 		STBImage.stbi_image_free(windowIcon);
 		windowIconImage.free();
 		windowIconImageBuffer.free();
 		
+		Callbacks.glfwFreeCallbacks(window);
 		GLFW.glfwDestroyWindow(window);
 		GLFW.glfwTerminate();
 	}
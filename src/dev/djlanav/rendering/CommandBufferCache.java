@@ -0,0 +1,103 @@
+package dev.djlanav.rendering;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.vulkan.DeferredDestroyQueue;
+
+/**
+ * One pre-recorded primary command buffer per swapchain image. Buffers are only re-recorded
+ * after something they depend on was marked dirty, so a static scene records nothing per frame.
+ */
+public class CommandBufferCache {
+
+	private Logger logger = LogManager.getLogger();
+	
+	private PointerBuffer commandBufferHandles;
+	private VkCommandBuffer[] commandBuffers = new VkCommandBuffer[0];
+	
+	// Every markDirty bumps the generation, an image is dirty until it is recorded at the current one
+	private long generation = 0;
+	private long[] recordedGenerations = new long[0];
+	
+	private long[] dirtyCounts = new long[DirtyReason.values().length];
+	private long recordCount = 0;
+	private long reuseCount = 0;
+	
+	public void allocate(VkDevice logicalDevice, long commandPool, int imageCount) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandBufferAllocateInfo cmdBufferInfo = VkCommandBufferAllocateInfo.calloc(stack);
+			cmdBufferInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO);
+			cmdBufferInfo.commandPool(commandPool);
+			cmdBufferInfo.level(VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+			cmdBufferInfo.commandBufferCount(imageCount);
+			
+			commandBufferHandles = BufferUtils.createPointerBuffer(imageCount);
+			if (VK10.vkAllocateCommandBuffers(logicalDevice, cmdBufferInfo, commandBufferHandles) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to allocate command buffers");
+			}
+			
+			commandBuffers = new VkCommandBuffer[imageCount];
+			recordedGenerations = new long[imageCount];
+			for (int i = 0; i < imageCount; i++) {
+				commandBuffers[i] = new VkCommandBuffer(commandBufferHandles.get(i), logicalDevice);
+				recordedGenerations[i] = -1;
+			}
+			
+			logger.info("Allocated " + imageCount + " cached command buffers");
+		}
+	}
+	
+	/**
+	 * Allocates a new set of buffers for a different image count. The old set may still be pending,
+	 * so it is freed through the destroy queue.
+	 */
+	public void resize(VkDevice logicalDevice, long commandPool, int imageCount, DeferredDestroyQueue destroyQueue, long retireValue) {
+		PointerBuffer oldHandles = commandBufferHandles;
+		destroyQueue.retire(retireValue, () -> VK10.vkFreeCommandBuffers(logicalDevice, commandPool, oldHandles));
+		
+		allocate(logicalDevice, commandPool, imageCount);
+	}
+	
+	public void markDirty(DirtyReason reason) {
+		generation++;
+		dirtyCounts[reason.ordinal()]++;
+	}
+	
+	public boolean isDirty(int imageIndex) {
+		return recordedGenerations[imageIndex] != generation;
+	}
+	
+	public void markRecorded(int imageIndex) {
+		recordedGenerations[imageIndex] = generation;
+		recordCount++;
+	}
+	
+	public void markReused() {
+		reuseCount++;
+	}
+	
+	public VkCommandBuffer get(int imageIndex) {
+		return commandBuffers[imageIndex];
+	}
+	
+	public int size() {
+		return commandBuffers.length;
+	}
+	
+	public long getDirtyCount(DirtyReason reason) {
+		return dirtyCounts[reason.ordinal()];
+	}
+	
+	public long getRecordCount() {
+		return recordCount;
+	}
+	
+	public long getReuseCount() {
+		return reuseCount;
+	}
+}
@@ -0,0 +1,8 @@
+package dev.djlanav.rendering;
+
+public enum DirtyReason {
+	PIPELINE,
+	RESIZE,
+	SCENE,
+	RESOURCES
+}
@@ -0,0 +1,174 @@
+package dev.djlanav.rendering;
+
+import java.util.Arrays;
+
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkCommandBuffer;
+
+/**
+ * Flat list of draws, stored as parallel arrays so it can be sliced across recording threads without creating
+ * objects per draw. Indexed draws all come from one {@link GeometryPool}, whose buffers are bound once per slice.
+ */
+public class DrawList {
+
+	private static final int NOT_INDEXED = -1;
+	private static final int NO_UNIFORMS = -1;
+	
+	// Vertex or index count and first vertex or index, depending on whether the draw is indexed
+	private int[] counts;
+	private int[] instanceCounts;
+	private int[] firstElements;
+	private int[] firstInstances;
+	private int[] vertexOffsets;
+	private int[] indexTypes;
+	// Pushed before the draw on bindless pipelines, ignored otherwise
+	private int[] materialIndices;
+	// Offset of the draw's block in the uniform ring, the same in every frame
+	private int[] uniformOffsets;
+	private int size = 0;
+	
+	private GeometryPool geometry;
+	
+	public DrawList() {
+		this(16);
+	}
+	
+	public DrawList(int capacity) {
+		counts = new int[capacity];
+		instanceCounts = new int[capacity];
+		firstElements = new int[capacity];
+		firstInstances = new int[capacity];
+		vertexOffsets = new int[capacity];
+		indexTypes = new int[capacity];
+		materialIndices = new int[capacity];
+		uniformOffsets = new int[capacity];
+	}
+	
+	/**
+	 * Adds a draw of vertices the shader generates itself, without any bound buffers.
+	 */
+	public void add(int vertexCount, int instanceCount, int firstVertex, int firstInstance) {
+		add(vertexCount, instanceCount, firstVertex, firstInstance, 0, NOT_INDEXED, 0, NO_UNIFORMS);
+	}
+	
+	public void addIndexed(Mesh mesh, int instanceCount, int firstInstance) {
+		addIndexed(mesh, instanceCount, firstInstance, 0);
+	}
+	
+	/**
+	 * Adds an indexed draw whose shaders find their resources in the resource heap through materialIndex.
+	 */
+	public void addIndexed(Mesh mesh, int instanceCount, int firstInstance, int materialIndex) {
+		addIndexed(mesh, instanceCount, firstInstance, materialIndex, NO_UNIFORMS);
+	}
+	
+	/**
+	 * Adds an indexed draw that also reads the uniform block at uniformOffset. Every frame has to allocate that
+	 * block at the same offset of its uniform ring slice before the draw is submitted.
+	 */
+	public void addIndexed(Mesh mesh, int instanceCount, int firstInstance, int materialIndex, int uniformOffset) {
+		if (geometry == null) {
+			geometry = mesh.getPool();
+		} else if (geometry != mesh.getPool()) {
+			throw new IllegalArgumentException("Indexed draws of one draw list must share a geometry pool");
+		}
+		
+		add(mesh.getIndexCount(), instanceCount, mesh.getFirstIndex(), firstInstance, mesh.getVertexOffset(), mesh.getIndexType(), materialIndex, uniformOffset);
+	}
+	
+	private void add(int count, int instanceCount, int firstElement, int firstInstance, int vertexOffset, int indexType, int materialIndex, int uniformOffset) {
+		if (size == counts.length) {
+			grow(Math.max(16, size * 2));
+		}
+		
+		counts[size] = count;
+		instanceCounts[size] = instanceCount;
+		firstElements[size] = firstElement;
+		firstInstances[size] = firstInstance;
+		vertexOffsets[size] = vertexOffset;
+		indexTypes[size] = indexType;
+		materialIndices[size] = materialIndex;
+		uniformOffsets[size] = uniformOffset;
+		size++;
+	}
+	
+	private void grow(int capacity) {
+		counts = Arrays.copyOf(counts, capacity);
+		instanceCounts = Arrays.copyOf(instanceCounts, capacity);
+		firstElements = Arrays.copyOf(firstElements, capacity);
+		firstInstances = Arrays.copyOf(firstInstances, capacity);
+		vertexOffsets = Arrays.copyOf(vertexOffsets, capacity);
+		indexTypes = Arrays.copyOf(indexTypes, capacity);
+		materialIndices = Arrays.copyOf(materialIndices, capacity);
+		uniformOffsets = Arrays.copyOf(uniformOffsets, capacity);
+	}
+	
+	/**
+	 * Records the draws in [from, to) into the command buffer of an image that already has the pipeline bound.
+	 * Material indices and uniform offsets are only set when they change between draws.
+	 */
+	public void record(VkCommandBuffer commandBuffer, GraphicsPipeline pipeline, int imageIndex, int from, int to) {
+		boolean verticesBound = false;
+		int boundIndexType = NOT_INDEXED;
+		boolean bindless = pipeline.isBindless();
+		boolean uniforms = pipeline.hasUniforms();
+		int pushedMaterial = -1;
+		int boundUniformOffset = NO_UNIFORMS;
+		
+		for (int i = from; i < to; i++) {
+			if (bindless && materialIndices[i] != pushedMaterial) {
+				pipeline.pushMaterialIndex(commandBuffer, materialIndices[i]);
+				pushedMaterial = materialIndices[i];
+			}
+			if (uniforms && uniformOffsets[i] != NO_UNIFORMS && uniformOffsets[i] != boundUniformOffset) {
+				pipeline.bindUniforms(commandBuffer, imageIndex, uniformOffsets[i]);
+				boundUniformOffset = uniformOffsets[i];
+			}
+			
+			if (indexTypes[i] == NOT_INDEXED) {
+				VK10.vkCmdDraw(commandBuffer, counts[i], instanceCounts[i], firstElements[i], firstInstances[i]);
+				continue;
+			}
+			
+			if (!verticesBound) {
+				geometry.bindVertices(commandBuffer);
+				verticesBound = true;
+			}
+			if (indexTypes[i] != boundIndexType) {
+				geometry.bindIndices(commandBuffer, indexTypes[i]);
+				boundIndexType = indexTypes[i];
+			}
+			
+			VK10.vkCmdDrawIndexed(commandBuffer, counts[i], instanceCounts[i], firstElements[i], vertexOffsets[i], firstInstances[i]);
+		}
+	}
+	
+	/**
+	 * Replaces the contents with another list's, reusing this list's arrays when they are large enough.
+	 */
+	public void copyFrom(DrawList other) {
+		if (counts.length < other.size) {
+			grow(other.size);
+		}
+		
+		System.arraycopy(other.counts, 0, counts, 0, other.size);
+		System.arraycopy(other.instanceCounts, 0, instanceCounts, 0, other.size);
+		System.arraycopy(other.firstElements, 0, firstElements, 0, other.size);
+		System.arraycopy(other.firstInstances, 0, firstInstances, 0, other.size);
+		System.arraycopy(other.vertexOffsets, 0, vertexOffsets, 0, other.size);
+		System.arraycopy(other.indexTypes, 0, indexTypes, 0, other.size);
+		System.arraycopy(other.materialIndices, 0, materialIndices, 0, other.size);
+		System.arraycopy(other.uniformOffsets, 0, uniformOffsets, 0, other.size);
+		size = other.size;
+		geometry = other.geometry;
+	}
+	
+	public void clear() {
+		size = 0;
+		geometry = null;
+	}
+	
+	public int size() {
+		return size;
+	}
+}
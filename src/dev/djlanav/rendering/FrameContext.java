@@ -0,0 +1,332 @@
+package dev.djlanav.rendering;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Everything one frame slot needs to record, submit and present. The structs are built once
+ * and render() only patches the fields that change per frame, so the hot path never allocates.
+ */
+public class FrameContext {
+
+	private final int index;
+
+	private VkCommandBuffer commandBuffer;
+
+	private LongBuffer imageAvailableSemaphore = BufferUtils.createLongBuffer(1);
+	private LongBuffer renderingFinishedSemaphore = BufferUtils.createLongBuffer(1);
+	private LongBuffer presentReadySemaphore = BufferUtils.createLongBuffer(1);
+
+	// Timeline value signalled by this slot's last submission, 0 before the first one
+	private long submittedValue = 0;
+
+	private LongBuffer swapchainBuffer = BufferUtils.createLongBuffer(1);
+	private IntBuffer imageIndices = BufferUtils.createIntBuffer(1);
+
+	private VkCommandBufferBeginInfo commandBufferBegin = VkCommandBufferBeginInfo.calloc();
+	private VkClearValue.Buffer clearValues = VkClearValue.calloc(1);
+	private VkRenderPassBeginInfo renderPassBegin = VkRenderPassBeginInfo.calloc();
+	private VkRenderingAttachmentInfo.Buffer colorAttachments = VkRenderingAttachmentInfo.calloc(1);
+	private VkRenderingInfo renderingInfo = VkRenderingInfo.calloc();
+	private VkImageMemoryBarrier2.Buffer attachmentBarrier = VkImageMemoryBarrier2.calloc(1);
+	private VkImageMemoryBarrier2.Buffer finalBarrier = VkImageMemoryBarrier2.calloc(1);
+	private VkDependencyInfo attachmentDependency = VkDependencyInfo.calloc();
+	private VkDependencyInfo finalDependency = VkDependencyInfo.calloc();
+
+	// Slot 0 holds the frame's uploads and is only submitted when there are any, slot 1 the frame itself
+	private VkCommandBufferSubmitInfo.Buffer commandBufferInfos = VkCommandBufferSubmitInfo.calloc(2);
+	private VkCommandBufferSubmitInfo.Buffer frameCommandBufferInfo = commandBufferInfos.slice(1, 1);
+	// Slot 0 is the acquire semaphore, slot 1 the transfer timeline and only waited on when uploads are pending there
+	private VkSemaphoreSubmitInfo.Buffer waitSemaphoreInfos = VkSemaphoreSubmitInfo.calloc(2);
+	private VkSemaphoreSubmitInfo.Buffer acquireWaitInfo = waitSemaphoreInfos.slice(0, 1);
+	private VkSemaphoreSubmitInfo.Buffer uploadWaitInfo = waitSemaphoreInfos.slice(1, 1);
+	// Slot 0 is the binary semaphore the frame's rendering signals, slot 1 advances the timeline and slot 2 is
+	// only used with ownership transfers, where the present queue's acquire signals the timeline instead
+	private VkSemaphoreSubmitInfo.Buffer signalSemaphoreInfos = VkSemaphoreSubmitInfo.calloc(3);
+	private VkSubmitInfo2.Buffer submitInfo = VkSubmitInfo2.calloc(1);
+	private VkSubmitInfo2.Buffer offscreenSubmitInfo = VkSubmitInfo2.calloc(1);
+	
+	private VkSemaphoreSubmitInfo.Buffer ownershipWaitInfo = VkSemaphoreSubmitInfo.calloc(1);
+	private VkCommandBufferSubmitInfo.Buffer acquireCommandBufferInfo = VkCommandBufferSubmitInfo.calloc(1);
+	private VkSubmitInfo2.Buffer acquireSubmitInfo = VkSubmitInfo2.calloc(1);
+	private VkPresentInfoKHR presentInfo = VkPresentInfoKHR.calloc();
+
+	public FrameContext(int index) {
+		this.index = index;
+
+		commandBufferBegin.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
+		commandBufferBegin.flags(0);
+		commandBufferBegin.pInheritanceInfo(null);
+
+		renderPassBegin.sType(VK10.VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO);
+		renderPassBegin.renderArea().offset().set(0, 0);
+		renderPassBegin.clearValueCount(1);
+		renderPassBegin.pClearValues(clearValues);
+
+		// Dynamic rendering has no render pass, so the attachment and its layout transitions are set up here instead
+		colorAttachments.sType(VK13.VK_STRUCTURE_TYPE_RENDERING_ATTACHMENT_INFO);
+		colorAttachments.imageLayout(VK10.VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+		colorAttachments.resolveMode(VK12.VK_RESOLVE_MODE_NONE);
+		colorAttachments.loadOp(VK10.VK_ATTACHMENT_LOAD_OP_CLEAR);
+		colorAttachments.storeOp(VK10.VK_ATTACHMENT_STORE_OP_STORE);
+
+		renderingInfo.sType(VK13.VK_STRUCTURE_TYPE_RENDERING_INFO);
+		renderingInfo.renderArea().offset().set(0, 0);
+		renderingInfo.layerCount(1);
+		renderingInfo.pColorAttachments(colorAttachments);
+
+		// Waits on the stage the acquire semaphore is waited on, like the render pass dependency does
+		initImageBarrier(attachmentBarrier.get(0));
+		attachmentBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT);
+		attachmentBarrier.srcAccessMask(VK13.VK_ACCESS_2_NONE);
+		attachmentBarrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT);
+		attachmentBarrier.dstAccessMask(VK13.VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT);
+		attachmentBarrier.oldLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
+		attachmentBarrier.newLayout(VK10.VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+
+		initImageBarrier(finalBarrier.get(0));
+		finalBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT);
+		finalBarrier.srcAccessMask(VK13.VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT);
+		finalBarrier.oldLayout(VK10.VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
+
+		attachmentDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		attachmentDependency.pImageMemoryBarriers(attachmentBarrier);
+		finalDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		finalDependency.pImageMemoryBarriers(finalBarrier);
+
+		commandBufferInfos.get(0).sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_SUBMIT_INFO);
+		commandBufferInfos.get(1).sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_SUBMIT_INFO);
+
+		VkSemaphoreSubmitInfo imageAvailable = waitSemaphoreInfos.get(0);
+		imageAvailable.sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO);
+		imageAvailable.stageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT);
+		
+		VkSemaphoreSubmitInfo uploadsFinished = waitSemaphoreInfos.get(1);
+		uploadsFinished.sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO);
+		uploadsFinished.stageMask(Uploader.CONSUMER_STAGES);
+
+		for (int i = 0; i < signalSemaphoreInfos.capacity(); i++) {
+			signalSemaphoreInfos.get(i).sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO);
+			signalSemaphoreInfos.get(i).stageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+		}
+
+		submitInfo.sType(VK13.VK_STRUCTURE_TYPE_SUBMIT_INFO_2);
+		submitInfo.pWaitSemaphoreInfos(acquireWaitInfo);
+		submitInfo.pCommandBufferInfos(frameCommandBufferInfo);
+		submitInfo.pSignalSemaphoreInfos(signalSemaphoreInfos.slice(0, 2));
+
+		// Offscreen frames have no acquire to wait on and nothing to present, so they only advance the timeline
+		offscreenSubmitInfo.sType(VK13.VK_STRUCTURE_TYPE_SUBMIT_INFO_2);
+		offscreenSubmitInfo.pWaitSemaphoreInfos(null);
+		offscreenSubmitInfo.pCommandBufferInfos(frameCommandBufferInfo);
+		offscreenSubmitInfo.pSignalSemaphoreInfos(signalSemaphoreInfos.slice(1, 1));
+		
+		VkSemaphoreSubmitInfo renderingFinished = ownershipWaitInfo.get(0);
+		renderingFinished.sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO);
+		renderingFinished.stageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+		acquireCommandBufferInfo.sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_SUBMIT_INFO);
+		
+		acquireSubmitInfo.sType(VK13.VK_STRUCTURE_TYPE_SUBMIT_INFO_2);
+		acquireSubmitInfo.pWaitSemaphoreInfos(ownershipWaitInfo);
+		acquireSubmitInfo.pCommandBufferInfos(acquireCommandBufferInfo);
+		acquireSubmitInfo.pSignalSemaphoreInfos(signalSemaphoreInfos.slice(1, 2));
+
+		presentInfo.sType(KHRSwapchain.VK_STRUCTURE_TYPE_PRESENT_INFO_KHR);
+		presentInfo.pWaitSemaphores(renderingFinishedSemaphore);
+		presentInfo.swapchainCount(1);
+		presentInfo.pSwapchains(swapchainBuffer);
+		presentInfo.pImageIndices(imageIndices);
+		presentInfo.pResults(null);
+	}
+
+	private void initImageBarrier(VkImageMemoryBarrier2 barrier) {
+		barrier.sType(VK13.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER_2);
+		barrier.srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+		barrier.dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+		barrier.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+	}
+
+	/**
+	 * Points this frame's submission at the cached command buffer of the acquired image.
+	 */
+	public void setCommandBuffer(VkCommandBuffer commandBuffer) {
+		this.commandBuffer = commandBuffer;
+		commandBufferInfos.get(1).commandBuffer(commandBuffer);
+	}
+
+	/**
+	 * Submits the upload command buffer ahead of the frame's own, or nothing extra if it is null.
+	 */
+	public void setUploadCommandBuffer(VkCommandBuffer uploadCommandBuffer) {
+		VkCommandBufferSubmitInfo.Buffer infos = frameCommandBufferInfo;
+		if (uploadCommandBuffer != null) {
+			commandBufferInfos.get(0).commandBuffer(uploadCommandBuffer);
+			infos = commandBufferInfos;
+		}
+
+		submitInfo.pCommandBufferInfos(infos);
+		offscreenSubmitInfo.pCommandBufferInfos(infos);
+	}
+
+	/**
+	 * Makes the next submission wait for uploads on another queue to reach value, or for nothing if value is 0.
+	 */
+	public void setUploadWait(long semaphore, long value) {
+		if (value == 0) {
+			submitInfo.pWaitSemaphoreInfos(acquireWaitInfo);
+			offscreenSubmitInfo.pWaitSemaphoreInfos(null);
+			return;
+		}
+		
+		waitSemaphoreInfos.get(1).semaphore(semaphore).value(value);
+		submitInfo.pWaitSemaphoreInfos(waitSemaphoreInfos);
+		offscreenSubmitInfo.pWaitSemaphoreInfos(uploadWaitInfo);
+	}
+	
+	/**
+	 * The acquire semaphore is only needed when presenting and may be NULL for offscreen frames.
+	 */
+	public void setSyncObjects(long imageAvailable, long timelineSemaphore) {
+		imageAvailableSemaphore.put(0, imageAvailable);
+
+		acquireWaitInfo.semaphore(imageAvailable);
+		signalSemaphoreInfos.get(1).semaphore(timelineSemaphore);
+	}
+	
+	/**
+	 * Sets the semaphores of the acquired image that present waits on. They belong to the image rather than this
+	 * slot, since a present may still be waiting on them when the slot comes around again. presentReady is NULL
+	 * without ownership transfers.
+	 */
+	public void setPresentSemaphores(long renderingFinished, long presentReady) {
+		renderingFinishedSemaphore.put(0, renderingFinished);
+		presentReadySemaphore.put(0, presentReady);
+		
+		signalSemaphoreInfos.get(0).semaphore(renderingFinished);
+		signalSemaphoreInfos.get(2).semaphore(presentReady);
+		ownershipWaitInfo.semaphore(renderingFinished);
+	}
+	
+	/**
+	 * Hands the swapchain image to the present queue family before presenting. The frame then only signals the
+	 * rendering finished semaphore, and the acquire submission on the present queue signals the timeline and
+	 * the present ready semaphore, which present waits on.
+	 */
+	public void enableOwnershipTransfer() {
+		submitInfo.pSignalSemaphoreInfos(signalSemaphoreInfos.slice(0, 1));
+		presentInfo.pWaitSemaphores(presentReadySemaphore);
+	}
+	
+	public VkSubmitInfo2.Buffer updateAcquireSubmitInfo(VkCommandBuffer acquireCommandBuffer) {
+		acquireCommandBufferInfo.commandBuffer(acquireCommandBuffer);
+		return acquireSubmitInfo;
+	}
+
+	/**
+	 * Sets the timeline value the next submission of this slot signals.
+	 */
+	public void updateSignalValue(long value) {
+		signalSemaphoreInfos.get(1).value(value);
+		submittedValue = value;
+	}
+
+	public void setClearColor(float r, float g, float b, float a) {
+		VkClearColorValue color = clearValues.get(0).color();
+		color.float32(0, r);
+		color.float32(1, g);
+		color.float32(2, b);
+		color.float32(3, a);
+	}
+
+	public VkRenderPassBeginInfo updateRenderPassBegin(long renderPass, long framebuffer, VkExtent2D extent) {
+		renderPassBegin.renderPass(renderPass);
+		renderPassBegin.framebuffer(framebuffer);
+		renderPassBegin.renderArea().extent(extent);
+		return renderPassBegin;
+	}
+
+	public VkRenderingInfo updateRenderingInfo(long imageView, VkExtent2D extent, int flags) {
+		colorAttachments.imageView(imageView);
+		colorAttachments.clearValue(clearValues.get(0));
+		renderingInfo.flags(flags);
+		renderingInfo.renderArea().extent(extent);
+		return renderingInfo;
+	}
+
+	/**
+	 * Barrier moving the image into COLOR_ATTACHMENT_OPTIMAL. Its contents are cleared, so the old layout is UNDEFINED.
+	 */
+	public VkDependencyInfo updateAttachmentBarrier(long image) {
+		attachmentBarrier.image(image);
+		return attachmentDependency;
+	}
+
+	/**
+	 * Barrier moving the image from COLOR_ATTACHMENT_OPTIMAL into the layout its consumer expects.
+	 */
+	public VkDependencyInfo updateFinalBarrier(long image, int finalLayout, long dstStageMask, long dstAccessMask) {
+		finalBarrier.image(image);
+		finalBarrier.newLayout(finalLayout);
+		finalBarrier.dstStageMask(dstStageMask);
+		finalBarrier.dstAccessMask(dstAccessMask);
+		return finalDependency;
+	}
+
+	public VkPresentInfoKHR updatePresentInfo(long swapchain, int imageIndex) {
+		swapchainBuffer.put(0, swapchain);
+		imageIndices.put(0, imageIndex);
+		return presentInfo;
+	}
+
+	public void free() {
+		commandBufferBegin.free();
+		clearValues.free();
+		renderPassBegin.free();
+		colorAttachments.free();
+		renderingInfo.free();
+		attachmentBarrier.free();
+		finalBarrier.free();
+		attachmentDependency.free();
+		finalDependency.free();
+		commandBufferInfos.free();
+		waitSemaphoreInfos.free();
+		signalSemaphoreInfos.free();
+		submitInfo.free();
+		offscreenSubmitInfo.free();
+		ownershipWaitInfo.free();
+		acquireCommandBufferInfo.free();
+		acquireSubmitInfo.free();
+		presentInfo.free();
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public VkCommandBuffer getCommandBuffer() {
+		return commandBuffer;
+	}
+
+	public long getImageAvailableSemaphore() {
+		return imageAvailableSemaphore.get(0);
+	}
+
+	public long getSubmittedValue() {
+		return submittedValue;
+	}
+
+	public VkCommandBufferBeginInfo getCommandBufferBegin() {
+		return commandBufferBegin;
+	}
+
+	public VkSubmitInfo2.Buffer getSubmitInfo() {
+		return submitInfo;
+	}
+
+	public VkSubmitInfo2.Buffer getOffscreenSubmitInfo() {
+		return offscreenSubmitInfo;
+	}
+}
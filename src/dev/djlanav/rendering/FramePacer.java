@@ -0,0 +1,175 @@
+package dev.djlanav.rendering;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.utils.HistogramSnapshot;
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * Trades throughput for latency. An optional FPS cap spaces frame starts evenly, and with VK_KHR_present_wait
+ * a frame only starts once all but maxLatencyFrames of the earlier presents reached the display. Also measures
+ * how long input takes to be presented.
+ */
+public class FramePacer {
+
+	// Ids of presents whose input time is remembered, must exceed the number of presents that can be pending
+	private static final int INPUT_HISTORY = 64;
+	private static final long PRESENT_WAIT_TIMEOUT = 1_000_000_000L;
+	private static final long SPIN_THRESHOLD = 1_000_000L;
+
+	private Logger logger = LogManager.getLogger();
+
+	private long frameIntervalNanos = 0;
+	private long nextFrameNanos = 0;
+	private int maxLatencyFrames = 0;
+	private boolean presentWaitEnabled = false;
+
+	private VkPresentIdKHR presentIdInfo = VkPresentIdKHR.calloc();
+	private LongBuffer presentIds = BufferUtils.createLongBuffer(1);
+	private long lastPresentId = 0;
+	private long firstSwapchainPresentId = 1;
+	private long lastWaitedPresentId = 0;
+
+	private volatile long latestInputNanos = 0;
+	private long lastSampledInputNanos = 0;
+	private long[] inputNanosByPresent = new long[INPUT_HISTORY];
+
+	private LatencyHistogram inputToPresent = new LatencyHistogram("INPUT_TO_PRESENT");
+
+	public FramePacer() {
+		presentIdInfo.sType(KHRPresentId.VK_STRUCTURE_TYPE_PRESENT_ID_KHR);
+		presentIdInfo.pPresentIds(presentIds);
+	}
+
+	/**
+	 * @param fpsCap frames per second to limit to, 0 for uncapped
+	 * @param maxLatencyFrames presents allowed to be pending, 0 disables the limiter
+	 * @param presentWaitEnabled whether the device enabled VK_KHR_present_id and VK_KHR_present_wait
+	 */
+	public void configure(int fpsCap, int maxLatencyFrames, boolean presentWaitEnabled) {
+		this.frameIntervalNanos = fpsCap > 0 ? 1_000_000_000L / fpsCap : 0;
+		this.maxLatencyFrames = presentWaitEnabled ? Math.min(maxLatencyFrames, INPUT_HISTORY / 2) : 0;
+		this.presentWaitEnabled = presentWaitEnabled;
+
+		logger.info("Frame pacing: FPS cap " + (fpsCap > 0 ? fpsCap : "off") + ", max latency "
+				+ (this.maxLatencyFrames > 0 ? this.maxLatencyFrames + " frames" : "off"));
+	}
+
+	/**
+	 * Called from input callbacks with the time the input arrived.
+	 */
+	public void markInput(long nanos) {
+		latestInputNanos = nanos;
+	}
+
+	/**
+	 * Blocks until the next frame may start according to the FPS cap and the latency limit.
+	 */
+	public void beginFrame(VkDevice logicalDevice, long swapchain) {
+		if (frameIntervalNanos > 0) {
+			waitForFrameSlot();
+		}
+
+		if (maxLatencyFrames > 0) {
+			waitForPresent(logicalDevice, swapchain, lastPresentId + 1 - maxLatencyFrames);
+		}
+	}
+
+	private void waitForFrameSlot() {
+		long now = System.nanoTime();
+
+		// Sleep most of the remaining time, then spin so the frame starts on time
+		while (now < nextFrameNanos) {
+			long remaining = nextFrameNanos - now;
+			if (remaining > SPIN_THRESHOLD) {
+				LockSupport.parkNanos(remaining - SPIN_THRESHOLD);
+			} else {
+				Thread.onSpinWait();
+			}
+			now = System.nanoTime();
+		}
+
+		// Don't try to catch up on missed slots after a long frame
+		nextFrameNanos = Math.max(nextFrameNanos, now - frameIntervalNanos) + frameIntervalNanos;
+	}
+
+	private void waitForPresent(VkDevice logicalDevice, long swapchain, long presentId) {
+		if (presentId < firstSwapchainPresentId || presentId <= lastWaitedPresentId) {
+			return;
+		}
+
+		int result = KHRPresentWait.vkWaitForPresentKHR(logicalDevice, swapchain, presentId, PRESENT_WAIT_TIMEOUT);
+		lastWaitedPresentId = presentId;
+
+		if (result == VK10.VK_SUCCESS || result == KHRSwapchain.VK_SUBOPTIMAL_KHR) {
+			recordInputLatency(presentId);
+		} else if (result == VK10.VK_TIMEOUT) {
+			logger.warn("Present " + presentId + " did not reach the display within a second");
+		}
+	}
+
+	/**
+	 * Tags the present with the next present id and remembers which input it is the first to show.
+	 */
+	public void preparePresent(VkPresentInfoKHR presentInfo) {
+		long presentId = ++lastPresentId;
+
+		long inputNanos = latestInputNanos;
+		inputNanosByPresent[(int) (presentId % INPUT_HISTORY)] = inputNanos != lastSampledInputNanos ? inputNanos : 0;
+		lastSampledInputNanos = inputNanos;
+
+		if (presentWaitEnabled) {
+			presentIds.put(0, presentId);
+			presentInfo.pNext(presentIdInfo);
+		}
+	}
+
+	/**
+	 * Without the latency limiter there is no wait for the display, so latency is measured up to the present call.
+	 */
+	public void onPresented() {
+		if (maxLatencyFrames == 0) {
+			recordInputLatency(lastPresentId);
+		}
+	}
+
+	private void recordInputLatency(long presentId) {
+		int slot = (int) (presentId % INPUT_HISTORY);
+		long inputNanos = inputNanosByPresent[slot];
+
+		if (inputNanos != 0) {
+			inputToPresent.record(System.nanoTime() - inputNanos);
+			inputNanosByPresent[slot] = 0;
+		}
+	}
+
+	/**
+	 * Present ids of an old swapchain cannot be waited on with the new one.
+	 */
+	public void onSwapChainRecreated() {
+		firstSwapchainPresentId = lastPresentId + 1;
+	}
+
+	/**
+	 * Input-to-present latency since the last {@link #report()}.
+	 */
+	public HistogramSnapshot snapshot() {
+		return inputToPresent.snapshot();
+	}
+
+	public void report() {
+		if (inputToPresent.getCount() > 0) {
+			logger.info("Input latency: " + inputToPresent.snapshotAndReset());
+		}
+	}
+
+	public void free() {
+		presentIdInfo.free();
+	}
+}
@@ -0,0 +1,10 @@
+package dev.djlanav.rendering;
+
+public enum FramePhase {
+	GPU_WAIT,
+	ACQUIRE,
+	RECORD,
+	SUBMIT,
+	PRESENT,
+	FRAME
+}
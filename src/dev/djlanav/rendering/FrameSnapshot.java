@@ -0,0 +1,62 @@
+package dev.djlanav.rendering;
+
+/**
+ * Simulation state handed to the render thread: the scene's draws and a column-major transform per scene object.
+ * Snapshots are preallocated and reused; once published a snapshot is treated as immutable until the render
+ * thread hands it back.
+ */
+public class FrameSnapshot {
+
+	private long tick;
+	private long simulationNanos;
+	private int sceneVersion = -1;
+	private DrawList drawList = new DrawList();
+	private float[] transforms = new float[0];
+	private int transformCount = 0;
+	
+	/**
+	 * Fills this snapshot. The draw list is only copied when the scene changed since the snapshot was last used,
+	 * the transforms every time.
+	 *
+	 * @param transforms transformCount matrices of 16 floats each
+	 */
+	public void set(long tick, long simulationNanos, int sceneVersion, DrawList sceneDraws, float[] transforms, int transformCount) {
+		this.tick = tick;
+		this.simulationNanos = simulationNanos;
+		
+		if (this.transforms.length < transformCount * 16) {
+			this.transforms = new float[transformCount * 16];
+		}
+		System.arraycopy(transforms, 0, this.transforms, 0, transformCount * 16);
+		this.transformCount = transformCount;
+		
+		if (this.sceneVersion != sceneVersion) {
+			drawList.copyFrom(sceneDraws);
+			this.sceneVersion = sceneVersion;
+		}
+	}
+	
+	public long getTick() {
+		return tick;
+	}
+	
+	public long getSimulationNanos() {
+		return simulationNanos;
+	}
+	
+	public int getSceneVersion() {
+		return sceneVersion;
+	}
+	
+	public DrawList getDrawList() {
+		return drawList;
+	}
+	
+	public float[] getTransforms() {
+		return transforms;
+	}
+	
+	public int getTransformCount() {
+		return transformCount;
+	}
+}
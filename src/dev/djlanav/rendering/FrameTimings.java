@@ -0,0 +1,73 @@
+package dev.djlanav.rendering;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import dev.djlanav.utils.HistogramSnapshot;
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * CPU time spent in each phase of a frame, plus the full frame-to-frame interval.
+ */
+public class FrameTimings {
+
+	private Logger logger = LogManager.getLogger();
+	
+	private LatencyHistogram[] histograms = new LatencyHistogram[FramePhase.values().length];
+	private long lastFrameStart = 0;
+	
+	public FrameTimings() {
+		for (FramePhase phase : FramePhase.values()) {
+			histograms[phase.ordinal()] = new LatencyHistogram(phase.name());
+		}
+	}
+	
+	public void record(FramePhase phase, long nanos) {
+		histograms[phase.ordinal()].record(nanos);
+	}
+	
+	/**
+	 * Marks the start of a frame and records the interval since the previous one.
+	 */
+	public void markFrameStart(long nanos) {
+		if (lastFrameStart != 0) {
+			histograms[FramePhase.FRAME.ordinal()].record(nanos - lastFrameStart);
+		}
+		lastFrameStart = nanos;
+	}
+	
+	/**
+	 * Percentiles of one phase since the last {@link #report()}.
+	 */
+	public HistogramSnapshot snapshot(FramePhase phase) {
+		return histograms[phase.ordinal()].snapshot();
+	}
+	
+	/**
+	 * Drops everything recorded so far, e.g. the warm-up frames of a benchmark.
+	 */
+	public void reset() {
+		for (LatencyHistogram histogram : histograms) {
+			histogram.reset();
+		}
+	}
+	
+	/**
+	 * Logs every phase recorded since the last report and starts a new interval.
+	 */
+	public void report() {
+		report("Frame timings:");
+	}
+	
+	public void report(String title) {
+		StringBuilder builder = new StringBuilder(title);
+		
+		for (LatencyHistogram histogram : histograms) {
+			if (histogram.getCount() > 0) {
+				builder.append(System.lineSeparator()).append("  ").append(histogram.snapshotAndReset());
+			}
+		}
+		
+		logger.info(builder.toString());
+	}
+}
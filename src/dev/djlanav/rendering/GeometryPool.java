@@ -0,0 +1,178 @@
+package dev.djlanav.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.vulkan.Allocation;
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.MemoryUsage;
+import dev.djlanav.vulkan.StagingRegion;
+import dev.djlanav.vulkan.TlsfHeap;
+
+/**
+ * Device-local vertex and index buffers shared by every mesh of one vertex layout. Meshes are ranges inside
+ * them, so draws only differ in their offsets and the buffers are bound once per command buffer. Vertex ranges
+ * are allocated in whole vertices: a mesh's first vertex becomes the draw's vertexOffset and its indices stay
+ * local to the mesh, which lets any mesh of up to 65536 vertices use 16-bit indices.
+ */
+public class GeometryPool {
+
+	private static final int MAX_SHORT_INDEXED_VERTICES = 65536;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private VertexLayout vertexLayout;
+	private MemoryAllocator memoryAllocator;
+	private Uploader uploader;
+	
+	private LongBuffer vertexBuffer = BufferUtils.createLongBuffer(1);
+	private LongBuffer indexBuffer = BufferUtils.createLongBuffer(1);
+	private LongBuffer vertexBufferOffsets = BufferUtils.createLongBuffer(1);
+	private Allocation vertexAllocation;
+	private Allocation indexAllocation;
+	
+	// Vertex ranges are counted in vertices, index ranges in bytes
+	private TlsfHeap vertexHeap;
+	private TlsfHeap indexHeap;
+	
+	private int nextMeshId = 0;
+	private ArrayDeque<Integer> freeMeshIds = new ArrayDeque<Integer>();
+	
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, Uploader uploader, VertexLayout vertexLayout, int vertexCapacity, long indexCapacity) {
+		this.vertexLayout = vertexLayout;
+		this.memoryAllocator = memoryAllocator;
+		this.uploader = uploader;
+		
+		long vertexBytes = (long) vertexCapacity * vertexLayout.getStride();
+		vertexAllocation = createBuffer(logicalDevice, vertexBytes, VK10.VK_BUFFER_USAGE_VERTEX_BUFFER_BIT, vertexBuffer);
+		indexAllocation = createBuffer(logicalDevice, indexCapacity, VK10.VK_BUFFER_USAGE_INDEX_BUFFER_BIT, indexBuffer);
+		
+		vertexHeap = new TlsfHeap(vertexCapacity);
+		indexHeap = new TlsfHeap(indexCapacity);
+		
+		logger.info("Created geometry pool for " + vertexCapacity + " vertices of " + vertexLayout.getStride() + " bytes and " + (indexCapacity >> 10) + " KiB of indices");
+	}
+	
+	private Allocation createBuffer(VkDevice logicalDevice, long size, int usage, LongBuffer buffer) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size(size);
+			bufferInfo.usage(usage | VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+			
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, buffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create geometry buffer");
+			}
+		}
+		
+		return memoryAllocator.allocateForBuffer(buffer.get(0), MemoryUsage.GPU_ONLY);
+	}
+	
+	/**
+	 * Copies a mesh into the pool through the uploader. Vertices must be tightly packed in the pool's layout.
+	 * The mesh can be drawn from the next submitted frame on.
+	 */
+	public Mesh upload(ByteBuffer vertices, int[] indices) {
+		return upload(vertices, IntBuffer.wrap(indices));
+	}
+	
+	/**
+	 * Reads the indices between the buffer's position and limit, e.g. straight from a mapped mesh cache file.
+	 */
+	public synchronized Mesh upload(ByteBuffer vertices, IntBuffer indices) {
+		int indexCount = indices.remaining();
+		int stride = vertexLayout.getStride();
+		if (vertices.remaining() % stride != 0) {
+			throw new IllegalArgumentException("Vertex data is not a whole number of " + stride + " byte vertices");
+		}
+		
+		int vertexCount = vertices.remaining() / stride;
+		boolean shortIndices = vertexCount <= MAX_SHORT_INDEXED_VERTICES;
+		int indexSize = shortIndices ? Short.BYTES : Integer.BYTES;
+		long indexBytes = (long) indexCount * indexSize;
+		
+		TlsfHeap.Region vertexRegion = vertexHeap.allocate(vertexCount, 1);
+		if (vertexRegion == null) {
+			throw new RuntimeException("Failed to allocate " + vertexCount + " vertices, the geometry pool is full");
+		}
+		
+		// 4-byte aligned, so the first index is a whole number of indices of either type
+		TlsfHeap.Region indexRegion = indexHeap.allocate(indexBytes, Integer.BYTES);
+		if (indexRegion == null) {
+			vertexHeap.free(vertexRegion);
+			throw new RuntimeException("Failed to allocate " + indexCount + " indices, the geometry pool is full");
+		}
+		
+		StagingRegion vertexStaging = uploader.stage(vertices.remaining());
+		MemoryUtil.memCopy(MemoryUtil.memAddress(vertices), vertexStaging.getAddress(), vertices.remaining());
+		uploader.copyToBuffer(vertexStaging, vertexBuffer.get(0), vertexRegion.getOffset() * stride);
+		
+		StagingRegion indexStaging = uploader.stage(indexBytes);
+		ByteBuffer indexData = indexStaging.getData();
+		for (int i = 0; i < indexCount; i++) {
+			if (shortIndices) {
+				indexData.putShort(i * Short.BYTES, (short) indices.get(indices.position() + i));
+			} else {
+				indexData.putInt(i * Integer.BYTES, indices.get(indices.position() + i));
+			}
+		}
+		uploader.copyToBuffer(indexStaging, indexBuffer.get(0), indexRegion.getOffset());
+		
+		int indexType = shortIndices ? VK10.VK_INDEX_TYPE_UINT16 : VK10.VK_INDEX_TYPE_UINT32;
+		int id = freeMeshIds.isEmpty() ? nextMeshId++ : freeMeshIds.pop();
+		return new Mesh(this, id, vertexRegion, indexRegion, vertexCount, indexCount, indexSize, indexType);
+	}
+	
+	/**
+	 * Returns a mesh's ranges to the pool. Frames that draw it may still be in flight, so call this through Renderer.retire().
+	 */
+	public synchronized void free(Mesh mesh) {
+		vertexHeap.free(mesh.getVertexRegion());
+		indexHeap.free(mesh.getIndexRegion());
+		freeMeshIds.push(mesh.getId());
+	}
+	
+	/**
+	 * Binds the shared vertex buffer. Only reads state, so worker threads can call it concurrently.
+	 */
+	public void bindVertices(VkCommandBuffer commandBuffer) {
+		VK10.vkCmdBindVertexBuffers(commandBuffer, 0, vertexBuffer, vertexBufferOffsets);
+	}
+	
+	/**
+	 * Binds the shared index buffer. 16 and 32-bit indices share it, so it is rebound whenever the type changes.
+	 */
+	public void bindIndices(VkCommandBuffer commandBuffer, int indexType) {
+		VK10.vkCmdBindIndexBuffer(commandBuffer, indexBuffer.get(0), 0, indexType);
+	}
+	
+	public VertexLayout getVertexLayout() {
+		return vertexLayout;
+	}
+	
+	public long getVertexBuffer() {
+		return vertexBuffer.get(0);
+	}
+	
+	public long getIndexBuffer() {
+		return indexBuffer.get(0);
+	}
+	
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyBuffer(logicalDevice, vertexBuffer.get(0), null);
+		VK10.vkDestroyBuffer(logicalDevice, indexBuffer.get(0), null);
+		memoryAllocator.free(vertexAllocation);
+		memoryAllocator.free(indexAllocation);
+		logger.info("Destroyed geometry pool");
+	}
+}
@@ -0,0 +1,408 @@
+package dev.djlanav.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.utils.Frustum;
+import dev.djlanav.vulkan.Allocation;
+import dev.djlanav.vulkan.DescriptorBinding;
+import dev.djlanav.vulkan.DescriptorLayoutCache;
+import dev.djlanav.vulkan.DescriptorSetCache;
+import dev.djlanav.vulkan.DescriptorSetKey;
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.MemoryUsage;
+import dev.djlanav.vulkan.TlsfHeap;
+
+/**
+ * Draws large numbers of objects with a few API calls. Each object's transform, bounding sphere and mesh live in
+ * a storage buffer; every frame a compute pass culls them against the frustum and appends an indexed indirect
+ * draw per visible object, and the frame draws them with one vkCmdDrawIndexedIndirectCount per index type.
+ * <p>
+ * The commands recorded for an image never change as objects are added or moved, only the buffers they read
+ * do, so the command buffer cache keeps reusing them. Objects are never removed, their count only grows up to
+ * the capacity given at creation.
+ */
+public class GpuCuller {
+
+	// Must match cull.comp: mat4 transform, vec4 bounds, then index count, first index, vertex offset and index width
+	private static final int OBJECT_SIZE = 96;
+	private static final int TRANSFORM_SIZE = 64;
+	private static final int COMMAND_SIZE = VkDrawIndexedIndirectCommand.SIZEOF;
+	// Six frustum planes followed by the object count and capacity
+	private static final int FRAME_SIZE = 6 * 16 + 16;
+	// One draw count per index type, 16-bit first
+	private static final int COUNTS_SIZE = 2 * Integer.BYTES;
+	private static final int GROUP_SIZE = 64;
+
+	private Logger logger = LogManager.getLogger();
+
+	private VkDevice logicalDevice;
+	private MemoryAllocator memoryAllocator;
+	private DescriptorSetCache descriptorSetCache;
+	private GeometryPool geometry;
+
+	private int capacity;
+	private int alignment;
+	private int imageCount;
+
+	// Per-image slices, so commands cached for one image never share the buffers another image's frame writes
+	private LongBuffer objectBuffer = BufferUtils.createLongBuffer(1);
+	private Allocation objectAllocation;
+	private long objectSliceSize;
+	private LongBuffer indirectBuffer = BufferUtils.createLongBuffer(1);
+	private Allocation indirectAllocation;
+	private long indirectSliceSize;
+	private LongBuffer countBuffer = BufferUtils.createLongBuffer(1);
+	private Allocation countAllocation;
+	private long countSliceSize;
+	private LongBuffer frameDataBuffer = BufferUtils.createLongBuffer(1);
+	private Allocation frameDataAllocation;
+	private long frameDataSliceSize;
+	private long[] descriptorSets = new long[0];
+
+	private long setLayout;
+	private long pipelineLayout;
+	private LongBuffer shaderModule = BufferUtils.createLongBuffer(1);
+	private LongBuffer computePipeline = BufferUtils.createLongBuffer(1);
+
+	// CPU copy of the object data, each image's slice catches up on the range changed since its last frame
+	private ByteBuffer objectData;
+	private int objectCount = 0;
+	private int[] dirtyStarts = new int[0];
+	private int[] dirtyEnds = new int[0];
+
+	// Frustum planes as (normal, distance), everything inside clip space until a view projection is set
+	private float[] planes = new float[Frustum.PLANE_FLOATS];
+
+	private long writtenBytes = 0;
+
+	/**
+	 * @param minAlignment the larger of the device's uniform and storage buffer offset alignments
+	 */
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, DescriptorLayoutCache layoutCache,
+			DescriptorSetCache descriptorSetCache, GeometryPool geometry, Shader cullShader, int minAlignment, int imageCount, int capacity) {
+		this.logicalDevice = logicalDevice;
+		this.memoryAllocator = memoryAllocator;
+		this.descriptorSetCache = descriptorSetCache;
+		this.geometry = geometry;
+		this.capacity = capacity;
+		this.alignment = minAlignment;
+
+		objectData = MemoryUtil.memCalloc(capacity * OBJECT_SIZE);
+		setViewProjection(new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 });
+
+		int computeStage = VK10.VK_SHADER_STAGE_COMPUTE_BIT;
+		setLayout = layoutCache.getSetLayout(logicalDevice,
+				new DescriptorBinding(0, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, 1, computeStage),
+				new DescriptorBinding(1, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, 1, computeStage),
+				new DescriptorBinding(2, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, 1, computeStage),
+				new DescriptorBinding(3, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, 1, computeStage));
+		pipelineLayout = layoutCache.getPipelineLayout(logicalDevice, new long[] { setLayout });
+		createComputePipeline(cullShader);
+
+		createImageBuffers(imageCount);
+		logger.info("Created GPU culler for " + capacity + " objects");
+	}
+
+	private Allocation createBuffer(LongBuffer buffer, long size, int usage, MemoryUsage memoryUsage) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size(size);
+			bufferInfo.usage(usage);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, buffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create culling buffer");
+			}
+		}
+		return memoryAllocator.allocateForBuffer(buffer.get(0), memoryUsage);
+	}
+
+	private void createComputePipeline(Shader cullShader) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkShaderModuleCreateInfo shaderInfo = VkShaderModuleCreateInfo.calloc(stack);
+			shaderInfo.sType(VK10.VK_STRUCTURE_TYPE_SHADER_MODULE_CREATE_INFO);
+			shaderInfo.pCode(cullShader.getShaderBytes());
+
+			if (VK10.vkCreateShaderModule(logicalDevice, shaderInfo, null, shaderModule) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create cull shader module");
+			}
+
+			VkComputePipelineCreateInfo.Buffer pipelineInfo = VkComputePipelineCreateInfo.calloc(1, stack);
+			pipelineInfo.sType(VK10.VK_STRUCTURE_TYPE_COMPUTE_PIPELINE_CREATE_INFO);
+			pipelineInfo.stage().sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_SHADER_STAGE_CREATE_INFO);
+			pipelineInfo.stage().stage(VK10.VK_SHADER_STAGE_COMPUTE_BIT);
+			pipelineInfo.stage().module(shaderModule.get(0));
+			pipelineInfo.stage().pName(stack.UTF8("main"));
+			pipelineInfo.layout(pipelineLayout);
+
+			if (VK10.vkCreateComputePipelines(logicalDevice, VK10.VK_NULL_HANDLE, pipelineInfo, null, computePipeline) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create cull pipeline");
+			}
+		}
+	}
+
+	private void createImageBuffers(int imageCount) {
+		this.imageCount = imageCount;
+		indirectSliceSize = TlsfHeap.alignUp(2L * capacity * COMMAND_SIZE, alignment);
+		countSliceSize = TlsfHeap.alignUp(COUNTS_SIZE, alignment);
+		frameDataSliceSize = TlsfHeap.alignUp(FRAME_SIZE, alignment);
+		objectSliceSize = TlsfHeap.alignUp((long) capacity * OBJECT_SIZE, alignment);
+
+		// Written from the host once the image's previous frame is done, so no frame in flight ever reads a slice being written
+		objectAllocation = createBuffer(objectBuffer, objectSliceSize * imageCount, VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT, MemoryUsage.CPU_TO_GPU);
+		indirectAllocation = createBuffer(indirectBuffer, indirectSliceSize * imageCount,
+				VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK10.VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT, MemoryUsage.GPU_ONLY);
+		countAllocation = createBuffer(countBuffer, countSliceSize * imageCount,
+				VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT | VK10.VK_BUFFER_USAGE_INDIRECT_BUFFER_BIT | VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT, MemoryUsage.GPU_ONLY);
+		frameDataAllocation = createBuffer(frameDataBuffer, frameDataSliceSize * imageCount, VK10.VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT, MemoryUsage.CPU_TO_GPU);
+
+		// A new buffer starts out empty, so every slice needs all objects
+		dirtyStarts = new int[imageCount];
+		dirtyEnds = new int[imageCount];
+		Arrays.fill(dirtyEnds, objectCount * OBJECT_SIZE);
+
+		descriptorSets = new long[imageCount];
+		for (int i = 0; i < imageCount; i++) {
+			DescriptorSetKey key = new DescriptorSetKey(setLayout)
+					.bindBuffer(0, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, objectBuffer.get(0), i * objectSliceSize, (long) capacity * OBJECT_SIZE)
+					.bindBuffer(1, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, indirectBuffer.get(0), i * indirectSliceSize, 2L * capacity * COMMAND_SIZE)
+					.bindBuffer(2, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, countBuffer.get(0), i * countSliceSize, COUNTS_SIZE)
+					.bindBuffer(3, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, frameDataBuffer.get(0), i * frameDataSliceSize, FRAME_SIZE);
+			descriptorSets[i] = descriptorSetCache.get(logicalDevice, key);
+		}
+	}
+
+	/**
+	 * Adds an object drawing mesh with a column-major transform and a bounding sphere of {x, y, z, radius} in
+	 * object space, and returns its index. The mesh must come from the culler's geometry pool. Takes effect with
+	 * the next frame, no re-recording needed.
+	 */
+	public int addObject(Mesh mesh, float[] transform, float[] bounds) {
+		if (mesh.getPool() != geometry) {
+			throw new IllegalArgumentException("Culled meshes must come from the renderer's geometry pool");
+		}
+		if (objectCount == capacity) {
+			throw new RuntimeException("Failed to add object, the culler is full at " + capacity + " objects");
+		}
+
+		int index = objectCount++;
+		int base = index * OBJECT_SIZE;
+		for (int i = 0; i < 16; i++) {
+			objectData.putFloat(base + i * Float.BYTES, transform[i]);
+		}
+		for (int i = 0; i < 4; i++) {
+			objectData.putFloat(base + TRANSFORM_SIZE + i * Float.BYTES, bounds[i]);
+		}
+		objectData.putInt(base + 80, mesh.getIndexCount());
+		objectData.putInt(base + 84, mesh.getFirstIndex());
+		objectData.putInt(base + 88, mesh.getVertexOffset());
+		objectData.putInt(base + 92, mesh.getIndexType() == VK10.VK_INDEX_TYPE_UINT32 ? 1 : 0);
+		markDirty(base, base + OBJECT_SIZE);
+		return index;
+	}
+
+	public void setTransform(int index, float[] transform) {
+		setTransform(index, transform, 0);
+	}
+
+	/**
+	 * Sets the transform from the 16 floats at offset, e.g. one matrix of a packed array.
+	 */
+	public void setTransform(int index, float[] transforms, int offset) {
+		int base = index * OBJECT_SIZE;
+		for (int i = 0; i < 16; i++) {
+			objectData.putFloat(base + i * Float.BYTES, transforms[offset + i]);
+		}
+		markDirty(base, base + TRANSFORM_SIZE);
+	}
+
+	private void markDirty(int start, int end) {
+		for (int i = 0; i < imageCount; i++) {
+			dirtyStarts[i] = Math.min(dirtyStarts[i], start);
+			dirtyEnds[i] = Math.max(dirtyEnds[i], end);
+		}
+	}
+
+	/**
+	 * Culls against the frustum of a column-major view projection matrix with Vulkan's 0 to 1 depth range.
+	 */
+	public void setViewProjection(float[] viewProjection) {
+		Frustum.extractPlanes(viewProjection, planes);
+	}
+
+	/**
+	 * Bounding sphere around the box of the positions, which have to be the first three floats of each vertex.
+	 */
+	public static float[] computeBounds(ByteBuffer vertices, int stride) {
+		float[] min = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE };
+		float[] max = { -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+		for (int offset = vertices.position(); offset + 3 * Float.BYTES <= vertices.limit(); offset += stride) {
+			for (int i = 0; i < 3; i++) {
+				float value = vertices.getFloat(offset + i * Float.BYTES);
+				min[i] = Math.min(min[i], value);
+				max[i] = Math.max(max[i], value);
+			}
+		}
+
+		float halfX = (max[0] - min[0]) / 2;
+		float halfY = (max[1] - min[1]) / 2;
+		float halfZ = (max[2] - min[2]) / 2;
+		return new float[] { min[0] + halfX, min[1] + halfY, min[2] + halfZ, (float) Math.sqrt(halfX * halfX + halfY * halfY + halfZ * halfZ) };
+	}
+
+	/**
+	 * Copies the objects changed since this image's last frame into its slice and writes its frustum and object
+	 * count. Called by the renderer once the image's previous frame has completed.
+	 */
+	void update(int imageIndex) {
+		int dirtyStart = dirtyStarts[imageIndex];
+		int dirtyEnd = dirtyEnds[imageIndex];
+		if (dirtyStart < dirtyEnd) {
+			long slice = objectAllocation.getMappedAddress() + imageIndex * objectSliceSize;
+			MemoryUtil.memCopy(MemoryUtil.memAddress(objectData) + dirtyStart, slice + dirtyStart, dirtyEnd - dirtyStart);
+			memoryAllocator.flush(objectAllocation);
+			writtenBytes += dirtyEnd - dirtyStart;
+			dirtyStarts[imageIndex] = Integer.MAX_VALUE;
+			dirtyEnds[imageIndex] = 0;
+		}
+
+		long address = frameDataAllocation.getMappedAddress() + imageIndex * frameDataSliceSize;
+		for (int i = 0; i < planes.length; i++) {
+			MemoryUtil.memPutFloat(address + i * Float.BYTES, planes[i]);
+		}
+		MemoryUtil.memPutInt(address + 96, objectCount);
+		MemoryUtil.memPutInt(address + 100, capacity);
+		memoryAllocator.flush(frameDataAllocation);
+	}
+
+	/**
+	 * Resets the image's draw counts and culls every object into its command slice. Must be recorded outside of
+	 * a render pass.
+	 */
+	void recordCull(VkCommandBuffer commandBuffer, int imageIndex) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VK10.vkCmdFillBuffer(commandBuffer, countBuffer.get(0), imageIndex * countSliceSize, COUNTS_SIZE, 0);
+			recordBarrier(commandBuffer, stack, VK13.VK_PIPELINE_STAGE_2_CLEAR_BIT, VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT,
+					VK13.VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK13.VK_ACCESS_2_SHADER_STORAGE_READ_BIT | VK13.VK_ACCESS_2_SHADER_STORAGE_WRITE_BIT);
+
+			VK10.vkCmdBindPipeline(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_COMPUTE, computePipeline.get(0));
+			VK10.vkCmdBindDescriptorSets(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_COMPUTE, pipelineLayout, 0, stack.longs(descriptorSets[imageIndex]), null);
+			// Sized for the capacity, so objects added later are culled without re-recording
+			VK10.vkCmdDispatch(commandBuffer, (capacity + GROUP_SIZE - 1) / GROUP_SIZE, 1, 1);
+
+			recordBarrier(commandBuffer, stack, VK13.VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT, VK13.VK_ACCESS_2_SHADER_STORAGE_WRITE_BIT,
+					VK13.VK_PIPELINE_STAGE_2_DRAW_INDIRECT_BIT, VK13.VK_ACCESS_2_INDIRECT_COMMAND_READ_BIT);
+		}
+	}
+
+	private void recordBarrier(VkCommandBuffer commandBuffer, MemoryStack stack, long srcStage, long srcAccess, long dstStage, long dstAccess) {
+		VkMemoryBarrier2.Buffer barrier = VkMemoryBarrier2.calloc(1, stack);
+		barrier.sType(VK13.VK_STRUCTURE_TYPE_MEMORY_BARRIER_2);
+		barrier.srcStageMask(srcStage);
+		barrier.srcAccessMask(srcAccess);
+		barrier.dstStageMask(dstStage);
+		barrier.dstAccessMask(dstAccess);
+
+		VkDependencyInfo dependency = VkDependencyInfo.calloc(stack);
+		dependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		dependency.pMemoryBarriers(barrier);
+		VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+	}
+
+	/**
+	 * Draws the visible objects of this image, 16-bit indexed meshes first. Must be recorded inside the render
+	 * pass with the graphics pipeline bound.
+	 */
+	void recordDraw(VkCommandBuffer commandBuffer, int imageIndex) {
+		long commandOffset = imageIndex * indirectSliceSize;
+		long countOffset = imageIndex * countSliceSize;
+		geometry.bindVertices(commandBuffer);
+
+		geometry.bindIndices(commandBuffer, VK10.VK_INDEX_TYPE_UINT16);
+		VK12.vkCmdDrawIndexedIndirectCount(commandBuffer, indirectBuffer.get(0), commandOffset, countBuffer.get(0), countOffset, capacity, COMMAND_SIZE);
+
+		geometry.bindIndices(commandBuffer, VK10.VK_INDEX_TYPE_UINT32);
+		VK12.vkCmdDrawIndexedIndirectCount(commandBuffer, indirectBuffer.get(0), commandOffset + (long) capacity * COMMAND_SIZE,
+				countBuffer.get(0), countOffset + Integer.BYTES, capacity, COMMAND_SIZE);
+	}
+
+	/**
+	 * Recreates the per-image buffers for a different image count. The old ones may still be in use by pending
+	 * frames, so they are destroyed through the renderer.
+	 */
+	public void resize(int imageCount, Renderer renderer) {
+		if (imageCount == this.imageCount) {
+			return;
+		}
+
+		long oldObjects = objectBuffer.get(0);
+		long oldCommands = indirectBuffer.get(0);
+		long oldCounts = countBuffer.get(0);
+		long oldFrame = frameDataBuffer.get(0);
+		Allocation oldObjectAllocation = objectAllocation;
+		Allocation oldCommandAllocation = indirectAllocation;
+		Allocation oldCountAllocation = countAllocation;
+		Allocation oldFrameDataAllocation = frameDataAllocation;
+		descriptorSetCache.evict(oldCommands);
+		renderer.retire(() -> {
+			VK10.vkDestroyBuffer(logicalDevice, oldObjects, null);
+			VK10.vkDestroyBuffer(logicalDevice, oldCommands, null);
+			VK10.vkDestroyBuffer(logicalDevice, oldCounts, null);
+			VK10.vkDestroyBuffer(logicalDevice, oldFrame, null);
+			memoryAllocator.free(oldObjectAllocation);
+			memoryAllocator.free(oldCommandAllocation);
+			memoryAllocator.free(oldCountAllocation);
+			memoryAllocator.free(oldFrameDataAllocation);
+		});
+
+		objectBuffer = BufferUtils.createLongBuffer(1);
+		indirectBuffer = BufferUtils.createLongBuffer(1);
+		countBuffer = BufferUtils.createLongBuffer(1);
+		frameDataBuffer = BufferUtils.createLongBuffer(1);
+		createImageBuffers(imageCount);
+	}
+
+	/**
+	 * Logs the object count and how much object data was written since the last report.
+	 */
+	public void report() {
+		if (objectCount > 0) {
+			logger.info(String.format("GPU culling %d of %d objects, wrote %.1f KB of object data", objectCount, capacity, writtenBytes / 1e3));
+		}
+		writtenBytes = 0;
+	}
+
+	public int getObjectCount() {
+		return objectCount;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyPipeline(logicalDevice, computePipeline.get(0), null);
+		VK10.vkDestroyShaderModule(logicalDevice, shaderModule.get(0), null);
+
+		VK10.vkDestroyBuffer(logicalDevice, objectBuffer.get(0), null);
+		VK10.vkDestroyBuffer(logicalDevice, indirectBuffer.get(0), null);
+		VK10.vkDestroyBuffer(logicalDevice, countBuffer.get(0), null);
+		VK10.vkDestroyBuffer(logicalDevice, frameDataBuffer.get(0), null);
+		memoryAllocator.free(objectAllocation);
+		memoryAllocator.free(indirectAllocation);
+		memoryAllocator.free(countAllocation);
+		memoryAllocator.free(frameDataAllocation);
+		MemoryUtil.memFree(objectData);
+		logger.info("Destroyed GPU culler");
+	}
+}
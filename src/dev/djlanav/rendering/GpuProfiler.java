@@ -0,0 +1,184 @@
+package dev.djlanav.rendering;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.vulkan.DeviceManager;
+import dev.djlanav.utils.HistogramSnapshot;
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * GPU-side timings from timestamp queries. Every swapchain image owns a slice of the query pool that its
+ * cached command buffer writes into. The slice is read back the next time the image comes around, after
+ * its timeline value has been reached, so reading results never stalls.
+ */
+public class GpuProfiler {
+
+	private static final GpuScope[] SCOPES = GpuScope.values();
+	private static final int QUERIES_PER_IMAGE = SCOPES.length * 2;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private LongBuffer queryPool = BufferUtils.createLongBuffer(1);
+	private LongBuffer results = BufferUtils.createLongBuffer(QUERIES_PER_IMAGE);
+	private boolean[] pendingResults = new boolean[0];
+	
+	private LatencyHistogram[] histograms = new LatencyHistogram[GpuScope.values().length];
+	private boolean enabled = false;
+	private double timestampPeriod;
+	private long timestampMask;
+	
+	public GpuProfiler() {
+		for (GpuScope scope : GpuScope.values()) {
+			histograms[scope.ordinal()] = new LatencyHistogram("GPU_" + scope.name());
+		}
+	}
+	
+	public void create(VkDevice logicalDevice, DeviceManager deviceManager, int queueFamilyIndex, int imageCount) {
+		timestampPeriod = deviceManager.getPhysicalProperties().limits().timestampPeriod();
+		int timestampValidBits = queryTimestampValidBits(deviceManager.getPhysicalDevice(), queueFamilyIndex);
+		
+		if (timestampPeriod <= 0.0 || timestampValidBits == 0) {
+			logger.warn("Timestamp queries are not supported on the graphics queue, GPU profiling is disabled");
+			return;
+		}
+		
+		timestampMask = timestampValidBits >= 64 ? -1L : (1L << timestampValidBits) - 1;
+		createQueryPool(logicalDevice, imageCount);
+		enabled = true;
+		
+		logger.info("Created GPU profiler, timestamp period " + timestampPeriod + " ns");
+	}
+	
+	private int queryTimestampValidBits(VkPhysicalDevice physicalDevice, int queueFamilyIndex) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			IntBuffer queueFamilyCount = stack.callocInt(1);
+			VK10.vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, queueFamilyCount, null);
+			
+			VkQueueFamilyProperties.Buffer queueFamilies = VkQueueFamilyProperties.calloc(queueFamilyCount.get(0), stack);
+			VK10.vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, queueFamilyCount, queueFamilies);
+			return queueFamilies.get(queueFamilyIndex).timestampValidBits();
+		}
+	}
+	
+	private void createQueryPool(VkDevice logicalDevice, int imageCount) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkQueryPoolCreateInfo queryPoolInfo = VkQueryPoolCreateInfo.calloc(stack);
+			queryPoolInfo.sType(VK10.VK_STRUCTURE_TYPE_QUERY_POOL_CREATE_INFO);
+			queryPoolInfo.queryType(VK10.VK_QUERY_TYPE_TIMESTAMP);
+			queryPoolInfo.queryCount(imageCount * QUERIES_PER_IMAGE);
+			
+			if (VK10.vkCreateQueryPool(logicalDevice, queryPoolInfo, null, queryPool) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create timestamp query pool");
+			}
+		}
+		
+		pendingResults = new boolean[imageCount];
+	}
+	
+	/**
+	 * Swaps in a pool sized for a new image count. The old pool is handed to the renderer to destroy once idle.
+	 */
+	public void resize(VkDevice logicalDevice, int imageCount, Renderer renderer) {
+		if (!enabled || imageCount == pendingResults.length) {
+			return;
+		}
+		
+		long oldPool = queryPool.get(0);
+		renderer.retire(() -> VK10.vkDestroyQueryPool(logicalDevice, oldPool, null));
+		createQueryPool(logicalDevice, imageCount);
+	}
+	
+	/**
+	 * Must be recorded outside of a render pass, before any scope of this image is written.
+	 */
+	public void recordReset(VkCommandBuffer commandBuffer, int imageIndex) {
+		if (enabled) {
+			VK10.vkCmdResetQueryPool(commandBuffer, queryPool.get(0), imageIndex * QUERIES_PER_IMAGE, QUERIES_PER_IMAGE);
+		}
+	}
+	
+	public void beginScope(VkCommandBuffer commandBuffer, int imageIndex, GpuScope scope) {
+		if (enabled) {
+			VK10.vkCmdWriteTimestamp(commandBuffer, VK10.VK_PIPELINE_STAGE_TOP_OF_PIPE_BIT, queryPool.get(0), queryIndex(imageIndex, scope));
+		}
+	}
+	
+	public void endScope(VkCommandBuffer commandBuffer, int imageIndex, GpuScope scope) {
+		if (enabled) {
+			VK10.vkCmdWriteTimestamp(commandBuffer, VK10.VK_PIPELINE_STAGE_BOTTOM_OF_PIPE_BIT, queryPool.get(0), queryIndex(imageIndex, scope) + 1);
+		}
+	}
+	
+	public void markSubmitted(int imageIndex) {
+		if (enabled) {
+			pendingResults[imageIndex] = true;
+		}
+	}
+	
+	/**
+	 * Reads the timestamps of the image's previous submission. Only call once the timeline reached that submission.
+	 */
+	public void collect(VkDevice logicalDevice, int imageIndex) {
+		if (!enabled || !pendingResults[imageIndex]) {
+			return;
+		}
+		
+		int result = VK10.vkGetQueryPoolResults(logicalDevice, queryPool.get(0), imageIndex * QUERIES_PER_IMAGE, QUERIES_PER_IMAGE, 
+				results, Long.BYTES, VK10.VK_QUERY_RESULT_64_BIT);
+		pendingResults[imageIndex] = false;
+		
+		if (result != VK10.VK_SUCCESS) {
+			return;
+		}
+		
+		for (GpuScope scope : SCOPES) {
+			int begin = scope.ordinal() * 2;
+			long ticks = ((results.get(begin + 1) & timestampMask) - (results.get(begin) & timestampMask)) & timestampMask;
+			histograms[scope.ordinal()].record((long) (ticks * timestampPeriod));
+		}
+	}
+	
+	private int queryIndex(int imageIndex, GpuScope scope) {
+		return imageIndex * QUERIES_PER_IMAGE + scope.ordinal() * 2;
+	}
+	
+	/**
+	 * GPU time of one scope since the last {@link #report()}.
+	 */
+	public HistogramSnapshot snapshot(GpuScope scope) {
+		return histograms[scope.ordinal()].snapshot();
+	}
+	
+	public void report() {
+		if (!enabled) {
+			return;
+		}
+		
+		StringBuilder builder = new StringBuilder("GPU timings:");
+		for (LatencyHistogram histogram : histograms) {
+			if (histogram.getCount() > 0) {
+				builder.append(System.lineSeparator()).append("  ").append(histogram.snapshotAndReset());
+			}
+		}
+		
+		logger.info(builder.toString());
+	}
+	
+	public void cleanUp(VkDevice logicalDevice) {
+		if (enabled) {
+			VK10.vkDestroyQueryPool(logicalDevice, queryPool.get(0), null);
+			logger.info("Destroyed timestamp query pool");
+		}
+	}
+	
+	public boolean isEnabled() {
+		return enabled;
+	}
+}
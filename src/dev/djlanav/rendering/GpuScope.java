@@ -0,0 +1,6 @@
+package dev.djlanav.rendering;
+
+public enum GpuScope {
+	RENDER_PASS,
+	DRAW
+}
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,14 +13,28 @@ import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.*;
 
+import dev.djlanav.vulkan.DescriptorLayoutCache;
+import dev.djlanav.vulkan.PushConstantRange;
+import dev.djlanav.vulkan.ResourceHeap;
+import dev.djlanav.vulkan.UniformRing;
+
 public class GraphicsPipeline {
 	
+	// Every device supports at least this many bytes of push constants
+	private static final int MAX_PUSH_CONSTANT_SIZE = 128;
+	
 	private Logger logger = LogManager.getLogger();
 	
 	private LongBuffer vertexBuffer = BufferUtils.createLongBuffer(1);
 	private LongBuffer fragmentBuffer = BufferUtils.createLongBuffer(1);
 	
 	private LongBuffer pipelineLayout = BufferUtils.createLongBuffer(1);
+	private long[] descriptorSetLayouts = new long[0];
+	private PushConstantRange[] pushConstantRanges = new PushConstantRange[0];
+	// The resource heap's set, bound with the pipeline when bindless
+	private long resourceHeapSet = VK10.VK_NULL_HANDLE;
+	private UniformRing uniformRing;
+	private int uniformSetIndex = -1;
 	private LongBuffer graphicsPipeline = BufferUtils.createLongBuffer(1);
 	private IntBuffer dynamicStates = BufferUtils.createIntBuffer(2);
 	
@@ -31,6 +46,9 @@ public class GraphicsPipeline {
 	
 	private VkPipelineShaderStageCreateInfo.Buffer shaderStageInfos = VkPipelineShaderStageCreateInfo.calloc(2);
 	
+	private VertexLayout vertexLayout;
+	private VkVertexInputBindingDescription.Buffer vertexBindings;
+	private VkVertexInputAttributeDescription.Buffer vertexAttributes;
 	private VkPipelineVertexInputStateCreateInfo vertexInput = VkPipelineVertexInputStateCreateInfo.calloc();
 	private VkPipelineInputAssemblyStateCreateInfo inputAssembly = VkPipelineInputAssemblyStateCreateInfo.calloc();
 	private VkPipelineDynamicStateCreateInfo dynamicState = VkPipelineDynamicStateCreateInfo.calloc();
@@ -39,7 +57,6 @@ public class GraphicsPipeline {
 	private VkPipelineMultisampleStateCreateInfo multisamplingInfo = VkPipelineMultisampleStateCreateInfo.calloc();
 	private VkPipelineColorBlendAttachmentState.Buffer colorBlendingInfo = VkPipelineColorBlendAttachmentState.calloc(1);
 	private VkPipelineColorBlendStateCreateInfo colorBlendingState = VkPipelineColorBlendStateCreateInfo.calloc();
-	private VkPipelineLayoutCreateInfo pipelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc();
 	
 	public GraphicsPipeline() {
 		dynamicStates.put(0, VK10.VK_DYNAMIC_STATE_VIEWPORT);
@@ -98,10 +115,21 @@ public class GraphicsPipeline {
 		}
 	}
 	
+	/**
+	 * Layout of the vertex buffer the pipeline reads. Without one, the vertex shader has to generate its vertices.
+	 */
+	public void setVertexLayout(VertexLayout vertexLayout) {
+		this.vertexLayout = vertexLayout;
+	}
+	
 	public void createPipelineState() {
 		vertexInput.sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_VERTEX_INPUT_STATE_CREATE_INFO);
-		vertexInput.pVertexBindingDescriptions(null);
-		vertexInput.pVertexAttributeDescriptions(null);
+		if (vertexLayout != null) {
+			vertexBindings = vertexLayout.createBindingDescriptions();
+			vertexAttributes = vertexLayout.createAttributeDescriptions();
+		}
+		vertexInput.pVertexBindingDescriptions(vertexBindings);
+		vertexInput.pVertexAttributeDescriptions(vertexAttributes);
 		
 		inputAssembly.sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_INPUT_ASSEMBLY_STATE_CREATE_INFO);
 		inputAssembly.topology(VK10.VK_PRIMITIVE_TOPOLOGY_TRIANGLE_LIST);
@@ -136,6 +164,17 @@ public class GraphicsPipeline {
 		}
 	}
 	
+	/**
+	 * Updates the dynamic viewport and scissor after a resize. The pipeline itself does not change.
+	 */
+	public void updateViewport(VkExtent2D extent2D) {
+		VkViewport currentViewport = viewports.get(0);
+		currentViewport.width((float) extent2D.width());
+		currentViewport.height((float) extent2D.height());
+		
+		scissors.get(0).extent(extent2D);
+	}
+	
 	public void initRasterizer() {
 		rasterizerState.sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_RASTERIZATION_STATE_CREATE_INFO);
 		rasterizerState.depthClampEnable(false);
@@ -182,16 +221,50 @@ public class GraphicsPipeline {
 		colorBlendingState.blendConstants(3, 0.0f);
 	}
 	
-	public void createPipelineLayout(VkDevice logicalDevice) {
-		pipelineLayoutInfo.sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO);
-		pipelineLayoutInfo.setLayoutCount(0);
-		pipelineLayoutInfo.pSetLayouts(null);
-		pipelineLayoutInfo.pPushConstantRanges(null);
-		
-		if (VK10.vkCreatePipelineLayout(logicalDevice, pipelineLayoutInfo, null, pipelineLayout) !=  VK10.VK_SUCCESS) {
-			throw new RuntimeException("Failed to create pipeline layout");
+	/**
+	 * Descriptor set layouts the shaders use, in set order. None by default.
+	 */
+	public void setDescriptorSetLayouts(long... descriptorSetLayouts) {
+		this.descriptorSetLayouts = descriptorSetLayouts;
+	}
+	
+	/**
+	 * Makes the resource heap set 0 and adds a push constant with the material index at offset 0, which the shaders
+	 * use to find their textures and buffers in the heap. Replaces any set layouts given before.
+	 */
+	public void setResourceHeap(ResourceHeap resourceHeap) {
+		this.descriptorSetLayouts = new long[] { resourceHeap.getSetLayout() };
+		addPushConstantRange(new PushConstantRange(VK10.VK_SHADER_STAGE_VERTEX_BIT | VK10.VK_SHADER_STAGE_FRAGMENT_BIT, 0, Integer.BYTES));
+		this.resourceHeapSet = resourceHeap.getDescriptorSet();
+	}
+	
+	/**
+	 * Appends the uniform ring's dynamic uniform buffer as the next set, set 1 after a resource heap and set 0 otherwise.
+	 */
+	public void setUniformRing(UniformRing uniformRing) {
+		this.uniformSetIndex = descriptorSetLayouts.length;
+		this.descriptorSetLayouts = Arrays.copyOf(descriptorSetLayouts, uniformSetIndex + 1);
+		this.descriptorSetLayouts[uniformSetIndex] = uniformRing.getSetLayout();
+		this.uniformRing = uniformRing;
+	}
+	
+	/**
+	 * Declares push constant bytes for per-draw data too small to be worth a uniform allocation. Ranges of
+	 * different stages may overlap, the 128 bytes every device supports are the limit.
+	 */
+	public void addPushConstantRange(PushConstantRange range) {
+		if (range.getOffset() + range.getSize() > MAX_PUSH_CONSTANT_SIZE) {
+			throw new IllegalArgumentException("Push constants end at " + (range.getOffset() + range.getSize()) + ", past " + MAX_PUSH_CONSTANT_SIZE + " bytes");
 		}
-		
+		this.pushConstantRanges = Arrays.copyOf(pushConstantRanges, pushConstantRanges.length + 1);
+		this.pushConstantRanges[pushConstantRanges.length - 1] = range;
+	}
+	
+	/**
+	 * Takes the pipeline layout from the cache, which shares it with every pipeline of the same interface and destroys it.
+	 */
+	public void createPipelineLayout(VkDevice logicalDevice, DescriptorLayoutCache layoutCache) {
+		pipelineLayout.put(0, layoutCache.getPipelineLayout(logicalDevice, descriptorSetLayouts, pushConstantRanges));
 		logger.info("Created graphics pipeline layout");
 	}
 	
@@ -210,7 +283,18 @@ public class GraphicsPipeline {
 			graphicsPipelineInfo.pColorBlendState(colorBlendingState);
 			graphicsPipelineInfo.pDynamicState(dynamicState);
 			graphicsPipelineInfo.layout(pipelineLayout.get(0));
-			graphicsPipelineInfo.renderPass(renderer.getRenderPass());
+			
+			if (renderer.isDynamicRendering()) {
+				// Without a render pass the pipeline declares the attachment formats it renders into
+				VkPipelineRenderingCreateInfo renderingInfo = VkPipelineRenderingCreateInfo.calloc(stack);
+				renderingInfo.sType(VK13.VK_STRUCTURE_TYPE_PIPELINE_RENDERING_CREATE_INFO);
+				renderingInfo.pColorAttachmentFormats(stack.ints(renderer.getColorFormat()));
+				
+				graphicsPipelineInfo.pNext(renderingInfo);
+				graphicsPipelineInfo.renderPass(MemoryUtil.NULL);
+			} else {
+				graphicsPipelineInfo.renderPass(renderer.getRenderPass());
+			}
 			graphicsPipelineInfo.subpass(0);
 			graphicsPipelineInfo.basePipelineHandle(MemoryUtil.NULL);
 			graphicsPipelineInfo.basePipelineIndex(-1);
@@ -222,18 +306,78 @@ public class GraphicsPipeline {
 			dynamicState.free();
 			shaderStageInfos.free();
 			vertexInput.free();
+			if (vertexLayout != null) {
+				vertexBindings.free();
+				vertexAttributes.free();
+			}
 			inputAssembly.free();
 			viewportState.free();
 			rasterizerState.free();
 			multisamplingInfo.free();
 			colorBlendingState.free();
 			colorBlendingInfo.free();
-			pipelineLayoutInfo.free();
 			
 			logger.info("Created graphics pipeline");
 		}
 	}
 	
+	/**
+	 * Binds the pipeline, its dynamic viewport and scissor and, when bindless, the resource heap. Only reads state,
+	 * so worker threads can call it concurrently.
+	 */
+	public void bind(VkCommandBuffer commandBuffer) {
+		VK10.vkCmdBindPipeline(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, graphicsPipeline.get(0));
+		VK10.vkCmdSetViewport(commandBuffer, 0, viewports);
+		VK10.vkCmdSetScissor(commandBuffer, 0, scissors);
+		
+		if (isBindless()) {
+			try (MemoryStack stack = MemoryStack.stackPush()) {
+				VK10.vkCmdBindDescriptorSets(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipelineLayout.get(0), 0, stack.longs(resourceHeapSet), null);
+			}
+		}
+	}
+	
+	/**
+	 * Sets the material index for the following draws. Only valid on bindless pipelines.
+	 */
+	public void pushMaterialIndex(VkCommandBuffer commandBuffer, int index) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			pushConstants(commandBuffer, 0, stack.ints(index));
+		}
+	}
+	
+	/**
+	 * Writes data into push constants at offset, for every stage whose range covers any of those bytes.
+	 */
+	public void pushConstants(VkCommandBuffer commandBuffer, int offset, IntBuffer data) {
+		int end = offset + data.remaining() * Integer.BYTES;
+		int stageFlags = 0;
+		for (PushConstantRange range : pushConstantRanges) {
+			if (range.getOffset() < end && offset < range.getOffset() + range.getSize()) {
+				stageFlags |= range.getStageFlags();
+			}
+		}
+		VK10.vkCmdPushConstants(commandBuffer, pipelineLayout.get(0), stageFlags, offset, data);
+	}
+	
+	/**
+	 * Binds the uniform ring's set of this image at a dynamic offset from {@link UniformRing#allocate(int)}.
+	 */
+	public void bindUniforms(VkCommandBuffer commandBuffer, int imageIndex, int offset) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VK10.vkCmdBindDescriptorSets(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, pipelineLayout.get(0), uniformSetIndex, 
+					stack.longs(uniformRing.getDescriptorSet(imageIndex)), stack.ints(offset));
+		}
+	}
+	
+	public boolean isBindless() {
+		return resourceHeapSet != VK10.VK_NULL_HANDLE;
+	}
+	
+	public boolean hasUniforms() {
+		return uniformRing != null;
+	}
+	
 	public void cleanUp(VkDevice logicalDevice) {
 		VK10.vkDestroyShaderModule(logicalDevice, vertexBuffer.get(0), null);
 		logger.info("Destroyed vertex shader module");
@@ -244,9 +388,6 @@ public class GraphicsPipeline {
 		VK10.vkDestroyPipeline(logicalDevice, graphicsPipeline.get(0), null);
 		logger.info("Destroyed graphics pipeline");
 		
-		VK10.vkDestroyPipelineLayout(logicalDevice, pipelineLayout.get(0), null);
-		logger.info("Destroyed pipeline layout");
-		
 		viewports.free();
 		viewport.free();
 		scissors.free();
@@ -258,6 +399,10 @@ public class GraphicsPipeline {
 		dynamicState.pDynamicStates(dynamicStates);
 	}
 	
+	public long getPipelineLayout() {
+		return pipelineLayout.get(0);
+	}
+	
 	public long getGraphicsPipeline() {
 		if (graphicsPipeline != null) {
 			return graphicsPipeline.get(0);
@@ -0,0 +1,81 @@
+package dev.djlanav.rendering;
+
+import dev.djlanav.vulkan.TlsfHeap;
+
+/**
+ * Vertices and indices of one object, stored as ranges of a {@link GeometryPool}'s shared buffers.
+ */
+public class Mesh {
+
+	private final GeometryPool pool;
+	private final int id;
+	private final TlsfHeap.Region vertexRegion;
+	private final TlsfHeap.Region indexRegion;
+	
+	private final int vertexOffset;
+	private final int vertexCount;
+	private final int firstIndex;
+	private final int indexCount;
+	private final int indexType;
+	
+	Mesh(GeometryPool pool, int id, TlsfHeap.Region vertexRegion, TlsfHeap.Region indexRegion, int vertexCount, int indexCount, int indexSize, int indexType) {
+		this.pool = pool;
+		this.id = id;
+		this.vertexRegion = vertexRegion;
+		this.indexRegion = indexRegion;
+		this.vertexOffset = (int) vertexRegion.getOffset();
+		this.vertexCount = vertexCount;
+		this.firstIndex = (int) (indexRegion.getOffset() / indexSize);
+		this.indexCount = indexCount;
+		this.indexType = indexType;
+	}
+	
+	TlsfHeap.Region getVertexRegion() {
+		return vertexRegion;
+	}
+	
+	TlsfHeap.Region getIndexRegion() {
+		return indexRegion;
+	}
+	
+	public GeometryPool getPool() {
+		return pool;
+	}
+	
+	/**
+	 * Index of the mesh in its pool, unique among the pool's live meshes. Ids of freed meshes are reused, so they
+	 * stay about as small as the number of live meshes.
+	 */
+	public int getId() {
+		return id;
+	}
+	
+	/**
+	 * First vertex of the mesh in the shared vertex buffer, added to every index by vkCmdDrawIndexed.
+	 */
+	public int getVertexOffset() {
+		return vertexOffset;
+	}
+	
+	public int getVertexCount() {
+		return vertexCount;
+	}
+	
+	/**
+	 * First index of the mesh, counted in indices of its own type from the start of the index buffer.
+	 */
+	public int getFirstIndex() {
+		return firstIndex;
+	}
+	
+	public int getIndexCount() {
+		return indexCount;
+	}
+	
+	/**
+	 * VK_INDEX_TYPE_UINT16 when every index fits, otherwise VK_INDEX_TYPE_UINT32.
+	 */
+	public int getIndexType() {
+		return indexType;
+	}
+}
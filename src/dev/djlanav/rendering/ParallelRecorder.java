@@ -0,0 +1,253 @@
+package dev.djlanav.rendering;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Records the draw list into secondary command buffers on worker threads. Worker slot N always records
+ * slice N of the list with its own command pools, one per swapchain image, so no pool is touched by two
+ * threads at once and a pool can be reset as a whole once its image's previous frame has completed.
+ */
+public class ParallelRecorder {
+
+	// Below this many draws per worker the cost of handing out work outweighs recording inline
+	public static final int MIN_DRAWS_PER_WORKER = 256;
+
+	private Logger logger = LogManager.getLogger();
+
+	private final int workerCount;
+	private ExecutorService workers;
+
+	// Indexed by [worker][image]
+	private long[][] commandPools;
+	private VkCommandBuffer[][] secondaryBuffers;
+
+	private VkCommandBufferInheritanceInfo[] inheritanceInfos;
+	private VkCommandBufferInheritanceRenderingInfo[] inheritanceRenderingInfos;
+	private IntBuffer colorFormats;
+	private VkCommandBufferBeginInfo[] beginInfos;
+	private PointerBuffer executeBuffers;
+
+	private int queueFamilyIndex;
+	private volatile Throwable workerFailure;
+
+	public ParallelRecorder(int workerCount) {
+		if (workerCount < 1) {
+			throw new IllegalArgumentException("Parallel recording needs at least 1 worker");
+		}
+
+		this.workerCount = workerCount;
+	}
+
+	public void create(VkDevice logicalDevice, int queueFamilyIndex, int imageCount) {
+		this.queueFamilyIndex = queueFamilyIndex;
+
+		AtomicInteger threadIndex = new AtomicInteger();
+		workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+			Thread thread = new Thread(runnable, "record-worker-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		inheritanceInfos = new VkCommandBufferInheritanceInfo[workerCount];
+		beginInfos = new VkCommandBufferBeginInfo[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			inheritanceInfos[i] = VkCommandBufferInheritanceInfo.calloc();
+			inheritanceInfos[i].sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_INFO);
+			inheritanceInfos[i].subpass(0);
+
+			beginInfos[i] = VkCommandBufferBeginInfo.calloc();
+			beginInfos[i].sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
+			beginInfos[i].flags(VK10.VK_COMMAND_BUFFER_USAGE_RENDER_PASS_CONTINUE_BIT);
+			beginInfos[i].pInheritanceInfo(inheritanceInfos[i]);
+		}
+		executeBuffers = MemoryUtil.memAllocPointer(workerCount);
+
+		createCommandBuffers(logicalDevice, imageCount);
+		logger.info("Created " + workerCount + " command recording workers");
+	}
+
+	/**
+	 * Secondaries recorded for vkCmdBeginRendering inherit the attachment formats instead of a render pass.
+	 */
+	public void setDynamicRendering(int colorFormat) {
+		colorFormats = MemoryUtil.memAllocInt(1);
+		colorFormats.put(0, colorFormat);
+		
+		inheritanceRenderingInfos = new VkCommandBufferInheritanceRenderingInfo[workerCount];
+		for (int i = 0; i < workerCount; i++) {
+			inheritanceRenderingInfos[i] = VkCommandBufferInheritanceRenderingInfo.calloc();
+			inheritanceRenderingInfos[i].sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_INHERITANCE_RENDERING_INFO);
+			inheritanceRenderingInfos[i].pColorAttachmentFormats(colorFormats);
+			inheritanceRenderingInfos[i].rasterizationSamples(VK10.VK_SAMPLE_COUNT_1_BIT);
+			
+			inheritanceInfos[i].pNext(inheritanceRenderingInfos[i]);
+		}
+	}
+	
+	private void createCommandBuffers(VkDevice logicalDevice, int imageCount) {
+		commandPools = new long[workerCount][imageCount];
+		secondaryBuffers = new VkCommandBuffer[workerCount][imageCount];
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandPoolCreateInfo cmdPoolInfo = VkCommandPoolCreateInfo.calloc(stack);
+			cmdPoolInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_POOL_CREATE_INFO);
+			cmdPoolInfo.queueFamilyIndex(queueFamilyIndex);
+
+			VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO);
+			allocateInfo.level(VK10.VK_COMMAND_BUFFER_LEVEL_SECONDARY);
+			allocateInfo.commandBufferCount(1);
+
+			LongBuffer commandPool = stack.callocLong(1);
+			PointerBuffer commandBuffer = stack.callocPointer(1);
+
+			for (int worker = 0; worker < workerCount; worker++) {
+				for (int image = 0; image < imageCount; image++) {
+					if (VK10.vkCreateCommandPool(logicalDevice, cmdPoolInfo, null, commandPool) != VK10.VK_SUCCESS) {
+						throw new RuntimeException("Failed to create worker command pool");
+					}
+					commandPools[worker][image] = commandPool.get(0);
+
+					allocateInfo.commandPool(commandPool.get(0));
+					if (VK10.vkAllocateCommandBuffers(logicalDevice, allocateInfo, commandBuffer) != VK10.VK_SUCCESS) {
+						throw new RuntimeException("Failed to allocate secondary command buffer");
+					}
+					secondaryBuffers[worker][image] = new VkCommandBuffer(commandBuffer.get(0), logicalDevice);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Swaps in pools for a new image count. The old pools are handed to the renderer to destroy once idle.
+	 */
+	public void resize(VkDevice logicalDevice, int imageCount, Renderer renderer) {
+		long[][] oldPools = commandPools;
+		renderer.retire(() -> destroyCommandPools(logicalDevice, oldPools));
+		createCommandBuffers(logicalDevice, imageCount);
+	}
+
+	/**
+	 * Records the draw list into secondaries and executes them from the primary buffer, which must be inside a render
+	 * pass or dynamic rendering begun for secondary command buffers. Blocks until every worker is done.
+	 */
+	public void record(VkDevice logicalDevice, VkCommandBuffer primaryBuffer, int imageIndex, long renderPass, long frameBuffer,
+			GraphicsPipeline graphicsPipeline, DrawList drawList, GpuProfiler gpuProfiler) {
+		int drawCount = drawList.size();
+		int activeWorkers = Math.max(1, Math.min(workerCount, drawCount / MIN_DRAWS_PER_WORKER));
+		int sliceSize = (drawCount + activeWorkers - 1) / activeWorkers;
+
+		CountDownLatch latch = new CountDownLatch(activeWorkers);
+		workerFailure = null;
+
+		for (int worker = 0; worker < activeWorkers; worker++) {
+			int slot = worker;
+			int from = Math.min(drawCount, worker * sliceSize);
+			int to = Math.min(drawCount, from + sliceSize);
+			boolean first = worker == 0;
+			boolean last = worker == activeWorkers - 1;
+
+			inheritanceInfos[slot].renderPass(renderPass);
+			inheritanceInfos[slot].framebuffer(frameBuffer);
+
+			workers.execute(() -> {
+				try {
+					recordSlice(logicalDevice, slot, imageIndex, graphicsPipeline, drawList, from, to, first, last, gpuProfiler);
+				} catch (Throwable e) {
+					workerFailure = e;
+				} finally {
+					latch.countDown();
+				}
+			});
+		}
+
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for command recording workers", e);
+		}
+
+		if (workerFailure != null) {
+			throw new RuntimeException("Failed to record secondary command buffer", workerFailure);
+		}
+
+		executeBuffers.clear();
+		for (int worker = 0; worker < activeWorkers; worker++) {
+			executeBuffers.put(secondaryBuffers[worker][imageIndex]);
+		}
+		executeBuffers.flip();
+
+		VK10.vkCmdExecuteCommands(primaryBuffer, executeBuffers);
+	}
+
+	private void recordSlice(VkDevice logicalDevice, int worker, int imageIndex, GraphicsPipeline graphicsPipeline, DrawList drawList,
+			int from, int to, boolean first, boolean last, GpuProfiler gpuProfiler) {
+		VkCommandBuffer commandBuffer = secondaryBuffers[worker][imageIndex];
+		VK10.vkResetCommandPool(logicalDevice, commandPools[worker][imageIndex], 0);
+
+		if (VK10.vkBeginCommandBuffer(commandBuffer, beginInfos[worker]) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to begin secondary command buffer");
+		}
+
+		// Secondaries run back to back, so the draw scope spans from the first one to the last
+		if (first) {
+			gpuProfiler.beginScope(commandBuffer, imageIndex, GpuScope.DRAW);
+		}
+
+		graphicsPipeline.bind(commandBuffer);
+		drawList.record(commandBuffer, graphicsPipeline, imageIndex, from, to);
+
+		if (last) {
+			gpuProfiler.endScope(commandBuffer, imageIndex, GpuScope.DRAW);
+		}
+
+		if (VK10.vkEndCommandBuffer(commandBuffer) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to end secondary command buffer");
+		}
+	}
+
+	private void destroyCommandPools(VkDevice logicalDevice, long[][] pools) {
+		for (long[] workerPools : pools) {
+			for (long pool : workerPools) {
+				VK10.vkDestroyCommandPool(logicalDevice, pool, null);
+			}
+		}
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		workers.shutdownNow();
+		destroyCommandPools(logicalDevice, commandPools);
+
+		for (int i = 0; i < workerCount; i++) {
+			beginInfos[i].free();
+			inheritanceInfos[i].free();
+		}
+		MemoryUtil.memFree(executeBuffers);
+		
+		if (inheritanceRenderingInfos != null) {
+			for (VkCommandBufferInheritanceRenderingInfo renderingInfo : inheritanceRenderingInfos) {
+				renderingInfo.free();
+			}
+			MemoryUtil.memFree(colorFormats);
+		}
+
+		logger.info("Destroyed command recording workers");
+	}
+
+	public int getWorkerCount() {
+		return workerCount;
+	}
+}
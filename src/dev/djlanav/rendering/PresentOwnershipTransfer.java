@@ -0,0 +1,160 @@
+package dev.djlanav.rendering;
+
+import java.nio.LongBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.vulkan.RenderTarget;
+import dev.djlanav.vulkan.VulkanQueue;
+
+/**
+ * Lets the swapchain use EXCLUSIVE sharing when graphics and present are different queue families, which keeps
+ * framebuffer compression enabled on drivers that turn it off for CONCURRENT images. Each frame releases its
+ * image at the end of its command buffer, and a submission on the present queue acquires it before presenting.
+ * The acquire only depends on the image, so one command buffer is recorded per swapchain image and reused.
+ */
+public class PresentOwnershipTransfer {
+
+	private Logger logger = LogManager.getLogger();
+
+	private int graphicsFamily;
+	private int presentFamily;
+
+	private LongBuffer commandPool = BufferUtils.createLongBuffer(1);
+	private VkCommandBuffer[] acquireCommandBuffers;
+
+	private VkImageMemoryBarrier2.Buffer releaseBarrier = VkImageMemoryBarrier2.calloc(1);
+	private VkDependencyInfo releaseDependency = VkDependencyInfo.calloc();
+
+	public void create(VkDevice logicalDevice, VulkanQueue graphicsQueue, VulkanQueue presentQueue, RenderTarget swapchain) {
+		graphicsFamily = graphicsQueue.getParentFamilyIndex();
+		presentFamily = presentQueue.getParentFamilyIndex();
+
+		// Images are already in PRESENT_SRC_KHR here, so the pair only moves ownership
+		initBarrier(releaseBarrier.get(0));
+		releaseBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COLOR_ATTACHMENT_OUTPUT_BIT);
+		releaseBarrier.srcAccessMask(VK13.VK_ACCESS_2_COLOR_ATTACHMENT_WRITE_BIT);
+		releaseBarrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_NONE);
+		releaseBarrier.dstAccessMask(VK13.VK_ACCESS_2_NONE);
+
+		releaseDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		releaseDependency.pImageMemoryBarriers(releaseBarrier);
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandPoolCreateInfo cmdPoolInfo = VkCommandPoolCreateInfo.calloc(stack);
+			cmdPoolInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_POOL_CREATE_INFO);
+			cmdPoolInfo.queueFamilyIndex(presentFamily);
+
+			if (VK10.vkCreateCommandPool(logicalDevice, cmdPoolInfo, null, commandPool) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create present command pool");
+			}
+		}
+
+		recordAcquires(logicalDevice, swapchain);
+		logger.info("Transferring swapchain images from queue family " + graphicsFamily + " to " + presentFamily);
+	}
+
+	private void initBarrier(VkImageMemoryBarrier2 barrier) {
+		barrier.sType(VK13.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER_2);
+		barrier.oldLayout(KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
+		barrier.newLayout(KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
+		barrier.srcQueueFamilyIndex(graphicsFamily);
+		barrier.dstQueueFamilyIndex(presentFamily);
+		barrier.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+	}
+
+	/**
+	 * Records the release half at the end of a frame's command buffer, after the image reached PRESENT_SRC_KHR.
+	 */
+	public void recordRelease(VkCommandBuffer commandBuffer, long image) {
+		releaseBarrier.image(image);
+		VK13.vkCmdPipelineBarrier2(commandBuffer, releaseDependency);
+	}
+
+	/**
+	 * Records the acquire half for every image of the swapchain. The next frame's rendering discards the image
+	 * contents, so ownership never has to come back to the graphics family.
+	 */
+	private void recordAcquires(VkDevice logicalDevice, RenderTarget swapchain) {
+		int imageCount = swapchain.getImageCount();
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO);
+			allocateInfo.commandPool(commandPool.get(0));
+			allocateInfo.level(VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+			allocateInfo.commandBufferCount(imageCount);
+
+			PointerBuffer buffers = stack.callocPointer(imageCount);
+			if (VK10.vkAllocateCommandBuffers(logicalDevice, allocateInfo, buffers) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to allocate present acquire command buffers");
+			}
+
+			VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc(stack);
+			beginInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
+
+			VkImageMemoryBarrier2.Buffer acquireBarrier = VkImageMemoryBarrier2.calloc(1, stack);
+			initBarrier(acquireBarrier.get(0));
+			acquireBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+			acquireBarrier.srcAccessMask(VK13.VK_ACCESS_2_NONE);
+			acquireBarrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+			acquireBarrier.dstAccessMask(VK13.VK_ACCESS_2_NONE);
+
+			VkDependencyInfo acquireDependency = VkDependencyInfo.calloc(stack);
+			acquireDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+			acquireDependency.pImageMemoryBarriers(acquireBarrier);
+
+			acquireCommandBuffers = new VkCommandBuffer[imageCount];
+			for (int i = 0; i < imageCount; i++) {
+				VkCommandBuffer commandBuffer = new VkCommandBuffer(buffers.get(i), logicalDevice);
+				if (VK10.vkBeginCommandBuffer(commandBuffer, beginInfo) != VK10.VK_SUCCESS) {
+					throw new RuntimeException("Failed to begin present acquire command buffer");
+				}
+
+				acquireBarrier.image(swapchain.getImage(i));
+				VK13.vkCmdPipelineBarrier2(commandBuffer, acquireDependency);
+
+				if (VK10.vkEndCommandBuffer(commandBuffer) != VK10.VK_SUCCESS) {
+					throw new RuntimeException("Failed to end present acquire command buffer");
+				}
+				acquireCommandBuffers[i] = commandBuffer;
+			}
+		}
+	}
+
+	/**
+	 * Re-records the acquires for the new images. The old command buffers are freed once in-flight frames finish.
+	 */
+	public void onSwapChainRecreated(VkDevice logicalDevice, RenderTarget swapchain, Renderer renderer) {
+		VkCommandBuffer[] oldCommandBuffers = acquireCommandBuffers;
+		long pool = commandPool.get(0);
+
+		renderer.retire(() -> {
+			try (MemoryStack stack = MemoryStack.stackPush()) {
+				PointerBuffer buffers = stack.mallocPointer(oldCommandBuffers.length);
+				for (VkCommandBuffer commandBuffer : oldCommandBuffers) {
+					buffers.put(commandBuffer);
+				}
+				VK10.vkFreeCommandBuffers(logicalDevice, pool, buffers.flip());
+			}
+		});
+
+		recordAcquires(logicalDevice, swapchain);
+	}
+
+	public VkCommandBuffer getAcquireCommandBuffer(int imageIndex) {
+		return acquireCommandBuffers[imageIndex];
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyCommandPool(logicalDevice, commandPool.get(0), null);
+		releaseBarrier.free();
+		releaseDependency.free();
+		logger.info("Destroyed present ownership transfer");
+	}
+}
@@ -0,0 +1,371 @@
+package dev.djlanav.rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VkCommandBuffer;
+
+import dev.djlanav.utils.LatencyHistogram;
+
+/**
+ * Off-heap queue of draw packets, each tagged with a 64-bit sort key. Packets are radix sorted by key before they
+ * are recorded, so draws sharing a pipeline, material and mesh end up next to each other, the recorded order no
+ * longer depends on the order they were submitted in, and state only has to be bound when it changes.
+ * <p>
+ * Any number of threads may submit at once, but not while the renderer records the queue. Its contents are kept
+ * until {@link #clear()}, like the draw list, and the renderer re-records its cached command buffers after changes.
+ */
+public class RenderQueue {
+
+	public static final int NO_UNIFORMS = -1;
+
+	// Key fields from the most significant bits down: pass, pipeline, material, mesh, then depth
+	public static final int PASS_BITS = 4;
+	public static final int PIPELINE_BITS = 8;
+	public static final int MATERIAL_BITS = 16;
+	public static final int MESH_BITS = 12;
+	public static final int DEPTH_BITS = 24;
+
+	private static final int NOT_INDEXED = -1;
+
+	// Packet fields, one int each
+	private static final int PIPELINE = 0;
+	private static final int COUNT = 1;
+	private static final int INSTANCE_COUNT = 2;
+	private static final int FIRST_ELEMENT = 3;
+	private static final int FIRST_INSTANCE = 4;
+	private static final int VERTEX_OFFSET = 5;
+	private static final int INDEX_TYPE = 6;
+	private static final int MATERIAL = 7;
+	private static final int UNIFORM_OFFSET = 8;
+	private static final int PACKET_SIZE = 9 * Integer.BYTES;
+
+	private static final int RADIX_BITS = 8;
+	private static final int RADIX = 1 << RADIX_BITS;
+	private static final int RADIX_PASSES = Long.SIZE / RADIX_BITS;
+
+	private Logger logger = LogManager.getLogger();
+
+	private GeometryPool geometry;
+	private List<GraphicsPipeline> pipelines = new ArrayList<GraphicsPipeline>();
+
+	private int capacity;
+	private AtomicInteger size = new AtomicInteger();
+	private volatile boolean changed = false;
+	private boolean sorted = true;
+
+	// Packets and their keys in submission order
+	private long packets;
+	private long keys;
+	// Sorted keys and packet indices, sorted back and forth with the scratch pair
+	private long sortedKeys;
+	private long order;
+	private long scratchKeys;
+	private long scratchOrder;
+	private int[] histograms = new int[RADIX_PASSES * RADIX];
+
+	private LatencyHistogram sorts = new LatencyHistogram("QUEUE_SORT");
+	private long pipelineBinds = 0;
+	private long stateBinds = 0;
+	private long skippedBinds = 0;
+
+	public void create(int capacity, GeometryPool geometry) {
+		this.capacity = capacity;
+		this.geometry = geometry;
+
+		packets = MemoryUtil.nmemAlloc((long) capacity * PACKET_SIZE);
+		keys = MemoryUtil.nmemAlloc((long) capacity * Long.BYTES);
+		sortedKeys = MemoryUtil.nmemAlloc((long) capacity * Long.BYTES);
+		order = MemoryUtil.nmemAlloc((long) capacity * Integer.BYTES);
+		scratchKeys = MemoryUtil.nmemAlloc((long) capacity * Long.BYTES);
+		scratchOrder = MemoryUtil.nmemAlloc((long) capacity * Integer.BYTES);
+		logger.info("Created render queue for " + capacity + " packets");
+	}
+
+	/**
+	 * Makes a pipeline available to packets and returns the id to submit them with, which is also the pipeline field
+	 * of their sort keys.
+	 */
+	public synchronized int registerPipeline(GraphicsPipeline pipeline) {
+		int id = pipelines.indexOf(pipeline);
+		if (id >= 0) {
+			return id;
+		}
+		if (pipelines.size() == 1 << PIPELINE_BITS) {
+			throw new RuntimeException("Render queue is out of pipeline ids");
+		}
+
+		pipelines.add(pipeline);
+		return pipelines.size() - 1;
+	}
+
+	/**
+	 * Builds a sort key. Fields wider than their bits are truncated, and depth is clamped to 0 to 1 and sorted front
+	 * to back, so passes drawn back to front should pass 1 - depth. Mesh is usually {@link Mesh#getId()}, which
+	 * groups the draws of each mesh as long as the pool holds at most 4096 meshes.
+	 */
+	public static long sortKey(int pass, int pipeline, int material, int mesh, float depth) {
+		long quantizedDepth = (long) (Math.min(Math.max(depth, 0.0f), 1.0f) * ((1 << DEPTH_BITS) - 1));
+
+		long key = pass & ((1L << PASS_BITS) - 1);
+		key = (key << PIPELINE_BITS) | (pipeline & ((1L << PIPELINE_BITS) - 1));
+		key = (key << MATERIAL_BITS) | (material & ((1L << MATERIAL_BITS) - 1));
+		key = (key << MESH_BITS) | (mesh & ((1L << MESH_BITS) - 1));
+		return (key << DEPTH_BITS) | quantizedDepth;
+	}
+
+	/**
+	 * Queues a draw of vertices the shader generates itself, without any bound buffers.
+	 */
+	public void submit(long sortKey, int pipeline, int vertexCount, int instanceCount, int firstVertex, int firstInstance) {
+		put(sortKey, pipeline, vertexCount, instanceCount, firstVertex, firstInstance, 0, NOT_INDEXED, 0, NO_UNIFORMS);
+	}
+
+	/**
+	 * Queues an indexed draw of a mesh from the queue's geometry pool. The material index and uniform offset are
+	 * used like the draw list's, see {@link DrawList#addIndexed(Mesh, int, int, int, int)}.
+	 */
+	public void submitIndexed(long sortKey, int pipeline, Mesh mesh, int instanceCount, int firstInstance, int materialIndex, int uniformOffset) {
+		if (mesh.getPool() != geometry) {
+			throw new IllegalArgumentException("Queued meshes must come from the renderer's geometry pool");
+		}
+
+		put(sortKey, pipeline, mesh.getIndexCount(), instanceCount, mesh.getFirstIndex(), firstInstance, mesh.getVertexOffset(), mesh.getIndexType(),
+				materialIndex, uniformOffset);
+	}
+
+	private void put(long sortKey, int pipeline, int count, int instanceCount, int firstElement, int firstInstance, int vertexOffset, int indexType,
+			int materialIndex, int uniformOffset) {
+		int index = size.getAndIncrement();
+		if (index >= capacity) {
+			size.decrementAndGet();
+			throw new RuntimeException("Render queue is full at " + capacity + " packets");
+		}
+
+		long packet = packets + (long) index * PACKET_SIZE;
+		MemoryUtil.memPutInt(packet + PIPELINE * Integer.BYTES, pipeline);
+		MemoryUtil.memPutInt(packet + COUNT * Integer.BYTES, count);
+		MemoryUtil.memPutInt(packet + INSTANCE_COUNT * Integer.BYTES, instanceCount);
+		MemoryUtil.memPutInt(packet + FIRST_ELEMENT * Integer.BYTES, firstElement);
+		MemoryUtil.memPutInt(packet + FIRST_INSTANCE * Integer.BYTES, firstInstance);
+		MemoryUtil.memPutInt(packet + VERTEX_OFFSET * Integer.BYTES, vertexOffset);
+		MemoryUtil.memPutInt(packet + INDEX_TYPE * Integer.BYTES, indexType);
+		MemoryUtil.memPutInt(packet + MATERIAL * Integer.BYTES, materialIndex);
+		MemoryUtil.memPutInt(packet + UNIFORM_OFFSET * Integer.BYTES, uniformOffset);
+		MemoryUtil.memPutLong(keys + (long) index * Long.BYTES, sortKey);
+		changed = true;
+	}
+
+	/**
+	 * Whether packets were submitted or cleared since the last call, meaning recorded command buffers are stale.
+	 */
+	boolean takeChanged() {
+		if (!changed) {
+			return false;
+		}
+		changed = false;
+		sorted = false;
+		return true;
+	}
+
+	/**
+	 * LSD radix sort of the keys, one byte per pass. All histograms are counted in one read of the keys, and bytes
+	 * every key shares are skipped, which for typical keys leaves only a few of the eight passes.
+	 */
+	void sort() {
+		int count = size.get();
+		if (count == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+
+		// Submission order is kept for equal keys, so start from the packets as they were queued
+		MemoryUtil.memCopy(keys, sortedKeys, (long) count * Long.BYTES);
+		for (int i = 0; i < count; i++) {
+			MemoryUtil.memPutInt(order + (long) i * Integer.BYTES, i);
+		}
+
+		Arrays.fill(histograms, 0);
+		for (int i = 0; i < count; i++) {
+			long key = MemoryUtil.memGetLong(sortedKeys + (long) i * Long.BYTES);
+			for (int pass = 0; pass < RADIX_PASSES; pass++) {
+				histograms[pass * RADIX + (int) ((key >>> (pass * RADIX_BITS)) & (RADIX - 1))]++;
+			}
+		}
+
+		long sourceKeys = sortedKeys;
+		long sourceOrder = order;
+		long targetKeys = scratchKeys;
+		long targetOrder = scratchOrder;
+		for (int pass = 0; pass < RADIX_PASSES; pass++) {
+			int base = pass * RADIX;
+			int shift = pass * RADIX_BITS;
+			long firstKey = MemoryUtil.memGetLong(sourceKeys);
+			if (histograms[base + (int) ((firstKey >>> shift) & (RADIX - 1))] == count) {
+				continue;
+			}
+
+			int offset = 0;
+			for (int digit = 0; digit < RADIX; digit++) {
+				int digitCount = histograms[base + digit];
+				histograms[base + digit] = offset;
+				offset += digitCount;
+			}
+
+			for (int i = 0; i < count; i++) {
+				long key = MemoryUtil.memGetLong(sourceKeys + (long) i * Long.BYTES);
+				int target = histograms[base + (int) ((key >>> shift) & (RADIX - 1))]++;
+				MemoryUtil.memPutLong(targetKeys + (long) target * Long.BYTES, key);
+				MemoryUtil.memPutInt(targetOrder + (long) target * Integer.BYTES, MemoryUtil.memGetInt(sourceOrder + (long) i * Integer.BYTES));
+			}
+
+			long swapKeys = sourceKeys;
+			sourceKeys = targetKeys;
+			targetKeys = swapKeys;
+			long swapOrder = sourceOrder;
+			sourceOrder = targetOrder;
+			targetOrder = swapOrder;
+		}
+
+		// Keep the sorted pair as the primary arrays
+		sortedKeys = sourceKeys;
+		order = sourceOrder;
+		scratchKeys = targetKeys;
+		scratchOrder = targetOrder;
+
+		sorted = true;
+		sorts.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Records the queued packets in key order. Pipelines, material indices, uniform offsets and index buffers are only
+	 * bound when they differ from the previous packet's, starting from boundPipeline if one is already bound.
+	 */
+	public void record(VkCommandBuffer commandBuffer, int imageIndex, GraphicsPipeline boundPipeline) {
+		int count = size.get();
+		if (count == 0) {
+			return;
+		}
+		if (!sorted) {
+			sort();
+		}
+
+		GraphicsPipeline pipeline = boundPipeline;
+		boolean verticesBound = false;
+		int boundIndexType = NOT_INDEXED;
+		int pushedMaterial = -1;
+		int boundUniformOffset = NO_UNIFORMS;
+
+		for (int i = 0; i < count; i++) {
+			long packet = packets + (long) MemoryUtil.memGetInt(order + (long) i * Integer.BYTES) * PACKET_SIZE;
+
+			GraphicsPipeline packetPipeline = pipelines.get(MemoryUtil.memGetInt(packet + PIPELINE * Integer.BYTES));
+			if (packetPipeline != pipeline) {
+				packetPipeline.bind(commandBuffer);
+				pipeline = packetPipeline;
+				pipelineBinds++;
+				// Push constants and dynamic offsets do not carry over between pipeline layouts
+				pushedMaterial = -1;
+				boundUniformOffset = NO_UNIFORMS;
+			} else {
+				skippedBinds++;
+			}
+
+			int material = MemoryUtil.memGetInt(packet + MATERIAL * Integer.BYTES);
+			if (pipeline.isBindless() && material != pushedMaterial) {
+				pipeline.pushMaterialIndex(commandBuffer, material);
+				pushedMaterial = material;
+				stateBinds++;
+			}
+			int uniformOffset = MemoryUtil.memGetInt(packet + UNIFORM_OFFSET * Integer.BYTES);
+			if (pipeline.hasUniforms() && uniformOffset != NO_UNIFORMS && uniformOffset != boundUniformOffset) {
+				pipeline.bindUniforms(commandBuffer, imageIndex, uniformOffset);
+				boundUniformOffset = uniformOffset;
+				stateBinds++;
+			}
+
+			int indexType = MemoryUtil.memGetInt(packet + INDEX_TYPE * Integer.BYTES);
+			int drawCount = MemoryUtil.memGetInt(packet + COUNT * Integer.BYTES);
+			int instanceCount = MemoryUtil.memGetInt(packet + INSTANCE_COUNT * Integer.BYTES);
+			int firstElement = MemoryUtil.memGetInt(packet + FIRST_ELEMENT * Integer.BYTES);
+			int firstInstance = MemoryUtil.memGetInt(packet + FIRST_INSTANCE * Integer.BYTES);
+			if (indexType == NOT_INDEXED) {
+				VK10.vkCmdDraw(commandBuffer, drawCount, instanceCount, firstElement, firstInstance);
+				continue;
+			}
+
+			if (!verticesBound) {
+				geometry.bindVertices(commandBuffer);
+				verticesBound = true;
+				stateBinds++;
+			}
+			if (indexType != boundIndexType) {
+				geometry.bindIndices(commandBuffer, indexType);
+				boundIndexType = indexType;
+				stateBinds++;
+			}
+
+			VK10.vkCmdDrawIndexed(commandBuffer, drawCount, instanceCount, firstElement, MemoryUtil.memGetInt(packet + VERTEX_OFFSET * Integer.BYTES),
+					firstInstance);
+		}
+	}
+
+	/**
+	 * How often the key bits above shift change between consecutive packets, in the order of the last sort if sorted
+	 * is set or else in submission order. A shift of {@link #DEPTH_BITS} counts changes of mesh or anything above it.
+	 */
+	int countStateChanges(boolean sorted, int shift) {
+		long source = sorted ? sortedKeys : keys;
+		int changes = 0;
+		long previous = -1;
+		for (int i = 0; i < size.get(); i++) {
+			long state = MemoryUtil.memGetLong(source + (long) i * Long.BYTES) >>> shift;
+			if (state != previous) {
+				changes++;
+				previous = state;
+			}
+		}
+		return changes;
+	}
+
+	public void clear() {
+		size.set(0);
+		changed = true;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Logs how many binds recording needed and the sort times since the last report.
+	 */
+	public void report() {
+		if (pipelineBinds + skippedBinds > 0) {
+			logger.info("Render queue with " + size.get() + " packets: " + pipelineBinds + " pipeline binds, " + skippedBinds + " skipped, " + stateBinds
+					+ " other binds");
+		}
+		if (sorts.getCount() > 0) {
+			logger.info("Render queue sorts: " + sorts.snapshotAndReset());
+		}
+		pipelineBinds = 0;
+		stateBinds = 0;
+		skippedBinds = 0;
+	}
+
+	public void cleanUp() {
+		MemoryUtil.nmemFree(packets);
+		MemoryUtil.nmemFree(keys);
+		MemoryUtil.nmemFree(sortedKeys);
+		MemoryUtil.nmemFree(order);
+		MemoryUtil.nmemFree(scratchKeys);
+		MemoryUtil.nmemFree(scratchOrder);
+		logger.info("Destroyed render queue");
+	}
+}
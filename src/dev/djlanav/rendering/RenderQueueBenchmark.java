@@ -0,0 +1,62 @@
+package dev.djlanav.rendering;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Times the render queue's radix sort at 10k, 100k and 1M packets and counts the state changes recording would
+ * see before and after sorting. Needs no Vulkan device, only LWJGL's natives for the off-heap memory.
+ */
+public class RenderQueueBenchmark {
+
+	private static final int[] PACKET_COUNTS = { 10_000, 100_000, 1_000_000 };
+	private static final int WARMUP_RUNS = 20;
+	private static final int MEASURED_RUNS = 50;
+
+	// Roughly a scene's spread: a few passes and pipelines, many materials and meshes
+	private static final int PASSES = 2;
+	private static final int PIPELINES = 8;
+	private static final int MATERIALS = 256;
+	private static final int MESHES = 1024;
+
+	private static final int MESH_SHIFT = RenderQueue.DEPTH_BITS;
+	private static final int MATERIAL_SHIFT = MESH_SHIFT + RenderQueue.MESH_BITS;
+	private static final int PIPELINE_SHIFT = MATERIAL_SHIFT + RenderQueue.MATERIAL_BITS;
+
+	public static void main(String[] args) {
+		for (int packetCount : PACKET_COUNTS) {
+			run(packetCount);
+		}
+	}
+
+	private static void run(int packetCount) {
+		RenderQueue queue = new RenderQueue();
+		queue.create(packetCount, null);
+
+		Random random = new Random(packetCount);
+		for (int i = 0; i < packetCount; i++) {
+			int pipeline = random.nextInt(PIPELINES);
+			long key = RenderQueue.sortKey(random.nextInt(PASSES), pipeline, random.nextInt(MATERIALS), random.nextInt(MESHES), random.nextFloat());
+			queue.submit(key, pipeline, 3, 1, 0, 0);
+		}
+
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			queue.sort();
+		}
+		long[] times = new long[MEASURED_RUNS];
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long start = System.nanoTime();
+			queue.sort();
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+
+		System.out.println(String.format("%,9d packets: sort median %.3f ms, min %.3f ms, max %.3f ms (%.1f ns per packet)",
+				packetCount, times[MEASURED_RUNS / 2] / 1e6, times[0] / 1e6, times[MEASURED_RUNS - 1] / 1e6, (double) times[MEASURED_RUNS / 2] / packetCount));
+		System.out.println(String.format("%,9d packets: pipeline changes %,d -> %,d, material changes %,d -> %,d, mesh changes %,d -> %,d",
+				packetCount, queue.countStateChanges(false, PIPELINE_SHIFT), queue.countStateChanges(true, PIPELINE_SHIFT),
+				queue.countStateChanges(false, MATERIAL_SHIFT), queue.countStateChanges(true, MATERIAL_SHIFT),
+				queue.countStateChanges(false, MESH_SHIFT), queue.countStateChanges(true, MESH_SHIFT)));
+		queue.cleanUp();
+	}
+}
@@ -1,14 +1,14 @@
 package dev.djlanav.rendering;
 
-import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.LongBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Consumer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.lwjgl.BufferUtils;
-import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 import org.lwjgl.vulkan.*;
@@ -19,158 +19,482 @@ public class Renderer {
 	
 	private Logger logger = LogManager.getLogger();
 	
-	private static final int MAX_IN_FLIGHT_FRAMES = 2;
+	public static final int MAX_IN_FLIGHT_FRAMES = 2;
 	
-	private VkAttachmentDescription.Buffer colorAttachments = VkAttachmentDescription.calloc(1);
-	private VkAttachmentReference.Buffer referenceAttachments = VkAttachmentReference.calloc(1);
-	private VkSubpassDescription.Buffer subpassBuffer = VkSubpassDescription.calloc(1);
-	private VkSubpassDependency.Buffer dependenciesBuffer = VkSubpassDependency.calloc(1);
+	private final int framesInFlight;
+	private int currentFrame = 0;
 	
 	private LongBuffer renderPass = BufferUtils.createLongBuffer(1);
+	private boolean dynamicRendering = false;
+	private int colorFormat;
 	private ArrayList<LongBuffer> frameBuffers = new ArrayList<LongBuffer>();
 	
-	private VkCommandBuffer commandBuffer;
 	private LongBuffer commandPool = BufferUtils.createLongBuffer(1);
-	private PointerBuffer commandBuffers = BufferUtils.createPointerBuffer(1);
+	private CommandBufferCache commandBufferCache = new CommandBufferCache();
+	private ParallelRecorder parallelRecorder;
+	private DrawList drawList = new DrawList();
+	private Uploader uploader = new Uploader();
+	private GeometryPool geometryPool = new GeometryPool();
+	private TextureStreamer textureStreamer;
+	private GpuCuller gpuCuller;
+	private SceneStore sceneStore;
+	private RenderQueue renderQueue;
 	
-	// Frames in flight sempahores/fences
-	private LongBuffer imageAvailableSemaphores = BufferUtils.createLongBuffer(MAX_IN_FLIGHT_FRAMES);
-	private LongBuffer renderingFinishedSemaphores = BufferUtils.createLongBuffer(MAX_IN_FLIGHT_FRAMES);
-	private LongBuffer inFlightFences = BufferUtils.createLongBuffer(MAX_IN_FLIGHT_FRAMES);
+	// Per-frame allocators are reset when their frame slot comes around again, cached sets live until cleanUp
+	private DescriptorLayoutCache layoutCache = new DescriptorLayoutCache();
+	private DescriptorSetCache descriptorSetCache = new DescriptorSetCache();
+	private DescriptorAllocator[] frameDescriptorAllocators;
+	private ResourceHeap resourceHeap;
 	
-	private LongBuffer imageAvailableSempahore = BufferUtils.createLongBuffer(1);
-	private LongBuffer renderingFinishedSemaphore = BufferUtils.createLongBuffer(1);
-	private LongBuffer inFlightFence = BufferUtils.createLongBuffer(1);
+	// Written every frame by the uniform writer into the slice of the image being rendered
+	private UniformRing uniformRing;
+	private Consumer<UniformRing> uniformWriter;
+	
+	// Frames in flight and the timeline semaphore tracking their completion
+	private FrameContext[] frames;
+	private TimelineSemaphore timeline = new TimelineSemaphore();
+	
+	// Timeline value of the last frame that rendered to each swapchain image, 0 if the image is unused
+	private long[] imagesInFlight;
+	// Semaphores present waits on, one per swapchain image. Present ready ones only exist with ownership transfers
+	private long[] renderingFinishedSemaphores = new long[0];
+	private long[] presentReadySemaphores = new long[0];
 	private IntBuffer imageIndexBuffer = BufferUtils.createIntBuffer(1);
 	
-	public void recordCommandBuffer() {
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			VkCommandBufferBeginInfo cmdBegin = VkCommandBufferBeginInfo.calloc(stack);
-			cmdBegin.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
-			cmdBegin.flags(0);
-			cmdBegin.pInheritanceInfo(null);
-			
-			if (VK10.vkBeginCommandBuffer(commandBuffer, cmdBegin) != VK10.VK_SUCCESS) {
-				logger.error("Failed to begin command buffer");
-			}
+	private VulkanQueue graphicsQueue;
+	private VulkanQueue presentQueue;
+	private PresentOwnershipTransfer presentOwnershipTransfer;
+	
+	private DeferredDestroyQueue deferredDestroyQueue = new DeferredDestroyQueue();
+	private ResizeMetrics resizeMetrics = new ResizeMetrics();
+	private FrameTimings frameTimings = new FrameTimings();
+	private GpuProfiler gpuProfiler = new GpuProfiler();
+	private FramePacer framePacer = new FramePacer();
+	private boolean swapChainStale = false;
+	private int appliedSceneVersion = -1;
+	
+	public Renderer() {
+		this(MAX_IN_FLIGHT_FRAMES);
+	}
+	
+	public Renderer(int framesInFlight) {
+		if (framesInFlight < 1) {
+			throw new IllegalArgumentException("Frames in flight must be at least 1");
+		}
+		
+		this.framesInFlight = framesInFlight;
+		
+		frames = new FrameContext[framesInFlight];
+		for (int i = 0; i < framesInFlight; i++) {
+			frames[i] = new FrameContext(i);
+			frames[i].setClearColor(0.0f, 0.4f, 0.8f, 1.0f);
 		}
 	}
 	
-	public void prepareRender(SwapChainManager swapchainManager, int imageIndex, GraphicsPipeline graphicsPipeline) {
-		recordCommandBuffer();
+	public void recordCommandBuffer(VkCommandBuffer commandBuffer, FrameContext frame) {
+		if (VK10.vkBeginCommandBuffer(commandBuffer, frame.getCommandBufferBegin()) != VK10.VK_SUCCESS) {
+			logger.error("Failed to begin command buffer");
+		}
+	}
+	
+	public void prepareRender(FrameContext frame, RenderTarget renderTarget, int imageIndex, GraphicsPipeline graphicsPipeline) {
+		VkCommandBuffer commandBuffer = commandBufferCache.get(imageIndex);
+		recordCommandBuffer(commandBuffer, frame);
+		gpuProfiler.recordReset(commandBuffer, imageIndex);
 		
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			VkOffset2D offset = VkOffset2D.calloc(stack);
-			
-			float[] colorValues = { 0.0f, 0.4f, 0.8f, 1.0f };
-			FloatBuffer colorsBuffer = BufferUtils.createFloatBuffer(4);
-			colorsBuffer.put(0, colorValues);
-			
-			VkClearColorValue clearColorValue = VkClearColorValue.calloc(stack);
-			clearColorValue.float32(colorsBuffer);
-			
-			VkClearValue.Buffer clearBuffer = VkClearValue.calloc(1, stack);
-			VkClearValue clearColor = VkClearValue.calloc(stack);
-			clearColor.color(clearColorValue);
-			clearBuffer.put(0, clearColor);
-			
-			VkRenderPassBeginInfo renderPassBegin = VkRenderPassBeginInfo.calloc(stack);
-			renderPassBegin.sType(VK10.VK_STRUCTURE_TYPE_RENDER_PASS_BEGIN_INFO);
-			renderPassBegin.renderPass(renderPass.get(0));
-			renderPassBegin.framebuffer(frameBuffers.get(imageIndex).get(0));
-			renderPassBegin.renderArea().offset(offset);
-			renderPassBegin.renderArea().extent(swapchainManager.getExtent2D());
-			renderPassBegin.clearValueCount(1);
-			renderPassBegin.pClearValues(clearBuffer);
-			
-			VK10.vkCmdBeginRenderPass(commandBuffer, renderPassBegin, VK10.VK_SUBPASS_CONTENTS_INLINE);;
-			
-			VK10.vkCmdBindPipeline(commandBuffer, VK10.VK_PIPELINE_BIND_POINT_GRAPHICS, graphicsPipeline.getGraphicsPipeline());
-			
-			VK10.vkCmdSetViewport(commandBuffer, 0, graphicsPipeline.getViewportsBuffer());
-			VK10.vkCmdSetScissor(commandBuffer, 0, graphicsPipeline.getScissorsBuffer());
+		// Culled objects are drawn with a few indirect calls, not worth spreading across secondaries, and the queue is recorded in key order
+		boolean secondaries = parallelRecorder != null && gpuCuller == null && (renderQueue == null || renderQueue.size() == 0);
+		long frameBuffer = MemoryUtil.NULL;
+		if (gpuCuller != null) {
+			gpuCuller.recordCull(commandBuffer, imageIndex);
+		}
+		gpuProfiler.beginScope(commandBuffer, imageIndex, GpuScope.RENDER_PASS);
+		
+		if (dynamicRendering) {
+			beginRendering(commandBuffer, frame, renderTarget, imageIndex, secondaries);
+		} else {
+			frameBuffer = frameBuffers.get(imageIndex).get(0);
+			VkRenderPassBeginInfo renderPassBegin = frame.updateRenderPassBegin(renderPass.get(0), frameBuffer, renderTarget.getExtent2D());
+			VK10.vkCmdBeginRenderPass(commandBuffer, renderPassBegin, secondaries ? VK10.VK_SUBPASS_CONTENTS_SECONDARY_COMMAND_BUFFERS : VK10.VK_SUBPASS_CONTENTS_INLINE);
+		}
+		
+		if (secondaries) {
+			parallelRecorder.record(commandBuffer.getDevice(), commandBuffer, imageIndex, renderPass.get(0), frameBuffer, graphicsPipeline, drawList, gpuProfiler);
+		} else {
+			graphicsPipeline.bind(commandBuffer);
 			
-			VK10.vkCmdDraw(commandBuffer, 3, 1, 0, 0);
+			gpuProfiler.beginScope(commandBuffer, imageIndex, GpuScope.DRAW);
+			drawList.record(commandBuffer, graphicsPipeline, imageIndex, 0, drawList.size());
+			if (gpuCuller != null) {
+				gpuCuller.recordDraw(commandBuffer, imageIndex);
+			}
+			if (renderQueue != null) {
+				renderQueue.record(commandBuffer, imageIndex, graphicsPipeline);
+			}
+			gpuProfiler.endScope(commandBuffer, imageIndex, GpuScope.DRAW);
+		}
+		
+		if (dynamicRendering) {
+			endRendering(commandBuffer, frame, renderTarget, imageIndex);
+		} else {
 			VK10.vkCmdEndRenderPass(commandBuffer);
-			
-			if (VK10.vkEndCommandBuffer(commandBuffer) != VK10.VK_SUCCESS) {
-				throw new RuntimeException("Failed to end command buffer");
+		}
+		gpuProfiler.endScope(commandBuffer, imageIndex, GpuScope.RENDER_PASS);
+		renderTarget.recordPostRender(commandBuffer, imageIndex);
+		if (presentOwnershipTransfer != null) {
+			presentOwnershipTransfer.recordRelease(commandBuffer, renderTarget.getImage(imageIndex));
+		}
+		
+		if (VK10.vkEndCommandBuffer(commandBuffer) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to end command buffer");
+		}
+		
+		commandBufferCache.markRecorded(imageIndex);
+	}
+	
+	/**
+	 * Takes over the draws and object transforms of a simulation snapshot. Command buffers are only re-recorded when
+	 * the scene changed, transforms reach the GPU through the culler's and the scene store's per-image buffers.
+	 */
+	public void applySnapshot(FrameSnapshot snapshot) {
+		if (snapshot.getSceneVersion() != appliedSceneVersion) {
+			drawList.copyFrom(snapshot.getDrawList());
+			appliedSceneVersion = snapshot.getSceneVersion();
+			markDirty(DirtyReason.SCENE);
+		}
+		
+		// Both hold the scene objects in the order the simulation steps them, so no re-recording is needed
+		float[] transforms = snapshot.getTransforms();
+		for (int i = 0; i < snapshot.getTransformCount(); i++) {
+			if (gpuCuller != null) {
+				gpuCuller.setTransform(i, transforms, i * 16);
+			}
+			if (sceneStore != null) {
+				sceneStore.setLocalTransform(i, transforms, i * 16);
 			}
 		}
 	}
 	
-	public void render(VkDevice logicalDevice, SwapChainManager swapchainManager, QueueFamilyManager queueFamilyManager, GraphicsPipeline graphicsPipeline) {
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			VK10.vkWaitForFences(logicalDevice, inFlightFence.get(0), true, Long.MAX_VALUE);
-			VK10.vkResetFences(logicalDevice, inFlightFence.get(0));
-			
-			KHRSwapchain.vkAcquireNextImageKHR(logicalDevice, swapchainManager.getSwapChain(), Long.MAX_VALUE, imageAvailableSempahore.get(0), MemoryUtil.NULL, imageIndexBuffer);
-			VK10.vkResetCommandBuffer(commandBuffer, 0);
-			
-			int imageIndex = imageIndexBuffer.get(0);
-			prepareRender(swapchainManager, imageIndex, graphicsPipeline);
-			
-			IntBuffer waitStages = stack.callocInt(1);
-			waitStages.put(0, VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
-			
-			VkSubmitInfo.Buffer submitInfos = VkSubmitInfo.calloc(1, stack);
-			VkSubmitInfo submitInfo = VkSubmitInfo.calloc(stack);
-			submitInfo.sType(VK10.VK_STRUCTURE_TYPE_SUBMIT_INFO);
-			submitInfo.waitSemaphoreCount(1);
-			submitInfo.pWaitSemaphores(imageAvailableSempahore);
-			submitInfo.pWaitDstStageMask(waitStages);
-			submitInfo.pCommandBuffers(commandBuffers);
-			submitInfo.pSignalSemaphores(renderingFinishedSemaphore);
-			submitInfos.put(0, submitInfo);
-			
-			for (VulkanQueue queue : queueFamilyManager.getQueues()) {
-				if (queue.getQueueCapabilities().contains(QueueType.GRAPHICS)) {
-					if (VK10.vkQueueSubmit(queue.getQueue(), submitInfo, inFlightFence.get(0)) != VK10.VK_SUCCESS) {
-						logger.error("Failed to submit draw command buffer");
-					}
-				}
+	/**
+	 * Lets the uniform writer fill this image's slice of the uniform ring, which its previous frame is done reading.
+	 */
+	private void writeUniforms(int imageIndex) {
+		if (uniformRing == null) {
+			return;
+		}
+		
+		uniformRing.beginSlice(imageIndex);
+		if (uniformWriter != null) {
+			uniformWriter.accept(uniformRing);
+		}
+		uniformRing.flush();
+	}
+	
+	/**
+	 * Transitions the image to COLOR_ATTACHMENT_OPTIMAL and begins rendering into its view directly. The
+	 * barrier waits on the same stage the acquire semaphore is waited on, like the render pass dependency does.
+	 */
+	private void beginRendering(VkCommandBuffer commandBuffer, FrameContext frame, RenderTarget renderTarget, int imageIndex, boolean secondaries) {
+		VK13.vkCmdPipelineBarrier2(commandBuffer, frame.updateAttachmentBarrier(renderTarget.getImage(imageIndex)));
+		
+		long imageView = renderTarget.getImageViews().get(imageIndex).get(0);
+		int flags = secondaries ? VK13.VK_RENDERING_CONTENTS_SECONDARY_COMMAND_BUFFERS_BIT : 0;
+		VK13.vkCmdBeginRendering(commandBuffer, frame.updateRenderingInfo(imageView, renderTarget.getExtent2D(), flags));
+	}
+	
+	private void endRendering(VkCommandBuffer commandBuffer, FrameContext frame, RenderTarget renderTarget, int imageIndex) {
+		VK13.vkCmdEndRendering(commandBuffer);
+		
+		int finalLayout = renderTarget.getFinalLayout();
+		long dstStage = VK13.VK_PIPELINE_STAGE_2_NONE;
+		long dstAccess = VK13.VK_ACCESS_2_NONE;
+		
+		// Offscreen images are copied out afterwards, presented images only need the layout change
+		if (finalLayout == VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL) {
+			dstStage = VK13.VK_PIPELINE_STAGE_2_COPY_BIT;
+			dstAccess = VK13.VK_ACCESS_2_TRANSFER_READ_BIT;
+		}
+		
+		VK13.vkCmdPipelineBarrier2(commandBuffer, frame.updateFinalBarrier(renderTarget.getImage(imageIndex), finalLayout, dstStage, dstAccess));
+	}
+	
+	public void render(VkDevice logicalDevice, SwapChainManager swapchainManager, GraphicsPipeline graphicsPipeline) {
+		FrameContext frame = frames[currentFrame];
+		framePacer.beginFrame(logicalDevice, swapchainManager.getSwapChain());
+		
+		long phaseStart = System.nanoTime();
+		frameTimings.markFrameStart(phaseStart);
+		
+		timeline.waitFor(logicalDevice, frame.getSubmittedValue());
+		long gpuWaitNanos = System.nanoTime() - phaseStart;
+		
+		deferredDestroyQueue.collect(timeline.getCompletedValue(logicalDevice));
+		frameDescriptorAllocators[currentFrame].reset(logicalDevice);
+		
+		phaseStart = System.nanoTime();
+		int acquireResult = KHRSwapchain.vkAcquireNextImageKHR(logicalDevice, swapchainManager.getSwapChain(), Long.MAX_VALUE, frame.getImageAvailableSemaphore(), MemoryUtil.NULL, imageIndexBuffer);
+		if (acquireResult == KHRSwapchain.VK_ERROR_OUT_OF_DATE_KHR) {
+			markSwapChainStale();
+			resizeMetrics.markDroppedFrame();
+			return;
+		} else if (acquireResult != VK10.VK_SUCCESS && acquireResult != KHRSwapchain.VK_SUBOPTIMAL_KHR) {
+			throw new RuntimeException("Failed to acquire swapchain image");
+		}
+		int imageIndex = imageIndexBuffer.get(0);
+		frameTimings.record(FramePhase.ACQUIRE, System.nanoTime() - phaseStart);
+		frame.setPresentSemaphores(renderingFinishedSemaphores[imageIndex], 
+				presentOwnershipTransfer != null ? presentReadySemaphores[imageIndex] : VK10.VK_NULL_HANDLE);
+		
+		// The image may still be used by an older frame if the swapchain hands out images out of order
+		phaseStart = System.nanoTime();
+		timeline.waitFor(logicalDevice, imagesInFlight[imageIndex]);
+		frameTimings.record(FramePhase.GPU_WAIT, gpuWaitNanos + System.nanoTime() - phaseStart);
+		
+		// The image's previous submission has completed, so its timestamps are ready and its command buffer can be re-recorded
+		gpuProfiler.collect(logicalDevice, imageIndex);
+		writeUniforms(imageIndex);
+		if (gpuCuller != null) {
+			gpuCuller.update(imageIndex);
+		}
+		if (sceneStore != null && sceneStore.isConsumed()) {
+			sceneStore.update(imageIndex);
+		}
+		if (renderQueue != null && renderQueue.takeChanged()) {
+			markDirty(DirtyReason.SCENE);
+		}
+		phaseStart = System.nanoTime();
+		if (commandBufferCache.isDirty(imageIndex)) {
+			prepareRender(frame, swapchainManager, imageIndex, graphicsPipeline);
+		} else {
+			commandBufferCache.markReused();
+		}
+		frame.setCommandBuffer(commandBufferCache.get(imageIndex));
+		frameTimings.record(FramePhase.RECORD, System.nanoTime() - phaseStart);
+		
+		phaseStart = System.nanoTime();
+		if (textureStreamer != null) {
+			textureStreamer.update();
+		}
+		VkCommandBuffer uploadCommands = uploader.record(currentFrame);
+		frame.setUploadCommandBuffer(uploadCommands);
+		frame.setUploadWait(uploader.getWaitSemaphore(), uploader.getWaitValue());
+		
+		long signalValue = timeline.nextValue();
+		frame.updateSignalValue(signalValue);
+		imagesInFlight[imageIndex] = signalValue;
+		
+		if (graphicsQueue.submit(frame.getSubmitInfo(), MemoryUtil.NULL) != VK10.VK_SUCCESS) {
+			logger.error("Failed to submit draw command buffer");
+		}
+		if (presentOwnershipTransfer != null) {
+			VkSubmitInfo2.Buffer acquireSubmitInfo = frame.updateAcquireSubmitInfo(presentOwnershipTransfer.getAcquireCommandBuffer(imageIndex));
+			if (presentQueue.submit(acquireSubmitInfo, MemoryUtil.NULL) != VK10.VK_SUCCESS) {
+				logger.error("Failed to submit present acquire command buffer");
+			}
+		}
+		if (uploadCommands != null) {
+			uploader.retire(signalValue);
+		}
+		gpuProfiler.markSubmitted(imageIndex);
+		frameTimings.record(FramePhase.SUBMIT, System.nanoTime() - phaseStart);
+		
+		phaseStart = System.nanoTime();
+		VkPresentInfoKHR presentInfo = frame.updatePresentInfo(swapchainManager.getSwapChain(), imageIndex);
+		framePacer.preparePresent(presentInfo);
+		int presentResult = presentQueue.present(presentInfo);
+		frameTimings.record(FramePhase.PRESENT, System.nanoTime() - phaseStart);
+		if (presentResult == VK10.VK_SUCCESS) {
+			resizeMetrics.markPresented(System.nanoTime());
+			framePacer.onPresented();
+		} else if (presentResult == KHRSwapchain.VK_SUBOPTIMAL_KHR) {
+			resizeMetrics.markPresented(System.nanoTime());
+			framePacer.onPresented();
+			markSwapChainStale();
+		} else if (presentResult == KHRSwapchain.VK_ERROR_OUT_OF_DATE_KHR) {
+			resizeMetrics.markDroppedFrame();
+			markSwapChainStale();
+		} else {
+			logger.error("Could not present image from swapchain");
+		}
+		
+		currentFrame = (currentFrame + 1) % framesInFlight;
+	}
+	
+	/**
+	 * Headless variant of render(): each frame slot owns one offscreen image, so there is nothing to
+	 * acquire or present and the only wait is for the slot's previous timeline value.
+	 */
+	public void renderOffscreen(VkDevice logicalDevice, OffscreenTarget offscreenTarget, GraphicsPipeline graphicsPipeline) {
+		FrameContext frame = frames[currentFrame];
+		int imageIndex = currentFrame;
+		
+		long phaseStart = System.nanoTime();
+		frameTimings.markFrameStart(phaseStart);
+		
+		timeline.waitFor(logicalDevice, frame.getSubmittedValue());
+		frameTimings.record(FramePhase.GPU_WAIT, System.nanoTime() - phaseStart);
+		
+		deferredDestroyQueue.collect(timeline.getCompletedValue(logicalDevice));
+		frameDescriptorAllocators[currentFrame].reset(logicalDevice);
+		gpuProfiler.collect(logicalDevice, imageIndex);
+		writeUniforms(imageIndex);
+		if (gpuCuller != null) {
+			gpuCuller.update(imageIndex);
+		}
+		if (sceneStore != null && sceneStore.isConsumed()) {
+			sceneStore.update(imageIndex);
+		}
+		if (renderQueue != null && renderQueue.takeChanged()) {
+			markDirty(DirtyReason.SCENE);
+		}
+		
+		phaseStart = System.nanoTime();
+		if (commandBufferCache.isDirty(imageIndex)) {
+			prepareRender(frame, offscreenTarget, imageIndex, graphicsPipeline);
+		} else {
+			commandBufferCache.markReused();
+		}
+		frame.setCommandBuffer(commandBufferCache.get(imageIndex));
+		frameTimings.record(FramePhase.RECORD, System.nanoTime() - phaseStart);
+		
+		phaseStart = System.nanoTime();
+		if (textureStreamer != null) {
+			textureStreamer.update();
+		}
+		VkCommandBuffer uploadCommands = uploader.record(currentFrame);
+		frame.setUploadCommandBuffer(uploadCommands);
+		frame.setUploadWait(uploader.getWaitSemaphore(), uploader.getWaitValue());
+		
+		long signalValue = timeline.nextValue();
+		frame.updateSignalValue(signalValue);
+		
+		if (graphicsQueue.submit(frame.getOffscreenSubmitInfo(), MemoryUtil.NULL) != VK10.VK_SUCCESS) {
+			logger.error("Failed to submit draw command buffer");
+		}
+		if (uploadCommands != null) {
+			uploader.retire(signalValue);
+		}
+		gpuProfiler.markSubmitted(imageIndex);
+		frameTimings.record(FramePhase.SUBMIT, System.nanoTime() - phaseStart);
+		
+		currentFrame = (currentFrame + 1) % framesInFlight;
+	}
+	
+	/**
+	 * Blocks until the last offscreen frame has finished and returns the image index it rendered to.
+	 */
+	public int waitForLastFrame(VkDevice logicalDevice) {
+		int lastFrame = (currentFrame + framesInFlight - 1) % framesInFlight;
+		timeline.waitFor(logicalDevice, frames[lastFrame].getSubmittedValue());
+		return lastFrame;
+	}
+	
+	private void markSwapChainStale() {
+		if (!swapChainStale) {
+			swapChainStale = true;
+			resizeMetrics.markResizeStart(System.nanoTime());
+		}
+	}
+	
+	/**
+	 * Rebuilds the per-image resources after the swapchain was recreated. The render pass, pipeline and
+	 * frame sync objects are kept; old framebuffers and command buffers are retired once in-flight frames finish.
+	 */
+	public void onSwapChainRecreated(VkDevice logicalDevice, SwapChainManager swapchainManager) {
+		retireFramebuffers(logicalDevice);
+		createFramebuffer(logicalDevice, swapchainManager);
+		
+		int imageCount = swapchainManager.getImageCount();
+		recreatePresentSemaphores(logicalDevice, imageCount);
+		if (imageCount != commandBufferCache.size()) {
+			commandBufferCache.resize(logicalDevice, commandPool.get(0), imageCount, deferredDestroyQueue, timeline.getLastSignaledValue());
+			imagesInFlight = Arrays.copyOf(imagesInFlight, imageCount);
+			gpuProfiler.resize(logicalDevice, imageCount, this);
+			if (gpuCuller != null) {
+				gpuCuller.resize(imageCount, this);
+			}
+			if (sceneStore != null) {
+				sceneStore.resize(imageCount, this);
+			}
+			if (uniformRing != null) {
+				uniformRing.resize(logicalDevice, imageCount, deferredDestroyQueue, timeline.getLastSignaledValue());
 			}
 			
-			LongBuffer swapchainBuffer = stack.callocLong(1);
-			IntBuffer imageIndices = stack.callocInt(1);
-			
-			swapchainBuffer.put(0, swapchainManager.getSwapChain());
-			imageIndices.put(0, imageIndex);
-			
-			VkPresentInfoKHR presentInfo = VkPresentInfoKHR.calloc(stack);
-			presentInfo.sType(KHRSwapchain.VK_STRUCTURE_TYPE_PRESENT_INFO_KHR);
-			presentInfo.pWaitSemaphores(renderingFinishedSemaphore);
-			presentInfo.swapchainCount(1);
-			presentInfo.pSwapchains(swapchainBuffer);
-			presentInfo.pImageIndices(imageIndices);
-			presentInfo.pResults(null);
-			
-			for (VulkanQueue queue : queueFamilyManager.getQueues()) {
-				if (queue.getQueueCapabilities().contains(QueueType.PRESENTATION)) {
-					if (KHRSwapchain.vkQueuePresentKHR(queue.getQueue(), presentInfo) != VK10.VK_SUCCESS) {
-						logger.error("Could not present image from swapchain");
-					}
-				}
+			if (parallelRecorder != null) {
+				parallelRecorder.resize(logicalDevice, imageCount, this);
 			}
 		}
+		
+		if (presentOwnershipTransfer != null) {
+			presentOwnershipTransfer.onSwapChainRecreated(logicalDevice, swapchainManager, this);
+		}
+		
+		markDirty(DirtyReason.RESIZE);
+		framePacer.onSwapChainRecreated();
+		resizeMetrics.markRecreated();
+		swapChainStale = false;
+	}
+	
+	private void retireFramebuffers(VkDevice logicalDevice) {
+		ArrayList<LongBuffer> oldFrameBuffers = frameBuffers;
+		frameBuffers = new ArrayList<LongBuffer>();
+		
+		retire(() -> {
+			for (LongBuffer frameBuffer : oldFrameBuffers) {
+				VK10.vkDestroyFramebuffer(logicalDevice, frameBuffer.get(0), null);
+			}
+		});
+	}
+	
+	/**
+	 * Queues a destroy for a resource that frames submitted so far may still use. It runs once the
+	 * timeline reaches the value of the last submission.
+	 */
+	public void retire(Runnable destroyer) {
+		deferredDestroyQueue.retire(timeline.getLastSignaledValue(), destroyer);
+	}
+	
+	/**
+	 * Renders straight into the target's image views with vkCmdBeginRendering instead of a render pass and
+	 * framebuffers. Must be chosen before createRenderPass, and the device needs the dynamicRendering feature.
+	 */
+	public void setDynamicRendering(boolean dynamicRendering) {
+		this.dynamicRendering = dynamicRendering;
 	}
 	
-	public void createRenderPass(VkDevice logicalDevice, VkSurfaceFormatKHR surfaceFormat) {
+	public void createRenderPass(VkDevice logicalDevice, RenderTarget renderTarget) {
+		colorFormat = renderTarget.getImageFormat();
+		if (dynamicRendering) {
+			logger.info("Using dynamic rendering, skipped render pass creation");
+			return;
+		}
+		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
-			createAttachments(stack, surfaceFormat);
-			createAttachmentRefs(stack);
-			createSubpasses(stack);
-			subpassBuffer.free();
-			referenceAttachments.free();
+			VkAttachmentDescription.Buffer colorAttachments = createAttachments(stack, renderTarget);
+			VkAttachmentReference.Buffer referenceAttachments = createAttachmentRefs(stack);
+			VkSubpassDescription.Buffer subpassBuffer = createSubpasses(stack, referenceAttachments);
+			
+			// Offscreen images are copied out after the pass, which needs the writes to be visible to transfers
+			boolean transferAfterPass = renderTarget.getFinalLayout() == VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL;
+			VkSubpassDependency.Buffer dependenciesBuffer = VkSubpassDependency.calloc(transferAfterPass ? 2 : 1, stack);
 			
-			VkSubpassDependency subpassDependency = VkSubpassDependency.calloc(stack);
+			VkSubpassDependency subpassDependency = dependenciesBuffer.get(0);
 			subpassDependency.srcSubpass(VK10.VK_SUBPASS_EXTERNAL);
 			subpassDependency.dstSubpass(0);
 			subpassDependency.srcStageMask(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
 			subpassDependency.srcAccessMask(0);
 			subpassDependency.dstStageMask(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
 			subpassDependency.dstAccessMask(VK10.VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
-			dependenciesBuffer.put(0, subpassDependency);
+			
+			if (transferAfterPass) {
+				VkSubpassDependency transferDependency = dependenciesBuffer.get(1);
+				transferDependency.srcSubpass(0);
+				transferDependency.dstSubpass(VK10.VK_SUBPASS_EXTERNAL);
+				transferDependency.srcStageMask(VK10.VK_PIPELINE_STAGE_COLOR_ATTACHMENT_OUTPUT_BIT);
+				transferDependency.srcAccessMask(VK10.VK_ACCESS_COLOR_ATTACHMENT_WRITE_BIT);
+				transferDependency.dstStageMask(VK10.VK_PIPELINE_STAGE_TRANSFER_BIT);
+				transferDependency.dstAccessMask(VK10.VK_ACCESS_TRANSFER_READ_BIT);
+			}
 			
 			VkRenderPassCreateInfo renderPassInfo = VkRenderPassCreateInfo.calloc(stack);
 			renderPassInfo.sType(VK10.VK_STRUCTURE_TYPE_RENDER_PASS_CREATE_INFO);
@@ -182,15 +506,14 @@ public class Renderer {
 				throw new RuntimeException("Failed to create render pass");
 			}
 			
-			dependenciesBuffer.free();
-			colorAttachments.free();
 			logger.info("Created render pass");
 		}
 	}
 	
-	private void createAttachments(MemoryStack stack, VkSurfaceFormatKHR surfaceFormat) {
-		VkAttachmentDescription colorAttachment = VkAttachmentDescription.calloc(stack);
-		colorAttachment.format(surfaceFormat.format());
+	private VkAttachmentDescription.Buffer createAttachments(MemoryStack stack, RenderTarget renderTarget) {
+		VkAttachmentDescription.Buffer colorAttachments = VkAttachmentDescription.calloc(1, stack);
+		VkAttachmentDescription colorAttachment = colorAttachments.get(0);
+		colorAttachment.format(renderTarget.getImageFormat());
 		colorAttachment.samples(VK10.VK_SAMPLE_COUNT_1_BIT);
 		
 		colorAttachment.loadOp(VK10.VK_ATTACHMENT_LOAD_OP_CLEAR);
@@ -200,29 +523,35 @@ public class Renderer {
 		colorAttachment.stencilStoreOp(VK10.VK_ATTACHMENT_STORE_OP_DONT_CARE);
 		
 		colorAttachment.initialLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
-		colorAttachment.finalLayout(KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR);
-		colorAttachments.put(0, colorAttachment);	
+		colorAttachment.finalLayout(renderTarget.getFinalLayout());
+		return colorAttachments;
 	}
 	
-	private void createAttachmentRefs(MemoryStack stack) {
-		VkAttachmentReference attachmentRef = VkAttachmentReference.calloc(stack);
+	private VkAttachmentReference.Buffer createAttachmentRefs(MemoryStack stack) {
+		VkAttachmentReference.Buffer referenceAttachments = VkAttachmentReference.calloc(1, stack);
+		VkAttachmentReference attachmentRef = referenceAttachments.get(0);
 		attachmentRef.attachment(0);
 		attachmentRef.layout(VK10.VK_IMAGE_LAYOUT_COLOR_ATTACHMENT_OPTIMAL);
-		referenceAttachments.put(0, attachmentRef);
+		return referenceAttachments;
 	}
 	
-	private void createSubpasses(MemoryStack stack) {
-		VkSubpassDescription subPass = VkSubpassDescription.calloc(stack);
+	private VkSubpassDescription.Buffer createSubpasses(MemoryStack stack, VkAttachmentReference.Buffer referenceAttachments) {
+		VkSubpassDescription.Buffer subpassBuffer = VkSubpassDescription.calloc(1, stack);
+		VkSubpassDescription subPass = subpassBuffer.get(0);
 		subPass.pipelineBindPoint(VK10.VK_PIPELINE_BIND_POINT_GRAPHICS);
 		subPass.colorAttachmentCount(1);
 		subPass.pColorAttachments(referenceAttachments);
-		subpassBuffer.put(0, subPass);
+		return subpassBuffer;
 	}
 	
-	public void createFramebuffer(VkDevice logicalDevice, SwapChainManager swapchainManager) {
+	public void createFramebuffer(VkDevice logicalDevice, RenderTarget renderTarget) {
+		if (dynamicRendering) {
+			return;
+		}
+		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
-			ArrayList<LongBuffer> imageViews = swapchainManager.getImageViews();
-			VkExtent2D extent2D = swapchainManager.getExtent2D();
+			ArrayList<LongBuffer> imageViews = renderTarget.getImageViews();
+			VkExtent2D extent2D = renderTarget.getExtent2D();
 			
 			for (LongBuffer imageView : imageViews) {
 				VkFramebufferCreateInfo frameBufferInfo = VkFramebufferCreateInfo.calloc(stack);
@@ -245,12 +574,11 @@ public class Renderer {
 	}
 	
 	public void createCommandPool(VkDevice logicalDevice, QueueFamilyManager queueFamilyManager) {
-		VulkanQueue vulkanQueue = null;
-		for (VulkanQueue queue : queueFamilyManager.getQueues()) {
-			if (queue.getQueueCapabilities().contains(QueueType.GRAPHICS)) {
-				vulkanQueue = queue;
-				break;
-			}
+		VulkanQueue vulkanQueue = queueFamilyManager.getQueue(QueueType.GRAPHICS);
+		
+		graphicsQueue = vulkanQueue;
+		if (queueFamilyManager.hasQueue(QueueType.PRESENTATION)) {
+			presentQueue = queueFamilyManager.getQueue(QueueType.PRESENTATION);
 		}
 		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -265,57 +593,279 @@ public class Renderer {
 		}
 	}
 	
-	public void createCommandBuffer(VkDevice logicalDevice) {
+	public void createCommandBuffers(VkDevice logicalDevice, RenderTarget renderTarget) {
+		commandBufferCache.allocate(logicalDevice, commandPool.get(0), renderTarget.getImageCount());
+	}
+	
+	/**
+	 * Switches recording of the draw list to secondary command buffers filled by worker threads.
+	 */
+	public void createParallelRecorder(VkDevice logicalDevice, QueueFamilyManager queueFamilyManager, RenderTarget renderTarget, int workerCount) {
+		int queueFamilyIndex = queueFamilyManager.getQueue(QueueType.GRAPHICS).getParentFamilyIndex();
+		
+		parallelRecorder = new ParallelRecorder(workerCount);
+		parallelRecorder.create(logicalDevice, queueFamilyIndex, renderTarget.getImageCount());
+		
+		if (dynamicRendering) {
+			parallelRecorder.setDynamicRendering(colorFormat);
+		}
+	}
+	
+	/**
+	 * Sets up the staging ring and per-frame upload command buffers. Needs the command pool to have been created.
+	 * Copies go to the transfer queue if it is separate and asyncUploads is set.
+	 */
+	public void createUploader(VkDevice logicalDevice, MemoryAllocator memoryAllocator, QueueFamilyManager queueFamilyManager, long stagingRingSize, boolean asyncUploads) {
+		VulkanQueue graphics = queueFamilyManager.getQueue(QueueType.GRAPHICS);
+		VulkanQueue transfer = asyncUploads ? queueFamilyManager.getQueue(QueueType.TRANSFER) : graphics;
+		uploader.create(logicalDevice, memoryAllocator, timeline, graphics, transfer, framesInFlight, stagingRingSize);
+	}
+	
+	/**
+	 * Creates a descriptor allocator per frame in flight. Sets allocated from one are only valid for commands
+	 * recorded in that frame, cached command buffers have to take theirs from the descriptor set cache.
+	 */
+	public void createDescriptorAllocators(int initialSetsPerPool, int maxSetsPerPool) {
+		frameDescriptorAllocators = new DescriptorAllocator[framesInFlight];
+		for (int i = 0; i < framesInFlight; i++) {
+			frameDescriptorAllocators[i] = new DescriptorAllocator("frame " + i, initialSetsPerPool, maxSetsPerPool);
+		}
+	}
+	
+	/**
+	 * Creates the bindless resource heap, clamped to the descriptor counts the device allows in one set. The
+	 * device must have been created with bindless enabled.
+	 */
+	public void createResourceHeap(VkDevice logicalDevice, DeviceManager deviceManager, int textureCapacity, int bufferCapacity) {
+		resourceHeap = new ResourceHeap();
+		resourceHeap.create(logicalDevice, layoutCache, Math.min(textureCapacity, deviceManager.getMaxBindlessSampledImages()), 
+				Math.min(bufferCapacity, deviceManager.getMaxBindlessStorageBuffers()));
+	}
+	
+	/**
+	 * Creates the uniform ring with a slice of sliceSize bytes per image. Blocks are aligned as the device requires
+	 * and may hold at most maxRange bytes.
+	 */
+	public void createUniformRing(VkDevice logicalDevice, MemoryAllocator memoryAllocator, DeviceManager deviceManager, RenderTarget renderTarget, 
+			int sliceSize, int maxRange) {
+		int minAlignment = (int) deviceManager.getPhysicalProperties().limits().minUniformBufferOffsetAlignment();
+		uniformRing = new UniformRing();
+		uniformRing.create(logicalDevice, memoryAllocator, layoutCache, descriptorSetCache, minAlignment, sliceSize, renderTarget.getImageCount(), maxRange);
+	}
+	
+	/**
+	 * Called every frame with the uniform ring once it is safe to write, before the frame's commands are recorded
+	 * or reused. It has to make the same allocations every frame, see {@link UniformRing}.
+	 */
+	public void setUniformWriter(Consumer<UniformRing> uniformWriter) {
+		this.uniformWriter = uniformWriter;
+	}
+	
+	/**
+	 * Creates the GPU culler for up to capacity objects drawn from the geometry pool. Needs the geometry pool
+	 * and the command buffers, and a device with GPU culling enabled.
+	 */
+	public void createGpuCuller(VkDevice logicalDevice, MemoryAllocator memoryAllocator, DeviceManager deviceManager, Shader cullShader, int capacity) {
+		VkPhysicalDeviceLimits limits = deviceManager.getPhysicalProperties().limits();
+		int minAlignment = (int) Math.max(limits.minUniformBufferOffsetAlignment(), limits.minStorageBufferOffsetAlignment());
+		
+		gpuCuller = new GpuCuller();
+		gpuCuller.create(logicalDevice, memoryAllocator, layoutCache, descriptorSetCache, geometryPool, cullShader, minAlignment, 
+				commandBufferCache.size(), capacity);
+		markDirty(DirtyReason.SCENE);
+	}
+	
+	/**
+	 * Creates the off-heap scene store for up to capacity entities, updated on threads workers. Needs the command buffers.
+	 */
+	public void createSceneStore(VkDevice logicalDevice, MemoryAllocator memoryAllocator, DeviceManager deviceManager, int capacity, int threads) {
+		int minAlignment = (int) deviceManager.getPhysicalProperties().limits().minStorageBufferOffsetAlignment();
+		
+		sceneStore = new SceneStore();
+		sceneStore.create(logicalDevice, memoryAllocator, minAlignment, commandBufferCache.size(), capacity, threads);
+	}
+	
+	/**
+	 * Creates the sorted render queue for up to capacity packets. Needs the geometry pool.
+	 */
+	public void createRenderQueue(int capacity) {
+		renderQueue = new RenderQueue();
+		renderQueue.create(capacity, geometryPool);
+	}
+	
+	/**
+	 * Creates the shared vertex and index buffers meshes are uploaded into. Needs the uploader.
+	 */
+	public void createGeometryPool(VkDevice logicalDevice, MemoryAllocator memoryAllocator, VertexLayout vertexLayout, int vertexCapacity, long indexCapacity) {
+		geometryPool.create(logicalDevice, memoryAllocator, uploader, vertexLayout, vertexCapacity, indexCapacity);
+	}
+	
+	/**
+	 * Starts streaming textures in through the uploader, each frame uploading at most frameBudget bytes of them
+	 * unless a single level is larger. Needs the uploader.
+	 */
+	public void createTextureStreamer(VkDevice logicalDevice, MemoryAllocator memoryAllocator, int workerCount, long frameBudget) {
+		textureStreamer = new TextureStreamer();
+		textureStreamer.create(logicalDevice, memoryAllocator, uploader, this, workerCount, frameBudget);
+	}
+	
+	public void createGpuProfiler(VkDevice logicalDevice, DeviceManager deviceManager, QueueFamilyManager queueFamilyManager, RenderTarget renderTarget) {
+		int queueFamilyIndex = queueFamilyManager.getQueue(QueueType.GRAPHICS).getParentFamilyIndex();
+		gpuProfiler.create(logicalDevice, deviceManager, queueFamilyIndex, renderTarget.getImageCount());
+	}
+	
+	/**
+	 * Switches presenting to ownership transfers between the graphics and present families, for swapchains created
+	 * with EXCLUSIVE sharing across two families. Needs the sync objects to have been created.
+	 */
+	public void createPresentOwnershipTransfer(VkDevice logicalDevice, QueueFamilyManager queueFamilyManager, SwapChainManager swapchainManager) {
+		presentOwnershipTransfer = new PresentOwnershipTransfer();
+		presentOwnershipTransfer.create(logicalDevice, queueFamilyManager.getQueue(QueueType.GRAPHICS), 
+				queueFamilyManager.getQueue(QueueType.PRESENTATION), swapchainManager);
+		
+		presentReadySemaphores = createSemaphores(logicalDevice, swapchainManager.getImageCount());
+		for (FrameContext frame : frames) {
+			frame.enableOwnershipTransfer();
+		}
+	}
+	
+	public void markDirty(DirtyReason reason) {
+		commandBufferCache.markDirty(reason);
+	}
+	
+	/**
+	 * Creates the timeline semaphore all frames signal, plus the binary semaphores acquire and present
+	 * still need when rendering to a swapchain.
+	 */
+	public void createSyncObjects(VkDevice logicalDevice, RenderTarget renderTarget) {
+		timeline.create(logicalDevice);
+		boolean presenting = presentQueue != null;
+		
 		try (MemoryStack stack = MemoryStack.stackPush()) {
-			VkCommandBufferAllocateInfo cmdBufferInfo = VkCommandBufferAllocateInfo.calloc(stack);
-			cmdBufferInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO);
-			cmdBufferInfo.commandPool(commandPool.get(0));
-			cmdBufferInfo.level(VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY);
-			cmdBufferInfo.commandBufferCount(1);
+			VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack);
+			semaphoreInfo.sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
+			
+			LongBuffer imageAvailable = stack.callocLong(1);
 			
-			if (VK10.vkAllocateCommandBuffers(logicalDevice, cmdBufferInfo, commandBuffers) != VK10.VK_SUCCESS) {
-				throw new RuntimeException("Failed to allocate command buffers");
+			for (int i = 0; i < framesInFlight; i++) {
+				if (presenting && VK10.vkCreateSemaphore(logicalDevice, semaphoreInfo, null, imageAvailable) != VK10.VK_SUCCESS) {
+					throw new RuntimeException("Failed to create sync objects");
+				}
+				
+				frames[i].setSyncObjects(imageAvailable.get(0), timeline.getSemaphore());
 			}
 			
-			commandBuffer = new VkCommandBuffer(commandBuffers.get(0), logicalDevice);
+			// Acquire only returns an image once its previous present is done waiting, so these can't be reused early
+			if (presenting) {
+				renderingFinishedSemaphores = createSemaphores(logicalDevice, renderTarget.getImageCount());
+			}
+			imagesInFlight = new long[renderTarget.getImageCount()];
+			logger.info("Created sync objects for " + framesInFlight + " frames in flight and " + renderTarget.getImageCount() + " images");
 		}
 	}
 	
-	public void createSyncObjects(VkDevice logicalDevice) {
+	private long[] createSemaphores(VkDevice logicalDevice, int count) {
 		try (MemoryStack stack = MemoryStack.stackPush()) {
-			VkSemaphoreCreateInfo imageAvailableInfo = VkSemaphoreCreateInfo.calloc(stack);
-			imageAvailableInfo.sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
-			
-			VkSemaphoreCreateInfo renderingFinishedInfo = VkSemaphoreCreateInfo.calloc(stack);
-			renderingFinishedInfo.sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
+			VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack);
+			semaphoreInfo.sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
 			
-			VkFenceCreateInfo fenceInfo = VkFenceCreateInfo.calloc(stack);
-			fenceInfo.sType(VK10.VK_STRUCTURE_TYPE_FENCE_CREATE_INFO);
-			fenceInfo.flags(VK10.VK_FENCE_CREATE_SIGNALED_BIT);
-			
-			if (VK10.vkCreateSemaphore(logicalDevice, imageAvailableInfo, null, imageAvailableSempahore) != VK10.VK_SUCCESS ||
-				VK10.vkCreateSemaphore(logicalDevice, renderingFinishedInfo, null, renderingFinishedSemaphore) != VK10.VK_SUCCESS ||
-				VK10.vkCreateFence(logicalDevice, fenceInfo, null, inFlightFence) != VK10.VK_SUCCESS) {
-				throw new RuntimeException("Failed to create sync objects");
+			LongBuffer semaphore = stack.callocLong(1);
+			long[] semaphores = new long[count];
+			for (int i = 0; i < count; i++) {
+				if (VK10.vkCreateSemaphore(logicalDevice, semaphoreInfo, null, semaphore) != VK10.VK_SUCCESS) {
+					throw new RuntimeException("Failed to create present semaphore");
+				}
+				semaphores[i] = semaphore.get(0);
 			}
+			return semaphores;
+		}
+	}
+	
+	/**
+	 * Replaces the per-image present semaphores on every swapchain recreation. Presents to the old swapchain may
+	 * still be waiting on them and nothing the timeline tracks tells when they are done, so the old ones are only
+	 * destroyed after the present queue went idle. That also covers the present queue's ownership acquires.
+	 */
+	private void recreatePresentSemaphores(VkDevice logicalDevice, int imageCount) {
+		if (presentQueue.waitIdle() != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to wait for the present queue to go idle");
+		}
+		for (long semaphore : renderingFinishedSemaphores) {
+			VK10.vkDestroySemaphore(logicalDevice, semaphore, null);
+		}
+		for (long semaphore : presentReadySemaphores) {
+			VK10.vkDestroySemaphore(logicalDevice, semaphore, null);
+		}
+		
+		renderingFinishedSemaphores = createSemaphores(logicalDevice, imageCount);
+		if (presentOwnershipTransfer != null) {
+			presentReadySemaphores = createSemaphores(logicalDevice, imageCount);
 		}
 	}
 	
 	public void cleanUp(VkDevice logicalDevice) {
+		deferredDestroyQueue.flush();
+		gpuProfiler.cleanUp(logicalDevice);
+		if (textureStreamer != null) {
+			textureStreamer.cleanUp(logicalDevice);
+		}
+		if (gpuCuller != null) {
+			gpuCuller.cleanUp(logicalDevice);
+		}
+		if (sceneStore != null) {
+			sceneStore.cleanUp(logicalDevice);
+		}
+		if (renderQueue != null) {
+			renderQueue.cleanUp();
+		}
+		geometryPool.cleanUp(logicalDevice);
+		uploader.cleanUp(logicalDevice);
+		
+		for (DescriptorAllocator allocator : frameDescriptorAllocators) {
+			allocator.cleanUp(logicalDevice);
+		}
+		if (uniformRing != null) {
+			uniformRing.cleanUp(logicalDevice);
+		}
+		descriptorSetCache.cleanUp(logicalDevice);
+		if (resourceHeap != null) {
+			resourceHeap.cleanUp(logicalDevice);
+		}
+		layoutCache.cleanUp(logicalDevice);
+		
+		if (parallelRecorder != null) {
+			parallelRecorder.cleanUp(logicalDevice);
+		}
+		
 		for (LongBuffer frameBuffer : frameBuffers) {
 			VK10.vkDestroyFramebuffer(logicalDevice, frameBuffer.get(0), null);
 		}
 		logger.info("Destroyed framebuffers");
 		
-		VK10.vkDestroyRenderPass(logicalDevice, renderPass.get(0), null);
-		logger.info("Destroyed render pass");
+		if (!dynamicRendering) {
+			VK10.vkDestroyRenderPass(logicalDevice, renderPass.get(0), null);
+			logger.info("Destroyed render pass");
+		}
 		
 		VK10.vkDestroyCommandPool(logicalDevice, commandPool.get(0), null);
 		logger.info("Destroyed command pool and command buffers");
 		
-		VK10.vkDestroySemaphore(logicalDevice, imageAvailableSempahore.get(0), null);
-		VK10.vkDestroySemaphore(logicalDevice, renderingFinishedSemaphore.get(0), null);
-		VK10.vkDestroyFence(logicalDevice, inFlightFence.get(0), null);
+		if (presentOwnershipTransfer != null) {
+			presentOwnershipTransfer.cleanUp(logicalDevice);
+		}
+		
+		for (FrameContext frame : frames) {
+			VK10.vkDestroySemaphore(logicalDevice, frame.getImageAvailableSemaphore(), null);
+			frame.free();
+		}
+		for (long semaphore : renderingFinishedSemaphores) {
+			VK10.vkDestroySemaphore(logicalDevice, semaphore, null);
+		}
+		for (long semaphore : presentReadySemaphores) {
+			VK10.vkDestroySemaphore(logicalDevice, semaphore, null);
+		}
+		timeline.cleanUp(logicalDevice);
+		framePacer.free();
 		logger.info("Destroyed sync objects");
 	}
 	
@@ -323,7 +873,123 @@ public class Renderer {
 		return renderPass.get(0);
 	}
 	
+	public boolean isDynamicRendering() {
+		return dynamicRendering;
+	}
+	
+	public int getColorFormat() {
+		return colorFormat;
+	}
+	
 	public VkCommandBuffer getCommandBuffer() {
-		return commandBuffer;
+		return frames[currentFrame].getCommandBuffer();
+	}
+	
+	/**
+	 * Timeline every frame submission signals, for other queues to wait on or to check GPU progress.
+	 */
+	public TimelineSemaphore getTimeline() {
+		return timeline;
+	}
+	
+	public CommandBufferCache getCommandBufferCache() {
+		return commandBufferCache;
+	}
+	
+	public FrameTimings getFrameTimings() {
+		return frameTimings;
+	}
+	
+	/**
+	 * Draws recorded into every frame. Call markDirty(DirtyReason.SCENE) after changing it.
+	 */
+	public DrawList getDrawList() {
+		return drawList;
+	}
+	
+	/**
+	 * Queues buffer and image uploads that the next frame submits ahead of its draws.
+	 */
+	public Uploader getUploader() {
+		return uploader;
+	}
+	
+	public GeometryPool getGeometryPool() {
+		return geometryPool;
+	}
+	
+	public DescriptorLayoutCache getLayoutCache() {
+		return layoutCache;
+	}
+	
+	public DescriptorSetCache getDescriptorSetCache() {
+		return descriptorSetCache;
+	}
+	
+	/**
+	 * Allocator for descriptor sets used by this frame's commands only, reset once the frame slot is reused.
+	 */
+	public DescriptorAllocator getFrameDescriptorAllocator() {
+		return frameDescriptorAllocators[currentFrame];
+	}
+	
+	/**
+	 * Null unless GPU culling was requested and is supported.
+	 */
+	public GpuCuller getGpuCuller() {
+		return gpuCuller;
+	}
+	
+	public SceneStore getSceneStore() {
+		return sceneStore;
+	}
+	
+	public RenderQueue getRenderQueue() {
+		return renderQueue;
+	}
+	
+	/**
+	 * Null unless uniforms were requested.
+	 */
+	public UniformRing getUniformRing() {
+		return uniformRing;
+	}
+	
+	/**
+	 * Null unless rendering is bindless.
+	 */
+	public ResourceHeap getResourceHeap() {
+		return resourceHeap;
+	}
+	
+	/**
+	 * Null unless textures were requested.
+	 */
+	public TextureStreamer getTextureStreamer() {
+		return textureStreamer;
+	}
+	
+	public FramePacer getFramePacer() {
+		return framePacer;
+	}
+	
+	public GpuProfiler getGpuProfiler() {
+		return gpuProfiler;
+	}
+	
+	public ResizeMetrics getResizeMetrics() {
+		return resizeMetrics;
+	}
+	
+	public boolean isSwapChainStale() {
+		return swapChainStale;
+	}
+	
+	public int getFramesInFlight() {
+		return framesInFlight;
+	}
+	
+	public int getCurrentFrame() {
+		return currentFrame;
 	}
 }
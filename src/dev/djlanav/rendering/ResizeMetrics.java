@@ -0,0 +1,71 @@
+package dev.djlanav.rendering;
+
+/**
+ * Measures how long the window shows stale or no content after a surface change: the time from
+ * the resize (or the first OUT_OF_DATE result) to the first successful present on the new swapchain,
+ * and how many frames were dropped on the way.
+ */
+public class ResizeMetrics {
+
+	private long resizeStartNanos = 0;
+	private boolean recreated = false;
+	
+	private long recreationCount = 0;
+	private long droppedFrames = 0;
+	
+	private long lastLatencyNanos = 0;
+	private long maxLatencyNanos = 0;
+	private long totalLatencyNanos = 0;
+	private long latencySamples = 0;
+	
+	public void markResizeStart(long nanos) {
+		if (resizeStartNanos == 0) {
+			resizeStartNanos = nanos;
+		}
+	}
+	
+	public void markRecreated() {
+		recreationCount++;
+		recreated = true;
+	}
+	
+	public void markDroppedFrame() {
+		droppedFrames++;
+	}
+	
+	public void markPresented(long nanos) {
+		if (!recreated) {
+			return;
+		}
+		
+		if (resizeStartNanos != 0) {
+			lastLatencyNanos = nanos - resizeStartNanos;
+			maxLatencyNanos = Math.max(maxLatencyNanos, lastLatencyNanos);
+			totalLatencyNanos += lastLatencyNanos;
+			latencySamples++;
+		}
+		
+		resizeStartNanos = 0;
+		recreated = false;
+	}
+	
+	public long getRecreationCount() {
+		return recreationCount;
+	}
+	
+	public long getDroppedFrames() {
+		return droppedFrames;
+	}
+	
+	public double getLastLatencyMillis() {
+		return lastLatencyNanos / 1_000_000.0;
+	}
+	
+	public double getMaxLatencyMillis() {
+		return maxLatencyNanos / 1_000_000.0;
+	}
+	
+	public double getAverageLatencyMillis() {
+		return latencySamples == 0 ? 0.0 : (totalLatencyNanos / (double) latencySamples) / 1_000_000.0;
+	}
+}
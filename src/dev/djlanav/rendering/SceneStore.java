@@ -0,0 +1,492 @@
+package dev.djlanav.rendering;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.utils.Frustum;
+import dev.djlanav.utils.LatencyHistogram;
+import dev.djlanav.vulkan.Allocation;
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.MemoryUsage;
+import dev.djlanav.vulkan.ResourceHeap;
+import dev.djlanav.vulkan.TlsfHeap;
+
+/**
+ * Entity transforms, bounds and visibility kept off-heap as one array per field. Every frame the world
+ * transforms are rebuilt level by level down the hierarchy, every entity is culled against the frustum, and
+ * the world transforms of the visible ones are packed straight into a persistently mapped storage buffer, all
+ * split into fixed chunks that run on a fork/join pool.
+ * <p>
+ * Each swapchain image has its own slice of the instance buffer, written once the image's previous frame has
+ * completed. Shaders find the slices in the resource heap once {@link #bindToHeap(ResourceHeap)} registered them,
+ * and until then the renderer skips the update, since nothing would read its output. Entities are never removed
+ * and a parent always has to be created before its children.
+ */
+public class SceneStore {
+
+	public static final int NO_PARENT = -1;
+	public static final byte VISIBLE = 1;
+
+	// Entities per task, large enough that forking costs little next to the work of a chunk
+	private static final int CHUNK_SIZE = 1024;
+	private static final int MATRIX_SIZE = 16 * Float.BYTES;
+	private static final int BOUNDS_SIZE = 4 * Float.BYTES;
+
+	private Logger logger = LogManager.getLogger();
+
+	private VkDevice logicalDevice;
+	private MemoryAllocator memoryAllocator;
+	private ForkJoinPool pool;
+
+	private int capacity;
+	private int alignment;
+	private int imageCount;
+	private int entityCount = 0;
+
+	// Column-major matrices, local-space bounding spheres and per-entity hierarchy data
+	private long localTransforms;
+	private long worldTransforms;
+	private long bounds;
+	private long parents;
+	private long depths;
+	private long flags;
+
+	// Entity ids sorted by depth, level n spans levelStarts[n] to levelStarts[n + 1]
+	private long levelOrder;
+	private int[] levelStarts = new int[] { 0, 0 };
+	private int levelCount = 0;
+	private boolean hierarchyDirty = false;
+	private boolean transformsDirty = false;
+
+	// Visible entities found in each cull chunk, turned into their first instance by a prefix sum
+	private int[] chunkCounts;
+
+	private LongBuffer instanceBuffer = BufferUtils.createLongBuffer(1);
+	private Allocation instanceAllocation;
+	private long instanceSliceSize;
+	private int[] visibleCounts = new int[0];
+
+	// Buffer slots of the image slices, empty until bound to a heap
+	private ResourceHeap resourceHeap;
+	private int[] heapSlots = new int[0];
+
+	// Created once, so updates do not allocate a lambda per pass
+	private long packSlice;
+	private final ChunkAction worldTransformAction = this::updateWorldTransforms;
+	private final ChunkAction cullAction = this::cull;
+	private final ChunkAction packAction = (from, to) -> packInstances(packSlice, from, to);
+
+	private float[] planes = new float[Frustum.PLANE_FLOATS];
+
+	private LatencyHistogram updates = new LatencyHistogram("SCENE_UPDATE");
+
+	/**
+	 * @param minAlignment the device's minStorageBufferOffsetAlignment
+	 * @param threads worker threads for the transform and culling chunks
+	 */
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, int minAlignment, int imageCount, int capacity, int threads) {
+		this.logicalDevice = logicalDevice;
+		this.memoryAllocator = memoryAllocator;
+		this.alignment = minAlignment;
+		this.capacity = capacity;
+
+		localTransforms = MemoryUtil.nmemAlloc((long) capacity * MATRIX_SIZE);
+		worldTransforms = MemoryUtil.nmemAlloc((long) capacity * MATRIX_SIZE);
+		bounds = MemoryUtil.nmemAlloc((long) capacity * BOUNDS_SIZE);
+		parents = MemoryUtil.nmemAlloc((long) capacity * Integer.BYTES);
+		depths = MemoryUtil.nmemAlloc((long) capacity * Integer.BYTES);
+		flags = MemoryUtil.nmemCalloc(capacity, 1);
+		levelOrder = MemoryUtil.nmemAlloc((long) capacity * Integer.BYTES);
+		chunkCounts = new int[(capacity + CHUNK_SIZE - 1) / CHUNK_SIZE];
+
+		AtomicInteger threadIndex = new AtomicInteger();
+		pool = new ForkJoinPool(threads, forkJoinPool -> {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+			thread.setName("scene-worker-" + threadIndex.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}, null, false);
+
+		Frustum.extractPlanes(new float[] { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 }, planes);
+		createInstanceBuffer(imageCount);
+		logger.info("Created scene store for " + capacity + " entities on " + threads + " threads");
+	}
+
+	private void createInstanceBuffer(int imageCount) {
+		this.imageCount = imageCount;
+		instanceSliceSize = TlsfHeap.alignUp((long) capacity * MATRIX_SIZE, alignment);
+		visibleCounts = new int[imageCount];
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size(instanceSliceSize * imageCount);
+			bufferInfo.usage(VK10.VK_BUFFER_USAGE_STORAGE_BUFFER_BIT);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, instanceBuffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create scene instance buffer");
+			}
+		}
+		instanceAllocation = memoryAllocator.allocateForBuffer(instanceBuffer.get(0), MemoryUsage.CPU_TO_GPU);
+	}
+
+	/**
+	 * Adds an entity and returns its id.
+	 *
+	 * @param parent an existing entity or {@link #NO_PARENT}
+	 * @param transform column-major transform relative to the parent
+	 * @param sphere local-space bounding sphere as center x, y, z and radius
+	 */
+	public int createEntity(int parent, float[] transform, float[] sphere) {
+		if (entityCount == capacity) {
+			throw new RuntimeException("Scene store is full at " + capacity + " entities");
+		}
+		if (parent != NO_PARENT && (parent < 0 || parent >= entityCount)) {
+			throw new IllegalArgumentException("Parent " + parent + " does not exist");
+		}
+
+		int entity = entityCount++;
+		MemoryUtil.memPutInt(parents + (long) entity * Integer.BYTES, parent);
+		int depth = parent == NO_PARENT ? 0 : MemoryUtil.memGetInt(depths + (long) parent * Integer.BYTES) + 1;
+		MemoryUtil.memPutInt(depths + (long) entity * Integer.BYTES, depth);
+		for (int i = 0; i < 4; i++) {
+			MemoryUtil.memPutFloat(bounds + (long) entity * BOUNDS_SIZE + i * Float.BYTES, sphere[i]);
+		}
+		setLocalTransform(entity, transform);
+
+		hierarchyDirty = true;
+		return entity;
+	}
+
+	public void setLocalTransform(int entity, float[] transform) {
+		setLocalTransform(entity, transform, 0);
+	}
+
+	/**
+	 * Sets the local transform from the 16 floats at offset, e.g. one matrix of a packed array.
+	 */
+	public void setLocalTransform(int entity, float[] transforms, int offset) {
+		long address = localTransforms + (long) entity * MATRIX_SIZE;
+		for (int i = 0; i < 16; i++) {
+			MemoryUtil.memPutFloat(address + i * Float.BYTES, transforms[offset + i]);
+		}
+		transformsDirty = true;
+	}
+
+	/**
+	 * Culls against the frustum of a column-major view projection matrix with Vulkan's 0 to 1 depth range.
+	 */
+	public void setViewProjection(float[] viewProjection) {
+		Frustum.extractPlanes(viewProjection, planes);
+	}
+
+	/**
+	 * Updates transforms and visibility and packs the visible world transforms into this image's slice. Called by
+	 * the renderer once the image's previous frame has completed.
+	 */
+	void update(int imageIndex) {
+		if (entityCount == 0) {
+			return;
+		}
+		long start = System.nanoTime();
+
+		if (hierarchyDirty) {
+			buildLevelOrder();
+		}
+		if (transformsDirty) {
+			// Parents are a level above their children, so each level only reads world transforms that are final
+			for (int level = 0; level < levelCount; level++) {
+				forEachChunk(levelStarts[level], levelStarts[level + 1], worldTransformAction);
+			}
+			transformsDirty = false;
+		}
+
+		forEachChunk(0, entityCount, cullAction);
+
+		int visible = 0;
+		int chunks = (entityCount + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		for (int i = 0; i < chunks; i++) {
+			int count = chunkCounts[i];
+			chunkCounts[i] = visible;
+			visible += count;
+		}
+
+		packSlice = instanceAllocation.getMappedAddress() + imageIndex * instanceSliceSize;
+		forEachChunk(0, entityCount, packAction);
+		memoryAllocator.flush(instanceAllocation);
+		visibleCounts[imageIndex] = visible;
+
+		updates.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Counting sort of the entity ids by depth.
+	 */
+	private void buildLevelOrder() {
+		int maxDepth = 0;
+		for (int entity = 0; entity < entityCount; entity++) {
+			maxDepth = Math.max(maxDepth, MemoryUtil.memGetInt(depths + (long) entity * Integer.BYTES));
+		}
+
+		levelCount = maxDepth + 1;
+		levelStarts = new int[levelCount + 1];
+		for (int entity = 0; entity < entityCount; entity++) {
+			levelStarts[MemoryUtil.memGetInt(depths + (long) entity * Integer.BYTES) + 1]++;
+		}
+		for (int level = 0; level < levelCount; level++) {
+			levelStarts[level + 1] += levelStarts[level];
+		}
+
+		int[] next = levelStarts.clone();
+		for (int entity = 0; entity < entityCount; entity++) {
+			int depth = MemoryUtil.memGetInt(depths + (long) entity * Integer.BYTES);
+			MemoryUtil.memPutInt(levelOrder + (long) next[depth]++ * Integer.BYTES, entity);
+		}
+
+		hierarchyDirty = false;
+		transformsDirty = true;
+	}
+
+	private void updateWorldTransforms(int from, int to) {
+		for (int i = from; i < to; i++) {
+			int entity = MemoryUtil.memGetInt(levelOrder + (long) i * Integer.BYTES);
+			int parent = MemoryUtil.memGetInt(parents + (long) entity * Integer.BYTES);
+			long local = localTransforms + (long) entity * MATRIX_SIZE;
+			long world = worldTransforms + (long) entity * MATRIX_SIZE;
+
+			if (parent == NO_PARENT) {
+				MemoryUtil.memCopy(local, world, MATRIX_SIZE);
+			} else {
+				multiply(worldTransforms + (long) parent * MATRIX_SIZE, local, world);
+			}
+		}
+	}
+
+	/**
+	 * result = a * b for column-major matrices, result must not alias either input.
+	 */
+	private static void multiply(long a, long b, long result) {
+		for (int column = 0; column < 4; column++) {
+			float b0 = MemoryUtil.memGetFloat(b + (column * 4) * Float.BYTES);
+			float b1 = MemoryUtil.memGetFloat(b + (column * 4 + 1) * Float.BYTES);
+			float b2 = MemoryUtil.memGetFloat(b + (column * 4 + 2) * Float.BYTES);
+			float b3 = MemoryUtil.memGetFloat(b + (column * 4 + 3) * Float.BYTES);
+			for (int row = 0; row < 4; row++) {
+				float value = MemoryUtil.memGetFloat(a + row * Float.BYTES) * b0
+						+ MemoryUtil.memGetFloat(a + (4 + row) * Float.BYTES) * b1
+						+ MemoryUtil.memGetFloat(a + (8 + row) * Float.BYTES) * b2
+						+ MemoryUtil.memGetFloat(a + (12 + row) * Float.BYTES) * b3;
+				MemoryUtil.memPutFloat(result + (column * 4 + row) * Float.BYTES, value);
+			}
+		}
+	}
+
+	private void cull(int from, int to) {
+		int visible = 0;
+		for (int entity = from; entity < to; entity++) {
+			long world = worldTransforms + (long) entity * MATRIX_SIZE;
+			long sphere = bounds + (long) entity * BOUNDS_SIZE;
+			float cx = MemoryUtil.memGetFloat(sphere);
+			float cy = MemoryUtil.memGetFloat(sphere + 4);
+			float cz = MemoryUtil.memGetFloat(sphere + 8);
+
+			float x = m(world, 0) * cx + m(world, 4) * cy + m(world, 8) * cz + m(world, 12);
+			float y = m(world, 1) * cx + m(world, 5) * cy + m(world, 9) * cz + m(world, 13);
+			float z = m(world, 2) * cx + m(world, 6) * cy + m(world, 10) * cz + m(world, 14);
+
+			// Scale the radius by the longest axis so non-uniform scales never cull a visible entity
+			float scaleX = m(world, 0) * m(world, 0) + m(world, 1) * m(world, 1) + m(world, 2) * m(world, 2);
+			float scaleY = m(world, 4) * m(world, 4) + m(world, 5) * m(world, 5) + m(world, 6) * m(world, 6);
+			float scaleZ = m(world, 8) * m(world, 8) + m(world, 9) * m(world, 9) + m(world, 10) * m(world, 10);
+			float radius = MemoryUtil.memGetFloat(sphere + 12) * (float) Math.sqrt(Math.max(scaleX, Math.max(scaleY, scaleZ)));
+
+			boolean inside = Frustum.intersectsSphere(planes, x, y, z, radius);
+			MemoryUtil.memPutByte(flags + entity, inside ? VISIBLE : 0);
+			if (inside) {
+				visible++;
+			}
+		}
+		chunkCounts[from / CHUNK_SIZE] = visible;
+	}
+
+	private static float m(long matrix, int index) {
+		return MemoryUtil.memGetFloat(matrix + index * Float.BYTES);
+	}
+
+	private void packInstances(long slice, int from, int to) {
+		long target = slice + (long) chunkCounts[from / CHUNK_SIZE] * MATRIX_SIZE;
+		for (int entity = from; entity < to; entity++) {
+			if (MemoryUtil.memGetByte(flags + entity) != 0) {
+				MemoryUtil.memCopy(worldTransforms + (long) entity * MATRIX_SIZE, target, MATRIX_SIZE);
+				target += MATRIX_SIZE;
+			}
+		}
+	}
+
+	private void forEachChunk(int from, int to, ChunkAction action) {
+		if (to - from <= CHUNK_SIZE) {
+			if (from < to) {
+				action.run(from, to);
+			}
+			return;
+		}
+		pool.invoke(new ChunkTask(from, to, action));
+	}
+
+	/**
+	 * Registers every image's slice as a storage buffer of the resource heap, which makes the renderer update the
+	 * store each frame. Shaders read transform n of an image with loadInstance(getHeapSlot(image), n) from
+	 * bindless.glsl.
+	 */
+	public void bindToHeap(ResourceHeap resourceHeap) {
+		this.resourceHeap = resourceHeap;
+		addHeapSlots();
+	}
+
+	private void addHeapSlots() {
+		heapSlots = new int[imageCount];
+		for (int i = 0; i < imageCount; i++) {
+			heapSlots[i] = resourceHeap.addBuffer(logicalDevice, instanceBuffer.get(0), i * instanceSliceSize, (long) capacity * MATRIX_SIZE);
+		}
+	}
+
+	/**
+	 * Whether anything reads the instance buffer, the renderer only updates the store if so.
+	 */
+	boolean isConsumed() {
+		return resourceHeap != null;
+	}
+
+	/**
+	 * Recreates the instance buffer for a different image count, retiring the old one and its heap slots once
+	 * pending frames finish.
+	 */
+	public void resize(int imageCount, Renderer renderer) {
+		if (imageCount == this.imageCount) {
+			return;
+		}
+
+		long oldBuffer = instanceBuffer.get(0);
+		Allocation oldAllocation = instanceAllocation;
+		int[] oldSlots = heapSlots;
+		renderer.retire(() -> {
+			for (int slot : oldSlots) {
+				resourceHeap.removeBuffer(slot);
+			}
+			VK10.vkDestroyBuffer(logicalDevice, oldBuffer, null);
+			memoryAllocator.free(oldAllocation);
+		});
+
+		instanceBuffer = BufferUtils.createLongBuffer(1);
+		createInstanceBuffer(imageCount);
+		if (resourceHeap != null) {
+			addHeapSlots();
+		}
+	}
+
+	/**
+	 * Logs the entity count and the update times since the last report.
+	 */
+	public void report() {
+		if (updates.getCount() > 0) {
+			logger.info("Scene store with " + entityCount + " entities: " + updates.snapshotAndReset());
+		}
+	}
+
+	public boolean isVisible(int entity) {
+		return MemoryUtil.memGetByte(flags + entity) != 0;
+	}
+
+	public int getVisibleCount(int imageIndex) {
+		return visibleCounts[imageIndex];
+	}
+
+	public int getEntityCount() {
+		return entityCount;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Resource heap buffer slot of this image's slice, valid after {@link #bindToHeap(ResourceHeap)}. Changes when
+	 * the image count does, so read it when recording.
+	 */
+	public int getHeapSlot(int imageIndex) {
+		return heapSlots[imageIndex];
+	}
+
+	public long getInstanceBuffer() {
+		return instanceBuffer.get(0);
+	}
+
+	/**
+	 * Offset of this image's visible world transforms in the instance buffer, one mat4 per visible entity.
+	 */
+	public long getSliceOffset(int imageIndex) {
+		return imageIndex * instanceSliceSize;
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		pool.shutdownNow();
+
+		VK10.vkDestroyBuffer(logicalDevice, instanceBuffer.get(0), null);
+		memoryAllocator.free(instanceAllocation);
+
+		MemoryUtil.nmemFree(localTransforms);
+		MemoryUtil.nmemFree(worldTransforms);
+		MemoryUtil.nmemFree(bounds);
+		MemoryUtil.nmemFree(parents);
+		MemoryUtil.nmemFree(depths);
+		MemoryUtil.nmemFree(flags);
+		MemoryUtil.nmemFree(levelOrder);
+		logger.info("Destroyed scene store");
+	}
+
+	@FunctionalInterface
+	private interface ChunkAction {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Splits a range in halves on chunk boundaries until one chunk is left, so every chunk starts at a multiple of
+	 * {@link #CHUNK_SIZE} from the start of the range.
+	 */
+	@SuppressWarnings("serial")
+	private static class ChunkTask extends RecursiveAction {
+
+		private final int from;
+		private final int to;
+		private final ChunkAction action;
+
+		ChunkTask(int from, int to, ChunkAction action) {
+			this.from = from;
+			this.to = to;
+			this.action = action;
+		}
+
+		@Override
+		protected void compute() {
+			int chunks = (to - from + CHUNK_SIZE - 1) / CHUNK_SIZE;
+			if (chunks <= 1) {
+				action.run(from, to);
+				return;
+			}
+
+			int middle = from + (chunks / 2) * CHUNK_SIZE;
+			invokeAll(new ChunkTask(from, middle, action), new ChunkTask(middle, to, action));
+		}
+	}
+}
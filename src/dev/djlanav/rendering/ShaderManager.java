@@ -16,6 +16,7 @@ public class ShaderManager {
 	
 	private Shader mainVertex;
 	private Shader mainFragment;
+	private Shader cullCompute;
 	
 	public void loadCompiledShader(ShaderType shaderType) {
 		String path;
@@ -35,6 +36,14 @@ public class ShaderManager {
 			ByteBuffer fragmentBytes = readShaderBytes(path);
 			mainFragment.setShaderBytes(fragmentBytes);
 			
+			break;
+		case COMPUTE:
+			cullCompute = new Shader(ShaderType.COMPUTE);
+			path = new String("shaders/compiled/CullShader.spv");
+			
+			ByteBuffer computeBytes = readShaderBytes(path);
+			cullCompute.setShaderBytes(computeBytes);
+			
 			break;
 		default:
 			logger.error("Could not determine shader type");
@@ -79,4 +88,8 @@ public class ShaderManager {
 	public void setMainFragment(Shader mainFragment) {
 		this.mainFragment = mainFragment;
 	}
+
+	public Shader getCullCompute() {
+		return cullCompute;
+	}
 }
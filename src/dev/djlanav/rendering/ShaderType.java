@@ -2,5 +2,6 @@ package dev.djlanav.rendering;
 
 public enum ShaderType {
 	FRAGMENT,
-	VERTEX
+	VERTEX,
+	COMPUTE
 }
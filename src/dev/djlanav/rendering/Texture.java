@@ -0,0 +1,132 @@
+package dev.djlanav.rendering;
+
+import java.nio.LongBuffer;
+
+import org.lwjgl.BufferUtils;
+import org.lwjgl.vulkan.VK10;
+
+import dev.djlanav.assets.ImageData;
+import dev.djlanav.vulkan.Allocation;
+
+/**
+ * An image streamed in by a {@link TextureStreamer}. It becomes visible with its coarse mips first and gains the
+ * finer ones a few frames later. The image view only covers the resident levels, so it changes as more arrive
+ * and should be fetched again whenever the texture is bound.
+ */
+public class Texture {
+
+	private final String name;
+	private final long requestNanos;
+
+	private int width;
+	private int height;
+	private int mipLevels;
+
+	private LongBuffer image = BufferUtils.createLongBuffer(1);
+	private LongBuffer imageView = BufferUtils.createLongBuffer(1);
+	private Allocation allocation;
+
+	// Finest level with data, mipLevels or more while nothing is resident
+	private volatile int residentLevel = Integer.MAX_VALUE;
+	// Slot of the current view in the resource heap, -1 without one
+	private volatile int heapIndex = -1;
+
+	// Decoded pixels waiting for the render thread, null once everything is uploaded
+	private ImageData imageData;
+
+	Texture(String name) {
+		this.name = name;
+		this.requestNanos = System.nanoTime();
+	}
+
+	void setImageData(ImageData imageData) {
+		this.imageData = imageData;
+	}
+
+	void setImage(long image, Allocation allocation) {
+		this.width = imageData.getWidth();
+		this.height = imageData.getHeight();
+		this.mipLevels = imageData.getMipLevels();
+		this.image.put(0, image);
+		this.allocation = allocation;
+		this.residentLevel = mipLevels;
+	}
+
+	void setImageView(long imageView) {
+		this.imageView.put(0, imageView);
+	}
+
+	void setResidentLevel(int residentLevel) {
+		this.residentLevel = residentLevel;
+	}
+
+	void setHeapIndex(int heapIndex) {
+		this.heapIndex = heapIndex;
+	}
+
+	ImageData getImageData() {
+		return imageData;
+	}
+
+	void releaseImageData() {
+		if (imageData != null) {
+			imageData.free();
+			imageData = null;
+		}
+	}
+
+	long getRequestNanos() {
+		return requestNanos;
+	}
+
+	Allocation getAllocation() {
+		return allocation;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getMipLevels() {
+		return mipLevels;
+	}
+
+	public long getImage() {
+		return image.get(0);
+	}
+
+	/**
+	 * View of the resident levels, VK_NULL_HANDLE while the texture is not visible yet.
+	 */
+	public long getImageView() {
+		return isVisible() ? imageView.get(0) : VK10.VK_NULL_HANDLE;
+	}
+
+	/**
+	 * Slot of the resident levels in the resource heap, -1 while the texture is not visible or rendering is not
+	 * bindless. Changes along with the image view.
+	 */
+	public int getHeapIndex() {
+		return heapIndex;
+	}
+
+	public int getResidentLevel() {
+		return residentLevel;
+	}
+
+	public boolean isVisible() {
+		return residentLevel < mipLevels;
+	}
+
+	public boolean isFullyResident() {
+		return residentLevel == 0;
+	}
+}
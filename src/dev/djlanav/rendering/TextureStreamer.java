@@ -0,0 +1,282 @@
+package dev.djlanav.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.assets.ImageData;
+import dev.djlanav.assets.ImageDecoder;
+import dev.djlanav.utils.LatencyHistogram;
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.MemoryUsage;
+import dev.djlanav.vulkan.ResourceHeap;
+import dev.djlanav.vulkan.StagingRegion;
+
+/**
+ * Streams textures in without ever blocking a frame on them. Images are decoded on the decoder's workers, and
+ * every frame the render thread uploads what it can within a byte budget. Each texture first gets its coarse
+ * level, the first one of at most {@link ImageDecoder#COARSE_SIZE} texels, with the levels below it blitted on
+ * the GPU, and becomes visible. The full resolution level and the levels down to the coarse one follow in a
+ * later step. Coarse steps always go before full ones, so hundreds of textures all show up blurry within a
+ * few frames and sharpen afterwards.
+ */
+public class TextureStreamer {
+
+	// sRGB RGBA8 requires blit and linear filtering support, so mips never need a fallback path
+	private static final int FORMAT = VK10.VK_FORMAT_R8G8B8A8_SRGB;
+
+	private Logger logger = LogManager.getLogger();
+
+	private VkDevice logicalDevice;
+	private MemoryAllocator memoryAllocator;
+	private Uploader uploader;
+	private Renderer renderer;
+	private ImageDecoder decoder;
+	private long frameBudget;
+
+	// Filled by the decoder's workers, drained by the render thread
+	private ConcurrentLinkedQueue<Texture> decoded = new ConcurrentLinkedQueue<Texture>();
+	private ArrayDeque<Texture> coarseUploads = new ArrayDeque<Texture>();
+	private ArrayDeque<Texture> fullUploads = new ArrayDeque<Texture>();
+	private ArrayList<Texture> textures = new ArrayList<Texture>();
+
+	private LatencyHistogram visibleLatency = new LatencyHistogram("TEXTURE_VISIBLE");
+	private LatencyHistogram residentLatency = new LatencyHistogram("TEXTURE_RESIDENT");
+	private long uploadedBytes = 0;
+
+	/**
+	 * Full resolution levels are limited to half the staging ring, larger images are scaled down while decoding.
+	 */
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, Uploader uploader, Renderer renderer, int workerCount, long frameBudget) {
+		this.logicalDevice = logicalDevice;
+		this.memoryAllocator = memoryAllocator;
+		this.uploader = uploader;
+		this.renderer = renderer;
+		this.frameBudget = frameBudget;
+		this.decoder = new ImageDecoder(workerCount, uploader.getStagingRing().getCapacity() / 2);
+
+		logger.info("Created texture streamer with " + workerCount + " decode workers and a budget of " + (frameBudget >> 10) + " KiB per frame");
+	}
+
+	/**
+	 * Starts streaming source in and returns its texture right away. Must be called from the render thread, or
+	 * before rendering starts. A texture that fails to decode is logged and never becomes visible.
+	 */
+	public Texture load(Path source) {
+		Texture texture = new Texture(source.getFileName().toString());
+		textures.add(texture);
+
+		decoder.decode(source).whenComplete((imageData, error) -> {
+			if (error != null) {
+				logger.error("Failed to load texture " + source, error);
+				return;
+			}
+			texture.setImageData(imageData);
+			decoded.add(texture);
+		});
+		return texture;
+	}
+
+	/**
+	 * Creates images for newly decoded textures and queues this frame's share of uploads. Called by the renderer
+	 * before it records uploads. At least one step runs every frame, so a level larger than the budget still gets
+	 * through on its own.
+	 */
+	void update() {
+		Texture texture;
+		while ((texture = decoded.poll()) != null) {
+			createImage(texture);
+			coarseUploads.add(texture);
+		}
+
+		long budget = frameBudget;
+		boolean uploaded = false;
+		while (!coarseUploads.isEmpty() || !fullUploads.isEmpty()) {
+			boolean coarse = !coarseUploads.isEmpty();
+			texture = coarse ? coarseUploads.peek() : fullUploads.peek();
+
+			ImageData imageData = texture.getImageData();
+			int level = coarse ? imageData.getCoarseLevel() : 0;
+			long bytes = (long) ImageData.getLevelSize(texture.getWidth(), level) * ImageData.getLevelSize(texture.getHeight(), level) * ImageData.BYTES_PER_PIXEL;
+			if (uploaded && bytes > budget) {
+				break;
+			}
+
+			if (coarse) {
+				uploadCoarse(coarseUploads.poll());
+			} else {
+				uploadFull(fullUploads.poll());
+			}
+			budget -= bytes;
+			uploadedBytes += bytes;
+			uploaded = true;
+		}
+	}
+
+	private void createImage(Texture texture) {
+		ImageData imageData = texture.getImageData();
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack);
+			imageInfo.sType(VK10.VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO);
+			imageInfo.imageType(VK10.VK_IMAGE_TYPE_2D);
+			imageInfo.format(FORMAT);
+			imageInfo.extent().set(imageData.getWidth(), imageData.getHeight(), 1);
+			imageInfo.mipLevels(imageData.getMipLevels());
+			imageInfo.arrayLayers(1);
+			imageInfo.samples(VK10.VK_SAMPLE_COUNT_1_BIT);
+			imageInfo.tiling(VK10.VK_IMAGE_TILING_OPTIMAL);
+			imageInfo.usage(VK10.VK_IMAGE_USAGE_SAMPLED_BIT | VK10.VK_IMAGE_USAGE_TRANSFER_SRC_BIT | VK10.VK_IMAGE_USAGE_TRANSFER_DST_BIT);
+			imageInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+			imageInfo.initialLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
+
+			LongBuffer image = stack.callocLong(1);
+			if (VK10.vkCreateImage(logicalDevice, imageInfo, null, image) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create texture image");
+			}
+			texture.setImage(image.get(0), memoryAllocator.allocateForImage(image.get(0), MemoryUsage.GPU_ONLY));
+		}
+	}
+
+	/**
+	 * Uploads the coarse level and blits the rest of the chain below it. Small images have no coarse copy, their
+	 * coarse level is the full resolution one and they are done after this step.
+	 */
+	private void uploadCoarse(Texture texture) {
+		ImageData imageData = texture.getImageData();
+		int level = imageData.getCoarseLevel();
+		ByteBuffer pixels = level == 0 ? imageData.getPixels() : imageData.getCoarsePixels();
+		int width = ImageData.getLevelSize(texture.getWidth(), level);
+		int height = ImageData.getLevelSize(texture.getHeight(), level);
+
+		uploadLevel(texture, pixels, level, width, height);
+		uploader.generateMips(texture.getImage(), width, height, level, texture.getMipLevels() - level, VK10.VK_FILTER_LINEAR);
+		setResidentLevel(texture, level);
+		visibleLatency.record(System.nanoTime() - texture.getRequestNanos());
+
+		if (level == 0) {
+			finish(texture);
+		} else {
+			imageData.freeCoarse();
+			fullUploads.add(texture);
+		}
+	}
+
+	/**
+	 * Uploads the full resolution level and blits the levels between it and the coarse one, which stays as is.
+	 */
+	private void uploadFull(Texture texture) {
+		ImageData imageData = texture.getImageData();
+
+		uploadLevel(texture, imageData.getPixels(), 0, texture.getWidth(), texture.getHeight());
+		uploader.generateMips(texture.getImage(), texture.getWidth(), texture.getHeight(), 0, imageData.getCoarseLevel(), VK10.VK_FILTER_LINEAR);
+		setResidentLevel(texture, 0);
+		finish(texture);
+	}
+
+	private void uploadLevel(Texture texture, ByteBuffer pixels, int level, int width, int height) {
+		long size = (long) width * height * ImageData.BYTES_PER_PIXEL;
+		StagingRegion region = uploader.stage(size);
+		MemoryUtil.memCopy(MemoryUtil.memAddress(pixels), region.getAddress(), size);
+		uploader.copyToImage(region, texture.getImage(), level, width, height);
+	}
+
+	private void finish(Texture texture) {
+		texture.releaseImageData();
+		residentLatency.record(System.nanoTime() - texture.getRequestNanos());
+	}
+
+	/**
+	 * Switches the texture to a view starting at level. The uploads were queued for the frame about to be submitted,
+	 * which runs them before its own commands, so the view is safe to use from that frame on. The old view is
+	 * destroyed once frames that might still use it have finished.
+	 * <p>
+	 * With a resource heap the new view gets a new slot rather than overwriting the old one, which submitted frames
+	 * may still be sampling. The old slot is freed along with the old view, and command buffers are re-recorded so
+	 * draws pick up the new index.
+	 */
+	private void setResidentLevel(Texture texture, int level) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack);
+			viewInfo.sType(VK10.VK_STRUCTURE_TYPE_IMAGE_VIEW_CREATE_INFO);
+			viewInfo.image(texture.getImage());
+			viewInfo.viewType(VK10.VK_IMAGE_VIEW_TYPE_2D);
+			viewInfo.format(FORMAT);
+			viewInfo.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, level, texture.getMipLevels() - level, 0, 1);
+
+			LongBuffer imageView = stack.callocLong(1);
+			if (VK10.vkCreateImageView(logicalDevice, viewInfo, null, imageView) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create texture image view");
+			}
+
+			long oldImageView = texture.getImageView();
+			int oldHeapIndex = texture.getHeapIndex();
+			ResourceHeap resourceHeap = renderer.getResourceHeap();
+			if (oldImageView != VK10.VK_NULL_HANDLE) {
+				renderer.retire(() -> {
+					renderer.getDescriptorSetCache().evict(oldImageView);
+					if (oldHeapIndex >= 0) {
+						resourceHeap.removeTexture(oldHeapIndex);
+					}
+					VK10.vkDestroyImageView(logicalDevice, oldImageView, null);
+				});
+			}
+			texture.setImageView(imageView.get(0));
+			if (resourceHeap != null) {
+				texture.setHeapIndex(resourceHeap.addTexture(logicalDevice, imageView.get(0)));
+				renderer.markDirty(DirtyReason.RESOURCES);
+			}
+			texture.setResidentLevel(level);
+		}
+	}
+
+	/**
+	 * Logs decode times, how long textures took to become visible and fully resident, and streaming throughput
+	 * since the last report.
+	 */
+	public void report() {
+		decoder.report();
+		if (visibleLatency.getCount() > 0) {
+			logger.info("Textures visible after: " + visibleLatency.snapshotAndReset());
+		}
+		if (residentLatency.getCount() > 0) {
+			logger.info("Textures resident after: " + residentLatency.snapshotAndReset());
+		}
+		if (uploadedBytes > 0 || !coarseUploads.isEmpty() || !fullUploads.isEmpty()) {
+			logger.info(String.format("Streamed %.1f MB of textures, %d coarse and %d full uploads waiting", uploadedBytes / 1e6, coarseUploads.size(), fullUploads.size()));
+		}
+		uploadedBytes = 0;
+	}
+
+	public ArrayList<Texture> getTextures() {
+		return textures;
+	}
+
+	/**
+	 * Waits for running decodes, then destroys every texture. The device must be idle.
+	 */
+	public void cleanUp(VkDevice logicalDevice) {
+		decoder.shutdown();
+
+		for (Texture texture : textures) {
+			texture.releaseImageData();
+			if (texture.getImageView() != VK10.VK_NULL_HANDLE) {
+				VK10.vkDestroyImageView(logicalDevice, texture.getImageView(), null);
+			}
+			if (texture.getAllocation() != null) {
+				VK10.vkDestroyImage(logicalDevice, texture.getImage(), null);
+				memoryAllocator.free(texture.getAllocation());
+			}
+		}
+		logger.info("Destroyed " + textures.size() + " textures");
+	}
+}
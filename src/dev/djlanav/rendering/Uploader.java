@@ -0,0 +1,779 @@
+package dev.djlanav.rendering;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+import dev.djlanav.vulkan.MemoryAllocator;
+import dev.djlanav.vulkan.StagingRegion;
+import dev.djlanav.vulkan.StagingRing;
+import dev.djlanav.vulkan.TimelineSemaphore;
+import dev.djlanav.vulkan.VulkanQueue;
+
+/**
+ * Batches uploads into device-local buffers and images. Data is written straight into the staging ring and
+ * the copies of a frame are recorded into one command buffer per frame slot, submitted ahead of the frame's
+ * own commands. Staging space is reclaimed once the timeline passes that submission. Uploads may be queued
+ * from any thread and are picked up by the next frame.
+ * <p>
+ * With a separate transfer queue the copies run there instead, tracked by a timeline of their own, and the
+ * frame only waits for them at the stages that read uploaded data. If the transfer queue is in another family,
+ * the copied ranges are released by the transfer queue and acquired by the frame's upload command buffer.
+ * <p>
+ * Mip chains are blitted on the graphics queue, since blits need graphics capabilities. They run in the
+ * frame's upload command buffer after the copies, or after the acquires in the asynchronous case.
+ * <p>
+ * When the staging ring fills up before a frame picks the copies up, e.g. while the scene loads or when workers
+ * stage faster than frames are rendered, {@link #stage(long)} submits them itself on the uploader's own timeline
+ * and waits for room outside the uploader's lock.
+ */
+public class Uploader {
+
+	// Offsets within the ring are kept aligned for image copies of any common texel size
+	private static final long DEFAULT_ALIGNMENT = 16;
+	
+	// Stages that may read uploaded data, the frame waits for asynchronous copies only there
+	static final long CONSUMER_STAGES = VK13.VK_PIPELINE_STAGE_2_DRAW_INDIRECT_BIT | VK13.VK_PIPELINE_STAGE_2_VERTEX_INPUT_BIT 
+			| VK13.VK_PIPELINE_STAGE_2_VERTEX_SHADER_BIT | VK13.VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT 
+			| VK13.VK_PIPELINE_STAGE_2_COMPUTE_SHADER_BIT | VK13.VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private VkDevice logicalDevice;
+	private MemoryAllocator memoryAllocator;
+	// Timeline that copies recorded by record() are retired on, the frame timeline unless uploads are asynchronous
+	private TimelineSemaphore timeline;
+	private StagingRing stagingRing = new StagingRing();
+	
+	private LongBuffer commandPool = BufferUtils.createLongBuffer(1);
+	private VkCommandBuffer[] commandBuffers;
+	
+	// Only used with a separate transfer queue, null otherwise
+	private VulkanQueue transferQueue;
+	private int graphicsFamily;
+	private int transferFamily;
+	// Signalled by the transfer queue's submissions and by flushes
+	private TimelineSemaphore transferTimeline = new TimelineSemaphore();
+	private LongBuffer transferCommandPool = BufferUtils.createLongBuffer(1);
+	private VkCommandBuffer[] transferCommandBuffers;
+	private long[] transferSubmittedValues;
+	private long frameWaitValue = 0;
+	
+	// Flushes run on the transfer queue, which is the graphics queue unless uploads are asynchronous
+	private VulkanQueue flushQueue;
+	private LongBuffer flushCommandPool = BufferUtils.createLongBuffer(1);
+	private ArrayDeque<Flush> flushes = new ArrayDeque<Flush>();
+	// Flushed copies the next frame still has to acquire, and the transfer timeline value it has to wait for
+	private ArrayList<PendingCopy> flushedCopies = new ArrayList<PendingCopy>();
+	private long flushWaitValue = 0;
+	private long flushCount = 0;
+	private VkCommandBufferSubmitInfo.Buffer transferCommandBufferInfo = VkCommandBufferSubmitInfo.calloc(1);
+	private VkSemaphoreSubmitInfo.Buffer transferSignalInfo = VkSemaphoreSubmitInfo.calloc(1);
+	private VkSubmitInfo2.Buffer transferSubmitInfo = VkSubmitInfo2.calloc(1);
+	private VkCommandBufferBeginInfo beginInfo = VkCommandBufferBeginInfo.calloc();
+	private VkMemoryBarrier2.Buffer uploadBarrier = VkMemoryBarrier2.calloc(1);
+	private VkDependencyInfo uploadDependency = VkDependencyInfo.calloc();
+	
+	private ArrayList<PendingCopy> pendingCopies = new ArrayList<PendingCopy>();
+	// Recorded copies are reused, so steady-state uploads never allocate
+	private ArrayList<PendingCopy> freeCopies = new ArrayList<PendingCopy>();
+	private ArrayList<PendingMipChain> pendingMipChains = new ArrayList<PendingMipChain>();
+	private ArrayList<StagingRegion> recordedRegions = new ArrayList<StagingRegion>();
+	
+	private long uploadedBytes = 0;
+	private int copyCount = 0;
+	private long lastReportNanos = System.nanoTime();
+	private long reportedStallCount = 0;
+	private long reportedStallNanos = 0;
+	
+	/**
+	 * Copies run on the transfer queue when it differs from the graphics queue, otherwise on the graphics queue
+	 * ahead of each frame. The transfer queue must not be submitted to from anywhere else.
+	 */
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, TimelineSemaphore frameTimeline, VulkanQueue graphicsQueue, 
+			VulkanQueue transferQueue, int framesInFlight, long ringSize) {
+		this.logicalDevice = logicalDevice;
+		this.memoryAllocator = memoryAllocator;
+		this.timeline = frameTimeline;
+		this.graphicsFamily = graphicsQueue.getParentFamilyIndex();
+		this.transferFamily = transferQueue.getParentFamilyIndex();
+		
+		createCommandPool(graphicsFamily, commandPool);
+		commandBuffers = allocateCommandBuffers(commandPool, framesInFlight);
+		
+		this.flushQueue = transferQueue;
+		createCommandPool(transferFamily, flushCommandPool);
+		transferTimeline.create(logicalDevice);
+		
+		transferCommandBufferInfo.sType(VK13.VK_STRUCTURE_TYPE_COMMAND_BUFFER_SUBMIT_INFO);
+		transferSignalInfo.sType(VK13.VK_STRUCTURE_TYPE_SEMAPHORE_SUBMIT_INFO);
+		transferSignalInfo.semaphore(transferTimeline.getSemaphore());
+		transferSignalInfo.stageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+		
+		transferSubmitInfo.sType(VK13.VK_STRUCTURE_TYPE_SUBMIT_INFO_2);
+		transferSubmitInfo.pCommandBufferInfos(transferCommandBufferInfo);
+		transferSubmitInfo.pSignalSemaphoreInfos(transferSignalInfo);
+		
+		if (transferQueue != graphicsQueue) {
+			this.transferQueue = transferQueue;
+			this.timeline = transferTimeline;
+			
+			createCommandPool(transferFamily, transferCommandPool);
+			transferCommandBuffers = allocateCommandBuffers(transferCommandPool, framesInFlight);
+			transferSubmittedValues = new long[framesInFlight];
+			
+			logger.info("Uploading on queue " + transferQueue.getQueueIndex() + " of family " + transferFamily 
+					+ (isOwnershipTransferred() ? " with ownership transfers" : ""));
+		}
+		
+		stagingRing.create(logicalDevice, memoryAllocator, ringSize);
+		
+		beginInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_BEGIN_INFO);
+		beginInfo.flags(VK10.VK_COMMAND_BUFFER_USAGE_ONE_TIME_SUBMIT_BIT);
+		
+		// Everything a frame could read uploaded data with waits for the copies
+		uploadBarrier.sType(VK13.VK_STRUCTURE_TYPE_MEMORY_BARRIER_2);
+		uploadBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COPY_BIT);
+		uploadBarrier.srcAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+		uploadBarrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_ALL_COMMANDS_BIT);
+		uploadBarrier.dstAccessMask(VK13.VK_ACCESS_2_MEMORY_READ_BIT);
+		
+		uploadDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		uploadDependency.pMemoryBarriers(uploadBarrier);
+	}
+	
+	private void createCommandPool(int queueFamilyIndex, LongBuffer pool) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandPoolCreateInfo cmdPoolInfo = VkCommandPoolCreateInfo.calloc(stack);
+			cmdPoolInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_POOL_CREATE_INFO);
+			cmdPoolInfo.flags(VK10.VK_COMMAND_POOL_CREATE_RESET_COMMAND_BUFFER_BIT | VK10.VK_COMMAND_POOL_CREATE_TRANSIENT_BIT);
+			cmdPoolInfo.queueFamilyIndex(queueFamilyIndex);
+			
+			if (VK10.vkCreateCommandPool(logicalDevice, cmdPoolInfo, null, pool) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create upload command pool");
+			}
+		}
+	}
+	
+	private VkCommandBuffer[] allocateCommandBuffers(LongBuffer pool, int count) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkCommandBufferAllocateInfo allocateInfo = VkCommandBufferAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_COMMAND_BUFFER_ALLOCATE_INFO);
+			allocateInfo.commandPool(pool.get(0));
+			allocateInfo.level(VK10.VK_COMMAND_BUFFER_LEVEL_PRIMARY);
+			allocateInfo.commandBufferCount(count);
+			
+			PointerBuffer buffers = stack.callocPointer(count);
+			if (VK10.vkAllocateCommandBuffers(logicalDevice, allocateInfo, buffers) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to allocate upload command buffers");
+			}
+			
+			VkCommandBuffer[] commandBuffers = new VkCommandBuffer[count];
+			for (int i = 0; i < count; i++) {
+				commandBuffers[i] = new VkCommandBuffer(buffers.get(i), logicalDevice);
+			}
+			return commandBuffers;
+		}
+	}
+	
+	/**
+	 * Reserves staging space to write upload data into. Every region must be passed to one of the copy methods,
+	 * a region that never is holds back the ring forever.
+	 * <p>
+	 * If the ring is full this blocks until the GPU has consumed enough earlier uploads, which is counted as a
+	 * stall. Queued copies no frame has picked up yet are flushed first.
+	 */
+	public StagingRegion stage(long size) {
+		return stage(size, DEFAULT_ALIGNMENT);
+	}
+	
+	public StagingRegion stage(long size, long alignment) {
+		long stallStart = 0;
+		
+		while (true) {
+			TimelineSemaphore waitTimeline;
+			long waitValue;
+			
+			synchronized (this) {
+				StagingRegion region = stagingRing.reserve(logicalDevice, size, alignment);
+				if (region != null) {
+					if (stallStart != 0) {
+						stagingRing.addStall(System.nanoTime() - stallStart);
+					}
+					return region;
+				}
+				
+				if (stallStart == 0) {
+					stallStart = System.nanoTime();
+				}
+				if (stagingRing.getBlockingValue() == 0 && !pendingCopies.isEmpty()) {
+					flush();
+				}
+				waitTimeline = stagingRing.getBlockingTimeline();
+				waitValue = stagingRing.getBlockingValue();
+			}
+			
+			// Outside the lock, so the render thread keeps recording and retiring uploads meanwhile
+			if (waitValue != 0) {
+				waitTimeline.waitFor(logicalDevice, waitValue);
+			} else {
+				// The oldest region's copy is about to be queued by another thread, or submitted by the render thread
+				Thread.yield();
+			}
+		}
+	}
+	
+	/**
+	 * Submits the queued copies right away instead of with the next frame, signalling the transfer timeline. On
+	 * the graphics queue the frames that follow are ordered after the copies by the upload barrier, on a separate
+	 * transfer queue the next frame waits for the flush and acquires what it released.
+	 */
+	private void flush() {
+		boolean release = isOwnershipTransferred();
+		VkCommandBuffer commandBuffer = obtainFlushCommandBuffer();
+		
+		beginCommandBuffer(commandBuffer);
+		for (PendingCopy copy : pendingCopies) {
+			recordCopy(commandBuffer, copy, !release);
+		}
+		if (release) {
+			recordOwnershipTransfer(commandBuffer, pendingCopies, true);
+		}
+		if (transferQueue == null) {
+			recordMipChains(commandBuffer);
+			VK13.vkCmdPipelineBarrier2(commandBuffer, uploadDependency);
+		}
+		endCommandBuffer(commandBuffer);
+		stagingRing.flush(memoryAllocator);
+		
+		long value = transferTimeline.nextValue();
+		transferCommandBufferInfo.commandBuffer(commandBuffer);
+		transferSignalInfo.value(value);
+		if (flushQueue.submit(transferSubmitInfo, VK10.VK_NULL_HANDLE) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to submit flushed uploads");
+		}
+		flushes.add(new Flush(commandBuffer, value));
+		
+		for (PendingCopy copy : pendingCopies) {
+			stagingRing.retire(copy.region, transferTimeline, value);
+		}
+		copyCount += pendingCopies.size();
+		flushCount++;
+		
+		if (transferQueue != null) {
+			flushWaitValue = value;
+		}
+		if (release) {
+			flushedCopies.addAll(pendingCopies);
+			pendingCopies.clear();
+		} else {
+			recycle(pendingCopies);
+		}
+	}
+	
+	/**
+	 * Reuses the command buffer of the oldest flush if it has completed, otherwise allocates another one.
+	 */
+	private VkCommandBuffer obtainFlushCommandBuffer() {
+		Flush oldest = flushes.peek();
+		if (oldest != null && oldest.value <= transferTimeline.getCompletedValue(logicalDevice)) {
+			flushes.poll();
+			return oldest.commandBuffer;
+		}
+		return allocateCommandBuffers(flushCommandPool, 1)[0];
+	}
+	
+	/**
+	 * Copies data into a buffer. Costs one memcpy into the ring, write into {@link #stage(long)} directly to avoid it.
+	 */
+	public void uploadToBuffer(ByteBuffer data, long dstBuffer, long dstOffset) {
+		StagingRegion region = stage(data.remaining());
+		MemoryUtil.memCopy(MemoryUtil.memAddress(data), region.getAddress(), data.remaining());
+		copyToBuffer(region, dstBuffer, dstOffset);
+	}
+	
+	public synchronized void copyToBuffer(StagingRegion region, long dstBuffer, long dstOffset) {
+		pendingCopies.add(obtainCopy().set(region, dstBuffer, dstOffset, VK10.VK_NULL_HANDLE, 0, 0, 0));
+	}
+	
+	/**
+	 * Copies tightly packed pixels into mip level 0 of a single-layer color image, which ends up in SHADER_READ_ONLY_OPTIMAL.
+	 */
+	public void copyToImage(StagingRegion region, long image, int width, int height) {
+		copyToImage(region, image, 0, width, height);
+	}
+	
+	/**
+	 * Copies tightly packed pixels into one mip level, width and height being the level's size. Only that level
+	 * is transitioned, other levels may be sampled meanwhile.
+	 */
+	public synchronized void copyToImage(StagingRegion region, long image, int mipLevel, int width, int height) {
+		pendingCopies.add(obtainCopy().set(region, VK10.VK_NULL_HANDLE, 0, image, mipLevel, width, height));
+	}
+	
+	private PendingCopy obtainCopy() {
+		return freeCopies.isEmpty() ? new PendingCopy() : freeCopies.remove(freeCopies.size() - 1);
+	}
+	
+	private void recycle(ArrayList<PendingCopy> copies) {
+		for (int i = 0; i < copies.size(); i++) {
+			freeCopies.add(copies.get(i));
+		}
+		copies.clear();
+	}
+	
+	/**
+	 * Fills levels baseLevel + 1 to baseLevel + levelCount - 1 by blitting each from the one above it. The base
+	 * level must hold data in SHADER_READ_ONLY_OPTIMAL by then, e.g. from a copy queued before, and every level
+	 * of the chain ends up in SHADER_READ_ONLY_OPTIMAL. The image needs TRANSFER_SRC and TRANSFER_DST usage and
+	 * a format that supports blits with the given filter.
+	 */
+	public synchronized void generateMips(long image, int baseWidth, int baseHeight, int baseLevel, int levelCount, int filter) {
+		if (levelCount > 1) {
+			pendingMipChains.add(new PendingMipChain(image, baseWidth, baseHeight, baseLevel, levelCount, filter));
+		}
+	}
+	
+	/**
+	 * Records every queued copy into the frame slot's upload command buffer. Returns null if nothing was
+	 * queued. The slot's previous submission must have completed.
+	 * <p>
+	 * With a separate transfer queue the copies are submitted there right away. The returned command buffer then
+	 * only acquires ownership of the copied ranges, and is null if that is not needed. Either way the frame has
+	 * to wait for {@link #getWaitValue()} on {@link #getWaitSemaphore()}.
+	 */
+	public synchronized VkCommandBuffer record(int frameIndex) {
+		frameWaitValue = flushWaitValue;
+		flushWaitValue = 0;
+		if (pendingCopies.isEmpty() && pendingMipChains.isEmpty() && flushedCopies.isEmpty()) {
+			return null;
+		}
+		
+		if (transferQueue != null) {
+			return submitToTransferQueue(frameIndex);
+		}
+		
+		VkCommandBuffer commandBuffer = commandBuffers[frameIndex];
+		beginCommandBuffer(commandBuffer);
+		for (PendingCopy copy : pendingCopies) {
+			recordCopy(commandBuffer, copy, true);
+			recordedRegions.add(copy.region);
+		}
+		recordMipChains(commandBuffer);
+		VK13.vkCmdPipelineBarrier2(commandBuffer, uploadDependency);
+		endCommandBuffer(commandBuffer);
+		
+		copyCount += pendingCopies.size();
+		recycle(pendingCopies);
+		stagingRing.flush(memoryAllocator);
+		return commandBuffer;
+	}
+	
+	private VkCommandBuffer submitToTransferQueue(int frameIndex) {
+		boolean ownershipTransfer = isOwnershipTransferred() && !pendingCopies.isEmpty();
+		if (!pendingCopies.isEmpty()) {
+			submitCopies(frameIndex, ownershipTransfer);
+		}
+		
+		VkCommandBuffer graphicsCommands = null;
+		if (ownershipTransfer || !flushedCopies.isEmpty() || !pendingMipChains.isEmpty()) {
+			graphicsCommands = commandBuffers[frameIndex];
+			beginCommandBuffer(graphicsCommands);
+			recordOwnershipTransfer(graphicsCommands, flushedCopies, false);
+			if (ownershipTransfer) {
+				recordOwnershipTransfer(graphicsCommands, pendingCopies, false);
+			}
+			recordMipChains(graphicsCommands);
+			endCommandBuffer(graphicsCommands);
+		}
+		
+		copyCount += pendingCopies.size();
+		recycle(pendingCopies);
+		recycle(flushedCopies);
+		return graphicsCommands;
+	}
+	
+	private void submitCopies(int frameIndex, boolean ownershipTransfer) {
+		// Normally long done, the frame that last used this slot already waited for it
+		VkCommandBuffer transferCommands = transferCommandBuffers[frameIndex];
+		transferTimeline.waitFor(logicalDevice, transferSubmittedValues[frameIndex]);
+		
+		beginCommandBuffer(transferCommands);
+		for (PendingCopy copy : pendingCopies) {
+			recordCopy(transferCommands, copy, !ownershipTransfer);
+		}
+		if (ownershipTransfer) {
+			recordOwnershipTransfer(transferCommands, pendingCopies, true);
+		}
+		endCommandBuffer(transferCommands);
+		stagingRing.flush(memoryAllocator);
+		
+		long value = transferTimeline.nextValue();
+		transferCommandBufferInfo.commandBuffer(transferCommands);
+		transferSignalInfo.value(value);
+		if (transferQueue.submit(transferSubmitInfo, VK10.VK_NULL_HANDLE) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to submit uploads to the transfer queue");
+		}
+		
+		transferSubmittedValues[frameIndex] = value;
+		frameWaitValue = value;
+		for (PendingCopy copy : pendingCopies) {
+			stagingRing.retire(copy.region, transferTimeline, value);
+		}
+	}
+	
+	private void beginCommandBuffer(VkCommandBuffer commandBuffer) {
+		if (VK10.vkBeginCommandBuffer(commandBuffer, beginInfo) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to begin upload command buffer");
+		}
+	}
+	
+	private void endCommandBuffer(VkCommandBuffer commandBuffer) {
+		if (VK10.vkEndCommandBuffer(commandBuffer) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to end upload command buffer");
+		}
+	}
+	
+	private void recordCopy(VkCommandBuffer commandBuffer, PendingCopy copy, boolean transitionImages) {
+		if (copy.image != VK10.VK_NULL_HANDLE) {
+			recordImageCopy(commandBuffer, copy, transitionImages);
+		} else {
+			recordBufferCopy(commandBuffer, copy);
+		}
+		uploadedBytes += copy.region.getSize();
+	}
+	
+	/**
+	 * Records the release (on the transfer queue) or acquire (on the graphics queue) half of moving every given
+	 * copy's destination to the graphics family. Images move from TRANSFER_DST to SHADER_READ_ONLY on the way.
+	 * The acquire waits on the stages the frame waits for the transfer timeline at.
+	 */
+	private void recordOwnershipTransfer(VkCommandBuffer commandBuffer, ArrayList<PendingCopy> copies, boolean release) {
+		if (copies.isEmpty()) {
+			return;
+		}
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			int imageCount = 0;
+			for (PendingCopy copy : copies) {
+				if (copy.image != VK10.VK_NULL_HANDLE) {
+					imageCount++;
+				}
+			}
+			int bufferCount = copies.size() - imageCount;
+			
+			VkBufferMemoryBarrier2.Buffer bufferBarriers = VkBufferMemoryBarrier2.calloc(bufferCount, stack);
+			VkImageMemoryBarrier2.Buffer imageBarriers = VkImageMemoryBarrier2.calloc(imageCount, stack);
+			
+			long srcStage = release ? VK13.VK_PIPELINE_STAGE_2_COPY_BIT : CONSUMER_STAGES;
+			long srcAccess = release ? VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT : VK13.VK_ACCESS_2_NONE;
+			long dstStage = release ? VK13.VK_PIPELINE_STAGE_2_NONE : CONSUMER_STAGES;
+			long dstAccess = release ? VK13.VK_ACCESS_2_NONE : VK13.VK_ACCESS_2_MEMORY_READ_BIT;
+			
+			int bufferIndex = 0;
+			int imageIndex = 0;
+			for (PendingCopy copy : copies) {
+				if (copy.image != VK10.VK_NULL_HANDLE) {
+					VkImageMemoryBarrier2 barrier = imageBarriers.get(imageIndex++);
+					barrier.sType(VK13.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER_2);
+					barrier.srcStageMask(srcStage);
+					barrier.srcAccessMask(srcAccess);
+					barrier.dstStageMask(dstStage);
+					barrier.dstAccessMask(dstAccess);
+					barrier.oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+					barrier.newLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+					barrier.srcQueueFamilyIndex(transferFamily);
+					barrier.dstQueueFamilyIndex(graphicsFamily);
+					barrier.image(copy.image);
+					barrier.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, copy.mipLevel, 1, 0, 1);
+				} else {
+					VkBufferMemoryBarrier2 barrier = bufferBarriers.get(bufferIndex++);
+					barrier.sType(VK13.VK_STRUCTURE_TYPE_BUFFER_MEMORY_BARRIER_2);
+					barrier.srcStageMask(srcStage);
+					barrier.srcAccessMask(srcAccess);
+					barrier.dstStageMask(dstStage);
+					barrier.dstAccessMask(dstAccess);
+					barrier.srcQueueFamilyIndex(transferFamily);
+					barrier.dstQueueFamilyIndex(graphicsFamily);
+					barrier.buffer(copy.dstBuffer);
+					barrier.offset(copy.dstOffset);
+					barrier.size(copy.region.getSize());
+				}
+			}
+			
+			VkDependencyInfo dependency = VkDependencyInfo.calloc(stack);
+			dependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+			dependency.pBufferMemoryBarriers(bufferBarriers);
+			dependency.pImageMemoryBarriers(imageBarriers);
+			VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+		}
+	}
+	
+	private void recordBufferCopy(VkCommandBuffer commandBuffer, PendingCopy copy) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCopy.Buffer copyRegion = VkBufferCopy.calloc(1, stack);
+			copyRegion.srcOffset(copy.region.getOffset());
+			copyRegion.dstOffset(copy.dstOffset);
+			copyRegion.size(copy.region.getSize());
+			
+			VK10.vkCmdCopyBuffer(commandBuffer, copy.region.getBuffer(), copy.dstBuffer, copyRegion);
+		}
+	}
+	
+	/**
+	 * Leaves the image in TRANSFER_DST_OPTIMAL unless transitionToShaderRead is set.
+	 */
+	private void recordImageCopy(VkCommandBuffer commandBuffer, PendingCopy copy, boolean transitionToShaderRead) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkImageMemoryBarrier2.Buffer barrier = VkImageMemoryBarrier2.calloc(1, stack);
+			barrier.sType(VK13.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER_2);
+			barrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_NONE);
+			barrier.srcAccessMask(VK13.VK_ACCESS_2_NONE);
+			barrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_COPY_BIT);
+			barrier.dstAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+			barrier.oldLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
+			barrier.newLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+			barrier.srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+			barrier.dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+			barrier.image(copy.image);
+			barrier.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, copy.mipLevel, 1, 0, 1);
+			
+			VkDependencyInfo dependency = VkDependencyInfo.calloc(stack);
+			dependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+			dependency.pImageMemoryBarriers(barrier);
+			VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+			
+			VkBufferImageCopy.Buffer copyRegion = VkBufferImageCopy.calloc(1, stack);
+			copyRegion.bufferOffset(copy.region.getOffset());
+			copyRegion.imageSubresource().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, copy.mipLevel, 0, 1);
+			copyRegion.imageExtent().set(copy.width, copy.height, 1);
+			VK10.vkCmdCopyBufferToImage(commandBuffer, copy.region.getBuffer(), copy.image, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, copyRegion);
+			if (!transitionToShaderRead) {
+				return;
+			}
+			
+			barrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COPY_BIT);
+			barrier.srcAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+			barrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT);
+			barrier.dstAccessMask(VK13.VK_ACCESS_2_SHADER_SAMPLED_READ_BIT);
+			barrier.oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+			barrier.newLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+			VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+		}
+	}
+	
+	/**
+	 * Records and clears the pending mip chains. Each step moves the source level to TRANSFER_SRC and the
+	 * destination level to TRANSFER_DST, blits, and returns both to SHADER_READ_ONLY, so the chain never depends
+	 * on what else reads the image. The first barrier waits on copies and blits as well as on the fragment
+	 * shader, which the copies' own barriers or the frame's acquire made their writes available to.
+	 */
+	private void recordMipChains(VkCommandBuffer commandBuffer) {
+		if (pendingMipChains.isEmpty()) {
+			return;
+		}
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkImageMemoryBarrier2.Buffer barriers = VkImageMemoryBarrier2.calloc(2, stack);
+			for (int i = 0; i < 2; i++) {
+				VkImageMemoryBarrier2 barrier = barriers.get(i);
+				barrier.sType(VK13.VK_STRUCTURE_TYPE_IMAGE_MEMORY_BARRIER_2);
+				barrier.srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+				barrier.dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+			}
+			VkImageMemoryBarrier2 src = barriers.get(0);
+			VkImageMemoryBarrier2 dst = barriers.get(1);
+			
+			VkDependencyInfo dependency = VkDependencyInfo.calloc(stack);
+			dependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+			dependency.pImageMemoryBarriers(barriers);
+			
+			VkImageBlit.Buffer blit = VkImageBlit.calloc(1, stack);
+			
+			for (PendingMipChain chain : pendingMipChains) {
+				src.image(chain.image);
+				dst.image(chain.image);
+				
+				for (int level = chain.baseLevel + 1; level < chain.baseLevel + chain.levelCount; level++) {
+					src.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, level - 1, 1, 0, 1);
+					src.srcStageMask(VK13.VK_PIPELINE_STAGE_2_ALL_TRANSFER_BIT | VK13.VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT);
+					src.srcAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+					src.dstStageMask(VK13.VK_PIPELINE_STAGE_2_BLIT_BIT);
+					src.dstAccessMask(VK13.VK_ACCESS_2_TRANSFER_READ_BIT);
+					src.oldLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+					src.newLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+					
+					dst.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, level, 1, 0, 1);
+					dst.srcStageMask(VK13.VK_PIPELINE_STAGE_2_NONE);
+					dst.srcAccessMask(VK13.VK_ACCESS_2_NONE);
+					dst.dstStageMask(VK13.VK_PIPELINE_STAGE_2_BLIT_BIT);
+					dst.dstAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+					dst.oldLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
+					dst.newLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+					VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+					
+					int srcLevel = level - chain.baseLevel - 1;
+					blit.srcSubresource().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, level - 1, 0, 1);
+					blit.srcOffsets(1).set(levelSize(chain.baseWidth, srcLevel), levelSize(chain.baseHeight, srcLevel), 1);
+					blit.dstSubresource().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, level, 0, 1);
+					blit.dstOffsets(1).set(levelSize(chain.baseWidth, srcLevel + 1), levelSize(chain.baseHeight, srcLevel + 1), 1);
+					VK10.vkCmdBlitImage(commandBuffer, chain.image, VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, 
+							chain.image, VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL, blit, chain.filter);
+					
+					src.srcStageMask(VK13.VK_PIPELINE_STAGE_2_BLIT_BIT);
+					src.srcAccessMask(VK13.VK_ACCESS_2_NONE);
+					src.dstStageMask(VK13.VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT);
+					src.dstAccessMask(VK13.VK_ACCESS_2_SHADER_SAMPLED_READ_BIT);
+					src.oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL);
+					src.newLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+					
+					dst.srcStageMask(VK13.VK_PIPELINE_STAGE_2_BLIT_BIT);
+					dst.srcAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+					dst.dstStageMask(VK13.VK_PIPELINE_STAGE_2_FRAGMENT_SHADER_BIT);
+					dst.dstAccessMask(VK13.VK_ACCESS_2_SHADER_SAMPLED_READ_BIT);
+					dst.oldLayout(VK10.VK_IMAGE_LAYOUT_TRANSFER_DST_OPTIMAL);
+					dst.newLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+					VK13.vkCmdPipelineBarrier2(commandBuffer, dependency);
+				}
+			}
+		}
+		pendingMipChains.clear();
+	}
+	
+	private static int levelSize(int size, int level) {
+		return Math.max(1, size >> level);
+	}
+	
+	/**
+	 * Whether copies run on a queue of another family, so their destinations change owner.
+	 */
+	private boolean isOwnershipTransferred() {
+		return transferQueue != null && transferFamily != graphicsFamily;
+	}
+	
+	/**
+	 * Timeline value the next frame has to wait for before reading uploads, 0 if it does not have to wait.
+	 */
+	public synchronized long getWaitValue() {
+		return frameWaitValue;
+	}
+	
+	public long getWaitSemaphore() {
+		return transferTimeline.getSemaphore();
+	}
+	
+	/**
+	 * Hands the staging space of the last recorded batch back to the ring once the timeline reaches timelineValue.
+	 */
+	public synchronized void retire(long timelineValue) {
+		for (StagingRegion region : recordedRegions) {
+			stagingRing.retire(region, timeline, timelineValue);
+		}
+		recordedRegions.clear();
+	}
+	
+	/**
+	 * Logs upload throughput and ring stalls since the last report.
+	 */
+	public synchronized void report() {
+		long now = System.nanoTime();
+		double seconds = (now - lastReportNanos) / 1_000_000_000.0;
+		long stalls = stagingRing.getStallCount() - reportedStallCount;
+		long stallNanos = stagingRing.getStallNanos() - reportedStallNanos;
+		
+		if (copyCount > 0 || stalls > 0) {
+			logger.info(String.format("Uploads: %d copies, %.1f MB/s, %d ring stalls (%.3f ms), %d flushes", copyCount, uploadedBytes / 1e6 / seconds, 
+					stalls, stallNanos / 1e6, flushCount));
+		}
+		
+		uploadedBytes = 0;
+		copyCount = 0;
+		flushCount = 0;
+		lastReportNanos = now;
+		reportedStallCount = stagingRing.getStallCount();
+		reportedStallNanos = stagingRing.getStallNanos();
+	}
+	
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyCommandPool(logicalDevice, commandPool.get(0), null);
+		VK10.vkDestroyCommandPool(logicalDevice, flushCommandPool.get(0), null);
+		if (transferQueue != null) {
+			VK10.vkDestroyCommandPool(logicalDevice, transferCommandPool.get(0), null);
+		}
+		transferTimeline.cleanUp(logicalDevice);
+		stagingRing.cleanUp(logicalDevice, memoryAllocator);
+		
+		beginInfo.free();
+		transferCommandBufferInfo.free();
+		transferSignalInfo.free();
+		transferSubmitInfo.free();
+		uploadBarrier.free();
+		uploadDependency.free();
+		logger.info("Destroyed uploader");
+	}
+	
+	public StagingRing getStagingRing() {
+		return stagingRing;
+	}
+	
+	private static class Flush {
+		
+		private final VkCommandBuffer commandBuffer;
+		private final long value;
+		
+		private Flush(VkCommandBuffer commandBuffer, long value) {
+			this.commandBuffer = commandBuffer;
+			this.value = value;
+		}
+	}
+	
+	private static class PendingCopy {
+		
+		private StagingRegion region;
+		private long dstBuffer;
+		private long dstOffset;
+		private long image;
+		private int mipLevel;
+		private int width;
+		private int height;
+		
+		private PendingCopy set(StagingRegion region, long dstBuffer, long dstOffset, long image, int mipLevel, int width, int height) {
+			this.region = region;
+			this.dstBuffer = dstBuffer;
+			this.dstOffset = dstOffset;
+			this.image = image;
+			this.mipLevel = mipLevel;
+			this.width = width;
+			this.height = height;
+			return this;
+		}
+	}
+	
+	private static class PendingMipChain {
+		
+		private final long image;
+		private final int baseWidth;
+		private final int baseHeight;
+		private final int baseLevel;
+		private final int levelCount;
+		private final int filter;
+		
+		private PendingMipChain(long image, int baseWidth, int baseHeight, int baseLevel, int levelCount, int filter) {
+			this.image = image;
+			this.baseWidth = baseWidth;
+			this.baseHeight = baseHeight;
+			this.baseLevel = baseLevel;
+			this.levelCount = levelCount;
+			this.filter = filter;
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package dev.djlanav.rendering;
+
+import org.lwjgl.vulkan.VK10;
+
+/**
+ * Formats a vertex attribute can be stored in.
+ */
+public enum VertexFormat {
+	FLOAT(VK10.VK_FORMAT_R32_SFLOAT, 4),
+	FLOAT2(VK10.VK_FORMAT_R32G32_SFLOAT, 8),
+	FLOAT3(VK10.VK_FORMAT_R32G32B32_SFLOAT, 12),
+	FLOAT4(VK10.VK_FORMAT_R32G32B32A32_SFLOAT, 16),
+	// Four bytes read as floats in [0, 1], e.g. packed colors
+	UBYTE4_NORM(VK10.VK_FORMAT_R8G8B8A8_UNORM, 4),
+	UINT(VK10.VK_FORMAT_R32_UINT, 4);
+	
+	private final int format;
+	private final int size;
+	
+	private VertexFormat(int format, int size) {
+		this.format = format;
+		this.size = size;
+	}
+	
+	public int getFormat() {
+		return format;
+	}
+	
+	public int getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,65 @@
+package dev.djlanav.rendering;
+
+import java.util.ArrayList;
+
+import org.lwjgl.vulkan.*;
+
+/**
+ * Interleaved attributes of a single vertex buffer binding. Attributes are packed in the order they are
+ * added, so offsets and the stride follow from their formats.
+ */
+public class VertexLayout {
+
+	// Matches shader.vert: vec3 position at location 0, vec3 color at location 1
+	public static final VertexLayout POSITION_COLOR = new VertexLayout()
+			.add(0, VertexFormat.FLOAT3)
+			.add(1, VertexFormat.FLOAT3);
+	
+	private ArrayList<Integer> locations = new ArrayList<Integer>();
+	private ArrayList<VertexFormat> formats = new ArrayList<VertexFormat>();
+	private ArrayList<Integer> offsets = new ArrayList<Integer>();
+	private int stride = 0;
+	
+	public VertexLayout add(int location, VertexFormat format) {
+		locations.add(location);
+		formats.add(format);
+		offsets.add(stride);
+		stride += format.getSize();
+		return this;
+	}
+	
+	/**
+	 * Heap allocated, the caller frees it once the pipeline is created.
+	 */
+	public VkVertexInputBindingDescription.Buffer createBindingDescriptions() {
+		VkVertexInputBindingDescription.Buffer bindings = VkVertexInputBindingDescription.calloc(1);
+		bindings.binding(0);
+		bindings.stride(stride);
+		bindings.inputRate(VK10.VK_VERTEX_INPUT_RATE_VERTEX);
+		return bindings;
+	}
+	
+	/**
+	 * Heap allocated, the caller frees it once the pipeline is created.
+	 */
+	public VkVertexInputAttributeDescription.Buffer createAttributeDescriptions() {
+		VkVertexInputAttributeDescription.Buffer attributes = VkVertexInputAttributeDescription.calloc(formats.size());
+		
+		for (int i = 0; i < formats.size(); i++) {
+			VkVertexInputAttributeDescription attribute = attributes.get(i);
+			attribute.binding(0);
+			attribute.location(locations.get(i));
+			attribute.format(formats.get(i).getFormat());
+			attribute.offset(offsets.get(i));
+		}
+		return attributes;
+	}
+	
+	public int getAttributeCount() {
+		return formats.size();
+	}
+	
+	public int getStride() {
+		return stride;
+	}
+}
@@ -0,0 +1,35 @@
+package dev.djlanav.utils;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Sums the bytes the calling thread allocates on the Java heap between {@link #start()} and {@link #stop()}.
+ * Both must be called from the same thread, e.g. around each frame to check the frame loop stays allocation-free.
+ */
+public class AllocationMeter {
+
+	private final ThreadMXBean threadBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private long startBytes = 0;
+	private long allocatedBytes = 0;
+	private int intervals = 0;
+
+	public void start() {
+		startBytes = threadBean.getCurrentThreadAllocatedBytes();
+	}
+
+	public void stop() {
+		allocatedBytes += threadBean.getCurrentThreadAllocatedBytes() - startBytes;
+		intervals++;
+	}
+
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	public int getIntervals() {
+		return intervals;
+	}
+}
@@ -0,0 +1,52 @@
+package dev.djlanav.utils;
+
+/**
+ * Frustum planes for sphere culling, stored as six (normal, distance) quadruples in one float array: left, right,
+ * bottom, top, near and far.
+ */
+public final class Frustum {
+
+	public static final int PLANE_FLOATS = 24;
+
+	private Frustum() {
+	}
+
+	/**
+	 * Extracts normalized planes from a column-major view projection matrix with Vulkan's 0 to 1 depth range.
+	 */
+	public static void extractPlanes(float[] m, float[] planes) {
+		for (int i = 0; i < 4; i++) {
+			float row0 = m[i * 4];
+			float row1 = m[i * 4 + 1];
+			float row2 = m[i * 4 + 2];
+			float row3 = m[i * 4 + 3];
+
+			planes[i] = row3 + row0;
+			planes[4 + i] = row3 - row0;
+			planes[8 + i] = row3 + row1;
+			planes[12 + i] = row3 - row1;
+			planes[16 + i] = row2;
+			planes[20 + i] = row3 - row2;
+		}
+
+		// Normalized planes give true distances, which the sphere radius is compared against
+		for (int p = 0; p < 6; p++) {
+			float length = (float) Math.sqrt(planes[p * 4] * planes[p * 4] + planes[p * 4 + 1] * planes[p * 4 + 1] + planes[p * 4 + 2] * planes[p * 4 + 2]);
+			for (int i = 0; i < 4; i++) {
+				planes[p * 4 + i] /= length;
+			}
+		}
+	}
+
+	/**
+	 * Whether a sphere is at least partly inside the planes.
+	 */
+	public static boolean intersectsSphere(float[] planes, float x, float y, float z, float radius) {
+		for (int p = 0; p < PLANE_FLOATS; p += 4) {
+			if (planes[p] * x + planes[p + 1] * y + planes[p + 2] * z + planes[p + 3] < -radius) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
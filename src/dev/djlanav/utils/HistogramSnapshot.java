@@ -0,0 +1,59 @@
+package dev.djlanav.utils;
+
+/**
+ * Immutable copy of a {@link LatencyHistogram}. All values are in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+	private final String name;
+	private final long count;
+	private final long mean;
+	private final long p50;
+	private final long p99;
+	private final long p999;
+	private final long max;
+	
+	public HistogramSnapshot(String name, long count, long mean, long p50, long p99, long p999, long max) {
+		this.name = name;
+		this.count = count;
+		this.mean = mean;
+		this.p50 = p50;
+		this.p99 = p99;
+		this.p999 = p999;
+		this.max = max;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+	
+	public long getMean() {
+		return mean;
+	}
+	
+	public long getP50() {
+		return p50;
+	}
+	
+	public long getP99() {
+		return p99;
+	}
+	
+	public long getP999() {
+		return p999;
+	}
+	
+	public long getMax() {
+		return max;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%-10s n=%-6d p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", 
+				name, count, p50 / 1e6, p99 / 1e6, p999 / 1e6, max / 1e6);
+	}
+}
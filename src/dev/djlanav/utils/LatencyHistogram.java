@@ -0,0 +1,128 @@
+package dev.djlanav.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram of nanosecond durations. Every power of two is split into 32 buckets, so
+ * values are kept within ~3% precision. Recording is lock-free and never allocates, which makes it
+ * safe to call from the frame loop and from several threads at once.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	
+	// Enough buckets for durations up to 2^40 ns, longer samples land in the last bucket
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+	
+	private final String name;
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+	
+	public LatencyHistogram(String name) {
+		this.name = name;
+	}
+	
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		
+		counts.incrementAndGet(bucketIndex(nanos));
+		totalCount.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		maxNanos.accumulateAndGet(nanos, Math::max);
+	}
+	
+	/**
+	 * Copies the current state. Concurrent recordings may or may not be included.
+	 */
+	public HistogramSnapshot snapshot() {
+		long[] bucketCounts = new long[BUCKET_COUNT];
+		long count = 0;
+		
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			bucketCounts[i] = counts.get(i);
+			count += bucketCounts[i];
+		}
+		
+		long max = maxNanos.get();
+		long mean = count == 0 ? 0 : totalNanos.get() / count;
+		return new HistogramSnapshot(name, count, mean, 
+				valueAtPercentile(bucketCounts, count, 50.0, max), 
+				valueAtPercentile(bucketCounts, count, 99.0, max), 
+				valueAtPercentile(bucketCounts, count, 99.9, max), 
+				max);
+	}
+	
+	/**
+	 * Takes a snapshot and starts a new interval. Samples recorded while resetting may be lost.
+	 */
+	public HistogramSnapshot snapshotAndReset() {
+		HistogramSnapshot snapshot = snapshot();
+		reset();
+		return snapshot;
+	}
+	
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts.set(i, 0);
+		}
+		
+		totalCount.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+	
+	public long getCount() {
+		return totalCount.get();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	private static long valueAtPercentile(long[] bucketCounts, long count, double percentile, long max) {
+		if (count == 0) {
+			return 0;
+		}
+		
+		long target = (long) Math.ceil(count * percentile / 100.0);
+		long seen = 0;
+		
+		for (int i = 0; i < bucketCounts.length; i++) {
+			seen += bucketCounts[i];
+			if (seen >= target) {
+				return Math.min(bucketUpperBound(i), max);
+			}
+		}
+		
+		return max;
+	}
+	
+	static int bucketIndex(long nanos) {
+		if (nanos < SUB_BUCKET_COUNT) {
+			return (int) nanos;
+		}
+		
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int shift = exponent - SUB_BUCKET_BITS;
+		int index = (shift + 1) * SUB_BUCKET_COUNT + (int) ((nanos >>> shift) - SUB_BUCKET_COUNT);
+		
+		return Math.min(index, BUCKET_COUNT - 1);
+	}
+	
+	static long bucketUpperBound(int index) {
+		if (index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long lowerBound = (long) ((index % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT) << shift;
+		return lowerBound + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,66 @@
+package dev.djlanav.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free handoff of the latest value from one producer thread to one consumer thread. Three slots are
+ * allocated up front: the producer fills the back slot and publishes it, the consumer takes whatever was
+ * published last. Neither side ever blocks, and values the consumer was too slow to see are simply skipped.
+ */
+public class TripleBuffer<T> {
+
+	// Low two bits hold the index of the middle slot, the next bit is set while it holds an unread value
+	private static final int INDEX_MASK = 0b011;
+	private static final int FRESH_BIT = 0b100;
+
+	private final Object[] slots = new Object[3];
+	private final AtomicInteger middle = new AtomicInteger(1);
+
+	// Only touched by the producer and the consumer respectively
+	private int back = 0;
+	private int front = 2;
+
+	public TripleBuffer(Supplier<T> factory) {
+		for (int i = 0; i < slots.length; i++) {
+			slots[i] = factory.get();
+		}
+	}
+
+	/**
+	 * The slot the producer may write to until the next {@link #publish()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getWriteSlot() {
+		return (T) slots[back];
+	}
+
+	/**
+	 * Makes the write slot visible to the consumer and hands the producer a free slot.
+	 */
+	public void publish() {
+		int previous = middle.getAndSet(back | FRESH_BIT);
+		back = previous & INDEX_MASK;
+	}
+
+	/**
+	 * Swaps in the most recently published value if there is one. Returns false if nothing new was published.
+	 */
+	public boolean update() {
+		if ((middle.get() & FRESH_BIT) == 0) {
+			return false;
+		}
+
+		int previous = middle.getAndSet(front);
+		front = previous & INDEX_MASK;
+		return true;
+	}
+
+	/**
+	 * The value the consumer currently owns. It stays unchanged until the next successful {@link #update()}.
+	 */
+	@SuppressWarnings("unchecked")
+	public T getReadSlot() {
+		return (T) slots[front];
+	}
+}
@@ -0,0 +1,98 @@
+package dev.djlanav.vulkan;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * A range of device memory handed out by the {@link MemoryAllocator}. Stays the same object for its whole
+ * lifetime, defragmentation only changes the memory and offset it points to.
+ */
+public class Allocation {
+
+	private MemoryBlock block;
+	private TlsfHeap.Region region;
+	private final long size;
+	private final long alignment;
+	private final boolean optimalTiling;
+	private Object userData;
+	
+	Allocation(MemoryBlock block, TlsfHeap.Region region, long size, long alignment, boolean optimalTiling) {
+		this.block = block;
+		this.region = region;
+		this.size = size;
+		this.alignment = alignment;
+		this.optimalTiling = optimalTiling;
+	}
+	
+	void moveTo(MemoryBlock block, TlsfHeap.Region region) {
+		this.block = block;
+		this.region = region;
+	}
+	
+	MemoryBlock getBlock() {
+		return block;
+	}
+	
+	TlsfHeap.Region getRegion() {
+		return region;
+	}
+	
+	long getAlignment() {
+		return alignment;
+	}
+	
+	boolean isOptimalTiling() {
+		return optimalTiling;
+	}
+	
+	public long getMemory() {
+		return block.getMemory();
+	}
+	
+	public long getOffset() {
+		return region.getOffset();
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public int getMemoryTypeIndex() {
+		return block.getMemoryTypeIndex();
+	}
+	
+	public boolean isDedicated() {
+		return block.isDedicated();
+	}
+	
+	public boolean isMapped() {
+		return block.getMappedAddress() != MemoryUtil.NULL;
+	}
+	
+	/**
+	 * CPU address of the allocation in its persistently mapped block.
+	 */
+	public long getMappedAddress() {
+		if (!isMapped()) {
+			throw new IllegalStateException("Allocation is not in host-visible memory");
+		}
+		
+		return block.getMappedAddress() + region.getOffset();
+	}
+	
+	public ByteBuffer getMappedData() {
+		return MemoryUtil.memByteBuffer(getMappedAddress(), (int) size);
+	}
+	
+	/**
+	 * Lets the owner find its resource again, e.g. for a {@link DefragmentationMove}.
+	 */
+	public Object getUserData() {
+		return userData;
+	}
+	
+	public void setUserData(Object userData) {
+		this.userData = userData;
+	}
+}
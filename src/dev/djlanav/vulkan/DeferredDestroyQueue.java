@@ -0,0 +1,61 @@
+package dev.djlanav.vulkan;
+
+import java.util.ArrayDeque;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Holds on to Vulkan objects that may still be referenced by in-flight GPU work and destroys them
+ * once the GPU has completed the frame they were retired in, instead of stalling on vkDeviceWaitIdle.
+ */
+public class DeferredDestroyQueue {
+
+	private Logger logger = LogManager.getLogger();
+	
+	private ArrayDeque<RetiredResource> retired = new ArrayDeque<RetiredResource>();
+	
+	/**
+	 * Destroys the resource once {@link #collect(long)} is called with a completed value of at least
+	 * retireValue. Values must be retired in non-decreasing order.
+	 */
+	public void retire(long retireValue, Runnable destroyer) {
+		retired.add(new RetiredResource(retireValue, destroyer));
+	}
+	
+	public int collect(long completedValue) {
+		int destroyed = 0;
+		
+		while (!retired.isEmpty() && retired.peek().retireValue <= completedValue) {
+			retired.poll().destroyer.run();
+			destroyed++;
+		}
+		
+		if (destroyed > 0) {
+			logger.debug("Destroyed " + destroyed + " retired resources");
+		}
+		return destroyed;
+	}
+	
+	/**
+	 * Destroys everything still queued. Only call this once the device is idle.
+	 */
+	public void flush() {
+		collect(Long.MAX_VALUE);
+	}
+	
+	public int size() {
+		return retired.size();
+	}
+	
+	private static class RetiredResource {
+		
+		private final long retireValue;
+		private final Runnable destroyer;
+		
+		private RetiredResource(long retireValue, Runnable destroyer) {
+			this.retireValue = retireValue;
+			this.destroyer = destroyer;
+		}
+	}
+}
@@ -0,0 +1,28 @@
+package dev.djlanav.vulkan;
+
+/**
+ * An allocation the {@link MemoryAllocator} wants to relocate. The owner creates a new resource bound to the
+ * destination, copies the contents over and destroys the old resource before the pass is ended.
+ */
+public class DefragmentationMove {
+
+	private final Allocation source;
+	private final Allocation destination;
+	
+	DefragmentationMove(Allocation source, Allocation destination) {
+		this.source = source;
+		this.destination = destination;
+	}
+	
+	public Allocation getSource() {
+		return source;
+	}
+	
+	/**
+	 * Reserved memory to bind the new resource to. Only valid until the pass is ended, after which the source
+	 * allocation points here.
+	 */
+	public Allocation getDestination() {
+		return destination;
+	}
+}
@@ -0,0 +1,133 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Allocates descriptor sets from a list of pools that grows on demand. When the current pool runs out the next
+ * one is taken, each new pool holding twice the sets of the last up to a limit, so callers never have to size
+ * pools up front. Sets are never freed one by one: {@link #reset(VkDevice)} resets every pool at once and keeps
+ * them for reuse, which is how per-frame allocators start each frame.
+ */
+public class DescriptorAllocator {
+
+	// Descriptors per set a pool reserves of each type, roughly what a material or pass uses
+	private static final int[] POOL_TYPES = {
+			VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER,
+			VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, VK10.VK_DESCRIPTOR_TYPE_SAMPLED_IMAGE, VK10.VK_DESCRIPTOR_TYPE_SAMPLER,
+			VK10.VK_DESCRIPTOR_TYPE_STORAGE_IMAGE };
+	private static final float[] POOL_RATIOS = { 1.0f, 1.0f, 2.0f, 4.0f, 1.0f, 0.5f, 0.5f };
+
+	private Logger logger = LogManager.getLogger();
+
+	private final String name;
+	private final int maxSetsPerPool;
+	private int nextPoolSets;
+
+	private long currentPool = VK10.VK_NULL_HANDLE;
+	private ArrayList<Long> usedPools = new ArrayList<Long>();
+	private ArrayList<Long> freePools = new ArrayList<Long>();
+
+	private long allocationCount = 0;
+
+	public DescriptorAllocator(String name, int initialSetsPerPool, int maxSetsPerPool) {
+		this.name = name;
+		this.nextPoolSets = initialSetsPerPool;
+		this.maxSetsPerPool = maxSetsPerPool;
+	}
+
+	/**
+	 * Allocates a set with the given layout, moving on to another pool if the current one is exhausted.
+	 */
+	public synchronized long allocate(VkDevice logicalDevice, long setLayout) {
+		if (currentPool == VK10.VK_NULL_HANDLE) {
+			currentPool = nextPool(logicalDevice);
+		}
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO);
+			allocateInfo.descriptorPool(currentPool);
+			allocateInfo.pSetLayouts(stack.longs(setLayout));
+
+			LongBuffer descriptorSet = stack.callocLong(1);
+			int result = VK10.vkAllocateDescriptorSets(logicalDevice, allocateInfo, descriptorSet);
+			if (result == VK11.VK_ERROR_OUT_OF_POOL_MEMORY || result == VK10.VK_ERROR_FRAGMENTED_POOL) {
+				currentPool = nextPool(logicalDevice);
+				allocateInfo.descriptorPool(currentPool);
+				result = VK10.vkAllocateDescriptorSets(logicalDevice, allocateInfo, descriptorSet);
+			}
+			if (result != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to allocate descriptor set from " + name + " pools");
+			}
+
+			allocationCount++;
+			return descriptorSet.get(0);
+		}
+	}
+
+	private long nextPool(VkDevice logicalDevice) {
+		long pool = freePools.isEmpty() ? createPool(logicalDevice) : freePools.remove(freePools.size() - 1);
+		usedPools.add(pool);
+		return pool;
+	}
+
+	private long createPool(VkDevice logicalDevice) {
+		int maxSets = nextPoolSets;
+		nextPoolSets = Math.min(nextPoolSets * 2, maxSetsPerPool);
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorPoolSize.Buffer poolSizes = VkDescriptorPoolSize.calloc(POOL_TYPES.length, stack);
+			for (int i = 0; i < POOL_TYPES.length; i++) {
+				poolSizes.get(i).type(POOL_TYPES[i]);
+				poolSizes.get(i).descriptorCount(Math.max(1, (int) (POOL_RATIOS[i] * maxSets)));
+			}
+
+			VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.calloc(stack);
+			poolInfo.sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO);
+			poolInfo.maxSets(maxSets);
+			poolInfo.pPoolSizes(poolSizes);
+
+			LongBuffer pool = stack.callocLong(1);
+			if (VK10.vkCreateDescriptorPool(logicalDevice, poolInfo, null, pool) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create descriptor pool");
+			}
+
+			logger.debug("Created " + name + " descriptor pool for " + maxSets + " sets");
+			return pool.get(0);
+		}
+	}
+
+	/**
+	 * Returns every set to the pools. No set allocated since the last reset may be in use by the GPU anymore.
+	 */
+	public synchronized void reset(VkDevice logicalDevice) {
+		for (long pool : usedPools) {
+			VK10.vkResetDescriptorPool(logicalDevice, pool, 0);
+		}
+		freePools.addAll(usedPools);
+		usedPools.clear();
+		currentPool = VK10.VK_NULL_HANDLE;
+	}
+
+	public synchronized int getPoolCount() {
+		return usedPools.size() + freePools.size();
+	}
+
+	public synchronized long getAllocationCount() {
+		return allocationCount;
+	}
+
+	public synchronized void cleanUp(VkDevice logicalDevice) {
+		reset(logicalDevice);
+		for (long pool : freePools) {
+			VK10.vkDestroyDescriptorPool(logicalDevice, pool, null);
+		}
+		freePools.clear();
+	}
+}
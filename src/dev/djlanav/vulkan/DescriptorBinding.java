@@ -0,0 +1,64 @@
+package dev.djlanav.vulkan;
+
+/**
+ * One binding of a descriptor set layout. Equal bindings hash equally, which is what lets the
+ * {@link DescriptorLayoutCache} hand out the same layout for the same list of them.
+ */
+public final class DescriptorBinding {
+
+	private final int binding;
+	private final int descriptorType;
+	private final int descriptorCount;
+	private final int stageFlags;
+	private final int bindingFlags;
+
+	public DescriptorBinding(int binding, int descriptorType, int descriptorCount, int stageFlags) {
+		this(binding, descriptorType, descriptorCount, stageFlags, 0);
+	}
+
+	/**
+	 * bindingFlags are VkDescriptorBindingFlags, e.g. to let a large array be partially bound and updated after binding.
+	 */
+	public DescriptorBinding(int binding, int descriptorType, int descriptorCount, int stageFlags, int bindingFlags) {
+		this.binding = binding;
+		this.descriptorType = descriptorType;
+		this.descriptorCount = descriptorCount;
+		this.stageFlags = stageFlags;
+		this.bindingFlags = bindingFlags;
+	}
+
+	public int getBinding() {
+		return binding;
+	}
+
+	public int getDescriptorType() {
+		return descriptorType;
+	}
+
+	public int getDescriptorCount() {
+		return descriptorCount;
+	}
+
+	public int getStageFlags() {
+		return stageFlags;
+	}
+
+	public int getBindingFlags() {
+		return bindingFlags;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof DescriptorBinding)) {
+			return false;
+		}
+		DescriptorBinding that = (DescriptorBinding) other;
+		return binding == that.binding && descriptorType == that.descriptorType && descriptorCount == that.descriptorCount && stageFlags == that.stageFlags
+				&& bindingFlags == that.bindingFlags;
+	}
+
+	@Override
+	public int hashCode() {
+		return (((binding * 31 + descriptorType) * 31 + descriptorCount) * 31 + stageFlags) * 31 + bindingFlags;
+	}
+}
@@ -0,0 +1,163 @@
+package dev.djlanav.vulkan;
+
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Creates each distinct descriptor set layout and pipeline layout once. Layouts are looked up by their bindings,
+ * so pipelines and materials that describe the same interface share one handle, and sets allocated for one of
+ * them are compatible with all. The cache owns the layouts, they live until {@link #cleanUp(VkDevice)}.
+ */
+public class DescriptorLayoutCache {
+
+	private Logger logger = LogManager.getLogger();
+
+	private HashMap<List<DescriptorBinding>, Long> setLayouts = new HashMap<List<DescriptorBinding>, Long>();
+	private HashMap<PipelineLayoutKey, Long> pipelineLayouts = new HashMap<PipelineLayoutKey, Long>();
+
+	private long requestCount = 0;
+
+	/**
+	 * Returns the layout with these bindings, creating it on first use. The order of the bindings does not matter.
+	 */
+	public synchronized long getSetLayout(VkDevice logicalDevice, DescriptorBinding... bindings) {
+		DescriptorBinding[] sorted = bindings.clone();
+		Arrays.sort(sorted, Comparator.comparingInt(DescriptorBinding::getBinding));
+		List<DescriptorBinding> key = List.of(sorted);
+
+		requestCount++;
+		Long cached = setLayouts.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorSetLayoutBinding.Buffer layoutBindings = VkDescriptorSetLayoutBinding.calloc(sorted.length, stack);
+			IntBuffer bindingFlags = stack.callocInt(sorted.length);
+			int combinedFlags = 0;
+			for (int i = 0; i < sorted.length; i++) {
+				layoutBindings.get(i).binding(sorted[i].getBinding());
+				layoutBindings.get(i).descriptorType(sorted[i].getDescriptorType());
+				layoutBindings.get(i).descriptorCount(sorted[i].getDescriptorCount());
+				layoutBindings.get(i).stageFlags(sorted[i].getStageFlags());
+				bindingFlags.put(i, sorted[i].getBindingFlags());
+				combinedFlags |= sorted[i].getBindingFlags();
+			}
+
+			VkDescriptorSetLayoutCreateInfo layoutInfo = VkDescriptorSetLayoutCreateInfo.calloc(stack);
+			layoutInfo.sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_CREATE_INFO);
+			layoutInfo.pBindings(layoutBindings);
+
+			if (combinedFlags != 0) {
+				VkDescriptorSetLayoutBindingFlagsCreateInfo bindingFlagsInfo = VkDescriptorSetLayoutBindingFlagsCreateInfo.calloc(stack);
+				bindingFlagsInfo.sType(VK12.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_LAYOUT_BINDING_FLAGS_CREATE_INFO);
+				bindingFlagsInfo.pBindingFlags(bindingFlags);
+				layoutInfo.pNext(bindingFlagsInfo);
+			}
+			// Sets with update-after-bind bindings can only come from pools created for them
+			if ((combinedFlags & VK12.VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT) != 0) {
+				layoutInfo.flags(VK12.VK_DESCRIPTOR_SET_LAYOUT_CREATE_UPDATE_AFTER_BIND_POOL_BIT);
+			}
+
+			LongBuffer setLayout = stack.callocLong(1);
+			if (VK10.vkCreateDescriptorSetLayout(logicalDevice, layoutInfo, null, setLayout) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create descriptor set layout");
+			}
+
+			setLayouts.put(key, setLayout.get(0));
+			logger.debug("Created descriptor set layout with " + sorted.length + " bindings");
+			return setLayout.get(0);
+		}
+	}
+
+	/**
+	 * Returns the pipeline layout for these set layouts, in set order, and push constant ranges, creating it on first use.
+	 */
+	public synchronized long getPipelineLayout(VkDevice logicalDevice, long[] setLayouts, PushConstantRange... pushConstantRanges) {
+		PipelineLayoutKey key = new PipelineLayoutKey(setLayouts, pushConstantRanges);
+
+		requestCount++;
+		Long cached = pipelineLayouts.get(key);
+		if (cached != null) {
+			return cached;
+		}
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkPushConstantRange.Buffer ranges = VkPushConstantRange.calloc(pushConstantRanges.length, stack);
+			for (int i = 0; i < pushConstantRanges.length; i++) {
+				ranges.get(i).stageFlags(pushConstantRanges[i].getStageFlags());
+				ranges.get(i).offset(pushConstantRanges[i].getOffset());
+				ranges.get(i).size(pushConstantRanges[i].getSize());
+			}
+
+			VkPipelineLayoutCreateInfo pipelineLayoutInfo = VkPipelineLayoutCreateInfo.calloc(stack);
+			pipelineLayoutInfo.sType(VK10.VK_STRUCTURE_TYPE_PIPELINE_LAYOUT_CREATE_INFO);
+			pipelineLayoutInfo.pSetLayouts(setLayouts.length > 0 ? stack.longs(setLayouts) : null);
+			pipelineLayoutInfo.pPushConstantRanges(pushConstantRanges.length > 0 ? ranges : null);
+
+			LongBuffer pipelineLayout = stack.callocLong(1);
+			if (VK10.vkCreatePipelineLayout(logicalDevice, pipelineLayoutInfo, null, pipelineLayout) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create pipeline layout");
+			}
+
+			pipelineLayouts.put(key, pipelineLayout.get(0));
+			logger.debug("Created pipeline layout with " + setLayouts.length + " sets and " + pushConstantRanges.length + " push constant ranges");
+			return pipelineLayout.get(0);
+		}
+	}
+
+	/**
+	 * Logs how many requests were answered with an existing layout.
+	 */
+	public synchronized void report() {
+		int created = setLayouts.size() + pipelineLayouts.size();
+		logger.debug("Layout cache: " + created + " layouts for " + requestCount + " requests");
+	}
+
+	public synchronized void cleanUp(VkDevice logicalDevice) {
+		for (long pipelineLayout : pipelineLayouts.values()) {
+			VK10.vkDestroyPipelineLayout(logicalDevice, pipelineLayout, null);
+		}
+		for (long setLayout : setLayouts.values()) {
+			VK10.vkDestroyDescriptorSetLayout(logicalDevice, setLayout, null);
+		}
+		logger.info("Destroyed " + pipelineLayouts.size() + " pipeline layouts and " + setLayouts.size() + " descriptor set layouts");
+		pipelineLayouts.clear();
+		setLayouts.clear();
+	}
+
+	private static final class PipelineLayoutKey {
+
+		private final long[] setLayouts;
+		private final List<PushConstantRange> pushConstantRanges;
+
+		private PipelineLayoutKey(long[] setLayouts, PushConstantRange[] pushConstantRanges) {
+			this.setLayouts = setLayouts.clone();
+			this.pushConstantRanges = new ArrayList<PushConstantRange>(Arrays.asList(pushConstantRanges));
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof PipelineLayoutKey)) {
+				return false;
+			}
+			PipelineLayoutKey that = (PipelineLayoutKey) other;
+			return Arrays.equals(setLayouts, that.setLayouts) && pushConstantRanges.equals(that.pushConstantRanges);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(setLayouts) * 31 + pushConstantRanges.hashCode();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package dev.djlanav.vulkan;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.vulkan.VkDevice;
+
+/**
+ * Long-lived descriptor sets, one per distinct layout and set of bound resources. Materials that bind the same
+ * resources share a set, and a set is only allocated and written the first time its combination shows up.
+ * These sets may be recorded into command buffers that are reused across frames, unlike sets from a per-frame
+ * {@link DescriptorAllocator}.
+ * <p>
+ * Sets are not freed one by one. Evicting a destroyed resource only drops the sets that refer to it from the
+ * cache, their descriptors return to the pools at {@link #cleanUp(VkDevice)}.
+ */
+public class DescriptorSetCache {
+
+	private static final int INITIAL_SETS_PER_POOL = 64;
+	private static final int MAX_SETS_PER_POOL = 4096;
+
+	private Logger logger = LogManager.getLogger();
+
+	private DescriptorAllocator allocator = new DescriptorAllocator("cached", INITIAL_SETS_PER_POOL, MAX_SETS_PER_POOL);
+	private HashMap<DescriptorSetKey, Long> descriptorSets = new HashMap<DescriptorSetKey, Long>();
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Returns the set for key, allocating and writing it if this combination of layout and resources is new.
+	 */
+	public synchronized long get(VkDevice logicalDevice, DescriptorSetKey key) {
+		Long cached = descriptorSets.get(key);
+		if (cached != null) {
+			hits++;
+			return cached;
+		}
+
+		long descriptorSet = allocator.allocate(logicalDevice, key.getSetLayout());
+		key.write(logicalDevice, descriptorSet);
+		descriptorSets.put(key, descriptorSet);
+		misses++;
+		return descriptorSet;
+	}
+
+	/**
+	 * Forgets every set that binds the buffer, image view or sampler, so a new resource with a recycled handle
+	 * never matches them. Call when the resource is destroyed.
+	 */
+	public synchronized void evict(long handle) {
+		Iterator<Map.Entry<DescriptorSetKey, Long>> entries = descriptorSets.entrySet().iterator();
+		while (entries.hasNext()) {
+			if (entries.next().getKey().references(handle)) {
+				entries.remove();
+				evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Logs lookups answered from the cache and the pool count since the last report.
+	 */
+	public synchronized void report() {
+		if (hits + misses > 0) {
+			logger.info(String.format("Descriptor sets: %d cached, %.1f%% hits of %d lookups, %d evicted, %d pools", descriptorSets.size(),
+					100.0 * hits / (hits + misses), hits + misses, evictions, allocator.getPoolCount()));
+		}
+		hits = 0;
+		misses = 0;
+		evictions = 0;
+	}
+
+	public synchronized void cleanUp(VkDevice logicalDevice) {
+		descriptorSets.clear();
+		allocator.cleanUp(logicalDevice);
+		logger.info("Destroyed descriptor set cache");
+	}
+}
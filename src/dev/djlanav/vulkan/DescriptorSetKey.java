@@ -0,0 +1,143 @@
+package dev.djlanav.vulkan;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * A set layout and the resources bound to each of its bindings. Two keys with the same layout and resources are
+ * equal, so the {@link DescriptorSetCache} can hand out one set for both. Keys must not change after being
+ * passed to the cache.
+ */
+public final class DescriptorSetKey {
+
+	private final long setLayout;
+	private ArrayList<BoundResource> resources = new ArrayList<BoundResource>();
+
+	public DescriptorSetKey(long setLayout) {
+		this.setLayout = setLayout;
+	}
+
+	public DescriptorSetKey bindBuffer(int binding, int descriptorType, long buffer, long offset, long range) {
+		resources.add(new BoundResource(binding, descriptorType, buffer, offset, range, VK10.VK_NULL_HANDLE, 0));
+		return this;
+	}
+
+	/**
+	 * Binds an image view, a sampler, or both for combined image samplers.
+	 */
+	public DescriptorSetKey bindImage(int binding, int descriptorType, long imageView, long sampler, int imageLayout) {
+		resources.add(new BoundResource(binding, descriptorType, imageView, 0, 0, sampler, imageLayout));
+		return this;
+	}
+
+	public long getSetLayout() {
+		return setLayout;
+	}
+
+	/**
+	 * Whether any binding refers to the buffer, image view or sampler.
+	 */
+	public boolean references(long handle) {
+		for (BoundResource resource : resources) {
+			if (resource.handle == handle || resource.sampler == handle) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes every bound resource into the set with a single update.
+	 */
+	void write(VkDevice logicalDevice, long descriptorSet) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkWriteDescriptorSet.Buffer writes = VkWriteDescriptorSet.calloc(resources.size(), stack);
+
+			for (int i = 0; i < resources.size(); i++) {
+				BoundResource resource = resources.get(i);
+				VkWriteDescriptorSet write = writes.get(i);
+				write.sType(VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET);
+				write.dstSet(descriptorSet);
+				write.dstBinding(resource.binding);
+				write.descriptorCount(1);
+				write.descriptorType(resource.descriptorType);
+
+				if (resource.isImage()) {
+					VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(1, stack);
+					imageInfo.imageView(resource.handle);
+					imageInfo.sampler(resource.sampler);
+					imageInfo.imageLayout(resource.imageLayout);
+					write.pImageInfo(imageInfo);
+				} else {
+					VkDescriptorBufferInfo.Buffer bufferInfo = VkDescriptorBufferInfo.calloc(1, stack);
+					bufferInfo.buffer(resource.handle);
+					bufferInfo.offset(resource.offset);
+					bufferInfo.range(resource.range);
+					write.pBufferInfo(bufferInfo);
+				}
+			}
+
+			VK10.vkUpdateDescriptorSets(logicalDevice, writes, null);
+		}
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof DescriptorSetKey)) {
+			return false;
+		}
+		DescriptorSetKey that = (DescriptorSetKey) other;
+		return setLayout == that.setLayout && resources.equals(that.resources);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(setLayout) * 31 + resources.hashCode();
+	}
+
+	private static final class BoundResource {
+
+		private final int binding;
+		private final int descriptorType;
+		// Buffer or image view
+		private final long handle;
+		private final long offset;
+		private final long range;
+		private final long sampler;
+		private final int imageLayout;
+
+		private BoundResource(int binding, int descriptorType, long handle, long offset, long range, long sampler, int imageLayout) {
+			this.binding = binding;
+			this.descriptorType = descriptorType;
+			this.handle = handle;
+			this.offset = offset;
+			this.range = range;
+			this.sampler = sampler;
+			this.imageLayout = imageLayout;
+		}
+
+		private boolean isImage() {
+			return descriptorType == VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER || descriptorType == VK10.VK_DESCRIPTOR_TYPE_SAMPLED_IMAGE
+					|| descriptorType == VK10.VK_DESCRIPTOR_TYPE_SAMPLER || descriptorType == VK10.VK_DESCRIPTOR_TYPE_STORAGE_IMAGE
+					|| descriptorType == VK10.VK_DESCRIPTOR_TYPE_INPUT_ATTACHMENT;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof BoundResource)) {
+				return false;
+			}
+			BoundResource that = (BoundResource) other;
+			return binding == that.binding && descriptorType == that.descriptorType && handle == that.handle && offset == that.offset
+					&& range == that.range && sampler == that.sampler && imageLayout == that.imageLayout;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(binding, descriptorType, handle, offset, range, sampler, imageLayout);
+		}
+	}
+}
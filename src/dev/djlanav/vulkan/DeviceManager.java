@@ -8,7 +8,6 @@ import java.util.Optional;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.lwjgl.BufferUtils;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
@@ -25,6 +24,16 @@ public class DeviceManager {
 
 	private Logger logger = LogManager.getLogger();
 	private boolean enableValidationLayers = true;
+	private boolean headless = false;
+	private boolean dynamicRendering = false;
+	private boolean presentWaitRequested = false;
+	private boolean presentWaitEnabled = false;
+	private boolean bindlessRequested = false;
+	private boolean bindlessEnabled = false;
+	private int maxBindlessSampledImages = 0;
+	private int maxBindlessStorageBuffers = 0;
+	private boolean gpuCullingRequested = false;
+	private boolean gpuCullingEnabled = false;
 	private String[] validationLayers = { "VK_LAYER_KHRONOS_validation" };
 	private String[] logicalDeviceExtensions = { 
 			KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME,
@@ -36,6 +45,52 @@ public class DeviceManager {
 		this.qfm = qfm;
 		this.swapManager = swapManager;
 	}
+	
+	/**
+	 * Headless mode needs no swapchain extension and accepts integrated, virtual and CPU devices
+	 * such as lavapipe, preferring the fastest type available.
+	 */
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+		
+		if (headless) {
+			logicalDeviceExtensions = Arrays.stream(logicalDeviceExtensions)
+					.filter(extension -> !extension.equals(KHRSwapchain.VK_KHR_SWAPCHAIN_EXTENSION_NAME))
+					.toArray(String[]::new);
+		}
+	}
+
+	/**
+	 * Additionally requires the dynamicRendering feature and enables it on the logical device.
+	 */
+	public void setDynamicRendering(boolean dynamicRendering) {
+		this.dynamicRendering = dynamicRendering;
+	}
+
+	/**
+	 * Enables VK_KHR_present_id and VK_KHR_present_wait when the chosen device supports them. They are optional,
+	 * check {@link #isPresentWaitEnabled()} after the physical device was picked.
+	 */
+	public void setPresentWait(boolean presentWait) {
+		this.presentWaitRequested = presentWait;
+	}
+
+	/**
+	 * Enables the descriptor indexing features a bindless resource heap needs when the chosen device supports
+	 * them. They are core since Vulkan 1.2 but optional, check {@link #isBindlessEnabled()} after the physical
+	 * device was picked.
+	 */
+	public void setBindless(boolean bindless) {
+		this.bindlessRequested = bindless;
+	}
+
+	/**
+	 * Enables indirect draws with a GPU written draw count, which compute culling relies on, when the chosen device
+	 * supports them. Check {@link #isGpuCullingEnabled()} after the physical device was picked.
+	 */
+	public void setGpuCulling(boolean gpuCulling) {
+		this.gpuCullingRequested = gpuCulling;
+	}
 
 	public void createPhysicalDevice(VkInstance instance) {
 		try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -52,23 +107,41 @@ public class DeviceManager {
 				throw new RuntimeException("Failed to enumerate physical devices!");
 			}
 
-			boolean deviceFound = false;
+			VkPhysicalDevice bestDevice = null;
+			int bestRank = 0;
+			
 			for (int i = 0; i < deviceCount; i++) {
 				long deviceHandle = deviceBuffer.get(i);
 				VkPhysicalDevice device = new VkPhysicalDevice(deviceHandle, instance);
 				
-				if (isPhysicalDeviceSuitable(device, stack)) {
-					logger.info("Found suitable device: " + physicalProperties.deviceNameString());
-					setPhysicalDevice(device);
-					
-					deviceFound = true;
-					break;
+				int rank = rankPhysicalDevice(device, stack);
+				if (rank > bestRank) {
+					bestDevice = device;
+					bestRank = rank;
 				}
 			}
 			
-			if (!deviceFound) {
+			if (bestDevice == null) {
 				throw new RuntimeException("Failed to find a suitable device");
 			}
+			
+			physicalProperties = VkPhysicalDeviceProperties.malloc();
+			physicalFeatures = VkPhysicalDeviceFeatures.malloc();
+			VK10.vkGetPhysicalDeviceProperties(bestDevice, physicalProperties);
+			VK10.vkGetPhysicalDeviceFeatures(bestDevice, physicalFeatures);
+			
+			logger.info("Found suitable device: " + physicalProperties.deviceNameString());
+			setPhysicalDevice(bestDevice);
+			
+			if (presentWaitRequested) {
+				enablePresentWait(bestDevice, stack);
+			}
+			if (bindlessRequested) {
+				enableBindless(bestDevice, stack);
+			}
+			if (gpuCullingRequested) {
+				enableGpuCulling(bestDevice, stack);
+			}
 		}
 	}
 
@@ -80,7 +153,9 @@ public class DeviceManager {
 			VkDeviceCreateInfo deviceInfo = VkDeviceCreateInfo.calloc(stack);
 			deviceInfo.sType(VK10.VK_STRUCTURE_TYPE_DEVICE_CREATE_INFO);
 			deviceInfo.pQueueCreateInfos(queuesInfo);
-			deviceInfo.pEnabledFeatures(physicalFeatures);
+			
+			// Features beyond Vulkan 1.0 can only be enabled through a VkPhysicalDeviceFeatures2 chain
+			deviceInfo.pNext(createFeatureChain(stack));
 			deviceInfo.ppEnabledExtensionNames(extBuffer);
 			
 			if (enableValidationLayers) {
@@ -110,8 +185,7 @@ public class DeviceManager {
 			
 			ArrayList<VulkanQueue> vulkanQueues = qfm.getQueues();
 			
-			int queueFamiliesSize = vulkanQueues.size();
-			PointerBuffer queuesBuffer = stack.callocPointer(queueFamiliesSize);
+			PointerBuffer queuesBuffer = stack.callocPointer(1);
 			
 			for (VulkanQueue queue : vulkanQueues) {
 				int queueFamily = queue.getParentFamilyIndex();
@@ -119,46 +193,214 @@ public class DeviceManager {
 				
 				VK10.vkGetDeviceQueue(logicalDevice, queueFamily, queueIndex, queuesBuffer);
 				
-				long handle = queuesBuffer.get(queueFamily);
+				long handle = queuesBuffer.get(0);
 				if (handle == 0) {
 					throw new NullPointerException("Queue handle is null");
 				}
 				
 				queue.initQueue(device, handle);
-				logger.info("Got device queue in queue family " + queueFamily);
+				logger.info("Got device queue " + queueIndex + " in queue family " + queueFamily);
+			}
+		}
+	}
+	
+	/**
+	 * Frames are paced with a timeline semaphore and submitted with vkQueueSubmit2, so those are always enabled.
+	 */
+	private VkPhysicalDeviceFeatures2 createFeatureChain(MemoryStack stack) {
+		VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+		vulkan12Features.sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES);
+		vulkan12Features.timelineSemaphore(true);
+		vulkan12Features.drawIndirectCount(gpuCullingEnabled);
+		if (bindlessEnabled) {
+			vulkan12Features.descriptorIndexing(true);
+			vulkan12Features.runtimeDescriptorArray(true);
+			vulkan12Features.descriptorBindingPartiallyBound(true);
+			vulkan12Features.descriptorBindingSampledImageUpdateAfterBind(true);
+			vulkan12Features.descriptorBindingStorageBufferUpdateAfterBind(true);
+			vulkan12Features.shaderSampledImageArrayNonUniformIndexing(true);
+			vulkan12Features.shaderStorageBufferArrayNonUniformIndexing(true);
+		}
+		
+		VkPhysicalDeviceVulkan13Features vulkan13Features = VkPhysicalDeviceVulkan13Features.calloc(stack);
+		vulkan13Features.sType(VK13.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_3_FEATURES);
+		vulkan13Features.synchronization2(true);
+		vulkan13Features.dynamicRendering(dynamicRendering);
+		vulkan13Features.pNext(vulkan12Features.address());
+		
+		VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.calloc(stack);
+		features2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2);
+		features2.features(physicalFeatures);
+		features2.pNext(vulkan13Features);
+		
+		if (presentWaitEnabled) {
+			VkPhysicalDevicePresentWaitFeaturesKHR presentWaitFeatures = VkPhysicalDevicePresentWaitFeaturesKHR.calloc(stack);
+			presentWaitFeatures.sType(KHRPresentWait.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PRESENT_WAIT_FEATURES_KHR);
+			presentWaitFeatures.presentWait(true);
+			presentWaitFeatures.pNext(vulkan13Features.address());
+			
+			VkPhysicalDevicePresentIdFeaturesKHR presentIdFeatures = VkPhysicalDevicePresentIdFeaturesKHR.calloc(stack);
+			presentIdFeatures.sType(KHRPresentId.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PRESENT_ID_FEATURES_KHR);
+			presentIdFeatures.presentId(true);
+			presentIdFeatures.pNext(presentWaitFeatures.address());
+			
+			features2.pNext(presentIdFeatures.address());
+		}
+		return features2;
+	}
+	
+	private void enablePresentWait(VkPhysicalDevice device, MemoryStack stack) {
+		VkPhysicalDevicePresentWaitFeaturesKHR presentWaitFeatures = VkPhysicalDevicePresentWaitFeaturesKHR.calloc(stack);
+		presentWaitFeatures.sType(KHRPresentWait.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PRESENT_WAIT_FEATURES_KHR);
+		
+		VkPhysicalDevicePresentIdFeaturesKHR presentIdFeatures = VkPhysicalDevicePresentIdFeaturesKHR.calloc(stack);
+		presentIdFeatures.sType(KHRPresentId.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PRESENT_ID_FEATURES_KHR);
+		presentIdFeatures.pNext(presentWaitFeatures.address());
+		
+		VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.calloc(stack);
+		features2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2);
+		features2.pNext(presentIdFeatures);
+		
+		boolean extensionsSupported = isExtensionSupported(device, KHRPresentId.VK_KHR_PRESENT_ID_EXTENSION_NAME, stack) 
+				&& isExtensionSupported(device, KHRPresentWait.VK_KHR_PRESENT_WAIT_EXTENSION_NAME, stack);
+		if (extensionsSupported) {
+			VK11.vkGetPhysicalDeviceFeatures2(device, features2);
+		}
+		
+		if (!extensionsSupported || !presentIdFeatures.presentId() || !presentWaitFeatures.presentWait()) {
+			logger.warn("Present wait is not supported, frame latency will not be limited");
+			return;
+		}
+		
+		logicalDeviceExtensions = Arrays.copyOf(logicalDeviceExtensions, logicalDeviceExtensions.length + 2);
+		logicalDeviceExtensions[logicalDeviceExtensions.length - 2] = KHRPresentId.VK_KHR_PRESENT_ID_EXTENSION_NAME;
+		logicalDeviceExtensions[logicalDeviceExtensions.length - 1] = KHRPresentWait.VK_KHR_PRESENT_WAIT_EXTENSION_NAME;
+		presentWaitEnabled = true;
+	}
+	
+	/**
+	 * Checks every feature the resource heap relies on and reads how many descriptors one update-after-bind set
+	 * may hold, which caps the heap's size.
+	 */
+	private void enableBindless(VkPhysicalDevice device, MemoryStack stack) {
+		VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+		vulkan12Features.sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES);
+		
+		VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.calloc(stack);
+		features2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2);
+		features2.pNext(vulkan12Features);
+		VK11.vkGetPhysicalDeviceFeatures2(device, features2);
+		
+		boolean supported = vulkan12Features.descriptorIndexing() && vulkan12Features.runtimeDescriptorArray() 
+				&& vulkan12Features.descriptorBindingPartiallyBound() && vulkan12Features.descriptorBindingSampledImageUpdateAfterBind() 
+				&& vulkan12Features.descriptorBindingStorageBufferUpdateAfterBind() && vulkan12Features.shaderSampledImageArrayNonUniformIndexing() 
+				&& vulkan12Features.shaderStorageBufferArrayNonUniformIndexing();
+		if (!supported) {
+			logger.warn("Descriptor indexing is not supported, resources will not be bindless");
+			return;
+		}
+		
+		VkPhysicalDeviceVulkan12Properties vulkan12Properties = VkPhysicalDeviceVulkan12Properties.calloc(stack);
+		vulkan12Properties.sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_PROPERTIES);
+		
+		VkPhysicalDeviceProperties2 properties2 = VkPhysicalDeviceProperties2.calloc(stack);
+		properties2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_PROPERTIES_2);
+		properties2.pNext(vulkan12Properties);
+		VK11.vkGetPhysicalDeviceProperties2(device, properties2);
+		
+		maxBindlessSampledImages = Math.min(vulkan12Properties.maxPerStageDescriptorUpdateAfterBindSampledImages(), 
+				vulkan12Properties.maxDescriptorSetUpdateAfterBindSampledImages());
+		maxBindlessStorageBuffers = Math.min(vulkan12Properties.maxPerStageDescriptorUpdateAfterBindStorageBuffers(), 
+				vulkan12Properties.maxDescriptorSetUpdateAfterBindStorageBuffers());
+		bindlessEnabled = true;
+	}
+	
+	/**
+	 * Multi-draw indirect is a 1.0 feature and already enabled along with the other supported ones, the draw
+	 * count buffer has to be enabled through the chain.
+	 */
+	private void enableGpuCulling(VkPhysicalDevice device, MemoryStack stack) {
+		VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+		vulkan12Features.sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES);
+		
+		VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.calloc(stack);
+		features2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2);
+		features2.pNext(vulkan12Features);
+		VK11.vkGetPhysicalDeviceFeatures2(device, features2);
+		
+		if (!vulkan12Features.drawIndirectCount() || !physicalFeatures.multiDrawIndirect()) {
+			logger.warn("Indirect draw counts are not supported, objects will not be culled on the GPU");
+			return;
+		}
+		gpuCullingEnabled = true;
+	}
+	
+	private boolean isExtensionSupported(VkPhysicalDevice device, String extensionName, MemoryStack stack) {
+		IntBuffer extCountBuffer = stack.callocInt(1);
+		VK10.vkEnumerateDeviceExtensionProperties(device, "", extCountBuffer, null);
+		
+		VkExtensionProperties.Buffer extensions = VkExtensionProperties.calloc(extCountBuffer.get(0), stack);
+		VK10.vkEnumerateDeviceExtensionProperties(device, "", extCountBuffer, extensions);
+		
+		for (int i = 0; i < extCountBuffer.get(0); i++) {
+			if (extensionName.equals(extensions.get(i).extensionNameString())) {
+				return true;
 			}
 		}
+		return false;
+	}
+	
+	private boolean checkFeatureSupport(VkPhysicalDevice device, VkPhysicalDeviceProperties properties, MemoryStack stack) {
+		if (properties.apiVersion() < VK13.VK_API_VERSION_1_3) {
+			return false;
+		}
+		
+		VkPhysicalDeviceVulkan12Features vulkan12Features = VkPhysicalDeviceVulkan12Features.calloc(stack);
+		vulkan12Features.sType(VK12.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_2_FEATURES);
+		
+		VkPhysicalDeviceVulkan13Features vulkan13Features = VkPhysicalDeviceVulkan13Features.calloc(stack);
+		vulkan13Features.sType(VK13.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_VULKAN_1_3_FEATURES);
+		vulkan13Features.pNext(vulkan12Features.address());
+		
+		VkPhysicalDeviceFeatures2 features2 = VkPhysicalDeviceFeatures2.calloc(stack);
+		features2.sType(VK11.VK_STRUCTURE_TYPE_PHYSICAL_DEVICE_FEATURES_2);
+		features2.pNext(vulkan13Features);
+		VK11.vkGetPhysicalDeviceFeatures2(device, features2);
+		
+		return vulkan12Features.timelineSemaphore() && vulkan13Features.synchronization2() 
+				&& (!dynamicRendering || vulkan13Features.dynamicRendering());
 	}
 	
+	/**
+	 * One create info per family, asking for as many queues as were picked from it with their priorities.
+	 */
 	private VkDeviceQueueCreateInfo.Buffer createQueues(MemoryStack stack) {
 		ArrayList<VulkanQueue> vulkanQueues = qfm.getQueues();
-		int queuesLength = vulkanQueues.size();
+		int[] familyIndices = vulkanQueues.stream().mapToInt(VulkanQueue::getParentFamilyIndex).distinct().toArray();
 		
-		float[] priorities = { 1.0f };
-		FloatBuffer prioritiesBuffer = BufferUtils.createFloatBuffer(priorities.length);
-		prioritiesBuffer.put(0, priorities);
-
-		VkDeviceQueueCreateInfo.Buffer queuesBuffer = VkDeviceQueueCreateInfo.calloc(queuesLength, stack);
-		
-		VulkanQueue previousQueue = null;
-		for (int i = 0; i < queuesLength; i++) {
-			VulkanQueue queue = vulkanQueues.get(i);
+		VkDeviceQueueCreateInfo.Buffer queuesBuffer = VkDeviceQueueCreateInfo.calloc(familyIndices.length, stack);
+		for (int i = 0; i < familyIndices.length; i++) {
+			int familyIndex = familyIndices[i];
 			
-			VkDeviceQueueCreateInfo queueCreateInfo = VkDeviceQueueCreateInfo.calloc(stack);
-			queueCreateInfo.sType(VK10.VK_STRUCTURE_TYPE_DEVICE_QUEUE_CREATE_INFO);
-			queueCreateInfo.pQueuePriorities(prioritiesBuffer);
-			queueCreateInfo.queueFamilyIndex(queue.getParentFamilyIndex());
-
-			if (previousQueue != null && queue.getParentFamilyIndex() != previousQueue.getParentFamilyIndex()) {
-				queueCreateInfo.queueFamilyIndex(queue.getParentFamilyIndex());
-				logger.debug("Queue family index: " + queue.getParentFamilyIndex());
-			} else if (previousQueue != null && queue.getParentFamilyIndex() == previousQueue.getParentFamilyIndex()) {
-				logger.debug("Queue info with index " + previousQueue.getParentFamilyIndex() + " already exists. Skipping");
-				continue;
+			int queueCount = 0;
+			for (VulkanQueue queue : vulkanQueues) {
+				if (queue.getParentFamilyIndex() == familyIndex) {
+					queueCount++;
+				}
 			}
 			
-			queuesBuffer.put(i, queueCreateInfo);
-			previousQueue = vulkanQueues.get(i);
+			FloatBuffer prioritiesBuffer = stack.callocFloat(queueCount);
+			for (VulkanQueue queue : vulkanQueues) {
+				if (queue.getParentFamilyIndex() == familyIndex) {
+					prioritiesBuffer.put(queue.getQueueIndex(), queue.getPriority());
+				}
+			}
+			
+			VkDeviceQueueCreateInfo queueCreateInfo = queuesBuffer.get(i);
+			queueCreateInfo.sType(VK10.VK_STRUCTURE_TYPE_DEVICE_QUEUE_CREATE_INFO);
+			queueCreateInfo.queueFamilyIndex(familyIndex);
+			queueCreateInfo.pQueuePriorities(prioritiesBuffer);
+			logger.debug("Creating " + queueCount + " queues in family " + familyIndex);
 		}
 
 		return queuesBuffer;
@@ -176,7 +418,7 @@ public class DeviceManager {
 			logger.error("Failed to get physical device extensions");
 		}
 
-		String[] foundExtensions = new String[3];
+		String[] foundExtensions = new String[logicalDeviceExtensions.length];
 		for (int x = 0; x < logicalDeviceExtensions.length; x++) {
 			String search = logicalDeviceExtensions[x];
 			
@@ -271,15 +513,50 @@ public class DeviceManager {
 		}
 	}
 
-	private boolean isPhysicalDeviceSuitable(VkPhysicalDevice physDevice, MemoryStack stack) {
-		physicalProperties = VkPhysicalDeviceProperties.malloc();
-		physicalFeatures = VkPhysicalDeviceFeatures.malloc();
-
-		VK10.vkGetPhysicalDeviceProperties(physDevice, physicalProperties);
-		VK10.vkGetPhysicalDeviceFeatures(physDevice, physicalFeatures);
-
-		return physicalProperties.deviceType() == VK10.VK_PHYSICAL_DEVICE_TYPE_DISCRETE_GPU 
-				&& checkExtensionSupport(physDevice, stack);
+	/**
+	 * Returns 0 if the device cannot be used, otherwise a rank where higher is preferred.
+	 */
+	private int rankPhysicalDevice(VkPhysicalDevice physDevice, MemoryStack stack) {
+		VkPhysicalDeviceProperties properties = VkPhysicalDeviceProperties.malloc(stack);
+		VK10.vkGetPhysicalDeviceProperties(physDevice, properties);
+		
+		if (!checkExtensionSupport(physDevice, stack)) {
+			return 0;
+		}
+		
+		if (!checkFeatureSupport(physDevice, properties, stack)) {
+			logger.info("Skipping " + properties.deviceNameString() + ", it lacks Vulkan 1.3 features the renderer needs");
+			return 0;
+		}
+		
+		switch (properties.deviceType()) {
+		case VK10.VK_PHYSICAL_DEVICE_TYPE_DISCRETE_GPU:
+			return 4;
+		case VK10.VK_PHYSICAL_DEVICE_TYPE_INTEGRATED_GPU:
+			return headless ? 3 : 0;
+		case VK10.VK_PHYSICAL_DEVICE_TYPE_VIRTUAL_GPU:
+			return headless ? 2 : 0;
+		case VK10.VK_PHYSICAL_DEVICE_TYPE_CPU:
+			return headless ? 1 : 0;
+		default:
+			return 0;
+		}
+	}
+	
+	public int findMemoryType(int typeBits, int properties) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkPhysicalDeviceMemoryProperties memoryProperties = VkPhysicalDeviceMemoryProperties.malloc(stack);
+			VK10.vkGetPhysicalDeviceMemoryProperties(physicalDevice, memoryProperties);
+			
+			for (int i = 0; i < memoryProperties.memoryTypeCount(); i++) {
+				boolean allowed = (typeBits & (1 << i)) != 0;
+				if (allowed && (memoryProperties.memoryTypes(i).propertyFlags() & properties) == properties) {
+					return i;
+				}
+			}
+		}
+		
+		throw new RuntimeException("Failed to find a suitable memory type");
 	}
 	
 	public void cleanUp() {
@@ -291,7 +568,27 @@ public class DeviceManager {
 	}
 	
 	private boolean isLogicalDeviceSuitable(VkDevice device, MemoryStack stack) {
-		return swapManager.checkSwapChainSupport();
+		return headless || swapManager.checkSwapChainSupport();
+	}
+
+	public boolean isPresentWaitEnabled() {
+		return presentWaitEnabled;
+	}
+
+	public boolean isBindlessEnabled() {
+		return bindlessEnabled;
+	}
+
+	public boolean isGpuCullingEnabled() {
+		return gpuCullingEnabled;
+	}
+
+	public int getMaxBindlessSampledImages() {
+		return maxBindlessSampledImages;
+	}
+
+	public int getMaxBindlessStorageBuffers() {
+		return maxBindlessStorageBuffers;
 	}
 
 	public VkPhysicalDevice getPhysicalDevice() {
@@ -310,6 +607,10 @@ public class DeviceManager {
 		this.logicalDevice = logicalDevice;
 	}
 
+	public VkPhysicalDeviceProperties getPhysicalProperties() {
+		return physicalProperties;
+	}
+
 	public VkPhysicalDeviceFeatures getPhysicalFeatures() {
 		return physicalFeatures;
 	}
@@ -0,0 +1,483 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Suballocates device memory out of large blocks, one list of blocks per memory type, so resources don't each
+ * cost a vkAllocateMemory call and maxMemoryAllocationCount is never approached. Offsets inside a block are
+ * handed out by a {@link TlsfHeap}. When the device has a bufferImageGranularity, buffers and optimal-tiling
+ * images get separate blocks so they can never share a page. All buffers and images should be bound through this.
+ */
+public class MemoryAllocator {
+
+	private static final long DEFAULT_BLOCK_SIZE = 64L * 1024 * 1024;
+	// Heaps up to this size get blocks of an eighth of the heap instead
+	private static final long SMALL_HEAP_SIZE = 1024L * 1024 * 1024;
+	// Empty blocks kept per pool, so usage going up and down doesn't reallocate every time
+	private static final int MAX_EMPTY_BLOCKS = 1;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private VkDevice logicalDevice;
+	private VkPhysicalDeviceMemoryProperties memoryProperties = VkPhysicalDeviceMemoryProperties.calloc();
+	private long bufferImageGranularity;
+	private long nonCoherentAtomSize;
+	private int maxAllocationCount;
+	private int deviceAllocationCount = 0;
+	
+	// Indexed by memoryTypeIndex * 2, plus 1 for optimal-tiling images when they have to be kept apart
+	private ArrayList<ArrayList<MemoryBlock>> pools = new ArrayList<ArrayList<MemoryBlock>>();
+	private ArrayList<MemoryBlock> dedicatedBlocks = new ArrayList<MemoryBlock>();
+	private boolean defragmenting = false;
+	
+	public void create(DeviceManager deviceManager) {
+		logicalDevice = deviceManager.getLogicalDevice();
+		VK10.vkGetPhysicalDeviceMemoryProperties(deviceManager.getPhysicalDevice(), memoryProperties);
+		
+		VkPhysicalDeviceLimits limits = deviceManager.getPhysicalProperties().limits();
+		bufferImageGranularity = limits.bufferImageGranularity();
+		nonCoherentAtomSize = limits.nonCoherentAtomSize();
+		maxAllocationCount = limits.maxMemoryAllocationCount();
+		
+		for (int i = 0; i < memoryProperties.memoryTypeCount() * 2; i++) {
+			pools.add(new ArrayList<MemoryBlock>());
+		}
+		
+		logger.info("Created memory allocator for " + memoryProperties.memoryTypeCount() + " memory types, buffer/image granularity " + bufferImageGranularity);
+	}
+	
+	/**
+	 * Allocates and binds memory for a buffer.
+	 */
+	public Allocation allocateForBuffer(long buffer, MemoryUsage usage) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkMemoryDedicatedRequirements dedicatedRequirements = VkMemoryDedicatedRequirements.calloc(stack);
+			dedicatedRequirements.sType(VK11.VK_STRUCTURE_TYPE_MEMORY_DEDICATED_REQUIREMENTS);
+			
+			VkMemoryRequirements2 requirements = VkMemoryRequirements2.calloc(stack);
+			requirements.sType(VK11.VK_STRUCTURE_TYPE_MEMORY_REQUIREMENTS_2);
+			requirements.pNext(dedicatedRequirements.address());
+			
+			VkBufferMemoryRequirementsInfo2 requirementsInfo = VkBufferMemoryRequirementsInfo2.calloc(stack);
+			requirementsInfo.sType(VK11.VK_STRUCTURE_TYPE_BUFFER_MEMORY_REQUIREMENTS_INFO_2);
+			requirementsInfo.buffer(buffer);
+			VK11.vkGetBufferMemoryRequirements2(logicalDevice, requirementsInfo, requirements);
+			
+			long dedicatedBuffer = dedicatedRequirements.prefersDedicatedAllocation() ? buffer : VK10.VK_NULL_HANDLE;
+			Allocation allocation = allocate(requirements.memoryRequirements(), usage, false, dedicatedBuffer, VK10.VK_NULL_HANDLE);
+			
+			if (VK10.vkBindBufferMemory(logicalDevice, buffer, allocation.getMemory(), allocation.getOffset()) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to bind buffer memory");
+			}
+			return allocation;
+		}
+	}
+	
+	/**
+	 * Allocates and binds memory for an image with optimal tiling.
+	 */
+	public Allocation allocateForImage(long image, MemoryUsage usage) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkMemoryDedicatedRequirements dedicatedRequirements = VkMemoryDedicatedRequirements.calloc(stack);
+			dedicatedRequirements.sType(VK11.VK_STRUCTURE_TYPE_MEMORY_DEDICATED_REQUIREMENTS);
+			
+			VkMemoryRequirements2 requirements = VkMemoryRequirements2.calloc(stack);
+			requirements.sType(VK11.VK_STRUCTURE_TYPE_MEMORY_REQUIREMENTS_2);
+			requirements.pNext(dedicatedRequirements.address());
+			
+			VkImageMemoryRequirementsInfo2 requirementsInfo = VkImageMemoryRequirementsInfo2.calloc(stack);
+			requirementsInfo.sType(VK11.VK_STRUCTURE_TYPE_IMAGE_MEMORY_REQUIREMENTS_INFO_2);
+			requirementsInfo.image(image);
+			VK11.vkGetImageMemoryRequirements2(logicalDevice, requirementsInfo, requirements);
+			
+			long dedicatedImage = dedicatedRequirements.prefersDedicatedAllocation() ? image : VK10.VK_NULL_HANDLE;
+			Allocation allocation = allocate(requirements.memoryRequirements(), usage, true, VK10.VK_NULL_HANDLE, dedicatedImage);
+			
+			if (VK10.vkBindImageMemory(logicalDevice, image, allocation.getMemory(), allocation.getOffset()) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to bind image memory");
+			}
+			return allocation;
+		}
+	}
+	
+	/**
+	 * Allocates memory without binding it. optimalTiling must be true for images with optimal tiling.
+	 */
+	public Allocation allocate(VkMemoryRequirements requirements, MemoryUsage usage, boolean optimalTiling) {
+		return allocate(requirements, usage, optimalTiling, VK10.VK_NULL_HANDLE, VK10.VK_NULL_HANDLE);
+	}
+	
+	private synchronized Allocation allocate(VkMemoryRequirements requirements, MemoryUsage usage, boolean optimalTiling, long dedicatedBuffer, long dedicatedImage) {
+		int memoryTypeIndex = chooseMemoryType(requirements.memoryTypeBits(), usage);
+		long size = requirements.size();
+		long alignment = requirements.alignment();
+		
+		// Flushes of non-coherent memory work in whole atoms, which must not overlap a neighbour
+		if (isHostVisible(memoryTypeIndex) && !isHostCoherent(memoryTypeIndex)) {
+			alignment = Math.max(alignment, nonCoherentAtomSize);
+			size = TlsfHeap.alignUp(size, nonCoherentAtomSize);
+		}
+		
+		long blockSize = getBlockSize(memoryTypeIndex);
+		boolean dedicated = dedicatedBuffer != VK10.VK_NULL_HANDLE || dedicatedImage != VK10.VK_NULL_HANDLE;
+		
+		if (dedicated || size > blockSize / 2) {
+			MemoryBlock block = allocateBlock(memoryTypeIndex, -1, size, size, dedicatedBuffer, dedicatedImage);
+			TlsfHeap.Region region = allocateInNewBlock(block, size, 1);
+			dedicatedBlocks.add(block);
+			return createAllocation(block, region, size, alignment, optimalTiling);
+		}
+		
+		int poolIndex = memoryTypeIndex * 2 + (optimalTiling && bufferImageGranularity > 1 ? 1 : 0);
+		ArrayList<MemoryBlock> pool = pools.get(poolIndex);
+		
+		for (MemoryBlock block : pool) {
+			TlsfHeap.Region region = block.getHeap().allocate(size, alignment);
+			if (region != null) {
+				return createAllocation(block, region, size, alignment, optimalTiling);
+			}
+		}
+		
+		// A block shrunk to fit the heap still has to leave room for the alignment padding
+		long paddedSize = TlsfHeap.alignUp(size, TlsfHeap.MIN_ALIGNMENT) + Math.max(alignment, TlsfHeap.MIN_ALIGNMENT) - TlsfHeap.MIN_ALIGNMENT;
+		MemoryBlock block = allocateBlock(memoryTypeIndex, poolIndex, blockSize, paddedSize, VK10.VK_NULL_HANDLE, VK10.VK_NULL_HANDLE);
+		TlsfHeap.Region region = allocateInNewBlock(block, size, alignment);
+		pool.add(block);
+		return createAllocation(block, region, size, alignment, optimalTiling);
+	}
+	
+	/**
+	 * Places the first allocation of a block, freeing the block again if even an empty one can't hold it.
+	 */
+	private TlsfHeap.Region allocateInNewBlock(MemoryBlock block, long size, long alignment) {
+		TlsfHeap.Region region = block.getHeap().allocate(size, alignment);
+		if (region == null) {
+			freeBlock(block);
+			throw new RuntimeException("Failed to fit " + size + " bytes aligned to " + alignment + " into a new " + block.getSize() 
+					+ " byte block of memory type " + block.getMemoryTypeIndex());
+		}
+		return region;
+	}
+	
+	private Allocation createAllocation(MemoryBlock block, TlsfHeap.Region region, long size, long alignment, boolean optimalTiling) {
+		Allocation allocation = new Allocation(block, region, size, alignment, optimalTiling);
+		block.addAllocation(allocation);
+		return allocation;
+	}
+	
+	private MemoryBlock allocateBlock(int memoryTypeIndex, int poolIndex, long blockSize, long minSize, long dedicatedBuffer, long dedicatedImage) {
+		if (deviceAllocationCount >= maxAllocationCount) {
+			throw new RuntimeException("Failed to allocate device memory, maxMemoryAllocationCount of " + maxAllocationCount + " reached");
+		}
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkMemoryAllocateInfo allocateInfo = VkMemoryAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_MEMORY_ALLOCATE_INFO);
+			allocateInfo.allocationSize(blockSize);
+			allocateInfo.memoryTypeIndex(memoryTypeIndex);
+			
+			boolean dedicated = poolIndex < 0;
+			if (dedicatedBuffer != VK10.VK_NULL_HANDLE || dedicatedImage != VK10.VK_NULL_HANDLE) {
+				VkMemoryDedicatedAllocateInfo dedicatedInfo = VkMemoryDedicatedAllocateInfo.calloc(stack);
+				dedicatedInfo.sType(VK11.VK_STRUCTURE_TYPE_MEMORY_DEDICATED_ALLOCATE_INFO);
+				dedicatedInfo.buffer(dedicatedBuffer);
+				dedicatedInfo.image(dedicatedImage);
+				allocateInfo.pNext(dedicatedInfo.address());
+			}
+			
+			LongBuffer memory = stack.callocLong(1);
+			int result;
+			while ((result = VK10.vkAllocateMemory(logicalDevice, allocateInfo, null, memory)) != VK10.VK_SUCCESS) {
+				// The heap may be too full for a whole block but not for a smaller one
+				boolean outOfMemory = result == VK10.VK_ERROR_OUT_OF_DEVICE_MEMORY || result == VK10.VK_ERROR_OUT_OF_HOST_MEMORY;
+				if (dedicated || !outOfMemory || blockSize / 2 < minSize) {
+					throw new RuntimeException("Failed to allocate " + blockSize + " bytes of memory type " + memoryTypeIndex);
+				}
+				
+				blockSize /= 2;
+				allocateInfo.allocationSize(blockSize);
+			}
+			
+			long mappedAddress = MemoryUtil.NULL;
+			if (isHostVisible(memoryTypeIndex)) {
+				PointerBuffer mapped = stack.callocPointer(1);
+				if (VK10.vkMapMemory(logicalDevice, memory.get(0), 0, VK10.VK_WHOLE_SIZE, 0, mapped) != VK10.VK_SUCCESS) {
+					VK10.vkFreeMemory(logicalDevice, memory.get(0), null);
+					throw new RuntimeException("Failed to map memory block");
+				}
+				mappedAddress = mapped.get(0);
+			}
+			
+			deviceAllocationCount++;
+			logger.debug("Allocated " + (dedicated ? "dedicated " : "") + String.format("%.1f", blockSize / 1048576.0) + " MiB of memory type " + memoryTypeIndex);
+			
+			return new MemoryBlock(memory.get(0), blockSize, memoryTypeIndex, poolIndex, mappedAddress, dedicated);
+		}
+	}
+	
+	public synchronized void free(Allocation allocation) {
+		MemoryBlock block = allocation.getBlock();
+		block.getHeap().free(allocation.getRegion());
+		block.removeAllocation(allocation);
+		
+		if (block.isDedicated()) {
+			dedicatedBlocks.remove(block);
+			freeBlock(block);
+		} else if (block.getHeap().isEmpty() && !defragmenting) {
+			releaseEmptyBlocks(pools.get(block.getPoolIndex()));
+		}
+	}
+	
+	private int releaseEmptyBlocks(ArrayList<MemoryBlock> pool) {
+		int emptyBlocks = 0;
+		int released = 0;
+		
+		Iterator<MemoryBlock> iterator = pool.iterator();
+		while (iterator.hasNext()) {
+			MemoryBlock block = iterator.next();
+			if (block.getHeap().isEmpty() && ++emptyBlocks > MAX_EMPTY_BLOCKS) {
+				freeBlock(block);
+				iterator.remove();
+				released++;
+			}
+		}
+		return released;
+	}
+	
+	private void freeBlock(MemoryBlock block) {
+		// Freeing implicitly unmaps
+		VK10.vkFreeMemory(logicalDevice, block.getMemory(), null);
+		deviceAllocationCount--;
+	}
+	
+	/**
+	 * Makes CPU writes visible to the GPU. Does nothing for host-coherent memory.
+	 */
+	public void flush(Allocation allocation) {
+		flushOrInvalidate(allocation, true);
+	}
+	
+	/**
+	 * Makes GPU writes visible to the CPU. Does nothing for host-coherent memory.
+	 */
+	public void invalidate(Allocation allocation) {
+		flushOrInvalidate(allocation, false);
+	}
+	
+	private void flushOrInvalidate(Allocation allocation, boolean flush) {
+		int memoryTypeIndex = allocation.getMemoryTypeIndex();
+		if (!isHostVisible(memoryTypeIndex) || isHostCoherent(memoryTypeIndex)) {
+			return;
+		}
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			long offset = allocation.getOffset() & -nonCoherentAtomSize;
+			long end = TlsfHeap.alignUp(allocation.getOffset() + allocation.getSize(), nonCoherentAtomSize);
+			
+			VkMappedMemoryRange.Buffer range = VkMappedMemoryRange.calloc(1, stack);
+			range.sType(VK10.VK_STRUCTURE_TYPE_MAPPED_MEMORY_RANGE);
+			range.memory(allocation.getMemory());
+			range.offset(offset);
+			range.size(end >= allocation.getBlock().getSize() ? VK10.VK_WHOLE_SIZE : end - offset);
+			
+			int result = flush ? VK10.vkFlushMappedMemoryRanges(logicalDevice, range) : VK10.vkInvalidateMappedMemoryRanges(logicalDevice, range);
+			if (result != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to " + (flush ? "flush" : "invalidate") + " mapped memory");
+			}
+		}
+	}
+	
+	/**
+	 * Plans up to maxMoves relocations from the emptiest blocks of each pool into free space of fuller ones and
+	 * reserves their destinations. For every move the owner binds a new resource to the destination, copies the
+	 * contents over, waits for the copy and destroys the old resource, then calls {@link #endDefragmentation(List)}.
+	 * Moved allocations must not be freed in between.
+	 */
+	public synchronized List<DefragmentationMove> beginDefragmentation(int maxMoves) {
+		if (defragmenting) {
+			throw new IllegalStateException("A defragmentation pass is already in progress");
+		}
+		defragmenting = true;
+		
+		ArrayList<DefragmentationMove> moves = new ArrayList<DefragmentationMove>();
+		
+		for (ArrayList<MemoryBlock> pool : pools) {
+			if (pool.size() < 2) {
+				continue;
+			}
+			pool.sort(Comparator.comparingLong((MemoryBlock block) -> block.getHeap().getUsedBytes()).reversed());
+			
+			for (int source = pool.size() - 1; source > 0 && moves.size() < maxMoves; source--) {
+				for (Allocation allocation : pool.get(source).getAllocations()) {
+					if (moves.size() >= maxMoves) {
+						break;
+					}
+					
+					Allocation destination = reserveInFullerBlock(pool, source, allocation);
+					if (destination != null) {
+						moves.add(new DefragmentationMove(allocation, destination));
+					}
+				}
+			}
+		}
+		
+		logger.debug("Defragmentation pass planned " + moves.size() + " moves");
+		return moves;
+	}
+	
+	private Allocation reserveInFullerBlock(ArrayList<MemoryBlock> pool, int sourceIndex, Allocation allocation) {
+		for (int i = 0; i < sourceIndex; i++) {
+			MemoryBlock block = pool.get(i);
+			TlsfHeap.Region region = block.getHeap().allocate(allocation.getRegion().getSize(), allocation.getAlignment());
+			
+			if (region != null) {
+				return new Allocation(block, region, allocation.getSize(), allocation.getAlignment(), allocation.isOptimalTiling());
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Points every moved allocation at its destination, frees the memory it came from and releases blocks left empty.
+	 */
+	public synchronized void endDefragmentation(List<DefragmentationMove> moves) {
+		for (DefragmentationMove move : moves) {
+			Allocation source = move.getSource();
+			Allocation destination = move.getDestination();
+			
+			MemoryBlock oldBlock = source.getBlock();
+			oldBlock.getHeap().free(source.getRegion());
+			oldBlock.removeAllocation(source);
+			
+			source.moveTo(destination.getBlock(), destination.getRegion());
+			destination.getBlock().addAllocation(source);
+		}
+		defragmenting = false;
+		
+		int released = 0;
+		for (ArrayList<MemoryBlock> pool : pools) {
+			released += releaseEmptyBlocks(pool);
+		}
+		logger.info("Defragmentation moved " + moves.size() + " allocations and released " + released + " blocks");
+	}
+	
+	private int chooseMemoryType(int typeBits, MemoryUsage usage) {
+		int bestType = -1;
+		int bestScore = -1;
+		
+		for (int i = 0; i < memoryProperties.memoryTypeCount(); i++) {
+			int flags = memoryProperties.memoryTypes(i).propertyFlags();
+			boolean allowed = (typeBits & (1 << i)) != 0;
+			
+			if (allowed && (flags & usage.getRequiredFlags()) == usage.getRequiredFlags()) {
+				int score = Integer.bitCount(flags & usage.getPreferredFlags());
+				if (score > bestScore) {
+					bestType = i;
+					bestScore = score;
+				}
+			}
+		}
+		
+		if (bestType < 0) {
+			throw new RuntimeException("Failed to find a suitable memory type for " + usage);
+		}
+		return bestType;
+	}
+	
+	private long getBlockSize(int memoryTypeIndex) {
+		long heapSize = memoryProperties.memoryHeaps(memoryProperties.memoryTypes(memoryTypeIndex).heapIndex()).size();
+		return heapSize <= SMALL_HEAP_SIZE ? heapSize / 8 : DEFAULT_BLOCK_SIZE;
+	}
+	
+	private boolean isHostVisible(int memoryTypeIndex) {
+		return (memoryProperties.memoryTypes(memoryTypeIndex).propertyFlags() & VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT) != 0;
+	}
+	
+	private boolean isHostCoherent(int memoryTypeIndex) {
+		return (memoryProperties.memoryTypes(memoryTypeIndex).propertyFlags() & VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT) != 0;
+	}
+	
+	/**
+	 * Totals over every pool and dedicated allocation.
+	 */
+	public synchronized MemoryStatistics getStatistics() {
+		ArrayList<MemoryBlock> blocks = new ArrayList<MemoryBlock>(dedicatedBlocks);
+		for (ArrayList<MemoryBlock> pool : pools) {
+			blocks.addAll(pool);
+		}
+		return collectStatistics("total", blocks);
+	}
+	
+	public synchronized List<MemoryStatistics> getPoolStatistics() {
+		ArrayList<MemoryStatistics> statistics = new ArrayList<MemoryStatistics>();
+		
+		for (int i = 0; i < pools.size(); i++) {
+			if (!pools.get(i).isEmpty()) {
+				statistics.add(collectStatistics("type " + (i / 2) + (i % 2 == 1 ? " images" : ""), pools.get(i)));
+			}
+		}
+		if (!dedicatedBlocks.isEmpty()) {
+			statistics.add(collectStatistics("dedicated", dedicatedBlocks));
+		}
+		return statistics;
+	}
+	
+	private MemoryStatistics collectStatistics(String name, List<MemoryBlock> blocks) {
+		long reservedBytes = 0;
+		int allocationCount = 0;
+		long allocatedBytes = 0;
+		long largestFreeRegion = 0;
+		
+		for (MemoryBlock block : blocks) {
+			TlsfHeap heap = block.getHeap();
+			reservedBytes += heap.getSize();
+			allocationCount += heap.getAllocationCount();
+			allocatedBytes += heap.getUsedBytes();
+			largestFreeRegion = Math.max(largestFreeRegion, heap.getLargestFreeRegion());
+		}
+		
+		return new MemoryStatistics(name, blocks.size(), reservedBytes, allocationCount, allocatedBytes, largestFreeRegion);
+	}
+	
+	public void report() {
+		for (MemoryStatistics statistics : getPoolStatistics()) {
+			logger.info("Memory: " + statistics);
+		}
+		logger.info("Memory: " + getStatistics() + " deviceAllocations=" + deviceAllocationCount);
+	}
+	
+	public synchronized void cleanUp() {
+		int leaked = 0;
+		
+		for (ArrayList<MemoryBlock> pool : pools) {
+			for (MemoryBlock block : pool) {
+				leaked += block.getHeap().getAllocationCount();
+				freeBlock(block);
+			}
+			pool.clear();
+		}
+		for (MemoryBlock block : dedicatedBlocks) {
+			leaked++;
+			freeBlock(block);
+		}
+		dedicatedBlocks.clear();
+		
+		if (leaked > 0) {
+			logger.warn(leaked + " allocations were still alive when the memory allocator was destroyed");
+		}
+		
+		memoryProperties.free();
+		logger.info("Destroyed memory allocator");
+	}
+}
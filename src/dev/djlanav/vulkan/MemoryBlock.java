@@ -0,0 +1,69 @@
+package dev.djlanav.vulkan;
+
+import java.util.HashSet;
+
+/**
+ * One VkDeviceMemory that suballocations are carved out of. Host-visible blocks stay mapped for their
+ * whole lifetime, so suballocations never map or unmap.
+ */
+class MemoryBlock {
+
+	private final long memory;
+	private final long size;
+	private final int memoryTypeIndex;
+	private final int poolIndex;
+	private final long mappedAddress;
+	private final boolean dedicated;
+	private final TlsfHeap heap;
+	private final HashSet<Allocation> allocations = new HashSet<Allocation>();
+	
+	MemoryBlock(long memory, long size, int memoryTypeIndex, int poolIndex, long mappedAddress, boolean dedicated) {
+		this.memory = memory;
+		this.size = size;
+		this.memoryTypeIndex = memoryTypeIndex;
+		this.poolIndex = poolIndex;
+		this.mappedAddress = mappedAddress;
+		this.dedicated = dedicated;
+		this.heap = new TlsfHeap(TlsfHeap.alignUp(size, TlsfHeap.MIN_ALIGNMENT));
+	}
+	
+	long getMemory() {
+		return memory;
+	}
+	
+	int getMemoryTypeIndex() {
+		return memoryTypeIndex;
+	}
+	
+	int getPoolIndex() {
+		return poolIndex;
+	}
+	
+	long getMappedAddress() {
+		return mappedAddress;
+	}
+	
+	boolean isDedicated() {
+		return dedicated;
+	}
+	
+	TlsfHeap getHeap() {
+		return heap;
+	}
+	
+	long getSize() {
+		return size;
+	}
+	
+	void addAllocation(Allocation allocation) {
+		allocations.add(allocation);
+	}
+	
+	void removeAllocation(Allocation allocation) {
+		allocations.remove(allocation);
+	}
+	
+	HashSet<Allocation> getAllocations() {
+		return allocations;
+	}
+}
@@ -0,0 +1,61 @@
+package dev.djlanav.vulkan;
+
+/**
+ * Immutable totals of a {@link MemoryAllocator}, or of one of its pools.
+ */
+public class MemoryStatistics {
+
+	private final String name;
+	private final int blockCount;
+	private final long reservedBytes;
+	private final int allocationCount;
+	private final long allocatedBytes;
+	private final long largestFreeRegion;
+	
+	public MemoryStatistics(String name, int blockCount, long reservedBytes, int allocationCount, long allocatedBytes, long largestFreeRegion) {
+		this.name = name;
+		this.blockCount = blockCount;
+		this.reservedBytes = reservedBytes;
+		this.allocationCount = allocationCount;
+		this.allocatedBytes = allocatedBytes;
+		this.largestFreeRegion = largestFreeRegion;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public int getBlockCount() {
+		return blockCount;
+	}
+	
+	public long getReservedBytes() {
+		return reservedBytes;
+	}
+	
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+	
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
+	public long getLargestFreeRegion() {
+		return largestFreeRegion;
+	}
+	
+	/**
+	 * 0 when all free memory is one region, approaching 1 as it is scattered into small holes.
+	 */
+	public double getFragmentation() {
+		long freeBytes = reservedBytes - allocatedBytes;
+		return freeBytes > 0 ? 1.0 - (double) largestFreeRegion / freeBytes : 0.0;
+	}
+	
+	@Override
+	public String toString() {
+		return String.format("%-14s blocks=%-3d reserved=%.1fMiB allocations=%-5d used=%.1fMiB largestFree=%.1fMiB fragmentation=%.2f",
+				name, blockCount, reservedBytes / 1048576.0, allocationCount, allocatedBytes / 1048576.0, largestFreeRegion / 1048576.0, getFragmentation());
+	}
+}
@@ -0,0 +1,32 @@
+package dev.djlanav.vulkan;
+
+import org.lwjgl.vulkan.VK10;
+
+/**
+ * How a resource's memory is accessed, used to pick a memory type. Required flags must be present,
+ * among the types that have them the one with the most preferred flags wins.
+ */
+public enum MemoryUsage {
+	// Only touched by the GPU: attachments, textures, vertex data uploaded through staging
+	GPU_ONLY(VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT, 0),
+	// Written by the CPU every frame and read by the GPU: staging and uniform rings
+	CPU_TO_GPU(VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT | VK10.VK_MEMORY_PROPERTY_DEVICE_LOCAL_BIT),
+	// Written by the GPU and read back by the CPU
+	GPU_TO_CPU(VK10.VK_MEMORY_PROPERTY_HOST_VISIBLE_BIT, VK10.VK_MEMORY_PROPERTY_HOST_CACHED_BIT | VK10.VK_MEMORY_PROPERTY_HOST_COHERENT_BIT);
+	
+	private final int requiredFlags;
+	private final int preferredFlags;
+	
+	private MemoryUsage(int requiredFlags, int preferredFlags) {
+		this.requiredFlags = requiredFlags;
+		this.preferredFlags = preferredFlags;
+	}
+	
+	public int getRequiredFlags() {
+		return requiredFlags;
+	}
+	
+	public int getPreferredFlags() {
+		return preferredFlags;
+	}
+}
@@ -0,0 +1,226 @@
+package dev.djlanav.vulkan;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Device-local color images used instead of a swapchain in headless mode. When readback is enabled
+ * every frame is also copied into a host-visible buffer that can be read once the timeline reaches its frame.
+ */
+public class OffscreenTarget implements RenderTarget {
+
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private Logger logger = LogManager.getLogger();
+
+	private VkExtent2D extent2D = VkExtent2D.malloc();
+	private int imageFormat = VK10.VK_FORMAT_R8G8B8A8_UNORM;
+	private int imageCount;
+	private boolean readbackEnabled;
+
+	private MemoryAllocator memoryAllocator;
+	private LongBuffer images;
+	private Allocation[] imageAllocations;
+	private ArrayList<LongBuffer> imageViews = new ArrayList<LongBuffer>();
+
+	private LongBuffer readbackBuffers;
+	private Allocation[] readbackAllocations;
+	private ByteBuffer[] readbackData;
+
+	private VkBufferImageCopy.Buffer copyRegion = VkBufferImageCopy.calloc(1);
+	private VkBufferMemoryBarrier2.Buffer readbackBarrier = VkBufferMemoryBarrier2.calloc(1);
+	private VkDependencyInfo readbackDependency = VkDependencyInfo.calloc();
+
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, int width, int height, int imageCount, boolean readbackEnabled) {
+		this.memoryAllocator = memoryAllocator;
+		this.imageCount = imageCount;
+		this.readbackEnabled = readbackEnabled;
+		extent2D.width(width);
+		extent2D.height(height);
+
+		images = BufferUtils.createLongBuffer(imageCount);
+		imageAllocations = new Allocation[imageCount];
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			for (int i = 0; i < imageCount; i++) {
+				createImage(logicalDevice, i, stack);
+				createImageView(logicalDevice, i, stack);
+			}
+
+			if (readbackEnabled) {
+				createReadbackBuffers(logicalDevice, stack);
+			}
+		}
+
+		copyRegion.bufferOffset(0);
+		copyRegion.bufferRowLength(0);
+		copyRegion.bufferImageHeight(0);
+		copyRegion.imageSubresource().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, 0, 0, 1);
+		copyRegion.imageOffset().set(0, 0, 0);
+		copyRegion.imageExtent().set(width, height, 1);
+
+		readbackBarrier.sType(VK13.VK_STRUCTURE_TYPE_BUFFER_MEMORY_BARRIER_2);
+		readbackBarrier.srcStageMask(VK13.VK_PIPELINE_STAGE_2_COPY_BIT);
+		readbackBarrier.srcAccessMask(VK13.VK_ACCESS_2_TRANSFER_WRITE_BIT);
+		readbackBarrier.dstStageMask(VK13.VK_PIPELINE_STAGE_2_HOST_BIT);
+		readbackBarrier.dstAccessMask(VK13.VK_ACCESS_2_HOST_READ_BIT);
+		readbackBarrier.srcQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+		readbackBarrier.dstQueueFamilyIndex(VK10.VK_QUEUE_FAMILY_IGNORED);
+		readbackBarrier.offset(0);
+		readbackBarrier.size(VK10.VK_WHOLE_SIZE);
+		
+		readbackDependency.sType(VK13.VK_STRUCTURE_TYPE_DEPENDENCY_INFO);
+		readbackDependency.pBufferMemoryBarriers(readbackBarrier);
+
+		logger.info("Created " + imageCount + " offscreen images at " + width + "x" + height + (readbackEnabled ? " with readback" : ""));
+	}
+
+	private void createImage(VkDevice logicalDevice, int index, MemoryStack stack) {
+		VkImageCreateInfo imageInfo = VkImageCreateInfo.calloc(stack);
+		imageInfo.sType(VK10.VK_STRUCTURE_TYPE_IMAGE_CREATE_INFO);
+		imageInfo.imageType(VK10.VK_IMAGE_TYPE_2D);
+		imageInfo.format(imageFormat);
+		imageInfo.extent().set(extent2D.width(), extent2D.height(), 1);
+		imageInfo.mipLevels(1);
+		imageInfo.arrayLayers(1);
+		imageInfo.samples(VK10.VK_SAMPLE_COUNT_1_BIT);
+		imageInfo.tiling(VK10.VK_IMAGE_TILING_OPTIMAL);
+		imageInfo.usage(VK10.VK_IMAGE_USAGE_COLOR_ATTACHMENT_BIT | VK10.VK_IMAGE_USAGE_TRANSFER_SRC_BIT);
+		imageInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+		imageInfo.initialLayout(VK10.VK_IMAGE_LAYOUT_UNDEFINED);
+
+		LongBuffer image = stack.callocLong(1);
+		if (VK10.vkCreateImage(logicalDevice, imageInfo, null, image) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to create offscreen image");
+		}
+		images.put(index, image.get(0));
+		imageAllocations[index] = memoryAllocator.allocateForImage(image.get(0), MemoryUsage.GPU_ONLY);
+	}
+
+	private void createImageView(VkDevice logicalDevice, int index, MemoryStack stack) {
+		VkImageViewCreateInfo viewInfo = VkImageViewCreateInfo.calloc(stack);
+		viewInfo.sType(VK10.VK_STRUCTURE_TYPE_IMAGE_VIEW_CREATE_INFO);
+		viewInfo.image(images.get(index));
+		viewInfo.viewType(VK10.VK_IMAGE_VIEW_TYPE_2D);
+		viewInfo.format(imageFormat);
+		viewInfo.subresourceRange().set(VK10.VK_IMAGE_ASPECT_COLOR_BIT, 0, 1, 0, 1);
+
+		LongBuffer imageView = BufferUtils.createLongBuffer(1);
+		if (VK10.vkCreateImageView(logicalDevice, viewInfo, null, imageView) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to create offscreen image view");
+		}
+
+		imageViews.add(imageView);
+	}
+
+	private void createReadbackBuffers(VkDevice logicalDevice, MemoryStack stack) {
+		long size = (long) extent2D.width() * extent2D.height() * BYTES_PER_PIXEL;
+
+		readbackBuffers = BufferUtils.createLongBuffer(imageCount);
+		readbackAllocations = new Allocation[imageCount];
+		readbackData = new ByteBuffer[imageCount];
+
+		for (int i = 0; i < imageCount; i++) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size(size);
+			bufferInfo.usage(VK10.VK_BUFFER_USAGE_TRANSFER_DST_BIT);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+
+			LongBuffer buffer = stack.callocLong(1);
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, buffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create readback buffer");
+			}
+			readbackBuffers.put(i, buffer.get(0));
+
+			// Host-visible blocks are persistently mapped, so the pixels can be read straight from the allocation
+			readbackAllocations[i] = memoryAllocator.allocateForBuffer(buffer.get(0), MemoryUsage.GPU_TO_CPU);
+			readbackData[i] = readbackAllocations[i].getMappedData().limit((int) size);
+		}
+	}
+
+	@Override
+	public void recordPostRender(VkCommandBuffer commandBuffer, int imageIndex) {
+		if (!readbackEnabled) {
+			return;
+		}
+
+		long buffer = readbackBuffers.get(imageIndex);
+		VK10.vkCmdCopyImageToBuffer(commandBuffer, images.get(imageIndex), VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL, buffer, copyRegion);
+
+		readbackBarrier.buffer(buffer);
+		VK13.vkCmdPipelineBarrier2(commandBuffer, readbackDependency);
+	}
+
+	/**
+	 * Tightly packed RGBA8 pixels of the last frame rendered to this image. Only valid once the timeline reached that frame's value.
+	 */
+	public ByteBuffer getReadbackData(int imageIndex) {
+		if (!readbackEnabled) {
+			throw new IllegalStateException("Readback is not enabled for this offscreen target");
+		}
+
+		memoryAllocator.invalidate(readbackAllocations[imageIndex]);
+		return readbackData[imageIndex];
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		for (int i = 0; i < imageCount; i++) {
+			VK10.vkDestroyImageView(logicalDevice, imageViews.get(i).get(0), null);
+			VK10.vkDestroyImage(logicalDevice, images.get(i), null);
+			memoryAllocator.free(imageAllocations[i]);
+
+			if (readbackEnabled) {
+				VK10.vkDestroyBuffer(logicalDevice, readbackBuffers.get(i), null);
+				memoryAllocator.free(readbackAllocations[i]);
+			}
+		}
+		logger.info("Destroyed offscreen images");
+
+		copyRegion.free();
+		readbackBarrier.free();
+		readbackDependency.free();
+		extent2D.free();
+	}
+
+	public boolean isReadbackEnabled() {
+		return readbackEnabled;
+	}
+
+	@Override
+	public int getImageCount() {
+		return imageCount;
+	}
+
+	@Override
+	public long getImage(int imageIndex) {
+		return images.get(imageIndex);
+	}
+
+	@Override
+	public ArrayList<LongBuffer> getImageViews() {
+		return imageViews;
+	}
+
+	@Override
+	public VkExtent2D getExtent2D() {
+		return extent2D;
+	}
+
+	@Override
+	public int getImageFormat() {
+		return imageFormat;
+	}
+
+	@Override
+	public int getFinalLayout() {
+		return VK10.VK_IMAGE_LAYOUT_TRANSFER_SRC_OPTIMAL;
+	}
+}
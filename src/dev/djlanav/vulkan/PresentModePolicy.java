@@ -0,0 +1,27 @@
+package dev.djlanav.vulkan;
+
+import org.lwjgl.vulkan.KHRSurface;
+
+/**
+ * Present modes selectable at startup. FIFO is always supported and used whenever the chosen mode is not.
+ */
+public enum PresentModePolicy {
+	// Lowest latency, may tear
+	IMMEDIATE(KHRSurface.VK_PRESENT_MODE_IMMEDIATE_KHR),
+	// No tearing, the newest frame replaces queued ones
+	MAILBOX(KHRSurface.VK_PRESENT_MODE_MAILBOX_KHR),
+	// V-sync, throughput bound by the display
+	FIFO(KHRSurface.VK_PRESENT_MODE_FIFO_KHR),
+	// V-sync that tears instead of stuttering when a frame is late
+	FIFO_RELAXED(KHRSurface.VK_PRESENT_MODE_FIFO_RELAXED_KHR);
+	
+	private final int presentMode;
+	
+	private PresentModePolicy(int presentMode) {
+		this.presentMode = presentMode;
+	}
+	
+	public int getPresentMode() {
+		return presentMode;
+	}
+}
@@ -0,0 +1,43 @@
+package dev.djlanav.vulkan;
+
+/**
+ * Push constant range of a pipeline layout, compared by value like {@link DescriptorBinding}.
+ */
+public final class PushConstantRange {
+
+	private final int stageFlags;
+	private final int offset;
+	private final int size;
+
+	public PushConstantRange(int stageFlags, int offset, int size) {
+		this.stageFlags = stageFlags;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	public int getStageFlags() {
+		return stageFlags;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof PushConstantRange)) {
+			return false;
+		}
+		PushConstantRange that = (PushConstantRange) other;
+		return stageFlags == that.stageFlags && offset == that.offset && size == that.size;
+	}
+
+	@Override
+	public int hashCode() {
+		return (stageFlags * 31 + offset) * 31 + size;
+	}
+}
@@ -9,75 +9,181 @@ import org.apache.logging.log4j.Logger;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
+/**
+ * Picks the queues the device is created with. Graphics and presentation prefer a single family. Transfer
+ * prefers a family without graphics or compute, which on most discrete GPUs maps to the copy engine, then an
+ * async compute family, and falls back to an extra queue in, or finally the queue of, the graphics family.
+ * Compute work such as culling stays on the graphics queue, so no compute queue is created.
+ */
 public class QueueFamilyManager {
 
+	private static final float GRAPHICS_PRIORITY = 1.0f;
+	private static final float ASYNC_PRIORITY = 0.5f;
+
 	private ArrayList<VulkanQueue> queues = new ArrayList<VulkanQueue>();
-	
+
 	private Logger logger = LogManager.getLogger();
-	
+
 	public void findQueueFamilies(VkPhysicalDevice physicalDevice, long surface) {
-		int queuesFound = 0x00;
-		
+		selectQueues(physicalDevice, surface);
+	}
+
+	/**
+	 * Headless variant: there is no surface, so no presentation queue is needed.
+	 */
+	public void findQueueFamilies(VkPhysicalDevice physicalDevice) {
+		selectQueues(physicalDevice, VK10.VK_NULL_HANDLE);
+	}
+
+	private void selectQueues(VkPhysicalDevice physicalDevice, long surface) {
 		try (MemoryStack stack = MemoryStack.stackPush()) {
 			IntBuffer queueFamilyCountBuffer = stack.callocInt(1);
-			IntBuffer surfaceSupportBuffer = stack.callocInt(1);
-			
 			VK10.vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, queueFamilyCountBuffer, null);
-			
+
 			int queueFamilyCount = queueFamilyCountBuffer.get(0);
 			VkQueueFamilyProperties.Buffer queueFamilies = VkQueueFamilyProperties.calloc(queueFamilyCount, stack);
-			
 			VK10.vkGetPhysicalDeviceQueueFamilyProperties(physicalDevice, queueFamilyCountBuffer, queueFamilies);
-			
-			logger.info("Queue Family Count: " + queueFamilyCount);			
+			logger.info("Queue Family Count: " + queueFamilyCount);
+
+			boolean[] presentSupport = new boolean[queueFamilyCount];
+			if (surface != VK10.VK_NULL_HANDLE) {
+				IntBuffer surfaceSupportBuffer = stack.callocInt(1);
+				for (int i = 0; i < queueFamilyCount; i++) {
+					KHRSurface.vkGetPhysicalDeviceSurfaceSupportKHR(physicalDevice, i, surface, surfaceSupportBuffer);
+					presentSupport[i] = surfaceSupportBuffer.get(0) == VK10.VK_TRUE;
+				}
+			}
+
+			int graphicsFamily = -1;
+			int presentFamily = -1;
+			int computeFamily = -1;
+			int transferFamily = -1;
+
 			for (int i = 0; i < queueFamilyCount; i++) {
-				if (queuesFound == 0xAB) {
-					logger.info("Found needed queues");
-					break;
+				int flags = queueFamilies.get(i).queueFlags();
+				boolean graphics = (flags & VK10.VK_QUEUE_GRAPHICS_BIT) != 0;
+				boolean compute = (flags & VK10.VK_QUEUE_COMPUTE_BIT) != 0;
+				boolean transfer = (flags & VK10.VK_QUEUE_TRANSFER_BIT) != 0;
+
+				if (graphics && (graphicsFamily == -1 || (presentSupport[i] && !presentSupport[graphicsFamily]))) {
+					graphicsFamily = i;
 				}
-				
-				VkQueueFamilyProperties queueFamily = queueFamilies.get(i);
-				KHRSurface.vkGetPhysicalDeviceSurfaceSupportKHR(physicalDevice, i, surface, surfaceSupportBuffer);
-				
-				int surfaceSupport = surfaceSupportBuffer.get(0);
-				int graphicsFlag = queueFamily.queueFlags() & VK10.VK_QUEUE_GRAPHICS_BIT;
-				
-				if (surfaceSupport == VK10.VK_TRUE) {
-					queues.add(i, new VulkanQueue(EnumSet.of(QueueType.PRESENTATION), i, i));
-					logger.info("Found presentation capable queue family");
-					queuesFound |= 0xA;
+				if (compute && !graphics && computeFamily == -1) {
+					computeFamily = i;
 				}
-				
-				// TODO: The 0xB check here might cause extra checks. I should fix that at some point.
-				if ((queueFamily.queueFlags() & VK10.VK_QUEUE_GRAPHICS_BIT) == graphicsFlag && queuesFound != 0xB) {
-					if (!(i >= queues.size())) {
-						VulkanQueue queue = queues.get(i);
-						
-						if (queue.getQueueCapabilities().contains(QueueType.PRESENTATION)) {
-							queue.setQueueCapabilities(EnumSet.of(QueueType.GRAPHICS, QueueType.PRESENTATION));
-							logger.info("Presentation  queue family also has graphics capabilities");
-							
-							queuesFound = (queuesFound << 4) | 0xB;
-							continue;
-						}	
-					}
-					
-					queues.add(new VulkanQueue(EnumSet.of(QueueType.GRAPHICS), i, i));
-					logger.info("Found graphics capable queue family");
-					queuesFound = (queuesFound << 4) | 0xB;
+				if (transfer && !graphics && !compute && transferFamily == -1) {
+					transferFamily = i;
 				}
 			}
+
+			if (graphicsFamily == -1) {
+				throw new RuntimeException("Failed to find a graphics capable queue family");
+			}
+
+			if (surface != VK10.VK_NULL_HANDLE) {
+				presentFamily = presentSupport[graphicsFamily] ? graphicsFamily : findPresentFamily(presentSupport);
+				if (presentFamily == -1) {
+					throw new RuntimeException("Failed to find a presentation capable queue family");
+				}
+			}
+
+			int[] queuesLeft = new int[queueFamilyCount];
+			for (int i = 0; i < queueFamilyCount; i++) {
+				queuesLeft[i] = queueFamilies.get(i).queueCount();
+			}
+
+			requestQueue(QueueType.GRAPHICS, graphicsFamily, GRAPHICS_PRIORITY, queuesLeft);
+			if (presentFamily == graphicsFamily) {
+				getQueue(QueueType.GRAPHICS).getQueueCapabilities().add(QueueType.PRESENTATION);
+			} else if (presentFamily != -1) {
+				requestQueue(QueueType.PRESENTATION, presentFamily, GRAPHICS_PRIORITY, queuesLeft);
+			}
+
+			// Without a dedicated family copies go to a family that has compute or graphics anyway
+			if (transferFamily == -1) {
+				transferFamily = computeFamily != -1 ? computeFamily : graphicsFamily;
+			}
+			requestQueue(QueueType.TRANSFER, transferFamily, ASYNC_PRIORITY, queuesLeft);
+
+			for (VulkanQueue queue : queues) {
+				logger.info("Using queue " + queue.getQueueIndex() + " of family " + queue.getParentFamilyIndex() + " for " + queue.getQueueCapabilities());
+			}
 		}
 	}
-	
-	public int[] createQueueFamilyIndicesArray() {
-		int[] queueFamilyIndices = new int[queues.size()];
-		for (int i = 0; i < queues.size(); i++) {
+
+	private int findPresentFamily(boolean[] presentSupport) {
+		for (int i = 0; i < presentSupport.length; i++) {
+			if (presentSupport[i]) {
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Creates another queue in the family if it has one left, otherwise the last queue of the family takes on the type.
+	 */
+	private void requestQueue(QueueType type, int familyIndex, float priority, int[] queuesLeft) {
+		if (queuesLeft[familyIndex] > 0) {
+			int queueIndex = 0;
+			for (VulkanQueue queue : queues) {
+				if (queue.getParentFamilyIndex() == familyIndex) {
+					queueIndex++;
+				}
+			}
+
+			queues.add(new VulkanQueue(EnumSet.of(type), queueIndex, familyIndex, priority));
+			queuesLeft[familyIndex]--;
+			return;
+		}
+
+		for (int i = queues.size() - 1; i >= 0; i--) {
 			VulkanQueue queue = queues.get(i);
-			queueFamilyIndices[i] = queue.getParentFamilyIndex();
+			if (queue.getParentFamilyIndex() == familyIndex) {
+				queue.getQueueCapabilities().add(type);
+				return;
+			}
 		}
-		
-		return queueFamilyIndices;
+	}
+
+	/**
+	 * Families of the queues that use swapchain images, without duplicates.
+	 */
+	public int[] createQueueFamilyIndicesArray() {
+		int graphicsFamily = getQueue(QueueType.GRAPHICS).getParentFamilyIndex();
+		if (!hasQueue(QueueType.PRESENTATION) || getQueue(QueueType.PRESENTATION).getParentFamilyIndex() == graphicsFamily) {
+			return new int[] { graphicsFamily };
+		}
+
+		return new int[] { graphicsFamily, getQueue(QueueType.PRESENTATION).getParentFamilyIndex() };
+	}
+
+	/**
+	 * Whether work of this type gets a queue of its own rather than sharing the graphics queue.
+	 */
+	public boolean hasSeparateQueue(QueueType type) {
+		return hasQueue(type) && getQueue(type) != getQueue(QueueType.GRAPHICS);
+	}
+
+	public boolean hasQueue(QueueType type) {
+		for (VulkanQueue queue : queues) {
+			if (queue.getQueueCapabilities().contains(type)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	public VulkanQueue getQueue(QueueType type) {
+		for (VulkanQueue queue : queues) {
+			if (queue.getQueueCapabilities().contains(type)) {
+				return queue;
+			}
+		}
+
+		throw new IllegalStateException("No queue with " + type + " capabilities");
 	}
 
 	public ArrayList<VulkanQueue> getQueues() {
@@ -4,7 +4,8 @@ import java.util.EnumSet;
 
 public enum QueueType {
 	GRAPHICS,
-	PRESENTATION;
+	PRESENTATION,
+	TRANSFER;
 	
 	public static final EnumSet<QueueType> QUEUE_CAPABILITIES = EnumSet.allOf(QueueType.class);
 }
@@ -0,0 +1,34 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+
+import org.lwjgl.vulkan.VkCommandBuffer;
+import org.lwjgl.vulkan.VkExtent2D;
+
+/**
+ * The set of images the renderer draws into, either swapchain images or offscreen images.
+ */
+public interface RenderTarget {
+
+	int getImageCount();
+	
+	long getImage(int imageIndex);
+	
+	ArrayList<LongBuffer> getImageViews();
+	
+	VkExtent2D getExtent2D();
+	
+	int getImageFormat();
+	
+	/**
+	 * The layout images are left in at the end of the render pass.
+	 */
+	int getFinalLayout();
+	
+	/**
+	 * Records any work that has to follow the render pass, e.g. copying the image for readback.
+	 */
+	default void recordPostRender(VkCommandBuffer commandBuffer, int imageIndex) {
+	}
+}
@@ -0,0 +1,234 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * One descriptor set holding every texture and storage buffer in two large arrays, which shaders index by slot.
+ * Pipelines bind it once per command buffer, so new materials never add descriptor binds to the draws.
+ * <p>
+ * Both arrays are partially bound and updated after bind: slots may stay empty, and a slot may be written while
+ * the set is bound in command buffers that are recorded but not yet submitted. A slot must not be rewritten while
+ * a submitted frame can still read it, so removed slots should only be reused once those frames are done, see
+ * {@link #removeTexture(int)}.
+ */
+public class ResourceHeap {
+
+	public static final int TEXTURE_BINDING = 0;
+	public static final int BUFFER_BINDING = 1;
+
+	private static final int BINDING_FLAGS = VK12.VK_DESCRIPTOR_BINDING_UPDATE_AFTER_BIND_BIT | VK12.VK_DESCRIPTOR_BINDING_PARTIALLY_BOUND_BIT;
+
+	private Logger logger = LogManager.getLogger();
+
+	private int textureCapacity;
+	private int bufferCapacity;
+
+	private long setLayout;
+	private LongBuffer descriptorPool = BufferUtils.createLongBuffer(1);
+	private LongBuffer descriptorSet = BufferUtils.createLongBuffer(1);
+	private LongBuffer defaultSampler = BufferUtils.createLongBuffer(1);
+
+	// Free slots as stacks, so recently freed slots are reused first and the arrays stay dense
+	private int[] freeTextures;
+	private int freeTextureCount;
+	private int[] freeBuffers;
+	private int freeBufferCount;
+
+	/**
+	 * Creates the heap with room for textureCapacity textures and bufferCapacity storage buffers. The device must
+	 * have descriptor indexing enabled, see {@link DeviceManager#setBindless(boolean)}.
+	 */
+	public void create(VkDevice logicalDevice, DescriptorLayoutCache layoutCache, int textureCapacity, int bufferCapacity) {
+		this.textureCapacity = textureCapacity;
+		this.bufferCapacity = bufferCapacity;
+
+		setLayout = layoutCache.getSetLayout(logicalDevice,
+				new DescriptorBinding(TEXTURE_BINDING, VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER, textureCapacity, VK10.VK_SHADER_STAGE_FRAGMENT_BIT, BINDING_FLAGS),
+				new DescriptorBinding(BUFFER_BINDING, VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER, bufferCapacity,
+						VK10.VK_SHADER_STAGE_VERTEX_BIT | VK10.VK_SHADER_STAGE_FRAGMENT_BIT | VK10.VK_SHADER_STAGE_COMPUTE_BIT, BINDING_FLAGS));
+
+		createDescriptorPool(logicalDevice);
+		allocateDescriptorSet(logicalDevice);
+		createDefaultSampler(logicalDevice);
+
+		freeTextures = new int[textureCapacity];
+		freeTextureCount = textureCapacity;
+		for (int i = 0; i < textureCapacity; i++) {
+			freeTextures[i] = textureCapacity - 1 - i;
+		}
+		freeBuffers = new int[bufferCapacity];
+		freeBufferCount = bufferCapacity;
+		for (int i = 0; i < bufferCapacity; i++) {
+			freeBuffers[i] = bufferCapacity - 1 - i;
+		}
+
+		logger.info("Created resource heap with " + textureCapacity + " texture and " + bufferCapacity + " buffer slots");
+	}
+
+	private void createDescriptorPool(VkDevice logicalDevice) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorPoolSize.Buffer poolSizes = VkDescriptorPoolSize.calloc(2, stack);
+			poolSizes.get(0).type(VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+			poolSizes.get(0).descriptorCount(textureCapacity);
+			poolSizes.get(1).type(VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER);
+			poolSizes.get(1).descriptorCount(bufferCapacity);
+
+			VkDescriptorPoolCreateInfo poolInfo = VkDescriptorPoolCreateInfo.calloc(stack);
+			poolInfo.sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_POOL_CREATE_INFO);
+			poolInfo.flags(VK12.VK_DESCRIPTOR_POOL_CREATE_UPDATE_AFTER_BIND_BIT);
+			poolInfo.maxSets(1);
+			poolInfo.pPoolSizes(poolSizes);
+
+			if (VK10.vkCreateDescriptorPool(logicalDevice, poolInfo, null, descriptorPool) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create resource heap descriptor pool");
+			}
+		}
+	}
+
+	private void allocateDescriptorSet(VkDevice logicalDevice) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorSetAllocateInfo allocateInfo = VkDescriptorSetAllocateInfo.calloc(stack);
+			allocateInfo.sType(VK10.VK_STRUCTURE_TYPE_DESCRIPTOR_SET_ALLOCATE_INFO);
+			allocateInfo.descriptorPool(descriptorPool.get(0));
+			allocateInfo.pSetLayouts(stack.longs(setLayout));
+
+			if (VK10.vkAllocateDescriptorSets(logicalDevice, allocateInfo, descriptorSet) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to allocate resource heap descriptor set");
+			}
+		}
+	}
+
+	private void createDefaultSampler(VkDevice logicalDevice) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkSamplerCreateInfo samplerInfo = VkSamplerCreateInfo.calloc(stack);
+			samplerInfo.sType(VK10.VK_STRUCTURE_TYPE_SAMPLER_CREATE_INFO);
+			samplerInfo.magFilter(VK10.VK_FILTER_LINEAR);
+			samplerInfo.minFilter(VK10.VK_FILTER_LINEAR);
+			samplerInfo.mipmapMode(VK10.VK_SAMPLER_MIPMAP_MODE_LINEAR);
+			samplerInfo.addressModeU(VK10.VK_SAMPLER_ADDRESS_MODE_REPEAT);
+			samplerInfo.addressModeV(VK10.VK_SAMPLER_ADDRESS_MODE_REPEAT);
+			samplerInfo.addressModeW(VK10.VK_SAMPLER_ADDRESS_MODE_REPEAT);
+			samplerInfo.maxLod(VK12.VK_LOD_CLAMP_NONE);
+
+			if (VK10.vkCreateSampler(logicalDevice, samplerInfo, null, defaultSampler) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create resource heap sampler");
+			}
+		}
+	}
+
+	/**
+	 * Writes the image view into a free texture slot with the default linear, repeating sampler and returns the slot.
+	 */
+	public int addTexture(VkDevice logicalDevice, long imageView) {
+		return addTexture(logicalDevice, imageView, defaultSampler.get(0));
+	}
+
+	public synchronized int addTexture(VkDevice logicalDevice, long imageView, long sampler) {
+		if (freeTextureCount == 0) {
+			throw new RuntimeException("Resource heap is out of texture slots");
+		}
+		int slot = freeTextures[--freeTextureCount];
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorImageInfo.Buffer imageInfo = VkDescriptorImageInfo.calloc(1, stack);
+			imageInfo.imageView(imageView);
+			imageInfo.sampler(sampler);
+			imageInfo.imageLayout(VK10.VK_IMAGE_LAYOUT_SHADER_READ_ONLY_OPTIMAL);
+
+			VkWriteDescriptorSet.Buffer write = VkWriteDescriptorSet.calloc(1, stack);
+			write.sType(VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET);
+			write.dstSet(descriptorSet.get(0));
+			write.dstBinding(TEXTURE_BINDING);
+			write.dstArrayElement(slot);
+			write.descriptorCount(1);
+			write.descriptorType(VK10.VK_DESCRIPTOR_TYPE_COMBINED_IMAGE_SAMPLER);
+			write.pImageInfo(imageInfo);
+
+			VK10.vkUpdateDescriptorSets(logicalDevice, write, null);
+		}
+		return slot;
+	}
+
+	/**
+	 * Writes the buffer range into a free storage buffer slot and returns the slot.
+	 */
+	public synchronized int addBuffer(VkDevice logicalDevice, long buffer, long offset, long range) {
+		if (freeBufferCount == 0) {
+			throw new RuntimeException("Resource heap is out of buffer slots");
+		}
+		int slot = freeBuffers[--freeBufferCount];
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkDescriptorBufferInfo.Buffer bufferInfo = VkDescriptorBufferInfo.calloc(1, stack);
+			bufferInfo.buffer(buffer);
+			bufferInfo.offset(offset);
+			bufferInfo.range(range);
+
+			VkWriteDescriptorSet.Buffer write = VkWriteDescriptorSet.calloc(1, stack);
+			write.sType(VK10.VK_STRUCTURE_TYPE_WRITE_DESCRIPTOR_SET);
+			write.dstSet(descriptorSet.get(0));
+			write.dstBinding(BUFFER_BINDING);
+			write.dstArrayElement(slot);
+			write.descriptorCount(1);
+			write.descriptorType(VK10.VK_DESCRIPTOR_TYPE_STORAGE_BUFFER);
+			write.pBufferInfo(bufferInfo);
+
+			VK10.vkUpdateDescriptorSets(logicalDevice, write, null);
+		}
+		return slot;
+	}
+
+	/**
+	 * Frees a texture slot for reuse. The slot keeps its old descriptor until then, so call this once no submitted
+	 * frame reads the slot anymore, e.g. from {@link dev.djlanav.rendering.Renderer#retire(Runnable)}.
+	 */
+	public synchronized void removeTexture(int slot) {
+		freeTextures[freeTextureCount++] = slot;
+	}
+
+	/**
+	 * Frees a buffer slot for reuse, with the same restriction as {@link #removeTexture(int)}.
+	 */
+	public synchronized void removeBuffer(int slot) {
+		freeBuffers[freeBufferCount++] = slot;
+	}
+
+	public long getSetLayout() {
+		return setLayout;
+	}
+
+	public long getDescriptorSet() {
+		return descriptorSet.get(0);
+	}
+
+	public int getTextureCapacity() {
+		return textureCapacity;
+	}
+
+	public int getBufferCapacity() {
+		return bufferCapacity;
+	}
+
+	public synchronized int getTextureCount() {
+		return textureCapacity - freeTextureCount;
+	}
+
+	public synchronized int getBufferCount() {
+		return bufferCapacity - freeBufferCount;
+	}
+
+	/**
+	 * Destroys the pool, which frees the set, and the default sampler. The layout belongs to the layout cache.
+	 */
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyDescriptorPool(logicalDevice, descriptorPool.get(0), null);
+		VK10.vkDestroySampler(logicalDevice, defaultSampler.get(0), null);
+		logger.info("Destroyed resource heap");
+	}
+}
@@ -0,0 +1,76 @@
+package dev.djlanav.vulkan;
+
+import java.nio.ByteBuffer;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Space reserved in the {@link StagingRing}. Callers write their data straight into {@link #getData()}, which
+ * is mapped device memory, and then hand the region to a copy. The ring reuses region objects once their copy
+ * has completed, so a region must not be kept after it was handed to a copy.
+ */
+public class StagingRegion {
+
+	private long buffer;
+	private long offset;
+	private long size;
+	private long address;
+	
+	// Ring position just past this region, and the timeline and value after which it may be reused, 0 until submitted
+	private long endPosition;
+	private TimelineSemaphore retireTimeline;
+	private long retireValue = 0;
+	
+	void set(long buffer, long offset, long size, long address, long endPosition) {
+		this.buffer = buffer;
+		this.offset = offset;
+		this.size = size;
+		this.address = address;
+		this.endPosition = endPosition;
+		this.retireTimeline = null;
+		this.retireValue = 0;
+	}
+	
+	long getEndPosition() {
+		return endPosition;
+	}
+	
+	TimelineSemaphore getRetireTimeline() {
+		return retireTimeline;
+	}
+	
+	long getRetireValue() {
+		return retireValue;
+	}
+	
+	void retire(TimelineSemaphore retireTimeline, long retireValue) {
+		this.retireTimeline = retireTimeline;
+		this.retireValue = retireValue;
+	}
+	
+	/**
+	 * The staging buffer, to use as the source of a copy.
+	 */
+	public long getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Offset of the region within the staging buffer.
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public long getAddress() {
+		return address;
+	}
+	
+	public ByteBuffer getData() {
+		return MemoryUtil.memByteBuffer(address, (int) size);
+	}
+}
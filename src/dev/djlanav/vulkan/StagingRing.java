@@ -0,0 +1,192 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.ArrayDeque;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * One persistently mapped host-visible buffer used as a ring for upload data. Regions are handed out in order
+ * and come back once the timeline passes the value of the submission that copied them, so no upload ever
+ * allocates or waits for the whole queue. Positions only grow and are taken modulo the capacity.
+ * <p>
+ * The ring never blocks: when it is full, {@link #reserve} returns null and the caller decides how to make room,
+ * see {@link #getBlockingTimeline()}. Not thread-safe, the uploader guards it.
+ */
+public class StagingRing {
+
+	private static final long MAX_ALIGNMENT = 64 * 1024;
+	
+	private Logger logger = LogManager.getLogger();
+	
+	private LongBuffer buffer = BufferUtils.createLongBuffer(1);
+	private Allocation allocation;
+	private long capacity;
+	
+	private long headPosition = 0;
+	private long tailPosition = 0;
+	private ArrayDeque<StagingRegion> liveRegions = new ArrayDeque<StagingRegion>();
+	// Reclaimed region objects, so steady-state uploads never allocate
+	private ArrayDeque<StagingRegion> freeRegions = new ArrayDeque<StagingRegion>();
+	
+	private long stallCount = 0;
+	private long stallNanos = 0;
+	
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, long capacity) {
+		// Every lap has to start suitably aligned for any copy
+		this.capacity = TlsfHeap.alignUp(capacity, MAX_ALIGNMENT);
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size(this.capacity);
+			bufferInfo.usage(VK10.VK_BUFFER_USAGE_TRANSFER_SRC_BIT);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+			
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, buffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create staging buffer");
+			}
+		}
+		
+		allocation = memoryAllocator.allocateForBuffer(buffer.get(0), MemoryUsage.CPU_TO_GPU);
+		logger.info("Created " + (capacity >> 20) + " MiB staging ring");
+	}
+	
+	/**
+	 * Reserves size bytes at the given power of two alignment, at most 64 KiB. Returns null if the ring is still
+	 * full after reclaiming every region whose copy has completed.
+	 */
+	public StagingRegion reserve(VkDevice logicalDevice, long size, long alignment) {
+		if (alignment > MAX_ALIGNMENT) {
+			throw new IllegalArgumentException("Staging alignment " + alignment + " exceeds " + MAX_ALIGNMENT);
+		}
+		if (size > capacity) {
+			throw new IllegalArgumentException("Upload of " + size + " bytes does not fit the " + capacity + " byte staging ring");
+		}
+		
+		long position = place(size, alignment);
+		if (position + size - tailPosition > capacity) {
+			reclaim(logicalDevice);
+			position = place(size, alignment);
+		}
+		if (position + size - tailPosition > capacity) {
+			return null;
+		}
+		
+		long offset = position % capacity;
+		StagingRegion region = freeRegions.isEmpty() ? new StagingRegion() : freeRegions.pop();
+		region.set(buffer.get(0), offset, size, allocation.getMappedAddress() + offset, position + size);
+		
+		headPosition = position + size;
+		liveRegions.add(region);
+		return region;
+	}
+	
+	private long place(long size, long alignment) {
+		long position = TlsfHeap.alignUp(headPosition, alignment);
+		
+		// Regions never wrap around the end, the rest of the lap is skipped instead
+		if (position % capacity + size > capacity) {
+			position = nextLap(position);
+		}
+		return position;
+	}
+	
+	private long nextLap(long position) {
+		return (position + capacity - 1) / capacity * capacity;
+	}
+	
+	/**
+	 * Marks a region as copied by the submission that signals timelineValue on timeline.
+	 */
+	public void retire(StagingRegion region, TimelineSemaphore timeline, long timelineValue) {
+		region.retire(timeline, timelineValue);
+	}
+	
+	/**
+	 * Frees every region whose copy has completed. Regions are reclaimed in order, so one that was never
+	 * submitted holds back everything after it. Regions may be retired on different timelines, each one's
+	 * completed value is read at most once.
+	 */
+	public void reclaim(VkDevice logicalDevice) {
+		TimelineSemaphore checkedTimeline = null;
+		long completedValue = 0;
+		
+		while (!liveRegions.isEmpty()) {
+			StagingRegion oldest = liveRegions.peek();
+			if (oldest.getRetireValue() == 0) {
+				break;
+			}
+			if (oldest.getRetireTimeline() != checkedTimeline) {
+				checkedTimeline = oldest.getRetireTimeline();
+				completedValue = checkedTimeline.getCompletedValue(logicalDevice);
+			}
+			if (oldest.getRetireValue() > completedValue) {
+				break;
+			}
+			
+			liveRegions.poll();
+			tailPosition = oldest.getEndPosition();
+			freeRegions.push(oldest);
+		}
+		
+		// An empty ring starts over at the beginning of a lap, so even a full-capacity region fits
+		if (liveRegions.isEmpty()) {
+			headPosition = nextLap(headPosition);
+			tailPosition = headPosition;
+		}
+	}
+	
+	/**
+	 * Makes CPU writes to the ring visible to the GPU when its memory is not host-coherent.
+	 */
+	public void flush(MemoryAllocator memoryAllocator) {
+		memoryAllocator.flush(allocation);
+	}
+	
+	/**
+	 * Timeline the oldest live region waits for, null if it was never submitted or the ring is empty. Waiting
+	 * for {@link #getBlockingValue()} on it frees at least that region.
+	 */
+	public TimelineSemaphore getBlockingTimeline() {
+		return liveRegions.isEmpty() ? null : liveRegions.peek().getRetireTimeline();
+	}
+	
+	public long getBlockingValue() {
+		return liveRegions.isEmpty() ? 0 : liveRegions.peek().getRetireValue();
+	}
+	
+	/**
+	 * Counts a reservation that had to wait for room.
+	 */
+	public void addStall(long nanos) {
+		stallCount++;
+		stallNanos += nanos;
+	}
+	
+	public long getStallCount() {
+		return stallCount;
+	}
+	
+	public long getStallNanos() {
+		return stallNanos;
+	}
+	
+	public long getCapacity() {
+		return capacity;
+	}
+	
+	public long getUsedBytes() {
+		return headPosition - tailPosition;
+	}
+	
+	public void cleanUp(VkDevice logicalDevice, MemoryAllocator memoryAllocator) {
+		VK10.vkDestroyBuffer(logicalDevice, buffer.get(0), null);
+		memoryAllocator.free(allocation);
+		logger.info("Destroyed staging ring");
+	}
+}
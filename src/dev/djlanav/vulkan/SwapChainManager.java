@@ -7,13 +7,12 @@ import java.util.ArrayList;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.lwjgl.BufferUtils;
-import org.lwjgl.glfw.GLFW;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.vulkan.*;
 
 import dev.djlanav.main.WindowManager; 
 
-public class SwapChainManager {
+public class SwapChainManager implements RenderTarget {
 	
 	private Logger logger = LogManager.getLogger();
 
@@ -70,6 +69,24 @@ public class SwapChainManager {
 		}
 	}
 	
+	/**
+	 * Re-reads only the surface capabilities, which is all that changes when the window is resized.
+	 */
+	public void refreshSurfaceCaps(VkPhysicalDevice physicalDevice, long surface) {
+		if (KHRSurface.vkGetPhysicalDeviceSurfaceCapabilitiesKHR(physicalDevice, surface, surfaceCaps) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to get physical device surface capabilities");
+		}
+	}
+	
+	/**
+	 * Hands the current image views to the caller so they can be destroyed once no frame uses them.
+	 */
+	public ArrayList<LongBuffer> detachImageViews() {
+		ArrayList<LongBuffer> oldImageViews = imageViews;
+		imageViews = new ArrayList<LongBuffer>();
+		return oldImageViews;
+	}
+	
 	public void createSwapChain(VkSwapchainCreateInfoKHR createInfo, VkDevice device) {
 		try (MemoryStack stack = MemoryStack.stackPush()) {
 			LongBuffer swapchainBuffer = stack.callocLong(1);
@@ -142,35 +159,46 @@ public class SwapChainManager {
 		return defaultFormat;
 	}
 	
-	public int chooseSwapPresentMode() {
+	public int chooseSwapPresentMode(PresentModePolicy policy) {
 		for (int i = 0; i < presentModesCount; i++) {
 			int presentMode = presentModes.get(i);
 			
-			if (presentMode == KHRSurface.VK_PRESENT_MODE_MAILBOX_KHR) {
+			if (presentMode == policy.getPresentMode()) {
 				return presentMode;
 			}
 		}
 		
+		logger.warn("Present mode " + policy + " is not supported, falling back to FIFO");
 		return KHRSurface.VK_PRESENT_MODE_FIFO_KHR;
 	}
 	
+	/**
+	 * Clamps the requested image count to what the surface allows. Values below 1 request one image more
+	 * than the minimum, so the application never has to wait on the presentation engine to acquire.
+	 */
+	public int chooseImageCount(int requestedCount) {
+		int imageCount = requestedCount > 0 ? requestedCount : surfaceCaps.minImageCount() + 1;
+		imageCount = Math.max(imageCount, surfaceCaps.minImageCount());
+		
+		if (surfaceCaps.maxImageCount() > 0 && imageCount > surfaceCaps.maxImageCount()) {
+			imageCount = surfaceCaps.maxImageCount();
+		}
+		
+		return imageCount;
+	}
+	
 	public VkExtent2D chooseSwapExtent() {
 		if (!hasSurfaceCaps) {
 			throw new IllegalStateException("Surface capabilities not initialized");
 		}
 		
-		try (MemoryStack stack = MemoryStack.stackPush()) {
-			IntBuffer width = stack.callocInt(1);
-			IntBuffer height = stack.callocInt(1);
-			GLFW.glfwGetFramebufferSize(WindowManager.getWindow(), width, height);
-			
-			int clampedWidth = Math.clamp(width.get(0), surfaceCaps.minImageExtent().width(), surfaceCaps.maxImageExtent().width());
-			int clampedHeight = Math.clamp(height.get(0), surfaceCaps.minImageExtent().height(), surfaceCaps.maxImageExtent().height());
-			extent2D.width(clampedWidth);
-			extent2D.height(clampedHeight);
-			
-			return extent2D;
-		}
+		// The cached size can be read off the main thread, unlike glfwGetFramebufferSize
+		int clampedWidth = Math.clamp(WindowManager.getFramebufferWidth(), surfaceCaps.minImageExtent().width(), surfaceCaps.maxImageExtent().width());
+		int clampedHeight = Math.clamp(WindowManager.getFramebufferHeight(), surfaceCaps.minImageExtent().height(), surfaceCaps.maxImageExtent().height());
+		extent2D.width(clampedWidth);
+		extent2D.height(clampedHeight);
+		
+		return extent2D;
 	}
 	
 	public boolean checkSwapChainSupport() {
@@ -223,14 +251,31 @@ public class SwapChainManager {
 		return presentModesCount;
 	}
 
+	@Override
 	public int getImageCount() {
 		return imageCount;
 	}
 	
+	@Override
+	public long getImage(int imageIndex) {
+		return swapchainImages.get(imageIndex);
+	}
+	
+	@Override
+	public int getImageFormat() {
+		return mainSurfaceFormat.format();
+	}
+	
+	@Override
+	public int getFinalLayout() {
+		return KHRSwapchain.VK_IMAGE_LAYOUT_PRESENT_SRC_KHR;
+	}
+	
 	public long getSwapChain() {
 		return swapChain;
 	}
 
+	@Override
 	public VkExtent2D getExtent2D() {
 		return extent2D;
 	}
@@ -239,6 +284,7 @@ public class SwapChainManager {
 		return mainSurfaceFormat;
 	}
 	
+	@Override
 	public ArrayList<LongBuffer> getImageViews() {
 		return imageViews;
 	}
@@ -0,0 +1,119 @@
+package dev.djlanav.vulkan;
+
+import java.nio.LongBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.vulkan.*;
+
+/**
+ * A timeline semaphore whose value only ever grows. Every submission signals the next value, so "the GPU
+ * finished submission N" is a single comparison and one semaphore replaces a fence per frame. Waiting and
+ * querying may happen from any thread, only the render thread reserves values.
+ * <p>
+ * Waits and queries reuse prebuilt structs so the frame loop doesn't allocate. A thread that finds the wait
+ * struct taken by another waiter, e.g. an upload worker waiting for staging space, builds its own on the stack.
+ */
+public class TimelineSemaphore {
+
+	private Logger logger = LogManager.getLogger();
+
+	private LongBuffer semaphore = BufferUtils.createLongBuffer(1);
+
+	private volatile long lastSignaledValue = 0;
+	
+	private ReentrantLock waitLock = new ReentrantLock();
+	private VkSemaphoreWaitInfo waitInfo = VkSemaphoreWaitInfo.calloc();
+	private LongBuffer waitValue = BufferUtils.createLongBuffer(1);
+	private LongBuffer completedValue = BufferUtils.createLongBuffer(1);
+
+	public void create(VkDevice logicalDevice) {
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkSemaphoreTypeCreateInfo typeInfo = VkSemaphoreTypeCreateInfo.calloc(stack);
+			typeInfo.sType(VK12.VK_STRUCTURE_TYPE_SEMAPHORE_TYPE_CREATE_INFO);
+			typeInfo.semaphoreType(VK12.VK_SEMAPHORE_TYPE_TIMELINE);
+			typeInfo.initialValue(0);
+
+			VkSemaphoreCreateInfo semaphoreInfo = VkSemaphoreCreateInfo.calloc(stack);
+			semaphoreInfo.sType(VK10.VK_STRUCTURE_TYPE_SEMAPHORE_CREATE_INFO);
+			semaphoreInfo.pNext(typeInfo);
+
+			if (VK10.vkCreateSemaphore(logicalDevice, semaphoreInfo, null, semaphore) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create timeline semaphore");
+			}
+		}
+		
+		waitInfo.sType(VK12.VK_STRUCTURE_TYPE_SEMAPHORE_WAIT_INFO);
+		waitInfo.semaphoreCount(1);
+		waitInfo.pSemaphores(semaphore);
+		waitInfo.pValues(waitValue);
+	}
+
+	/**
+	 * Reserves the value the next submission signals.
+	 */
+	public long nextValue() {
+		return ++lastSignaledValue;
+	}
+
+	/**
+	 * Blocks until the GPU has reached value. Returns immediately for values that already completed.
+	 */
+	public void waitFor(VkDevice logicalDevice, long value) {
+		if (value <= 0) {
+			return;
+		}
+		
+		if (waitLock.tryLock()) {
+			try {
+				waitValue.put(0, value);
+				waitOn(logicalDevice, waitInfo, value);
+			} finally {
+				waitLock.unlock();
+			}
+			return;
+		}
+		
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkSemaphoreWaitInfo stackWaitInfo = VkSemaphoreWaitInfo.calloc(stack);
+			stackWaitInfo.sType(VK12.VK_STRUCTURE_TYPE_SEMAPHORE_WAIT_INFO);
+			stackWaitInfo.semaphoreCount(1);
+			stackWaitInfo.pSemaphores(semaphore);
+			stackWaitInfo.pValues(stack.longs(value));
+			waitOn(logicalDevice, stackWaitInfo, value);
+		}
+	}
+	
+	private void waitOn(VkDevice logicalDevice, VkSemaphoreWaitInfo info, long value) {
+		if (VK12.vkWaitSemaphores(logicalDevice, info, Long.MAX_VALUE) != VK10.VK_SUCCESS) {
+			throw new RuntimeException("Failed to wait for timeline value " + value);
+		}
+	}
+
+	public long getCompletedValue(VkDevice logicalDevice) {
+		synchronized (completedValue) {
+			if (VK12.vkGetSemaphoreCounterValue(logicalDevice, semaphore.get(0), completedValue) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to read timeline semaphore value");
+			}
+			
+			return completedValue.get(0);
+		}
+	}
+
+	public long getLastSignaledValue() {
+		return lastSignaledValue;
+	}
+
+	public long getSemaphore() {
+		return semaphore.get(0);
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroySemaphore(logicalDevice, semaphore.get(0), null);
+		waitInfo.free();
+		logger.info("Destroyed timeline semaphore");
+	}
+}
@@ -0,0 +1,306 @@
+package dev.djlanav.vulkan;
+
+/**
+ * Two-level segregated fit allocator over a range of offsets, allocation and free are O(1). Free regions are
+ * binned by the power of two of their size and a linear subdivision of it, and a bitmap per level finds the
+ * first non-empty bin that is large enough without scanning. Knows nothing about Vulkan or the unit of its
+ * offsets: {@link MemoryBlock} maps bytes of a VkDeviceMemory, other users may count vertices or indices.
+ */
+public class TlsfHeap {
+
+	private static final int ALIGN_LOG2 = 4;
+	public static final long MIN_ALIGNMENT = 1L << ALIGN_LOG2;
+	
+	// 32 bins per power of two, sizes below SMALL_SIZE are binned linearly in steps of MIN_ALIGNMENT
+	private static final int SL_LOG2 = 5;
+	private static final int SL_COUNT = 1 << SL_LOG2;
+	private static final int FL_SHIFT = SL_LOG2 + ALIGN_LOG2;
+	private static final long SMALL_SIZE = 1L << FL_SHIFT;
+	private static final int FL_COUNT = 48;
+	
+	private final long size;
+	
+	private long flBitmap = 0;
+	private final int[] slBitmaps = new int[FL_COUNT];
+	private final Region[][] freeLists = new Region[FL_COUNT][SL_COUNT];
+	private Region firstRegion;
+	
+	private long freeBytes;
+	private int allocationCount = 0;
+	
+	public TlsfHeap(long size) {
+		this.size = size;
+		this.freeBytes = size;
+		
+		firstRegion = new Region(0, size);
+		insertFree(firstRegion);
+	}
+	
+	/**
+	 * Returns the allocated region, or null if no free region can hold size bytes at the given power of two alignment.
+	 */
+	public Region allocate(long size, long alignment) {
+		size = alignUp(Math.max(size, MIN_ALIGNMENT), MIN_ALIGNMENT);
+		alignment = Math.max(alignment, MIN_ALIGNMENT);
+		
+		// Every region starts on MIN_ALIGNMENT, so this is the most padding alignment can add
+		Region region = findFree(size + alignment - MIN_ALIGNMENT);
+		if (region == null) {
+			return null;
+		}
+		removeFree(region);
+		
+		long padding = alignUp(region.offset, alignment) - region.offset;
+		if (padding > 0) {
+			Region front = new Region(region.offset, padding);
+			linkBefore(front, region);
+			region.offset += padding;
+			region.size -= padding;
+			insertFree(front);
+		}
+		
+		if (region.size - size >= MIN_ALIGNMENT) {
+			Region tail = new Region(region.offset + size, region.size - size);
+			linkAfter(tail, region);
+			region.size = size;
+			insertFree(tail);
+		}
+		
+		region.free = false;
+		freeBytes -= region.size;
+		allocationCount++;
+		return region;
+	}
+	
+	public void free(Region region) {
+		if (region.free) {
+			throw new IllegalStateException("Region at offset " + region.offset + " was already freed");
+		}
+		
+		region.free = true;
+		freeBytes += region.size;
+		allocationCount--;
+		
+		Region previous = region.previousPhysical;
+		if (previous != null && previous.free) {
+			removeFree(previous);
+			previous.size += region.size;
+			unlink(region);
+			region = previous;
+		}
+		
+		Region next = region.nextPhysical;
+		if (next != null && next.free) {
+			removeFree(next);
+			region.size += next.size;
+			unlink(next);
+		}
+		
+		insertFree(region);
+	}
+	
+	private Region findFree(long size) {
+		Region region = findFreeBin(roundUpToBin(size));
+		if (region != null) {
+			return region;
+		}
+		
+		// Every larger bin is empty, but the head of size's own bin may still be large enough, e.g. in a fresh heap
+		int fl = firstLevel(size);
+		if (fl >= FL_COUNT) {
+			return null;
+		}
+		region = freeLists[fl][secondLevel(size)];
+		return region != null && region.size >= size ? region : null;
+	}
+	
+	/**
+	 * Rounds up to the start of the next bin, so any region in the bin of the result is at least size large.
+	 */
+	private static long roundUpToBin(long size) {
+		if (size < SMALL_SIZE) {
+			return size;
+		}
+		return size + (1L << (63 - Long.numberOfLeadingZeros(size) - SL_LOG2)) - 1;
+	}
+	
+	private Region findFreeBin(long size) {
+		int fl = firstLevel(size);
+		int sl = secondLevel(size);
+		if (fl >= FL_COUNT) {
+			return null;
+		}
+		
+		int slMap = slBitmaps[fl] & (-1 << sl);
+		if (slMap == 0) {
+			long flMap = flBitmap & (-1L << (fl + 1));
+			if (flMap == 0) {
+				return null;
+			}
+			
+			fl = Long.numberOfTrailingZeros(flMap);
+			slMap = slBitmaps[fl];
+		}
+		
+		return freeLists[fl][Integer.numberOfTrailingZeros(slMap)];
+	}
+	
+	private void insertFree(Region region) {
+		int fl = firstLevel(region.size);
+		int sl = secondLevel(region.size);
+		
+		Region head = freeLists[fl][sl];
+		region.previousFree = null;
+		region.nextFree = head;
+		if (head != null) {
+			head.previousFree = region;
+		}
+		freeLists[fl][sl] = region;
+		
+		flBitmap |= 1L << fl;
+		slBitmaps[fl] |= 1 << sl;
+	}
+	
+	private void removeFree(Region region) {
+		int fl = firstLevel(region.size);
+		int sl = secondLevel(region.size);
+		
+		if (region.previousFree != null) {
+			region.previousFree.nextFree = region.nextFree;
+		} else {
+			freeLists[fl][sl] = region.nextFree;
+		}
+		if (region.nextFree != null) {
+			region.nextFree.previousFree = region.previousFree;
+		}
+		region.previousFree = null;
+		region.nextFree = null;
+		
+		if (freeLists[fl][sl] == null) {
+			slBitmaps[fl] &= ~(1 << sl);
+			if (slBitmaps[fl] == 0) {
+				flBitmap &= ~(1L << fl);
+			}
+		}
+	}
+	
+	private void linkBefore(Region region, Region next) {
+		region.previousPhysical = next.previousPhysical;
+		region.nextPhysical = next;
+		if (next.previousPhysical != null) {
+			next.previousPhysical.nextPhysical = region;
+		} else {
+			firstRegion = region;
+		}
+		next.previousPhysical = region;
+	}
+	
+	private void linkAfter(Region region, Region previous) {
+		region.previousPhysical = previous;
+		region.nextPhysical = previous.nextPhysical;
+		if (previous.nextPhysical != null) {
+			previous.nextPhysical.previousPhysical = region;
+		}
+		previous.nextPhysical = region;
+	}
+	
+	private void unlink(Region region) {
+		if (region.previousPhysical != null) {
+			region.previousPhysical.nextPhysical = region.nextPhysical;
+		} else {
+			firstRegion = region.nextPhysical;
+		}
+		if (region.nextPhysical != null) {
+			region.nextPhysical.previousPhysical = region.previousPhysical;
+		}
+	}
+	
+	private static int firstLevel(long size) {
+		if (size < SMALL_SIZE) {
+			return 0;
+		}
+		return 63 - Long.numberOfLeadingZeros(size) - FL_SHIFT + 1;
+	}
+	
+	private static int secondLevel(long size) {
+		if (size < SMALL_SIZE) {
+			return (int) (size >>> ALIGN_LOG2);
+		}
+		int msb = 63 - Long.numberOfLeadingZeros(size);
+		return (int) (size >>> (msb - SL_LOG2)) ^ SL_COUNT;
+	}
+	
+	public static long alignUp(long value, long alignment) {
+		return (value + alignment - 1) & -alignment;
+	}
+	
+	/**
+	 * Walks every region, so only meant for statistics and defragmentation.
+	 */
+	public long getLargestFreeRegion() {
+		long largest = 0;
+		for (Region region = firstRegion; region != null; region = region.nextPhysical) {
+			if (region.free) {
+				largest = Math.max(largest, region.size);
+			}
+		}
+		return largest;
+	}
+	
+	Region getFirstRegion() {
+		return firstRegion;
+	}
+	
+	public long getSize() {
+		return size;
+	}
+	
+	public long getFreeBytes() {
+		return freeBytes;
+	}
+	
+	public long getUsedBytes() {
+		return size - freeBytes;
+	}
+	
+	public int getAllocationCount() {
+		return allocationCount;
+	}
+	
+	public boolean isEmpty() {
+		return allocationCount == 0;
+	}
+	
+	public static class Region {
+		
+		private long offset;
+		private long size;
+		private boolean free = true;
+		
+		private Region previousPhysical;
+		private Region nextPhysical;
+		private Region previousFree;
+		private Region nextFree;
+		
+		private Region(long offset, long size) {
+			this.offset = offset;
+			this.size = size;
+		}
+		
+		public long getOffset() {
+			return offset;
+		}
+		
+		public long getSize() {
+			return size;
+		}
+		
+		boolean isFree() {
+			return free;
+		}
+		
+		Region getNextPhysical() {
+			return nextPhysical;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package dev.djlanav.vulkan;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.lwjgl.BufferUtils;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.vulkan.*;
+
+/**
+ * Per-frame uniform data in one persistently mapped buffer, split into a slice per swapchain image. Every frame
+ * bump allocates its constants from the slice of the image it renders to, starting over once that image's
+ * previous submission has completed, and shaders read them through a dynamic uniform buffer at the offset
+ * {@link #allocate(int)} returned.
+ * <p>
+ * Command buffers are cached per image too, so recorded dynamic offsets keep pointing into the right slice. They
+ * stay valid as long as every frame makes the same allocations in the same order, e.g. one block per object in
+ * scene order, which lets objects move without re-recording anything.
+ */
+public class UniformRing {
+
+	public static final int BINDING = 0;
+
+	private Logger logger = LogManager.getLogger();
+
+	private MemoryAllocator memoryAllocator;
+	private DescriptorSetCache descriptorSetCache;
+
+	private LongBuffer buffer = BufferUtils.createLongBuffer(1);
+	private Allocation allocation;
+	private long setLayout;
+	private long[] descriptorSets = new long[0];
+
+	private int alignment;
+	private int sliceSize;
+	private int sliceCount;
+	private int maxRange;
+
+	private int currentSlice = 0;
+	private int head = 0;
+	private int highWater = 0;
+
+	/**
+	 * @param minAlignment the device's minUniformBufferOffsetAlignment
+	 * @param maxRange largest block a single allocation may hold, which is the range shaders see at each offset
+	 */
+	public void create(VkDevice logicalDevice, MemoryAllocator memoryAllocator, DescriptorLayoutCache layoutCache, DescriptorSetCache descriptorSetCache,
+			int minAlignment, int sliceSize, int sliceCount, int maxRange) {
+		this.memoryAllocator = memoryAllocator;
+		this.descriptorSetCache = descriptorSetCache;
+		this.alignment = minAlignment;
+		this.sliceSize = (int) TlsfHeap.alignUp(sliceSize, minAlignment);
+		this.maxRange = maxRange;
+
+		setLayout = layoutCache.getSetLayout(logicalDevice, new DescriptorBinding(BINDING, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC, 1,
+				VK10.VK_SHADER_STAGE_VERTEX_BIT | VK10.VK_SHADER_STAGE_FRAGMENT_BIT));
+		createBuffer(logicalDevice, sliceCount);
+
+		logger.info("Created uniform ring with " + sliceCount + " slices of " + (this.sliceSize >> 10) + " KiB");
+	}
+
+	private void createBuffer(VkDevice logicalDevice, int sliceCount) {
+		this.sliceCount = sliceCount;
+
+		try (MemoryStack stack = MemoryStack.stackPush()) {
+			VkBufferCreateInfo bufferInfo = VkBufferCreateInfo.calloc(stack);
+			bufferInfo.sType(VK10.VK_STRUCTURE_TYPE_BUFFER_CREATE_INFO);
+			bufferInfo.size((long) sliceSize * sliceCount);
+			bufferInfo.usage(VK10.VK_BUFFER_USAGE_UNIFORM_BUFFER_BIT);
+			bufferInfo.sharingMode(VK10.VK_SHARING_MODE_EXCLUSIVE);
+
+			if (VK10.vkCreateBuffer(logicalDevice, bufferInfo, null, buffer) != VK10.VK_SUCCESS) {
+				throw new RuntimeException("Failed to create uniform buffer");
+			}
+		}
+		allocation = memoryAllocator.allocateForBuffer(buffer.get(0), MemoryUsage.CPU_TO_GPU);
+
+		// One set per slice, so the dynamic offsets recorded for an image are relative to its own slice
+		descriptorSets = new long[sliceCount];
+		for (int i = 0; i < sliceCount; i++) {
+			DescriptorSetKey key = new DescriptorSetKey(setLayout).bindBuffer(BINDING, VK10.VK_DESCRIPTOR_TYPE_UNIFORM_BUFFER_DYNAMIC,
+					buffer.get(0), (long) i * sliceSize, maxRange);
+			descriptorSets[i] = descriptorSetCache.get(logicalDevice, key);
+		}
+	}
+
+	/**
+	 * Starts allocating from the slice of this image. Everything allocated there last time must have been read,
+	 * so call this once the image's previous submission has completed.
+	 */
+	public void beginSlice(int sliceIndex) {
+		currentSlice = sliceIndex;
+		head = 0;
+	}
+
+	/**
+	 * Reserves size bytes in the current slice and returns their offset, which is both the dynamic offset to
+	 * bind with and the argument to {@link #getAddress(int)}.
+	 */
+	public int allocate(int size) {
+		if (size > maxRange) {
+			throw new IllegalArgumentException("Uniform block of " + size + " bytes exceeds the range of " + maxRange);
+		}
+		// The whole range is visible at every offset, so it has to fit before the end of the slice
+		int offset = head;
+		if (offset + maxRange > sliceSize) {
+			throw new RuntimeException("Failed to allocate uniform data, the " + sliceSize + " byte slice is full");
+		}
+
+		head = (int) TlsfHeap.alignUp(offset + size, alignment);
+		highWater = Math.max(highWater, head);
+		return offset;
+	}
+
+	/**
+	 * Mapped address of an offset in the current slice.
+	 */
+	public long getAddress(int offset) {
+		return allocation.getMappedAddress() + (long) currentSlice * sliceSize + offset;
+	}
+
+	public ByteBuffer getData(int offset, int size) {
+		return MemoryUtil.memByteBuffer(getAddress(offset), size);
+	}
+
+	/**
+	 * Makes this frame's writes visible to the GPU when the memory is not host-coherent.
+	 */
+	public void flush() {
+		memoryAllocator.flush(allocation);
+	}
+
+	/**
+	 * Recreates the buffer for a different image count. The old one may still be read by pending frames, so it
+	 * is destroyed through the destroy queue.
+	 */
+	public void resize(VkDevice logicalDevice, int sliceCount, DeferredDestroyQueue destroyQueue, long retireValue) {
+		if (sliceCount == this.sliceCount) {
+			return;
+		}
+
+		long oldBuffer = buffer.get(0);
+		Allocation oldAllocation = allocation;
+		descriptorSetCache.evict(oldBuffer);
+		destroyQueue.retire(retireValue, () -> {
+			VK10.vkDestroyBuffer(logicalDevice, oldBuffer, null);
+			memoryAllocator.free(oldAllocation);
+		});
+
+		buffer = BufferUtils.createLongBuffer(1);
+		createBuffer(logicalDevice, sliceCount);
+	}
+
+	/**
+	 * Logs the most any frame allocated from its slice since the last report.
+	 */
+	public void report() {
+		if (highWater > 0) {
+			logger.info(String.format("Uniform ring: %.1f of %d KiB per slice used at most", highWater / 1024.0, sliceSize >> 10));
+		}
+		highWater = 0;
+	}
+
+	public long getSetLayout() {
+		return setLayout;
+	}
+
+	public long getDescriptorSet(int sliceIndex) {
+		return descriptorSets[sliceIndex];
+	}
+
+	public long getBuffer() {
+		return buffer.get(0);
+	}
+
+	public int getMaxRange() {
+		return maxRange;
+	}
+
+	public void cleanUp(VkDevice logicalDevice) {
+		VK10.vkDestroyBuffer(logicalDevice, buffer.get(0), null);
+		memoryAllocator.free(allocation);
+		logger.info("Destroyed uniform ring");
+	}
+}
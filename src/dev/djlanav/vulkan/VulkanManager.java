@@ -25,6 +25,7 @@ public class VulkanManager {
 	private Logger logger = LogManager.getLogger();
 	
 	private String[] validationLayers = { "VK_LAYER_KHRONOS_validation" };
+	private boolean headless = false;
 
 	public void createVulkanInstance(String engineName) {
 		try (MemoryStack stack = MemoryStack.stackPush()) {
@@ -129,6 +130,11 @@ public class VulkanManager {
 	}
 
 	private PointerBuffer getExtensions() {
+		// Offscreen rendering needs no surface extensions, and GLFW is never initialized
+		if (headless) {
+			return null;
+		}
+		
 		PointerBuffer buffer = GLFWVulkan.glfwGetRequiredInstanceExtensions();
 		if (buffer == null) {
 			throw new RuntimeException("Failed to get required instance extensions from GLFW");
@@ -147,13 +153,19 @@ public class VulkanManager {
 	}
 
 	public void cleanUp() {
-		KHRSurface.vkDestroySurfaceKHR(vkInstance, vkSurface, null);
-		logger.info("Destroyed surface");
+		if (!headless) {
+			KHRSurface.vkDestroySurfaceKHR(vkInstance, vkSurface, null);
+			logger.info("Destroyed surface");
+		}
 		
 		VK10.vkDestroyInstance(vkInstance, null);
 		logger.info("Destroyed Vulkan instance");
 	}
 
+	public void setHeadless(boolean headless) {
+		this.headless = headless;
+	}
+
 	public VkInstance getVkInstance() {
 		return vkInstance;
 	}
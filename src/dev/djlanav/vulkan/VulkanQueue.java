@@ -2,26 +2,57 @@ package dev.djlanav.vulkan;
 
 import java.util.EnumSet;
 
+import org.lwjgl.vulkan.KHRSwapchain;
+import org.lwjgl.vulkan.VK10;
+import org.lwjgl.vulkan.VK13;
 import org.lwjgl.vulkan.VkDevice;
+import org.lwjgl.vulkan.VkPresentInfoKHR;
 import org.lwjgl.vulkan.VkQueue;
+import org.lwjgl.vulkan.VkSubmitInfo2;
 
+/**
+ * One device queue, possibly shared by several queue types. Vulkan requires access to a queue to be externally
+ * synchronized, so submissions and presents go through this object's lock: uploads may be flushed from worker
+ * threads while the render thread submits frames.
+ */
 public class VulkanQueue {
 
 	private VkQueue queue;
 	private EnumSet<QueueType> queueCapabilities;
 	private int queueIndex;
 	private int parentFamilyIndex;
+	private float priority;
 	
-	public VulkanQueue(EnumSet<QueueType> queueCapabilities, int queueIndex, int parentFamilyIndex) {
+	/**
+	 * @param queueIndex index of the queue within its family, not the family index
+	 * @param priority priority relative to the other queues of the device, between 0 and 1
+	 */
+	public VulkanQueue(EnumSet<QueueType> queueCapabilities, int queueIndex, int parentFamilyIndex, float priority) {
 		this.queueCapabilities = queueCapabilities;
 		this.queueIndex = queueIndex;
 		this.parentFamilyIndex = parentFamilyIndex;
+		this.priority = priority;
 	}
 	
 	public void initQueue(VkDevice logicalDevice, long handle) {
 		queue = new VkQueue(handle, logicalDevice);
 	}
 	
+	public synchronized int submit(VkSubmitInfo2.Buffer submits, long fence) {
+		return VK13.vkQueueSubmit2(queue, submits, fence);
+	}
+	
+	public synchronized int present(VkPresentInfoKHR presentInfo) {
+		return KHRSwapchain.vkQueuePresentKHR(queue, presentInfo);
+	}
+	
+	public synchronized int waitIdle() {
+		return VK10.vkQueueWaitIdle(queue);
+	}
+	
+	/**
+	 * The raw queue. Only use it for calls that don't submit, everything else goes through {@link #submit}, {@link #present} and {@link #waitIdle}.
+	 */
 	public VkQueue getQueue() {
 		return queue;
 	}
@@ -34,6 +65,10 @@ public class VulkanQueue {
 		return parentFamilyIndex;
 	}
 	
+	public float getPriority() {
+		return priority;
+	}
+	
 	public EnumSet<QueueType> getQueueCapabilities() {
 		return queueCapabilities;
 	}